@@ -0,0 +1,394 @@
+package com.saferoom.file_transfer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BBR-style model-based congestion control ("bbr")
+ *
+ * Instead of backing off on every NACK, the sender paces at a model of the
+ * path: BtlBw is a windowed max of delivery-rate samples, MinRTT a windowed
+ * min of RTT samples, and pacing rate = gain x BtlBw. Random loss therefore
+ * does not collapse the rate, which is what matters on lossy WAN links.
+ *
+ * Adapted to the NACK protocol:
+ * - Delivery comes from cumulative ACK progress; each sample is capped by the
+ *   send rate over the same interval (a hole filled late cannot fake a burst)
+ * - A round is one MinRTT of wall time, but at least MIN_ROUND_NS: feedback
+ *   only arrives once per NACK interval, and a cumulative ACK that jumps over
+ *   a filled hole must be averaged out before it enters the max filter
+ * - The window is reported (CWND_GAIN x BDP) but pacing is the control;
+ *   NACK'd sequences must always be able to go out
+ * - Loss is a hole below the highest received bit of the NACK mask that is
+ *   still there one NACK frame later. A round is overloaded when such holes
+ *   exceed LOSS_THRESHOLD and delivery also falls behind sending; striped
+ *   lanes drift apart and leave holes too, but the cumulative ACK keeps up.
+ *   Overload ends STARTUP, and in PROBE_BW lowers BtlBw towards the rate
+ *   delivered that round - by at most LOSS_BW_FACTOR once per gain cycle,
+ *   and never below a quarter of the highest BtlBw seen. Random loss on a
+ *   full pipe delivers at BtlBw and so costs nothing (BBRv2-style)
+ * - App-limited rounds (the sender used less than APP_LIMITED of the pacing
+ *   rate: disk, lane hand-off, retransmission waits) only count when they
+ *   raise BtlBw - a slow sender says nothing about the path
+ * - BtlBw never drops below MIN_BTL_BW, so the sender cannot stall itself
+ *
+ * Modes: STARTUP -> DRAIN -> PROBE_BW (gain cycle), PROBE_RTT every 10 s
+ * when MinRTT was not refreshed.
+ */
+public class BbrCongestionController implements CongestionController {
+
+    public static final String NAME = "bbr";
+
+    private static final double HIGH_GAIN = 2.885; // 2/ln(2)
+    private static final double DRAIN_GAIN = 1.0 / HIGH_GAIN;
+    private static final double PROBE_RTT_GAIN = 0.5;
+    private static final double CWND_GAIN = 2.0;
+    private static final double[] PROBE_BW_GAINS = {1.25, 0.75, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0};
+
+    private static final int BW_FILTER_ROUNDS = 10;
+    private static final int FULL_BW_ROUNDS = 3;
+    private static final double FULL_BW_GROWTH = 1.25;
+    private static final long MIN_RTT_WINDOW_NS = 10_000_000_000L;  // 10 s
+    private static final long PROBE_RTT_NS = 200_000_000L;          // 200 ms
+    private static final long MIN_ROUND_NS = 50_000_000L;           // ~2 NACK intervals
+    private static final long MIN_PACING_INTERVAL_NS = 1_000L;
+    private static final int MIN_CWND_PACKETS = 4;
+    private static final long MIN_BTL_BW = 1_000_000L / 8;        // 1 Mbps
+    private static final double LOSS_THRESHOLD = 0.05;
+    private static final double LOSS_BW_FACTOR = 0.85;
+    private static final int LOSS_BW_FLOOR_DIVISOR = 4;
+    private static final double APP_LIMITED = 0.8;
+
+    private enum Mode {
+        STARTUP,
+        DRAIN,
+        PROBE_BW,
+        PROBE_RTT
+    }
+
+    // Model (guarded by this; hot-path readers use the volatile outputs)
+    private final long[] bwSamples = new long[BW_FILTER_ROUNDS];
+    private int bwSampleIndex = 0;
+    private long btlBw;                  // bytes/s
+    private long maxBtlBw;               // highest BtlBw this transfer
+    private long minRtt;                 // ns
+    private long minRttStamp;
+    private long fullBw = 0;
+    private int fullBwCount = 0;
+    private boolean filledPipe = false;
+    private int cycleIndex = 0;
+    private long probeRttDone = 0;
+
+    // Round accounting
+    private long roundStart;
+    private long roundDelivered;
+    private long roundSent;
+    private long roundHoles;
+    private long roundAcked;
+    private int prevMaskBase = -1;
+    private long prevHoles;
+    private long rounds = 0;
+    private long lastLossCut = Long.MIN_VALUE / 2;
+    private volatile double lossRate; // Hole ratio per round, smoothed over rounds
+
+    // Outputs read without locking
+    private volatile Mode mode = Mode.STARTUP;
+    private volatile double pacingGain = HIGH_GAIN;
+    private volatile long pacingRate;
+    private volatile long packetIntervalNs;
+    private volatile long congestionWindow;
+    private volatile long smoothedRtt;
+    private volatile int packetSize = HandShake_Packet.DEFAULT_SLICE;
+
+    // Counters
+    private final AtomicLong sentBytes = new AtomicLong(0);
+    private final AtomicLong deliveredBytes = new AtomicLong(0);
+    private final AtomicLong totalPacketsSent = new AtomicLong(0);
+    private final AtomicLong lossRounds = new AtomicLong(0);
+    private final long startTime = System.nanoTime();
+
+    private final PacingClock pacingClock = new PacingClock();
+
+    public BbrCongestionController() {
+        long now = System.nanoTime();
+        this.roundStart = now;
+        this.minRttStamp = now;
+        initModel(NetworkProfile.WAN);
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    /**
+     * Starting model for the path; STARTUP finds the real bandwidth within a few rounds
+     */
+    @Override
+    public synchronized void applyProfile(NetworkProfile profile) {
+        initModel(profile);
+        System.out.printf("[BBR] %s profile: BtlBw %.1f Mbps, MinRTT %.1f ms%n",
+            profile, btlBw * 8 / 1_000_000.0, minRtt / 1_000_000.0);
+    }
+
+    private void initModel(NetworkProfile profile) {
+        if (profile == NetworkProfile.LAN) {
+            btlBw = 100_000_000L / 8;   // 100 Mbps
+            minRtt = 2_000_000L;        // 2 ms
+        } else {
+            btlBw = 10_000_000L / 8;    // 10 Mbps
+            minRtt = 100_000_000L;      // 100 ms
+        }
+        smoothedRtt = minRtt;
+        minRttStamp = System.nanoTime();
+        Arrays.fill(bwSamples, 0L);
+        maxBtlBw = 0;
+        updateControls();
+    }
+
+    @Override
+    public void rateLimitSend() {
+        pacingClock.await(packetIntervalNs);
+    }
+
+    @Override
+    public void onPacketSent(int packetBytes) {
+        sentBytes.addAndGet(packetBytes);
+        totalPacketsSent.incrementAndGet();
+    }
+
+    @Override
+    public synchronized void onNackFrameReceived(int receivedPacketCount, int lostPacketCount) {
+        maybeEndRound(System.nanoTime());
+    }
+
+    @Override
+    public synchronized void onNackMask(int cumAck, long mask) {
+        if (mask == 0) {
+            return; // nothing beyond cumAck yet - cannot tell loss from in flight
+        }
+        int highest = 63 - Long.numberOfLeadingZeros(mask);
+        long holes = highest == 0 ? 0L : ~mask & ((1L << highest) - 1);
+
+        // Only holes already reported by the previous frame count as lost
+        int shift = cumAck - prevMaskBase;
+        if (prevMaskBase >= 0 && shift >= 0 && shift < 64) {
+            roundHoles += Long.bitCount(holes & (prevHoles >>> shift));
+        }
+        roundAcked += Long.bitCount(mask);
+        prevMaskBase = cumAck;
+        prevHoles = holes;
+    }
+
+    @Override
+    public void onPacketLoss(int lostPacketCount, int lostBytes) {
+        // Model-based: loss does not change BtlBw/MinRTT
+    }
+
+    @Override
+    public synchronized void onCumulativeAckAdvanced(int ackedPackets) {
+        deliveredBytes.addAndGet((long) ackedPackets * packetSize);
+        maybeEndRound(System.nanoTime());
+    }
+
+    @Override
+    public synchronized void updateRtt(long rttNs) {
+        if (rttNs <= 0) return;
+        long now = System.nanoTime();
+
+        smoothedRtt = (7 * smoothedRtt + rttNs) / 8;
+        if (rttNs <= minRtt || now - minRttStamp > MIN_RTT_WINDOW_NS) {
+            minRtt = rttNs;
+            minRttStamp = now;
+        }
+        maybeEndRound(now);
+    }
+
+    /**
+     * Close the round once one MinRTT has passed: take a delivery-rate sample
+     * and advance the state machine
+     */
+    private void maybeEndRound(long now) {
+        long elapsed = now - roundStart;
+        if (elapsed < Math.max(minRtt, MIN_ROUND_NS)) {
+            return;
+        }
+
+        long delivered = deliveredBytes.get() - roundDelivered;
+        long sent = sentBytes.get() - roundSent;
+        long sample = delivered <= 0 ? 0 : Math.min(delivered * 1_000_000_000L / elapsed,
+                                                    sent * 1_000_000_000L / elapsed);
+
+        // Overload: holes persist and the cumulative ACK falls behind what went out
+        long reported = roundHoles + roundAcked;
+        if (reported > 0) {
+            lossRate += ((double) roundHoles / reported - lossRate) / 4;
+        }
+        boolean lossy = reported > 0 && (double) roundHoles / reported > LOSS_THRESHOLD
+            && delivered < sent * (1.0 - 2 * LOSS_THRESHOLD);
+
+        // Overloaded rounds are not max-filter samples: the next cumulative ACK jumps over refilled holes
+        boolean appLimited = sent * 1_000_000_000L / elapsed < pacingRate * APP_LIMITED;
+        boolean sampled = sample > 0 && !lossy && (!appLimited || sample > btlBw);
+        if (sampled) {
+            addBwSample(sample);
+        }
+
+        if (lossy) {
+            lossRounds.incrementAndGet();
+            if (mode == Mode.STARTUP) {
+                filledPipe = true;
+            } else if (mode == Mode.PROBE_BW && rounds - lastLossCut >= PROBE_BW_GAINS.length) {
+                lastLossCut = rounds;
+                long target = Math.max((long) (btlBw * LOSS_BW_FACTOR), Math.min(sample, btlBw));
+                target = Math.max(target, maxBtlBw / LOSS_BW_FLOOR_DIVISOR);
+                double scale = (double) target / btlBw;
+                for (int i = 0; i < bwSamples.length; i++) {
+                    bwSamples[i] = (long) (bwSamples[i] * scale);
+                }
+                btlBw = Math.max(MIN_BTL_BW, target);
+            }
+        }
+
+        rounds++;
+        roundStart = now;
+        roundDelivered = deliveredBytes.get();
+        roundSent = sentBytes.get();
+        roundHoles = 0;
+        roundAcked = 0;
+
+        updateMode(now, sampled);
+        updateControls();
+    }
+
+    private void addBwSample(long sample) {
+        bwSamples[bwSampleIndex] = sample;
+        bwSampleIndex = (bwSampleIndex + 1) % bwSamples.length;
+        long max = 0;
+        for (long s : bwSamples) {
+            max = Math.max(max, s);
+        }
+        btlBw = Math.max(max, MIN_BTL_BW);
+        maxBtlBw = Math.max(maxBtlBw, btlBw);
+    }
+
+    private void updateMode(long now, boolean sampled) {
+        // Pipe full once BtlBw stops growing 25% per round for 3 sampled rounds
+        if (!filledPipe && sampled) {
+            if (btlBw >= fullBw * FULL_BW_GROWTH) {
+                fullBw = btlBw;
+                fullBwCount = 0;
+            } else if (++fullBwCount >= FULL_BW_ROUNDS) {
+                filledPipe = true;
+            }
+        }
+
+        switch (mode) {
+            case STARTUP:
+                if (filledPipe) {
+                    enter(Mode.DRAIN, DRAIN_GAIN);
+                }
+                break;
+            case DRAIN:
+                // One round at 1/high_gain drains the queue STARTUP built
+                cycleIndex = 2 + (int) (rounds % (PROBE_BW_GAINS.length - 2));
+                enter(Mode.PROBE_BW, PROBE_BW_GAINS[cycleIndex]);
+                break;
+            case PROBE_BW:
+                cycleIndex = (cycleIndex + 1) % PROBE_BW_GAINS.length;
+                pacingGain = PROBE_BW_GAINS[cycleIndex];
+                break;
+            case PROBE_RTT:
+                if (now >= probeRttDone) {
+                    minRttStamp = now;
+                    if (filledPipe) {
+                        enter(Mode.PROBE_BW, PROBE_BW_GAINS[cycleIndex]);
+                    } else {
+                        enter(Mode.STARTUP, HIGH_GAIN);
+                    }
+                }
+                return;
+        }
+
+        // MinRTT stale: slow down briefly so queues drain and a fresh sample shows up
+        if (now - minRttStamp > MIN_RTT_WINDOW_NS) {
+            probeRttDone = now + Math.max(PROBE_RTT_NS, minRtt);
+            enter(Mode.PROBE_RTT, PROBE_RTT_GAIN);
+        }
+    }
+
+    private void enter(Mode next, double gain) {
+        if (mode != next) {
+            System.out.printf("[BBR] %s -> %s (BtlBw %.1f Mbps, MinRTT %.2f ms)%n",
+                mode, next, btlBw * 8 / 1_000_000.0, minRtt / 1_000_000.0);
+        }
+        mode = next;
+        pacingGain = gain;
+    }
+
+    private void updateControls() {
+        long rate = (long) (btlBw * pacingGain);
+        pacingRate = Math.max(rate, 1);
+        packetIntervalNs = Math.max(MIN_PACING_INTERVAL_NS, packetSize * 1_000_000_000L / pacingRate);
+
+        long bdp = btlBw * minRtt / 1_000_000_000L;
+        double cwndGain = mode == Mode.STARTUP ? HIGH_GAIN : CWND_GAIN;
+        congestionWindow = Math.max((long) (bdp * cwndGain), (long) MIN_CWND_PACKETS * packetSize);
+    }
+
+    @Override
+    public synchronized void setPacketSize(int newPacketSize) {
+        if (newPacketSize <= 0 || newPacketSize == packetSize) {
+            return;
+        }
+        packetSize = newPacketSize;
+        updateControls();
+    }
+
+    /**
+     * Retransmissions are never held back - pacing spaces them
+     */
+    @Override
+    public boolean canSendPacket() {
+        return true;
+    }
+
+    @Override
+    public long getCongestionWindow() { return congestionWindow; }
+
+    @Override
+    public long getSmoothedRtt() { return smoothedRtt; }
+
+    @Override
+    public long getPacingInterval() { return packetIntervalNs; }
+
+    @Override
+    public double getLossRate() { return lossRate; }
+
+    public long getBottleneckBandwidth() { return btlBw; }
+
+    public long getMinRtt() { return minRtt; }
+
+    @Override
+    public String getStats() {
+        long elapsed = Math.max(1, System.nanoTime() - startTime);
+        double throughputMbps = (sentBytes.get() * 8.0 * 1_000_000_000L) / (elapsed * 1_000_000.0);
+        double goodputMbps = (deliveredBytes.get() * 8.0 * 1_000_000_000L) / (elapsed * 1_000_000.0);
+
+        return String.format(
+            "CC: %s, State: %s, BtlBw: %.1f Mbps, MinRTT: %.2fms, Pacing: %.1f Mbps (gain %.2f), " +
+            "CWnd: %d pkts, Lossy rounds: %d/%d, Throughput: %.1f Mbps, Goodput: %.1f Mbps",
+            NAME,
+            mode,
+            btlBw * 8 / 1_000_000.0,
+            minRtt / 1_000_000.0,
+            pacingRate * 8 / 1_000_000.0,
+            pacingGain,
+            congestionWindow / packetSize,
+            lossRounds.get(),
+            rounds,
+            throughputMbps,
+            goodputMbps
+        );
+    }
+}
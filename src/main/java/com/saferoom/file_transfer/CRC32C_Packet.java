@@ -10,8 +10,13 @@ public final class CRC32C_Packet {
     public static final int OFF_PLEN     = 16;
     public static final int OFF_CRC      = 18;
     public static final int HEADER_SIZE  = 22;
+    public static final int PLEN_COMPRESSED = 0x8000; // plen flag: payload is deflated (CompressionMode)
+    public static final int PLEN_PARITY     = 0x4000; // plen flag: XOR parity of a group (ParityEncoder), total = members
 
     private final ByteBuffer header;
+    private final ByteBuffer[] frame = new ByteBuffer[2]; // Reused gathering array {header, payload}
+    private ByteBuffer viewSource; // Buffer payloadView currently points into
+    private ByteBuffer view;
 
     public CRC32C_Packet() {
         this.header = ByteBuffer.allocateDirect(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
@@ -30,10 +35,37 @@ public final class CRC32C_Packet {
         header.position(0);
     }
 
+    /**
+     * Payload view [off, off + len) of source. The view is reused while source
+     * stays the same (one duplicate per mapped window, not per packet); it is
+     * valid until the next call on this packet.
+     */
+    public ByteBuffer payloadView(ByteBuffer source, int off, int len) {
+        if (source != viewSource) {
+            view = source.duplicate();
+            viewSource = source;
+        }
+        view.clear();
+        view.position(off).limit(off + len);
+        return view;
+    }
+
+    /**
+     * Gathering-write array for this header and the given payload (reused, not thread-safe)
+     */
+    public ByteBuffer[] frame(ByteBuffer payload) {
+        frame[0] = header;
+        frame[1] = payload;
+        return frame;
+    }
+
     public void resetForRetry() { header.position(0).limit(HEADER_SIZE); }
 
     public  static long fileId(ByteBuffer h) { return h.getLong(OFF_FILE_ID); }
     public  static int  seqNo (ByteBuffer h) { return h.getInt (OFF_SEQ); }
     public  static int  plen  (ByteBuffer h) { return Short.toUnsignedInt(h.getShort(OFF_PLEN)); }
+    public  static int  wireLen(ByteBuffer h) { return plen(h) & ~(PLEN_COMPRESSED | PLEN_PARITY); }
+    public  static boolean compressed(ByteBuffer h) { return (plen(h) & PLEN_COMPRESSED) != 0; }
+    public  static boolean parity(ByteBuffer h) { return (plen(h) & PLEN_PARITY) != 0; }
     public  static int  crc32 (ByteBuffer h) { return h.getInt(OFF_CRC); }
 }
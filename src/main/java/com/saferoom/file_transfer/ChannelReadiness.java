@@ -0,0 +1,98 @@
+package com.saferoom.file_transfer;
+
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.IllegalSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lets a receive loop sleep until its channel has a datagram instead of
+ * polling read() with short parks
+ *
+ * A non-blocking UDP channel is registered with a private Selector. Channels
+ * that cannot be selected (DataChannelWrapper, VirtualFileChannel) already
+ * wait inside read() on their inbound queue; blocking channels wait in read()
+ * as well. For those await() only parks for the fallback time. Interrupting
+ * the reading thread wakes a waiting select. One reader thread per instance.
+ */
+public final class ChannelReadiness implements AutoCloseable {
+
+    /** Longest wait before a loop re-checks its stop flags */
+    public static final long IDLE_WAIT_MS = 100;
+
+    private final Selector selector; // null = channel not selectable here
+    private final long fallbackNs;
+
+    private ChannelReadiness(Selector selector, long fallbackNs) {
+        this.selector = selector;
+        this.fallbackNs = fallbackNs;
+    }
+
+    /**
+     * @param fallbackNs park when the channel cannot be selected (its read() usually blocks already)
+     */
+    public static ChannelReadiness of(DatagramChannel channel, long fallbackNs) {
+        Selector selector = null;
+        try {
+            if (!channel.isBlocking()) {
+                selector = Selector.open();
+                channel.register(selector, SelectionKey.OP_READ);
+            }
+        } catch (IllegalSelectorException | IllegalBlockingModeException e) {
+            // Queue-backed channel - read() waits on its own
+            closeQuietly(selector);
+            selector = null;
+        } catch (IOException e) {
+            System.err.println("[READINESS] Selector unavailable, polling instead: " + e.getMessage());
+            closeQuietly(selector);
+            selector = null;
+        }
+        return new ChannelReadiness(selector, fallbackNs);
+    }
+
+    /** Whether waits happen in a Selector (false: fallback park) */
+    public boolean isSelecting() {
+        return selector != null;
+    }
+
+    /**
+     * Wait until the channel is readable, timeoutMs passes or the thread is
+     * interrupted. A failing select degrades to the fallback park.
+     */
+    public void await(long timeoutMs) {
+        if (selector != null) {
+            try {
+                if (selector.select(timeoutMs) > 0) {
+                    selector.selectedKeys().clear();
+                }
+                return;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[READINESS] Select failed: " + e.getMessage());
+            }
+        }
+        LockSupport.parkNanos(fallbackNs);
+    }
+
+    /**
+     * Closing the selector deregisters the channel, so it can go back to
+     * blocking mode for the next handshake
+     */
+    @Override
+    public void close() {
+        closeQuietly(selector);
+    }
+
+    private static void closeQuietly(Selector selector) {
+        if (selector == null) {
+            return;
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+            // Nothing left to release
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.saferoom.file_transfer;
+
+import java.util.zip.Adler32;
+import java.util.zip.Checksum;
+
+/**
+ * Per-packet payload integrity check, negotiated in the handshake
+ *
+ * CRC32C is the default and what peers without negotiation use. NONE skips the
+ * check entirely - only meant for transports that already authenticate every
+ * message (DTLS DataChannel), and only requested when configured. ADLER32 is
+ * a cheaper rolling sum over each chunk; weaker than CRC32C on short payloads
+ * but still catches truncation and most corruption. Both CRC32C and Adler32 are JIT intrinsics on direct buffers.
+ */
+public enum ChecksumMode {
+    CRC32C((byte) 0, "crc32c"),
+    NONE((byte) 1, "none"),
+    ADLER32((byte) 2, "adler32");
+
+    public static final String PROPERTY = "saferoom.transfer.checksum";
+
+    /** Value carried in the handshake */
+    public final byte wireId;
+    public final String label;
+
+    ChecksumMode(byte wireId, String label) {
+        this.wireId = wireId;
+        this.label = label;
+    }
+
+    /**
+     * @return mode for wireId, or null if this peer does not know it
+     */
+    public static ChecksumMode fromWireId(byte wireId) {
+        for (ChecksumMode mode : values()) {
+            if (mode.wireId == wireId) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return mode for a label ("crc32c", "none", "adler32"/"rolling"), or null
+     */
+    public static ChecksumMode fromLabel(String label) {
+        if (label == null) {
+            return null;
+        }
+        String name = label.trim().toLowerCase();
+        if (name.equals("rolling")) {
+            return ADLER32;
+        }
+        for (ChecksumMode mode : values()) {
+            if (mode.label.equals(name)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mode a sender asks for: saferoom.transfer.checksum if set, CRC32C
+     * otherwise. Asking for anything else lengthens the SYN past what baseline
+     * receivers accept, so it is opt-in. NONE is only asked for on an
+     * authenticated transport (the receiver would refuse it anyway).
+     */
+    public static ChecksumMode preferred(boolean authenticatedTransport) {
+        String configured = System.getProperty(PROPERTY);
+        if (configured == null) {
+            return CRC32C;
+        }
+        ChecksumMode mode = fromLabel(configured);
+        if (mode == null) {
+            System.err.printf("[CHECKSUM] Unknown %s '%s' - using %s%n", PROPERTY, configured, CRC32C.label);
+            return CRC32C;
+        }
+        return mode == NONE && !authenticatedTransport ? CRC32C : mode;
+    }
+
+    /**
+     * Mode a receiver settles on for a sender's request. NONE is only
+     * accepted when the receiving transport is authenticated as well.
+     */
+    public static ChecksumMode accept(ChecksumMode requested, boolean authenticatedTransport) {
+        if (requested == null || (requested == NONE && !authenticatedTransport)) {
+            return CRC32C;
+        }
+        return requested;
+    }
+
+    /** Fresh checksum state - one per sending/receiving thread */
+    public PacketChecksum newChecksum() {
+        return new PacketChecksum(this, newImpl());
+    }
+
+    private Checksum newImpl() {
+        switch (this) {
+            case CRC32C:
+                return new java.util.zip.CRC32C();
+            case ADLER32:
+                return new Adler32();
+            default:
+                return null;
+        }
+    }
+}
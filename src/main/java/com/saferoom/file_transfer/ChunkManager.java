@@ -5,19 +5,30 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Manages file chunks with LRU caching for large file transfers
+ * Manages file chunks for large file transfers with a sliding mapped window
  * 
  * Responsibilities:
- * - Calculate chunk metadata for entire file
- * - Map/unmap chunks on demand with LRU eviction
- * - Binary search for sequence → chunk mapping
- * - Thread-safe chunk access
+ * - Calculate chunk metadata for entire file (chunks define sequence numbering)
+ * - Map small windows (64 MB by default) just ahead of the send cursor
+ * - Prefetch the next window(s) in the background (sender)
+ * - Unmap windows explicitly once they fall behind the cumulative ACK
+ * - Binary search for sequence → chunk/window mapping
  * 
- * Thread-safety: synchronized on cache access
+ * Resident memory stays at roughly maxWindows x windowBytes regardless of
+ * file size. Chunks are still 1 GB so the wire protocol (totalSeq, short last
+ * slice per chunk) is unchanged; windows only change how the file is mapped.
+ * 
+ * Thread-safety: window lookups are lock-free; mapping and unmapping are
+ * synchronized on this manager. Windows are reference counted (MappedWindow).
  */
 public class ChunkManager {
     
@@ -26,8 +37,20 @@ public class ChunkManager {
     /** Default chunk size (JVM-dependent) */
     private static final long DEFAULT_CHUNK_SIZE;
     
-    /** Maximum chunks to keep in memory (LRU cache size) */
-    private static final int CACHE_SIZE = 8; // 8 chunks x 1 GB = 8 GB max
+    /** Default mapped window size */
+    public static final long DEFAULT_WINDOW_BYTES = 64L << 20;
+    
+    /** Bytes mapped per window (rounded down to whole slices) */
+    private static final long WINDOW_BYTES =
+        Math.max(1L, Long.getLong("saferoom.transfer.mmap.windowBytes", DEFAULT_WINDOW_BYTES));
+    
+    /** Upper bound on simultaneously mapped windows (bounds address space) */
+    private static final int MAX_WINDOWS =
+        Math.max(2, Integer.getInteger("saferoom.transfer.mmap.maxWindows", 8));
+    
+    /** Windows to map and fault in ahead of the sender's cursor (0 = off) */
+    private static final int PREFETCH_WINDOWS =
+        Math.max(0, Integer.getInteger("saferoom.transfer.mmap.prefetch", 1));
     
     /** Detect JVM architecture and set chunk size */
     static {
@@ -42,8 +65,8 @@ public class ChunkManager {
         // Log configuration
         System.out.println("🖥️  JVM Architecture: " + (is64bit ? "64-bit" : "32-bit"));
         System.out.println("📦 Chunk Size: " + (DEFAULT_CHUNK_SIZE >> 20) + " MB");
-        System.out.println("💾 LRU Cache Size: " + CACHE_SIZE + " chunks (" + 
-            (CACHE_SIZE * (DEFAULT_CHUNK_SIZE >> 20)) + " MB max)");
+        System.out.println("💾 Mapped window: " + (WINDOW_BYTES >> 20) + " MB x " + MAX_WINDOWS + 
+            " max (prefetch " + PREFETCH_WINDOWS + ")");
     }
     
     // ========== INSTANCE FIELDS ==========
@@ -54,7 +77,7 @@ public class ChunkManager {
     /** Total file size in bytes */
     private final long fileSize;
     
-    /** Packet payload size (typically 1450) */
+    /** Packet payload size (1450 by default, larger when negotiated in the handshake) */
     private final int sliceSize;
     
     /** Array of chunk metadata (calculated once) */
@@ -66,8 +89,32 @@ public class ChunkManager {
     /** Map mode: READ_ONLY for sender, READ_WRITE for receiver */
     private final FileChannel.MapMode mapMode;
     
-    /** LRU cache of mapped chunks (thread-safe via synchronization) */
-    private final Map<Integer, MappedByteBuffer> chunkCache;
+    /** Sequences per mapped window */
+    private final int windowSeqs;
+    
+    /** First global window index of each chunk (windows never span chunks) */
+    private final int[] firstWindow;
+    
+    /** Total window count */
+    private final int windowCount;
+    
+    /** Currently mapped windows, indexed by global window index (lock-free reads) */
+    private final AtomicReferenceArray<MappedWindow> windows;
+    
+    /** Indices present in windows (guarded by this) */
+    private final BitSet mapped = new BitSet();
+    private int mappedCount;
+    
+    /** Highest window index handed to the prefetcher */
+    private final AtomicInteger prefetchMark = new AtomicInteger(-1);
+    private final ExecutorService prefetcher;
+    
+    private volatile boolean closed;
+    
+    // Stats
+    private final LongAdder mapCount = new LongAdder();
+    private final LongAdder releasedCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
     
     // ========== CONSTRUCTOR ==========
     
@@ -90,21 +137,12 @@ public class ChunkManager {
         // Calculate all chunk metadata upfront
         this.chunks = calculateChunks();
         
-        // Create LRU cache with access-order
-        this.chunkCache = new LinkedHashMap<Integer, MappedByteBuffer>(
-            CACHE_SIZE + 1,  // Initial capacity
-            0.75f,           // Load factor
-            true             // Access-order (LRU)
-        ) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<Integer, MappedByteBuffer> eldest) {
-                boolean shouldRemove = size() > CACHE_SIZE;
-                if (shouldRemove) {
-                    System.out.println("🗑️  LRU evicted chunk " + eldest.getKey());
-                }
-                return shouldRemove;
-            }
-        };
+        // Window layout + lookup table
+        this.windowSeqs = (int) Math.max(1L, Math.min(WINDOW_BYTES, DEFAULT_CHUNK_SIZE) / sliceSize);
+        this.firstWindow = new int[chunks.length];
+        this.windowCount = calculateWindows();
+        this.windows = new AtomicReferenceArray<>(windowCount);
+        this.prefetcher = createPrefetcher();
         
         // Log initialization
         System.out.println("📦 ChunkManager initialized");
@@ -112,7 +150,8 @@ public class ChunkManager {
         System.out.println("   Size: " + String.format("%,d", fileSize) + " bytes (" + 
             String.format("%.2f", fileSize / (1024.0 * 1024.0 * 1024.0)) + " GB)");
         System.out.println("   Total chunks: " + chunks.length);
-        System.out.println("   Cache capacity: " + CACHE_SIZE + " chunks");
+        System.out.println("   Windows: " + windowCount + " x " + 
+            String.format("%.1f", windowSeqs * (double) sliceSize / (1024.0 * 1024.0)) + " MB");
     }
     
     /**
@@ -134,28 +173,20 @@ public class ChunkManager {
         // Calculate all chunk metadata upfront
         this.chunks = calculateChunks();
         
-        // Create LRU cache with access-order
-        this.chunkCache = new LinkedHashMap<Integer, MappedByteBuffer>(
-            CACHE_SIZE + 1,  // Initial capacity
-            0.75f,           // Load factor
-            true             // Access-order (LRU)
-        ) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<Integer, MappedByteBuffer> eldest) {
-                boolean shouldRemove = size() > CACHE_SIZE;
-                if (shouldRemove) {
-                    System.out.println("🗑️  LRU evicted chunk " + eldest.getKey());
-                }
-                return shouldRemove;
-            }
-        };
+        // Window layout + lookup table
+        this.windowSeqs = (int) Math.max(1L, Math.min(WINDOW_BYTES, DEFAULT_CHUNK_SIZE) / sliceSize);
+        this.firstWindow = new int[chunks.length];
+        this.windowCount = calculateWindows();
+        this.windows = new AtomicReferenceArray<>(windowCount);
+        this.prefetcher = createPrefetcher();
         
         // Log initialization
         System.out.println("📦 ChunkManager initialized (using provided FileChannel)");
         System.out.println("   Size: " + String.format("%,d", fileSize) + " bytes (" + 
             String.format("%.2f", fileSize / (1024.0 * 1024.0 * 1024.0)) + " GB)");
         System.out.println("   Total chunks: " + chunks.length);
-        System.out.println("   Cache capacity: " + CACHE_SIZE + " chunks");
+        System.out.println("   Windows: " + windowCount + " x " + 
+            String.format("%.1f", windowSeqs * (double) sliceSize / (1024.0 * 1024.0)) + " MB");
     }
     
     // ========== METHODS ==========
@@ -205,54 +236,188 @@ public class ChunkManager {
     }
     
     /**
-     * Get chunk buffer (from cache or map new)
+     * Split every chunk into windows of windowSeqs slices
      * 
-     * Thread-safe: synchronized to protect LRU cache access.
+     * @return Total window count
+     */
+    private int calculateWindows() {
+        int total = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            firstWindow[i] = total;
+            total += (chunks[i].packetCount + windowSeqs - 1) / windowSeqs;
+        }
+        return total;
+    }
+    
+    /**
+     * Background mapper for the sender; the receiver writes and never prefetches
+     */
+    private ExecutorService createPrefetcher() {
+        if (PREFETCH_WINDOWS == 0 || mapMode != FileChannel.MapMode.READ_ONLY) {
+            return null;
+        }
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "mmap-prefetch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    /**
+     * Get the mapped window containing a sequence (maps it on a miss)
      * 
-     * Cache hit: Returns existing MappedByteBuffer (fast)
-     * Cache miss: Maps new chunk, adds to cache, evicts oldest if needed
+     * Hit path is lock-free. Caller owns one reference and must close()
+     * the window - use try-with-resources.
      * 
-     * @param chunkIndex Zero-based chunk index
-     * @return MappedByteBuffer for this chunk
-     * @throws IOException if mapping fails
-     * @throws IllegalArgumentException if chunkIndex invalid
+     * @param globalSeq Global sequence number
+     * @return Retained window containing globalSeq
+     * @throws IOException if mapping fails or the manager is closed
+     * @throws IllegalArgumentException if sequence not found in any chunk
      */
-    public synchronized MappedByteBuffer getChunk(int chunkIndex) throws IOException {
-        // Validation
-        if (chunkIndex < 0 || chunkIndex >= chunks.length) {
-            throw new IllegalArgumentException("Invalid chunk index: " + chunkIndex + 
-                " (valid range: 0-" + (chunks.length - 1) + ")");
-        }
+    public MappedWindow acquire(int globalSeq) throws IOException {
+        int chunkIdx = findChunkForSequence(globalSeq);
+        int w = firstWindow[chunkIdx] + (globalSeq - chunks[chunkIdx].globalSeqStart) / windowSeqs;
         
-        // Cache hit?
-        if (chunkCache.containsKey(chunkIndex)) {
-            // LinkedHashMap with access-order will mark this as recently used
-            return chunkCache.get(chunkIndex);
+        MappedWindow win = windows.get(w);
+        if (win == null || !win.retain()) {
+            win = mapWindow(w, chunkIdx);
+        }
+        if (prefetcher != null) {
+            schedulePrefetch(w);
+        }
+        return win;
+    }
+    
+    /**
+     * Slow path: map window w (or return the one another thread just mapped)
+     */
+    private synchronized MappedWindow mapWindow(int w, int chunkIdx) throws IOException {
+        if (closed) {
+            throw new IOException("ChunkManager closed");
+        }
+        MappedWindow existing = windows.get(w);
+        if (existing != null && existing.retain()) {
+            return existing;
         }
         
-        // Cache miss - map new chunk
-        ChunkMetadata meta = chunks[chunkIndex];
-        
-        long mapStart = System.nanoTime();
-        MappedByteBuffer buffer = fileChannel.map(
-            mapMode,  // READ_ONLY for sender, READ_WRITE for receiver
-            meta.fileOffset,
-            meta.chunkSize
-        );
-        
-        // Pre-fault pages into memory (force OS to load)
-        buffer.load();
-        
-        long mapTime = (System.nanoTime() - mapStart) / 1_000_000; // Convert to ms
+        // Address space cap: drop the window furthest behind
+        while (mappedCount >= MAX_WINDOWS) {
+            retire(mapped.nextSetBit(0));
+            evictedCount.increment();
+        }
         
-        System.out.println("📦 Mapped chunk " + chunkIndex + " (" + 
-            String.format("%.1f", meta.chunkSize / (1024.0 * 1024.0)) + " MB) in " + 
-            mapTime + " ms");
+        ChunkMetadata meta = chunks[chunkIdx];
+        int local = (w - firstWindow[chunkIdx]) * windowSeqs;
+        int seqStart = meta.globalSeqStart + local;
+        int seqEnd = Math.min(seqStart + windowSeqs - 1, meta.globalSeqEnd);
+        long offset = meta.fileOffset + (long) local * sliceSize;
+        long size = Math.min((long) windowSeqs * sliceSize, meta.fileOffset + meta.chunkSize - offset);
         
-        // Add to cache (LRU will evict oldest if size > CACHE_SIZE)
-        chunkCache.put(chunkIndex, buffer);
+        MappedByteBuffer buffer = fileChannel.map(mapMode, offset, size);
+        MappedWindow win = new MappedWindow(w, seqStart, seqEnd, offset, sliceSize, buffer);
+        win.retain(); // caller's reference
+        windows.set(w, win);
+        mapped.set(w);
+        mappedCount++;
+        mapCount.increment();
+        return win;
+    }
+    
+    /**
+     * Drop the table's reference to window w; unmapped once the last user releases it.
+     * Caller holds this.
+     */
+    private void retire(int w) {
+        MappedWindow win = windows.getAndSet(w, null);
+        mapped.clear(w);
+        if (win != null) {
+            mappedCount--;
+            win.release();
+        }
+    }
+    
+    /**
+     * Hand windows after w to the prefetch thread (each at most once)
+     */
+    private void schedulePrefetch(int w) {
+        int target = Math.min(w + PREFETCH_WINDOWS, windowCount - 1);
+        int mark = prefetchMark.get();
+        if (target <= mark || !prefetchMark.compareAndSet(mark, target)) {
+            return;
+        }
+        final int from = Math.max(mark + 1, w + 1);
+        try {
+            prefetcher.execute(() -> {
+                for (int i = from; i <= target && !closed; i++) {
+                    prefetchWindow(i);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closing
+        }
+    }
+    
+    private void prefetchWindow(int w) {
+        MappedWindow win = windows.get(w);
+        try {
+            if (win == null || !win.retain()) {
+                win = mapWindow(w, chunkOfWindow(w));
+            }
+        } catch (IOException | RuntimeException e) {
+            return; // best effort - the sender maps it on demand
+        }
+        try (MappedWindow held = win) {
+            held.load(); // madvise(WILLNEED) + touch, off the send thread
+        } catch (RuntimeException e) {
+            // best effort
+        }
+    }
+    
+    /**
+     * Chunk that owns window w (binary search over firstWindow)
+     */
+    private int chunkOfWindow(int w) {
+        int left = 0;
+        int right = chunks.length - 1;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            if (firstWindow[mid] <= w) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return left;
+    }
+    
+    /**
+     * Unmap every window that lies entirely below the cumulative ACK
+     * 
+     * Sender calls this from the NACK listener, receiver from the NACK loop.
+     * Windows still in use are unmapped when their last user releases them;
+     * a late retransmission below cumAck simply maps its window again.
+     * 
+     * @param cumAck First sequence the receiver does not have yet
+     */
+    public void releaseBelow(int cumAck) {
+        int total = getTotalSequenceCount();
+        if (cumAck <= 0 || total == 0) {
+            return;
+        }
+        int lastAcked = Math.min(cumAck, total) - 1;
+        int chunkIdx = findChunkForSequence(lastAcked);
+        ChunkMetadata meta = chunks[chunkIdx];
+        int local = lastAcked - meta.globalSeqStart;
+        int w = firstWindow[chunkIdx] + local / windowSeqs;
+        boolean windowDone = (local + 1) % windowSeqs == 0 || lastAcked == meta.globalSeqEnd;
+        int limit = windowDone ? w + 1 : w;
         
-        return buffer;
+        synchronized (this) {
+            for (int i = mapped.nextSetBit(0); i >= 0 && i < limit; i = mapped.nextSetBit(i + 1)) {
+                retire(i);
+                releasedCount.increment();
+            }
+        }
     }
     
     /**
@@ -294,14 +459,74 @@ public class ChunkManager {
     }
     
     /**
-     * Close file channel and release resources
+     * Sequence whose payload contains a byte of the file
+     * 
+     * Merkle blocks (MerkleTree) are cut in bytes, independent of the slice;
+     * this maps their boundaries back onto sequences.
+     * 
+     * @param byteOffset Offset in the file, 0 <= byteOffset < fileSize
+     * @return Global sequence carrying that byte
+     * @throws IllegalArgumentException if the offset lies outside the file
+     */
+    public int sequenceAt(long byteOffset) {
+        int left = 0;
+        int right = chunks.length - 1;
+        while (left <= right) {
+            int mid = left + (right - left) / 2;
+            ChunkMetadata chunk = chunks[mid];
+            if (byteOffset < chunk.fileOffset) {
+                right = mid - 1;
+            } else if (byteOffset >= chunk.fileOffset + chunk.chunkSize) {
+                left = mid + 1;
+            } else {
+                return chunk.globalSeqStart + (int) ((byteOffset - chunk.fileOffset) / sliceSize);
+            }
+        }
+        throw new IllegalArgumentException("Offset " + byteOffset + " outside file (size " + fileSize + ")");
+    }
+    
+    /**
+     * Flush dirty pages of the mapped output to storage
+     * 
+     * Receiver calls this before persisting a resume checkpoint so that
+     * every sequence marked in the bitmap is actually on disk. Windows that
+     * were already unmapped left their dirty pages in the page cache, so the
+     * file itself is synced as well.
+     */
+    public void force() throws IOException {
+        if (mapMode != FileChannel.MapMode.READ_WRITE) {
+            return;
+        }
+        for (int i = 0; i < windowCount; i++) {
+            MappedWindow win = windows.get(i);
+            if (win != null && win.retain()) {
+                try (MappedWindow held = win) {
+                    held.force();
+                }
+            }
+        }
+        if (fileChannel.isOpen()) {
+            fileChannel.force(false);
+        }
+    }
+    
+    /**
+     * Unmap all windows, stop the prefetcher and close the file channel
      * 
      * @throws IOException if close fails
      */
     public void close() throws IOException {
-        chunkCache.clear();
+        synchronized (this) {
+            closed = true;
+            for (int i = mapped.nextSetBit(0); i >= 0; i = mapped.nextSetBit(i + 1)) {
+                retire(i);
+            }
+        }
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+        }
         fileChannel.close();
-        System.out.println("📦 ChunkManager closed");
+        System.out.println("📦 ChunkManager closed (" + getCacheStats() + ")");
     }
     
     /**
@@ -339,12 +564,85 @@ public class ChunkManager {
     }
     
     /**
-     * Get cache statistics for monitoring
+     * Total sequence count a ChunkManager would produce for this file and slice,
+     * without mapping anything (receiver side, once the slice is negotiated)
+     * 
+     * @param fileSize  File size in bytes
+     * @param sliceSize Packet payload size
+     * @return Total packets in file
+     */
+    public static int sequenceCount(long fileSize, int sliceSize) {
+        long total = 0;
+        for (long offset = 0; offset < fileSize; offset += DEFAULT_CHUNK_SIZE) {
+            long chunkSize = Math.min(DEFAULT_CHUNK_SIZE, fileSize - offset);
+            total += (chunkSize + sliceSize - 1) / sliceSize;
+        }
+        return (int) total;
+    }
+    
+    /**
+     * First sequence whose payload starts at or after byteOffset, without
+     * mapping anything (sequenceCount() when no sequence does)
+     * 
+     * Delta sync (DeltaSync) uses this and sequencesEndingBy() to find the
+     * sequences lying completely inside a copied byte range.
+     */
+    public static int firstSequenceFrom(long fileSize, int sliceSize, long byteOffset) {
+        if (byteOffset >= fileSize) {
+            return sequenceCount(fileSize, sliceSize);
+        }
+        long chunk = Math.max(0, byteOffset) / DEFAULT_CHUNK_SIZE;
+        long chunkStart = chunk * DEFAULT_CHUNK_SIZE;
+        long chunkSize = Math.min(DEFAULT_CHUNK_SIZE, fileSize - chunkStart);
+        long base = chunk * ((DEFAULT_CHUNK_SIZE + sliceSize - 1) / sliceSize); // earlier chunks are full
+        long packets = (chunkSize + sliceSize - 1) / sliceSize;
+        long index = (Math.max(0, byteOffset - chunkStart) + sliceSize - 1) / sliceSize;
+        return (int) (base + Math.min(index, packets));
+    }
+    
+    /**
+     * Number of sequences whose payload ends at or before byteOffset
+     */
+    public static int sequencesEndingBy(long fileSize, int sliceSize, long byteOffset) {
+        if (byteOffset >= fileSize) {
+            return sequenceCount(fileSize, sliceSize);
+        }
+        if (byteOffset <= 0) {
+            return 0;
+        }
+        long chunk = byteOffset / DEFAULT_CHUNK_SIZE;
+        long base = chunk * ((DEFAULT_CHUNK_SIZE + sliceSize - 1) / sliceSize);
+        // Only full slices can end inside a chunk; its short last slice ends at the chunk end
+        return (int) (base + (byteOffset - chunk * DEFAULT_CHUNK_SIZE) / sliceSize);
+    }
+    
+    /**
+     * Get slice size this manager was built with
+     * 
+     * @return Packet payload size
+     */
+    public int getSliceSize() {
+        return sliceSize;
+    }
+    
+    /**
+     * Get window count (mapping granularity, not part of the protocol)
+     * 
+     * @return Window count
+     */
+    public int getWindowCount() {
+        return windowCount;
+    }
+    
+    /**
+     * Get mapping statistics for monitoring
      * 
-     * @return Human-readable cache stats
+     * @return Human-readable window stats
      */
-    public String getCacheStats() {
-        return String.format("Cache: %d/%d chunks loaded", chunkCache.size(), CACHE_SIZE);
+    public synchronized String getCacheStats() {
+        return String.format("Windows: %d/%d mapped (%.0f MB), %d maps, %d released, %d evicted",
+            mappedCount, MAX_WINDOWS, mappedCount * windowSeqs * (double) sliceSize / (1024.0 * 1024.0),
+            mapCount.sum(), releasedCount.sum(), evictedCount.sum());
     }
     
     /**
@@ -3,9 +3,9 @@ package com.saferoom.file_transfer;
 /**
  * Immutable metadata for a single file chunk
  * 
- * Represents a contiguous segment of a file that will be mapped
- * as a single MappedByteBuffer. Contains all necessary information
- * to locate and process packets within this chunk.
+ * Represents a contiguous segment of a file that defines sequence
+ * numbering (ChunkManager maps it in smaller windows). Contains all
+ * necessary information to locate and process packets within this chunk.
  * 
  * Thread-safe due to immutability.
  */
@@ -0,0 +1,97 @@
+package com.saferoom.file_transfer;
+
+import java.net.SocketAddress;
+
+/**
+ * Per-packet payload compression, negotiated in the handshake
+ *
+ * NONE is what peers without negotiation use. DEFLATE compresses every data
+ * packet's payload on its own (raw deflate, no shared dictionary) so a lost
+ * or re-sent packet never depends on another one; packets that do not shrink
+ * travel raw. Off on LAN paths by default, where the link outruns deflate.
+ */
+public enum CompressionMode {
+    NONE((byte) 0, "none"),
+    DEFLATE((byte) 1, "deflate");
+
+    /** "auto" (default: deflate on WAN paths), "none" or "deflate" */
+    public static final String PROPERTY = "saferoom.transfer.compression";
+
+    /** Value carried in the handshake */
+    public final byte wireId;
+    public final String label;
+
+    CompressionMode(byte wireId, String label) {
+        this.wireId = wireId;
+        this.label = label;
+    }
+
+    /**
+     * @return mode for wireId, or null if this peer does not know it
+     */
+    public static CompressionMode fromWireId(byte wireId) {
+        for (CompressionMode mode : values()) {
+            if (mode.wireId == wireId) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return mode for a label ("none"/"off", "deflate"), or null
+     */
+    public static CompressionMode fromLabel(String label) {
+        if (label == null) {
+            return null;
+        }
+        String name = label.trim().toLowerCase();
+        if (name.equals("off")) {
+            return NONE;
+        }
+        for (CompressionMode mode : values()) {
+            if (mode.label.equals(name)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mode a sender asks for: saferoom.transfer.compression if set to a mode,
+     * otherwise DEFLATE towards WAN peers and NONE on the LAN
+     */
+    public static CompressionMode preferred(SocketAddress remote) {
+        String configured = System.getProperty(PROPERTY, "auto");
+        if (!configured.trim().equalsIgnoreCase("auto")) {
+            CompressionMode mode = fromLabel(configured);
+            if (mode != null) {
+                return mode;
+            }
+            System.err.printf("[COMPRESSION] Unknown %s '%s' - using %s%n", PROPERTY, configured, NONE.label);
+            return NONE;
+        }
+        return CongestionController.NetworkProfile.detect(remote) == CongestionController.NetworkProfile.WAN
+            ? DEFLATE : NONE;
+    }
+
+    /**
+     * Mode a receiver settles on for a sender's request: NONE for unknown modes
+     * or when compression is switched off here (saferoom.transfer.compression=none)
+     */
+    public static CompressionMode accept(CompressionMode requested) {
+        if (requested == null || fromLabel(System.getProperty(PROPERTY, "auto")) == NONE) {
+            return NONE;
+        }
+        return requested;
+    }
+
+    /**
+     * Fresh compressor for one sending/receiving thread, or null for NONE
+     *
+     * @param inFlight compressed payloads the caller holds before sending (batch size)
+     */
+    public PacketCompressor newCompressor(int inFlight) {
+        return this == NONE ? null : new PacketCompressor(inFlight, HandShake_Packet.configuredMaxSlice());
+    }
+}
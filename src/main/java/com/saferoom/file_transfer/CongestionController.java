@@ -0,0 +1,99 @@
+package com.saferoom.file_transfer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * Congestion control SPI for the NACK-based file transfer
+ *
+ * The sender paces every data frame through rateLimitSend(); the NACK
+ * listener feeds RTT samples, per-frame delivery/loss counts and cumulative
+ * ACK progress back in. Implementations must be thread-safe: striped lanes,
+ * the retransmission task and the listener call in concurrently.
+ *
+ * Built-in algorithms are created through CongestionControllers.
+ */
+public interface CongestionController {
+
+    /** Short algorithm name shown in getStats() ("hybrid", "bbr", ...) */
+    String name();
+
+    /** Block until the next frame may be sent (pacing and window limit) */
+    void rateLimitSend();
+
+    /** A frame of packetBytes bytes left the sender */
+    void onPacketSent(int packetBytes);
+
+    /** One NACK frame: how many sequences of its window arrived / are missing */
+    void onNackFrameReceived(int receivedPacketCount, int lostPacketCount);
+
+    /** Explicit loss report (retransmission scheduled outside a NACK frame) */
+    void onPacketLoss(int lostPacketCount, int lostBytes);
+
+    /** Receiver's cumulative ACK moved forward by ackedPackets sequences */
+    default void onCumulativeAckAdvanced(int ackedPackets) {
+    }
+
+    /**
+     * Raw NACK window: bit i set = sequence cumAck + i received. Zero bits
+     * below the highest set bit are holes; above it packets may still be in flight.
+     */
+    default void onNackMask(int cumAck, long mask) {
+    }
+
+    /** RTT sample in nanoseconds */
+    void updateRtt(long rttNs);
+
+    /** Adopt the slice size negotiated in the handshake */
+    void setPacketSize(int packetSize);
+
+    /** Initial tuning for the path, decided once per transfer */
+    void applyProfile(NetworkProfile profile);
+
+    /** Whether a retransmission may go out right now */
+    boolean canSendPacket();
+
+    long getCongestionWindow();
+
+    long getSmoothedRtt();
+
+    long getPacingInterval();
+
+    /**
+     * Recent fraction of sent packets reported lost (0..1), smoothed; drives
+     * the forward error correction ratio (ParityEncoder.groupSize)
+     */
+    default double getLossRate() {
+        return 0.0;
+    }
+
+    /** One-line human-readable state, prefixed with the algorithm name */
+    String getStats();
+
+    /**
+     * LAN vs WAN starting point for a transfer
+     */
+    enum NetworkProfile {
+        LAN,
+        WAN;
+
+        /**
+         * Loopback, site-local (10/8, 172.16/12, 192.168/16) and link-local
+         * peers are LAN; everything else, including WebRTC tunnels without an
+         * IP address, is WAN.
+         */
+        public static NetworkProfile detect(SocketAddress remote) {
+            if (remote instanceof InetSocketAddress inet) {
+                InetAddress addr = inet.getAddress();
+                if (addr == null) {
+                    return "localhost".equalsIgnoreCase(inet.getHostString()) ? LAN : WAN;
+                }
+                if (addr.isLoopbackAddress() || addr.isSiteLocalAddress() || addr.isLinkLocalAddress()) {
+                    return LAN;
+                }
+            }
+            return WAN;
+        }
+    }
+}
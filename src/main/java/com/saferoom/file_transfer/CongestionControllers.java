@@ -0,0 +1,67 @@
+package com.saferoom.file_transfer;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Registry of congestion control algorithms
+ * 
+ * Built-ins: "hybrid" (HybridCongestionController, default) and "bbr"
+ * (BbrCongestionController). The default comes from the
+ * saferoom.transfer.cc system property; a transfer can override it with
+ * EnhancedFileTransferSender.setCongestionControl(). Extra algorithms can be
+ * added with register().
+ */
+public final class CongestionControllers {
+	
+	public static final String PROPERTY = "saferoom.transfer.cc";
+	
+	private static final Map<String, Supplier<? extends CongestionController>> REGISTRY = new ConcurrentHashMap<>();
+	
+	static {
+		register(HybridCongestionController.NAME, HybridCongestionController::new);
+		register(BbrCongestionController.NAME, BbrCongestionController::new);
+	}
+	
+	private CongestionControllers() {
+	}
+	
+	public static void register(String name, Supplier<? extends CongestionController> factory) {
+		REGISTRY.put(name.toLowerCase(), factory);
+	}
+	
+	public static boolean isAvailable(String name) {
+		return name != null && REGISTRY.containsKey(name.toLowerCase());
+	}
+	
+	public static Set<String> available() {
+		return new TreeSet<>(REGISTRY.keySet());
+	}
+	
+	/**
+	 * Algorithm from saferoom.transfer.cc, "hybrid" when unset or unknown
+	 */
+	public static String defaultAlgorithm() {
+		String name = System.getProperty(PROPERTY, HybridCongestionController.NAME).trim().toLowerCase();
+		if (!isAvailable(name)) {
+			System.err.printf("[CC] Unknown congestion control '%s' (available: %s) - using %s%n",
+				name, available(), HybridCongestionController.NAME);
+			return HybridCongestionController.NAME;
+		}
+		return name;
+	}
+	
+	/**
+	 * @throws IllegalArgumentException if name is not registered
+	 */
+	public static CongestionController create(String name) {
+		Supplier<? extends CongestionController> factory = name == null ? null : REGISTRY.get(name.toLowerCase());
+		if (factory == null) {
+			throw new IllegalArgumentException("Unknown congestion control: " + name + " (available: " + available() + ")");
+		}
+		return factory.get();
+	}
+}
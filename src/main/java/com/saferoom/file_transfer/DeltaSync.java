@@ -0,0 +1,465 @@
+package com.saferoom.file_transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * rsync-style delta transfer against a copy the receiver already has
+ *
+ * The receiver cuts its existing copy (the base) into fixed blocks and
+ * sends a signature per block: a 32-bit rolling checksum (rsync's a/b sums)
+ * and the first 8 bytes of SHA-256. The sender rolls over the new file byte
+ * by byte, and wherever a window matches a base block it emits a copy
+ * instruction (new offset, base block) and jumps a whole block ahead.
+ *
+ * Copies are applied by the receiver before data flows. Every sequence that
+ * lies completely inside copied bytes is marked received up front and never
+ * sent; everything else travels as usual, through the same path as a resumed
+ * transfer (ACK_RESUME ranges). A false match is caught by whole-file
+ * verification (MerkleVerifier) and re-fetched.
+ *
+ * Exchange (between ACK and SYN_ACK, after the Merkle manifest):
+ *   sender DELTA_REQ(first)      -> receiver DELTA_SIG(signatures first..)
+ *   sender DELTA_COPY(copies..)  -> receiver DELTA_COPY_ACK(next missing)
+ */
+public final class DeltaSync {
+
+	public static final int SIG_SIZE = 12;   // weak (int) + strong (long)
+	public static final int COPY_SIZE = 12;  // new offset (long) + base block (int)
+
+	/** Base block size (saferoom.transfer.delta.blockBytes), doubled until at most MAX_BLOCKS */
+	public static final int DEFAULT_BLOCK_BYTES = 64 << 10;
+	public static final int MAX_BLOCKS = 1 << 16;
+
+	/** Files below this size are always sent whole */
+	public static final long MIN_FILE_BYTES = 1L << 20;
+
+	/** Larger files are always sent whole (saferoom.transfer.delta.maxBytes) - matching is byte by byte */
+	public static final long DEFAULT_MAX_FILE_BYTES = 4L << 30;
+
+	private static final int READ_BUFFER = 4 << 20;
+
+	private DeltaSync() {
+	}
+
+	/** saferoom.transfer.delta.enabled (default true) */
+	public static boolean enabled() {
+		return Boolean.parseBoolean(System.getProperty("saferoom.transfer.delta.enabled", "true"));
+	}
+
+	public static long maxFileBytes() {
+		return Long.getLong("saferoom.transfer.delta.maxBytes", DEFAULT_MAX_FILE_BYTES);
+	}
+
+	public static int blockSizeFor(long baseSize) {
+		long block = Math.max(4096, Integer.getInteger("saferoom.transfer.delta.blockBytes", DEFAULT_BLOCK_BYTES));
+		while (baseSize / block > MAX_BLOCKS && block < (1 << 28)) {
+			block <<= 1;
+		}
+		return (int) block;
+	}
+
+	/**
+	 * Block signatures of the base. Only whole blocks are signed; a short tail
+	 * never matches and is simply sent.
+	 */
+	public static final class Signatures {
+		private final long baseSize;
+		private final int blockSize;
+		private final int blockCount;
+		private final int[] weak;
+		private final long[] strong;
+
+		// Sender side: which signatures arrived so far
+		private final BitSet present;
+
+		// Weak checksum -> blocks (open addressing on heads, chained through next)
+		private int[] heads;
+		private int[] next;
+
+		private Signatures(long baseSize, int blockSize, int blockCount, BitSet present) {
+			this.baseSize = baseSize;
+			this.blockSize = blockSize;
+			this.blockCount = blockCount;
+			this.weak = new int[blockCount];
+			this.strong = new long[blockCount];
+			this.present = present;
+		}
+
+		/**
+		 * Sign every whole block of base (receiver side)
+		 */
+		public static Signatures compute(FileChannel base) throws IOException {
+			long size = base.size();
+			int block = blockSizeFor(size);
+			Signatures sigs = new Signatures(size, block, (int) (size / block), null);
+			MessageDigest md = MerkleTree.sha256();
+			byte[] buf = new byte[block];
+			for (int i = 0; i < sigs.blockCount; i++) {
+				readFully(base, (long) i * block, buf, block);
+				sigs.weak[i] = weak(buf, 0, block);
+				sigs.strong[i] = strong(md, buf, 0, block);
+			}
+			return sigs;
+		}
+
+		/**
+		 * Empty set waiting for DELTA_SIG packets (sender side)
+		 *
+		 * @throws IllegalArgumentException if the parameters are inconsistent
+		 */
+		public static Signatures expect(long baseSize, int blockSize, int blockCount) {
+			if (baseSize < 0 || blockSize <= 0 || blockCount < 0 || blockCount > MAX_BLOCKS
+					|| blockCount != baseSize / blockSize) {
+				throw new IllegalArgumentException("Bad delta signatures: base=" + baseSize
+					+ ", block=" + blockSize + ", blocks=" + blockCount);
+			}
+			return new Signatures(baseSize, blockSize, blockCount, new BitSet(blockCount));
+		}
+
+		/**
+		 * Store count signatures starting at block first, read from src at srcOff (absolute)
+		 *
+		 * @return first block whose signature is still missing (blockCount when complete)
+		 */
+		public int put(int first, int count, ByteBuffer src, int srcOff) {
+			if (first >= 0 && count >= 0 && first + count <= blockCount) {
+				for (int i = 0; i < count; i++) {
+					weak[first + i] = src.getInt(srcOff + i * SIG_SIZE);
+					strong[first + i] = src.getLong(srcOff + i * SIG_SIZE + Integer.BYTES);
+				}
+				present.set(first, first + count);
+			}
+			return present.nextClearBit(0);
+		}
+
+		public boolean isComplete() {
+			return present == null || present.nextClearBit(0) >= blockCount;
+		}
+
+		/**
+		 * Copy count signatures starting at first into dst at dstOff (absolute)
+		 */
+		public void copyTo(int first, int count, ByteBuffer dst, int dstOff) {
+			for (int i = 0; i < count; i++) {
+				dst.putInt(dstOff + i * SIG_SIZE, weak[first + i]);
+				dst.putLong(dstOff + i * SIG_SIZE + Integer.BYTES, strong[first + i]);
+			}
+		}
+
+		public long getBaseSize() { return baseSize; }
+		public int getBlockSize() { return blockSize; }
+		public int getBlockCount() { return blockCount; }
+
+		/**
+		 * Base block whose content equals buf[off, off + blockSize), or -1
+		 */
+		int find(int w, byte[] buf, int off, MessageDigest md) {
+			if (heads == null) {
+				index();
+			}
+			long s = 0;
+			boolean hashed = false;
+			for (int j = heads[bucket(w)]; j >= 0; j = next[j]) {
+				if (weak[j] != w) {
+					continue;
+				}
+				if (!hashed) {
+					s = strong(md, buf, off, blockSize);
+					hashed = true;
+				}
+				if (strong[j] == s) {
+					return j;
+				}
+			}
+			return -1;
+		}
+
+		private void index() {
+			int size = Integer.highestOneBit(Math.max(16, blockCount * 2 - 1)) << 1;
+			heads = new int[size];
+			Arrays.fill(heads, -1);
+			next = new int[blockCount];
+			// Reverse insertion keeps chains in block order
+			for (int j = blockCount - 1; j >= 0; j--) {
+				int b = bucket(weak[j]);
+				next[j] = heads[b];
+				heads[b] = j;
+			}
+		}
+
+		private int bucket(int w) {
+			return (w * 0x9E3779B9 >>> 16 ^ w) & (heads.length - 1);
+		}
+	}
+
+	/**
+	 * Copy instructions for one transfer: copy base block blocks[i] to
+	 * offsets[i] of the new file. Offsets are ascending and non-overlapping.
+	 */
+	public static final class Plan {
+		private final int blockSize;
+		private final int count;
+		private final long[] offsets;
+		private final int[] blocks;
+
+		// Receiver side: which instructions arrived so far
+		private final BitSet present;
+
+		private Plan(int blockSize, long[] offsets, int[] blocks, int count, BitSet present) {
+			this.blockSize = blockSize;
+			this.offsets = offsets;
+			this.blocks = blocks;
+			this.count = count;
+			this.present = present;
+		}
+
+		/**
+		 * Empty plan waiting for DELTA_COPY packets (receiver side)
+		 */
+		public static Plan expect(int blockSize, int count) {
+			if (count < 0 || count > MAX_BLOCKS * 64) {
+				throw new IllegalArgumentException("Bad delta copy count: " + count);
+			}
+			return new Plan(blockSize, new long[count], new int[count], count, new BitSet(count));
+		}
+
+		/**
+		 * Store count instructions starting at first, read from src at srcOff (absolute)
+		 *
+		 * @return first instruction still missing (getCount() when complete)
+		 */
+		public int put(int first, int count, ByteBuffer src, int srcOff) {
+			if (first >= 0 && count >= 0 && first + count <= this.count) {
+				for (int i = 0; i < count; i++) {
+					offsets[first + i] = src.getLong(srcOff + i * COPY_SIZE);
+					blocks[first + i] = src.getInt(srcOff + i * COPY_SIZE + Long.BYTES);
+				}
+				present.set(first, first + count);
+			}
+			return present.nextClearBit(0);
+		}
+
+		public boolean isComplete() {
+			return present == null || present.nextClearBit(0) >= count;
+		}
+
+		/**
+		 * Whether every instruction stays inside the new file and the base, in order
+		 */
+		public boolean isValid(long fileSize, int blockCount) {
+			long end = 0;
+			for (int i = 0; i < count; i++) {
+				if (offsets[i] < end || blocks[i] < 0 || blocks[i] >= blockCount
+						|| offsets[i] + blockSize > fileSize) {
+					return false;
+				}
+				end = offsets[i] + blockSize;
+			}
+			return true;
+		}
+
+		public void copyTo(int first, int count, ByteBuffer dst, int dstOff) {
+			for (int i = 0; i < count; i++) {
+				dst.putLong(dstOff + i * COPY_SIZE, offsets[first + i]);
+				dst.putInt(dstOff + i * COPY_SIZE + Long.BYTES, blocks[first + i]);
+			}
+		}
+
+		public int getCount() { return count; }
+		public int getBlockSize() { return blockSize; }
+
+		public long getCopiedBytes() {
+			return (long) count * blockSize;
+		}
+
+		/**
+		 * Write the copied blocks from base into out (receiver side)
+		 */
+		public void apply(FileChannel base, FileChannel out) throws IOException {
+			for (int i = 0; i < count; i++) {
+				long src = (long) blocks[i] * blockSize;
+				long done = 0;
+				while (done < blockSize) {
+					out.position(offsets[i] + done);
+					long n = base.transferTo(src + done, blockSize - done, out);
+					if (n <= 0) {
+						throw new IOException("Base copy shorter than block " + blocks[i]);
+					}
+					done += n;
+				}
+			}
+		}
+
+		/**
+		 * Sequences the copies do not cover completely, as sorted [start, end)
+		 * pairs - what the sender still has to transmit
+		 */
+		public int[] missingRanges(long fileSize, int sliceSize) {
+			int total = ChunkManager.sequenceCount(fileSize, sliceSize);
+			int[] ranges = new int[16];
+			int n = 0;
+			int cursor = 0; // first sequence not yet classified
+			int i = 0;
+			while (i < count) {
+				// Merge back-to-back copies into one byte run
+				long from = offsets[i];
+				long to = from + blockSize;
+				while (++i < count && offsets[i] == to) {
+					to += blockSize;
+				}
+				int first = ChunkManager.firstSequenceFrom(fileSize, sliceSize, from);
+				int end = ChunkManager.sequencesEndingBy(fileSize, sliceSize, to);
+				if (first >= end) {
+					continue;
+				}
+				if (first > cursor) {
+					if (n + 2 > ranges.length) {
+						ranges = Arrays.copyOf(ranges, ranges.length * 2);
+					}
+					ranges[n++] = cursor;
+					ranges[n++] = first;
+				}
+				cursor = Math.max(cursor, end);
+			}
+			if (cursor < total) {
+				if (n + 2 > ranges.length) {
+					ranges = Arrays.copyOf(ranges, n + 2);
+				}
+				ranges[n++] = cursor;
+				ranges[n++] = total;
+			}
+			return Arrays.copyOf(ranges, n);
+		}
+
+		/**
+		 * Bitmap with every sequence outside missingRanges() set (receiver side)
+		 */
+		public ReceiveBitmap coveredBitmap(long fileSize, int sliceSize) {
+			int total = ChunkManager.sequenceCount(fileSize, sliceSize);
+			ReceiveBitmap bitmap = new ReceiveBitmap(total);
+			int[] missing = missingRanges(fileSize, sliceSize);
+			int seq = 0;
+			for (int r = 0; r <= missing.length; r += 2) {
+				int stop = r < missing.length ? missing[r] : total;
+				for (; seq < stop; seq++) {
+					bitmap.setIfAbsent(seq);
+				}
+				if (r < missing.length) {
+					seq = missing[r + 1];
+				}
+			}
+			return bitmap;
+		}
+	}
+
+	/**
+	 * Find base blocks in the new file (sender side)
+	 *
+	 * @param src  New file
+	 * @param size Bytes of src to scan
+	 */
+	public static Plan match(FileChannel src, long size, Signatures sigs) throws IOException {
+		int block = sigs.getBlockSize();
+		long[] offsets = new long[64];
+		int[] blocks = new int[64];
+		int count = 0;
+		if (sigs.getBlockCount() == 0 || size < block) {
+			return new Plan(block, offsets, blocks, 0, null);
+		}
+
+		MessageDigest md = MerkleTree.sha256();
+		byte[] buf = new byte[Math.max(READ_BUFFER, 2 * block + 1)];
+		long bufStart = 0;
+		int bufLen = 0;
+		long p = 0;
+		boolean fresh = true;
+		int a = 0;
+		int b = 0;
+		while (p + block <= size) {
+			// Window plus the byte rolled in next must be buffered
+			long need = Math.min(size, p + block + 1);
+			if (need > bufStart + bufLen) {
+				int keep = (int) (bufStart + bufLen - p);
+				System.arraycopy(buf, (int) (p - bufStart), buf, 0, keep);
+				bufStart = p;
+				bufLen = keep;
+				while (bufLen < buf.length && bufStart + bufLen < size) {
+					int r = src.read(ByteBuffer.wrap(buf, bufLen, (int) Math.min(buf.length - bufLen,
+						size - bufStart - bufLen)), bufStart + bufLen);
+					if (r < 0) {
+						throw new IOException("Unexpected end of file at " + (bufStart + bufLen));
+					}
+					bufLen += r;
+				}
+			}
+			int i = (int) (p - bufStart);
+			if (fresh) {
+				a = 0;
+				b = 0;
+				for (int k = 0; k < block; k++) {
+					int x = buf[i + k] & 0xFF;
+					a = (a + x) & 0xFFFF;
+					b = (b + (block - k) * x) & 0xFFFF;
+				}
+				fresh = false;
+			}
+
+			int j = sigs.find(a | (b << 16), buf, i, md);
+			if (j >= 0) {
+				if (count == offsets.length) {
+					offsets = Arrays.copyOf(offsets, count * 2);
+					blocks = Arrays.copyOf(blocks, count * 2);
+				}
+				offsets[count] = p;
+				blocks[count] = j;
+				count++;
+				p += block;
+				fresh = true;
+				continue;
+			}
+			if (p + block >= size) {
+				break;
+			}
+			int out = buf[i] & 0xFF;
+			int in = buf[i + block] & 0xFF;
+			a = (a - out + in) & 0xFFFF;
+			b = (b - block * out + a) & 0xFFFF;
+			p++;
+		}
+		return new Plan(block, Arrays.copyOf(offsets, count), Arrays.copyOf(blocks, count), count, null);
+	}
+
+	/**
+	 * rsync weak checksum: a = sum of bytes, b = sum of (len - k) * byte, both mod 2^16
+	 */
+	static int weak(byte[] buf, int off, int len) {
+		int a = 0;
+		int b = 0;
+		for (int k = 0; k < len; k++) {
+			int x = buf[off + k] & 0xFF;
+			a = (a + x) & 0xFFFF;
+			b = (b + (len - k) * x) & 0xFFFF;
+		}
+		return a | (b << 16);
+	}
+
+	private static long strong(MessageDigest md, byte[] buf, int off, int len) {
+		md.reset();
+		md.update(buf, off, len);
+		return ByteBuffer.wrap(md.digest()).getLong();
+	}
+
+	private static void readFully(FileChannel fc, long pos, byte[] buf, int len) throws IOException {
+		ByteBuffer dst = ByteBuffer.wrap(buf, 0, len);
+		while (dst.hasRemaining()) {
+			if (fc.read(dst, pos + dst.position()) < 0) {
+				throw new IOException("Unexpected end of file at " + (pos + dst.position()));
+			}
+		}
+	}
+}
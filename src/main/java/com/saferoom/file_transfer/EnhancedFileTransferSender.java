@@ -1,22 +1,33 @@
 package com.saferoom.file_transfer;
 
 import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.CRC32C;
+import java.util.function.BooleanSupplier;
 
+import jdk.net.ExtendedSocketOptions;
+
+import com.saferoom.transport.BatchSendEndpoint;
 import com.saferoom.transport.FlowControlledEndpoint;
+import com.saferoom.transport.TransportEndpoint;
 
 public class EnhancedFileTransferSender {
 	    private final DatagramChannel channel;
@@ -24,10 +35,35 @@ public class EnhancedFileTransferSender {
 	    private final FlowControlledEndpoint flowController;
 	    private final boolean zeroCopyEnabled;
 	    private final BufferPool bufferPool;
+	    private final int sendLanes; // >1 = striped send mode
+	    private final BatchSendEndpoint batchEndpoint; // null = per-packet writes
+	    private final int batchSize;
+	    private final LongAdder batchFlushes = new LongAdder();
+	    private final LongAdder batchedFrames = new LongAdder();
+	    private final boolean resumeEnabled;
+	    private volatile int[] resumeRanges; // [start, end) pairs from ACK_RESUME, null = send all
+	    private final int maxSlice;
+	    private volatile int sliceSize = SLICE_SIZE; // Negotiated in handshake
+	    private volatile ChecksumMode requestedChecksum; // null = ChecksumMode.preferred()
+	    private volatile ChecksumMode checksumMode = ChecksumMode.CRC32C; // Negotiated in handshake
+	    private volatile CompressionMode requestedCompression; // null = CompressionMode.preferred()
+	    private volatile CompressionMode compressionMode = CompressionMode.NONE; // Negotiated in handshake
+	    private final LongAdder compressedRaw = new LongAdder();  // Payload bytes sent deflated...
+	    private final LongAdder compressedWire = new LongAdder(); // ... and their size on the wire
+	    private final boolean fecEnabled;
+	    private volatile boolean fecActive;          // Receiver rebuilds single losses from parity frames
+	    private final LongAdder parityFrames = new LongAdder();
+	    private final boolean verifyEnabled;
+	    private volatile MerkleTree merkleTree;      // Source block hashes, built before the handshake
+	    private volatile boolean merkleActive;       // Receiver holds the full manifest and verifies
+	    private final boolean deltaEnabled;
+	    private volatile FileChannel deltaSource;    // Open source while handshaking, null = no delta sync
 	    private FileTransferRuntime runtime;
 	    
-	    // QUIC-inspired congestion control
-	    private HybridCongestionController hybridControl;
+	    // Pluggable congestion control (CongestionControllers), "hybrid" by default
+	    private CongestionController hybridControl;
+	    private volatile String congestionAlgorithm = CongestionControllers.defaultAlgorithm();
+	    private volatile CongestionController sharedControl; // TransferScheduler budget, null = own per transfer
 	    private EnhancedNackListener enhancedNackListener;
 	    private ChunkManager chunkManager;
 	    private TransferListener transferListener;
@@ -41,9 +77,19 @@ public class EnhancedFileTransferSender {
 	        });
 
 	    public static final long TURBO_MAX  = 256L << 20; // 256 MB
-	    public static final int  SLICE_SIZE = 1450; // Maximum payload without fragmentation
+	    public static final int  SLICE_SIZE = HandShake_Packet.DEFAULT_SLICE; // Maximum payload without fragmentation
+	    public static final int  PROBE_TRIES = 2;
+	    public static final long PROBE_TIMEOUT_MS = 100;
+	    public static final int  MERKLE_WINDOW = 16; // MERKLE packets in flight per round
+	    public static final int  MERKLE_TRIES  = 5;  // rounds without progress before giving up
+	    public static final int  DELTA_WINDOW  = 16; // DELTA_SIG / DELTA_COPY packets in flight per round
+	    public static final long DELTA_WAIT_MS = 10_000; // receiver may take this long to sign its base
+	    public static final int  PROBE_4K_SLICE = 4000 - 28 - CRC32C_Packet.HEADER_SIZE; // 4000 MTU fallback
 	    public static final int  MAX_TRY    = 4;
-	    public static final int  BACKOFF_NS = 0; // HİÇ BEKLEME YOK!
+	    public static final int  BACKOFF_NS = 0; // NACK listener park when its channel cannot be selected (0 = default)
+	    public static final int  MAX_LANES  = 16;
+	    public static final int  LANE_SKEW  = 8;  // rounds of sequences a lane may run ahead of the slowest one
+	    public static final int  MAX_BATCH  = 64;
 	
 	    public EnhancedFileTransferSender(DatagramChannel ch){
 		this(ch, null);
@@ -54,12 +100,30 @@ public class EnhancedFileTransferSender {
 		this.flowController = flowController;
 		this.zeroCopyEnabled = Boolean.parseBoolean(
 			System.getProperty("saferoom.transfer.zeroCopy.enabled", "true"));
+		int lanes = Integer.getInteger("saferoom.transfer.lanes", 1);
+		this.sendLanes = Math.max(1, Math.min(MAX_LANES, lanes));
+		// Batching only pays off when the transport can take several frames per call
+		this.batchSize = Math.max(1, Math.min(MAX_BATCH,
+			Integer.getInteger("saferoom.transfer.batch.size", 16)));
+		this.batchEndpoint = (batchSize > 1 && ch instanceof BatchSendEndpoint batch) ? batch : null;
 		if (zeroCopyEnabled) {
 			this.bufferPool = null;
 		} else {
 			int poolSize = Integer.getInteger("saferoom.transfer.pool.size", 8);
-			this.bufferPool = new BufferPool(poolSize, SLICE_SIZE);
+			// Batched payloads are held until flush - one full batch per sending thread
+			if (batchEndpoint != null) {
+				poolSize = Math.max(poolSize, batchSize * sendLanes);
+			}
+			this.bufferPool = new BufferPool(poolSize, HandShake_Packet.configuredMaxSlice());
 		}
+		this.maxSlice = HandShake_Packet.configuredMaxSlice();
+		this.resumeEnabled = Boolean.parseBoolean(
+			System.getProperty("saferoom.transfer.resume.enabled", "true"));
+		this.verifyEnabled = Boolean.parseBoolean(
+			System.getProperty("saferoom.transfer.verify.enabled", "true"));
+		this.deltaEnabled = DeltaSync.enabled();
+		// Parity groups are runs of consecutive sequences - striped lanes split them, so they send none
+		this.fecEnabled = ParityEncoder.offered() && sendLanes == 1;
 	    }
 	    public interface TransferListener {
 	    	void onPacketProgress(long fileId, long bytesSent, long totalBytes);
@@ -75,8 +139,69 @@ public class EnhancedFileTransferSender {
 	    public void requestStop() {
 	        this.stopRequested = true;
 	    }
+	    
+	    /**
+	     * Congestion control algorithm for the next transfer ("hybrid", "bbr", ...)
+	     * 
+	     * @throws IllegalArgumentException if the algorithm is not registered
+	     */
+	    public void setCongestionControl(String algorithm) {
+	    	if (!CongestionControllers.isAvailable(algorithm)) {
+	    		throw new IllegalArgumentException("Unknown congestion control: " + algorithm
+	    			+ " (available: " + CongestionControllers.available() + ")");
+	    	}
+	    	this.congestionAlgorithm = algorithm.toLowerCase();
+	    }
+	    
+	    public String getCongestionControl() {
+	    	return congestionAlgorithm;
+	    }
+	    
+	    /**
+	     * Pace the next transfers through an existing controller (shared with the
+	     * other transfers to the same peer) instead of a fresh one per file. The
+	     * controller is already tuned for the path, so applyProfile() is skipped.
+	     * null goes back to setCongestionControl().
+	     */
+	    public void setSharedCongestionControl(CongestionController controller) {
+	    	this.sharedControl = controller;
+	    }
+	    
+	    /**
+	     * Payload checksum to request in the next handshake; null picks
+	     * ChecksumMode.preferred() (saferoom.transfer.checksum, CRC32C by default).
+	     * The receiver may fall back to CRC32C.
+	     */
+	    public void setChecksumMode(ChecksumMode mode) {
+	    	this.requestedChecksum = mode;
+	    }
+	    
+	    public ChecksumMode getChecksumMode() {
+	    	return checksumMode;
+	    }
+	    
+	    /**
+	     * Payload compression to request in the next handshake; null picks
+	     * CompressionMode.preferred() (deflate towards WAN peers). The receiver
+	     * may answer NONE.
+	     */
+	    public void setCompressionMode(CompressionMode mode) {
+	    	this.requestedCompression = mode;
+	    }
+	    
+	    public CompressionMode getCompressionMode() {
+	    	return compressionMode;
+	    }
 
 	public boolean handshake(long fileId, long file_size, int total_seq) throws IOException {
+		return handshake(fileId, file_size, total_seq, 0L);
+	}
+
+	/**
+	 * @param resumeToken non-zero: send SYN_RESUME so the receiver can answer with
+	 *                    ACK_RESUME listing only the ranges it is still missing
+	 */
+	public boolean handshake(long fileId, long file_size, int total_seq, long resumeToken) throws IOException {
 	System.out.println("[SENDER-HANDSHAKE] ╔════════════════════════════════════════════════");
 	System.out.println("[SENDER-HANDSHAKE] ║ handshake() ENTERED");
 	System.out.printf("[SENDER-HANDSHAKE]  ║ Thread: %s%n", Thread.currentThread().getName());
@@ -88,8 +213,28 @@ public class EnhancedFileTransferSender {
 	
 	if(channel == null) throw new IllegalStateException("Datagram Channel is null you must bind and connect first");
 		long candidate_file_Id = -1;
+		int offeredSlice = localSliceLimit();
+		int acceptedSlice = SLICE_SIZE;
+		ChecksumMode offeredChecksum = requestedChecksum != null ? requestedChecksum
+			: ChecksumMode.preferred(channel instanceof TransportEndpoint endpoint && endpoint.isAuthenticated());
+		ChecksumMode acceptedChecksum = ChecksumMode.CRC32C;
+		CompressionMode offeredCompression = requestedCompression != null ? requestedCompression
+			: CompressionMode.preferred(channel.getRemoteAddress());
+		CompressionMode acceptedCompression = CompressionMode.NONE;
+		boolean acceptedFec = false;
 		HandShake_Packet pkt = new HandShake_Packet();
-		pkt.make_SYN(fileId, file_size, total_seq);
+		if (resumeToken != 0) {
+			pkt.make_SYN_RESUME(fileId, file_size, total_seq, resumeToken, offeredSlice, offeredChecksum, offeredCompression,
+				fecEnabled);
+		} else {
+			pkt.make_SYN(fileId, file_size, total_seq, offeredSlice, offeredChecksum, offeredCompression, fecEnabled);
+		}
+		resumeRanges = null;
+		sliceSize = SLICE_SIZE;
+		checksumMode = ChecksumMode.CRC32C;
+		compressionMode = CompressionMode.NONE;
+		fecActive = false;
+		merkleActive = false;
 	
 		System.out.printf("[FILE-HANDSHAKE] 🤝 Sending SYN for fileId=%d, size=%d, chunks=%d%n", 
 			fileId, file_size, total_seq);
@@ -98,7 +243,7 @@ public class EnhancedFileTransferSender {
 		int bytesSent = channel.write(pkt.get_header().duplicate());
 		System.out.printf("[FILE-HANDSHAKE] 📤 SYN sent: %d bytes%n", bytesSent);
 		
-		ByteBuffer buffer = ByteBuffer.allocateDirect(HandShake_Packet.HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(HandShake_Packet.MAX_SIZE).order(ByteOrder.BIG_ENDIAN);
 		
 		long ackDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30); // 30 saniye timeout
 		long lastSynTime = System.nanoTime();
@@ -130,20 +275,81 @@ public class EnhancedFileTransferSender {
 		}while( r <= 0);
 		
 		buffer.flip();
-		if(r >= HandShake_Packet.HEADER_SIZE && buffer.get(0) == 0x10){
+		if(r >= HandShake_Packet.HEADER_SIZE && buffer.get(0) == HandShake_Packet.ACK){
 			buffer.position(1); // Position'ı 1'e set et
 			candidate_file_Id = buffer.getLong(); // Relative okuma
+			acceptedSlice = HandShake_Packet.get_slice(buffer, r);
+			acceptedChecksum = ChecksumMode.fromWireId(HandShake_Packet.get_checksum(buffer, r));
+			acceptedCompression = CompressionMode.fromWireId(HandShake_Packet.get_compression(buffer, r));
+			acceptedFec = fecEnabled && HandShake_Packet.get_fec(buffer, r);
 			
 			System.out.printf("[SENDER-HANDSHAKE] ✅ ACK received: fileId=%d (after %d SYN retries)%n", 
 				candidate_file_Id, synRetryCount);
+		} else if(r >= HandShake_Packet.OFF_RANGES && buffer.get(0) == HandShake_Packet.ACK_RESUME
+				&& r >= HandShake_Packet.OFF_RANGES + HandShake_Packet.get_range_count(buffer) * 8){
+			candidate_file_Id = HandShake_Packet.get_file_Id(buffer);
+			resumeRanges = HandShake_Packet.get_ranges(buffer);
+			acceptedSlice = HandShake_Packet.get_slice(buffer, r);
+			acceptedChecksum = ChecksumMode.fromWireId(HandShake_Packet.get_checksum(buffer, r));
+			acceptedCompression = CompressionMode.fromWireId(HandShake_Packet.get_compression(buffer, r));
+			acceptedFec = fecEnabled && HandShake_Packet.get_fec(buffer, r);
+			
+			System.out.printf("[SENDER-HANDSHAKE] ✅ ACK_RESUME received: fileId=%d, %d missing range(s)%n", 
+				candidate_file_Id, resumeRanges.length / 2);
 		} else {
 			System.err.printf("[SENDER-HANDSHAKE] ❌ Invalid ACK: size=%d, type=0x%02X%n", 
 				r, buffer.get(0));
 		}
 
+		if(candidate_file_Id == fileId && (acceptedSlice < SLICE_SIZE || acceptedSlice > offeredSlice)) {
+			System.err.printf("[SENDER-HANDSHAKE] ❌ Receiver accepted invalid slice %d (offered %d)%n",
+				acceptedSlice, offeredSlice);
+			resumeRanges = null;
+			return false;
+		}
+		
+		// Receiver may only keep what we asked for or fall back to CRC32C
+		if(candidate_file_Id == fileId && acceptedChecksum != ChecksumMode.CRC32C && acceptedChecksum != offeredChecksum) {
+			System.err.printf("[SENDER-HANDSHAKE] ❌ Receiver accepted checksum %s (requested %s)%n",
+				acceptedChecksum, offeredChecksum.label);
+			resumeRanges = null;
+			return false;
+		}
+		
+		// Same for compression: what we asked for, or none
+		if(candidate_file_Id == fileId && acceptedCompression != CompressionMode.NONE && acceptedCompression != offeredCompression) {
+			System.err.printf("[SENDER-HANDSHAKE] ❌ Receiver accepted compression %s (requested %s)%n",
+				acceptedCompression, offeredCompression.label);
+			resumeRanges = null;
+			return false;
+		}
+
 		if(candidate_file_Id == fileId)
 		{
-			pkt.make_SYN_ACK(fileId);
+			// Resumed ranges are in units of the checkpoint's slice - no probing
+			int finalSlice = acceptedSlice;
+			if (resumeRanges == null && acceptedSlice > SLICE_SIZE) {
+				finalSlice = probePathSlice(fileId, acceptedSlice);
+			}
+			sliceSize = finalSlice;
+			checksumMode = acceptedChecksum;
+			compressionMode = acceptedCompression;
+			fecActive = acceptedFec;
+			// Whole-file verification: receiver needs the block hashes before data flows
+			if (merkleTree != null) {
+				merkleActive = sendMerkleManifest(fileId, merkleTree);
+			}
+			// Delta sync rides on verification: a false block match is caught and re-sent
+			if (resumeRanges == null && merkleActive && deltaSource != null) {
+				resumeRanges = syncDelta(fileId, file_size, finalSlice);
+			}
+			if (offeredSlice == SLICE_SIZE) {
+				pkt.make_SYN_ACK(fileId); // Legacy peer format
+			} else {
+				pkt.make_SYN_ACK(fileId, finalSlice);
+			}
+			System.out.printf("[SENDER-HANDSHAKE] Slice size: %d bytes (offered %d, accepted %d), checksum: %s, compression: %s, fec: %s%n",
+				finalSlice, offeredSlice, acceptedSlice, checksumMode.label, compressionMode.label, fecActive ? "on" : "off");
 			try{
 				// SYN_ACK için de timeout ekle
 				long synAckDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
@@ -170,22 +376,343 @@ public class EnhancedFileTransferSender {
 		return false;
 	}
 	    
-	    public void sendOne(CRC32C crc, CRC32C_Packet pkt,
-                MappedByteBuffer mem, long fileId,
+	    /**
+	     * Largest slice to offer: configured maximum, capped by the local interface
+	     * MTU when it can be determined (wildcard/virtual channels cannot).
+	     */
+	    private int localSliceLimit() {
+	    	int limit = maxSlice;
+	    	try {
+	    		if (channel.getLocalAddress() instanceof InetSocketAddress local
+	    				&& !local.getAddress().isAnyLocalAddress()) {
+	    			NetworkInterface nif = NetworkInterface.getByInetAddress(local.getAddress());
+	    			if (nif != null && nif.getMTU() > 0) {
+	    				int ipUdp = local.getAddress() instanceof Inet6Address ? 48 : 28;
+	    				limit = Math.min(limit, nif.getMTU() - ipUdp - CRC32C_Packet.HEADER_SIZE);
+	    			}
+	    		}
+	    	} catch (IOException | RuntimeException e) {
+	    		// Unknown interface - the probe decides
+	    	}
+	    	return Math.max(SLICE_SIZE, limit);
+	    }
+	    
+	    /**
+	     * Path MTU probing: send a PROBE padded to a full data packet of each
+	     * candidate slice (largest first) and keep the first one the receiver echoes.
+	     * Don't-fragment is set while probing where the channel supports it, so a
+	     * fragmented path fails the probe instead of silently passing.
+	     */
+	    private int probePathSlice(long fileId, int acceptedSlice) throws IOException {
+	    	Boolean previousDf = setDontFragment(true);
+	    	// Reads below must time out - a lost probe must not block forever
+	    	boolean wasBlocking = channel.isBlocking();
+	    	if (wasBlocking) {
+	    		channel.configureBlocking(false);
+	    	}
+	    	try {
+	    		int[] candidates = { acceptedSlice, Math.min(acceptedSlice, PROBE_4K_SLICE) };
+	    		ByteBuffer reply = ByteBuffer.allocateDirect(HandShake_Packet.MAX_SIZE).order(ByteOrder.BIG_ENDIAN);
+	    		for (int i = 0; i < candidates.length; i++) {
+	    			int slice = candidates[i];
+	    			if (slice <= SLICE_SIZE || (i > 0 && slice == candidates[i - 1])) {
+	    				continue;
+	    			}
+	    			int probeSize = CRC32C_Packet.HEADER_SIZE + slice;
+	    			for (int attempt = 0; attempt < PROBE_TRIES; attempt++) {
+	    				try {
+	    					channel.write(HandShake_Packet.make_PROBE(fileId, probeSize));
+	    				} catch (IOException e) {
+	    					// EMSGSIZE: local link can't carry it at all
+	    					System.out.printf("[SENDER-HANDSHAKE] Probe %d bytes rejected locally: %s%n", probeSize, e.getMessage());
+	    					break;
+	    				}
+	    				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROBE_TIMEOUT_MS);
+	    				while (System.nanoTime() < deadline) {
+	    					reply.clear();
+	    					int r = channel.read(reply);
+	    					if (r >= HandShake_Packet.PROBE_ACK_SIZE
+	    							&& reply.get(0) == HandShake_Packet.PROBE_ACK
+	    							&& HandShake_Packet.get_file_Id(reply) == fileId
+	    							&& HandShake_Packet.get_probe_size(reply) == probeSize) {
+	    						System.out.printf("[SENDER-HANDSHAKE] ✅ Path carries %d byte packets%n", probeSize);
+	    						return slice;
+	    					}
+	    					if (r <= 0) {
+	    						LockSupport.parkNanos(500_000);
+	    					}
+	    				}
+	    			}
+	    			System.out.printf("[SENDER-HANDSHAKE] Probe %d bytes lost - trying smaller%n", probeSize);
+	    		}
+	    		return SLICE_SIZE;
+	    	} finally {
+	    		if (wasBlocking) {
+	    			channel.configureBlocking(true);
+	    		}
+	    		if (previousDf != null) {
+	    			setDontFragment(previousDf);
+	    		}
+	    	}
+	    }
+	    
+	    /**
+	     * Deliver the Merkle root and leaf hashes before SYN_ACK. Go-back-N over
+	     * MERKLE packets: the receiver answers each with MERKLE_ACK carrying the
+	     * first leaf it still misses. A receiver that never answers predates
+	     * verification - the transfer then runs without it.
+	     * 
+	     * @return true once the receiver acknowledged every leaf
+	     */
+	    private boolean sendMerkleManifest(long fileId, MerkleTree tree) throws IOException {
+	    	int leafCount = tree.getLeafCount();
+	    	if (leafCount == 0) {
+	    		return false;
+	    	}
+	    	boolean wasBlocking = channel.isBlocking();
+	    	if (wasBlocking) {
+	    		channel.configureBlocking(false);
+	    	}
+	    	try {
+	    		ByteBuffer reply = ByteBuffer.allocateDirect(HandShake_Packet.MAX_SIZE).order(ByteOrder.BIG_ENDIAN);
+	    		int next = 0;
+	    		int idleRounds = 0;
+	    		boolean answered = false;
+	    		while (next < leafCount && idleRounds < MERKLE_TRIES && !stopRequested) {
+	    			int first = next;
+	    			for (int p = 0; p < MERKLE_WINDOW && first < leafCount; p++) {
+	    				int count = Math.min(HandShake_Packet.MERKLE_LEAVES_PER_PACKET, leafCount - first);
+	    				channel.write(HandShake_Packet.make_MERKLE(fileId, tree, first, count));
+	    				first += count;
+	    			}
+	    			
+	    			int acked = -1;
+	    			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROBE_TIMEOUT_MS);
+	    			while (System.nanoTime() < deadline && acked < first) {
+	    				reply.clear();
+	    				int r = channel.read(reply);
+	    				if (r >= HandShake_Packet.MERKLE_ACK_SIZE
+	    						&& reply.get(0) == HandShake_Packet.MERKLE_ACK
+	    						&& HandShake_Packet.get_file_Id(reply) == fileId) {
+	    					acked = Math.max(acked, HandShake_Packet.get_merkle_next(reply));
+	    					answered = true;
+	    				} else if (r <= 0) {
+	    					LockSupport.parkNanos(500_000);
+	    				}
+	    			}
+	    			
+	    			if (acked > next) {
+	    				next = acked;
+	    				idleRounds = 0;
+	    			} else {
+	    				if (acked == 0) {
+	    					next = 0; // Leaves failed the root check on the receiver
+	    				}
+	    				idleRounds++;
+	    			}
+	    		}
+	    		if (next >= leafCount) {
+	    			System.out.printf("[SENDER-HANDSHAKE] ✅ Merkle manifest delivered: %d blocks of %d KB%n",
+	    				leafCount, tree.getBlockSize() >> 10);
+	    			return true;
+	    		}
+	    		System.out.printf("[SENDER-HANDSHAKE] Merkle manifest %s - whole-file verification off%n",
+	    			answered ? "incomplete (" + next + "/" + leafCount + ")" : "not supported by receiver");
+	    		return false;
+	    	} finally {
+	    		if (wasBlocking) {
+	    			channel.configureBlocking(true);
+	    		}
+	    	}
+	    }
+	    
+	    /**
+	     * rsync-style delta against a copy the receiver already has: fetch its
+	     * block signatures (DELTA_REQ / DELTA_SIG), find them in the source and
+	     * deliver the copy instructions (DELTA_COPY / DELTA_COPY_ACK, go-back-N
+	     * like the Merkle manifest). Receivers without a base or without delta
+	     * support answer "no base" or nothing at all.
+	     * 
+	     * @return sequences still to send, in resumeRanges form; null = send everything
+	     */
+	    private int[] syncDelta(long fileId, long fileSize, int slice) throws IOException {
+	    	boolean wasBlocking = channel.isBlocking();
+	    	if (wasBlocking) {
+	    		channel.configureBlocking(false);
+	    	}
+	    	try {
+	    		long start = System.nanoTime();
+	    		DeltaSync.Signatures sigs = requestSignatures(fileId);
+	    		if (sigs == null) {
+	    			return null;
+	    		}
+	    		DeltaSync.Plan plan = DeltaSync.match(deltaSource, fileSize, sigs);
+	    		if (plan.getCount() == 0 || !sendDeltaCopies(fileId, plan)) {
+	    			System.out.printf("[SENDER-HANDSHAKE] Delta sync: %s - sending whole file%n",
+	    				plan.getCount() == 0 ? "no common blocks" : "copies not acknowledged");
+	    			return null;
+	    		}
+	    		int[] missing = plan.missingRanges(fileSize, slice);
+	    		System.out.printf("[SENDER-HANDSHAKE] ✅ Delta sync: %d MB reused from receiver's copy in %d ms%n",
+	    			plan.getCopiedBytes() >> 20, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	    		return missing;
+	    	} finally {
+	    		if (wasBlocking) {
+	    			channel.configureBlocking(true);
+	    		}
+	    	}
+	    }
+	    
+	    /**
+	     * @return the receiver's complete base signatures, or null (no base, no answer)
+	     */
+	    private DeltaSync.Signatures requestSignatures(long fileId) throws IOException {
+	    	HandShake_Packet request = new HandShake_Packet();
+	    	ByteBuffer reply = ByteBuffer.allocateDirect(
+	    		HandShake_Packet.OFF_DELTA_SIGS + HandShake_Packet.DELTA_PER_PACKET * DeltaSync.SIG_SIZE)
+	    		.order(ByteOrder.BIG_ENDIAN);
+	    	DeltaSync.Signatures sigs = null;
+	    	int next = 0;
+	    	int idleRounds = 0;
+	    	long signDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DELTA_WAIT_MS);
+	    	while (idleRounds < MERKLE_TRIES && !stopRequested) {
+	    		request.make_DELTA_REQ(fileId, next);
+	    		channel.write(request.get_header().duplicate());
+	    		
+	    		int first = next;
+	    		boolean progress = false;
+	    		boolean signing = false;
+	    		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROBE_TIMEOUT_MS);
+	    		while (System.nanoTime() < deadline) {
+	    			reply.clear();
+	    			int r = channel.read(reply);
+	    			if (r <= 0) {
+	    				LockSupport.parkNanos(500_000);
+	    				continue;
+	    			}
+	    			if (r < HandShake_Packet.OFF_DELTA_SIGS || reply.get(0) != HandShake_Packet.DELTA_SIG
+	    					|| HandShake_Packet.get_file_Id(reply) != fileId) {
+	    				continue;
+	    			}
+	    			int blocks = HandShake_Packet.get_delta_blocks(reply);
+	    			if (blocks < 0) {
+	    				signing = true;
+	    				break;
+	    			}
+	    			if (blocks == 0) {
+	    				System.out.println("[SENDER-HANDSHAKE] Delta sync: receiver has no earlier copy");
+	    				return null;
+	    			}
+	    			int count = HandShake_Packet.get_delta_sig_count(reply);
+	    			if (r < HandShake_Packet.OFF_DELTA_SIGS + count * DeltaSync.SIG_SIZE) {
+	    				continue;
+	    			}
+	    			if (sigs == null) {
+	    				try {
+	    					sigs = DeltaSync.Signatures.expect(HandShake_Packet.get_delta_base(reply),
+	    						HandShake_Packet.get_delta_block(reply), blocks);
+	    				} catch (IllegalArgumentException e) {
+	    					System.err.println("[SENDER-HANDSHAKE] " + e.getMessage());
+	    					return null;
+	    				}
+	    			}
+	    			int n = sigs.put(HandShake_Packet.get_delta_sig_first(reply), count, reply, HandShake_Packet.OFF_DELTA_SIGS);
+	    			if (n > next) {
+	    				next = n;
+	    				progress = true;
+	    			}
+	    			if (next >= Math.min(sigs.getBlockCount(), first + DELTA_WINDOW * HandShake_Packet.DELTA_PER_PACKET)) {
+	    				break;
+	    			}
+	    		}
+	    		
+	    		if (sigs != null && sigs.isComplete()) {
+	    			return sigs;
+	    		}
+	    		if (signing) {
+	    			if (System.nanoTime() > signDeadline) {
+	    				System.out.println("[SENDER-HANDSHAKE] Delta sync: receiver still signing - giving up");
+	    				return null;
+	    			}
+	    			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(PROBE_TIMEOUT_MS));
+	    			idleRounds = 0;
+	    			continue;
+	    		}
+	    		idleRounds = progress ? 0 : idleRounds + 1;
+	    	}
+	    	return null;
+	    }
+	    
+	    /**
+	     * @return true once the receiver acknowledged every copy instruction
+	     */
+	    private boolean sendDeltaCopies(long fileId, DeltaSync.Plan plan) throws IOException {
+	    	int total = plan.getCount();
+	    	ByteBuffer reply = ByteBuffer.allocateDirect(HandShake_Packet.MAX_SIZE).order(ByteOrder.BIG_ENDIAN);
+	    	int next = 0;
+	    	int idleRounds = 0;
+	    	while (next < total && idleRounds < MERKLE_TRIES && !stopRequested) {
+	    		int first = next;
+	    		for (int p = 0; p < DELTA_WINDOW && first < total; p++) {
+	    			int count = Math.min(HandShake_Packet.DELTA_PER_PACKET, total - first);
+	    			channel.write(HandShake_Packet.make_DELTA_COPY(fileId, plan, first, count));
+	    			first += count;
+	    		}
+	    		
+	    		int acked = -1;
+	    		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROBE_TIMEOUT_MS);
+	    		while (System.nanoTime() < deadline && acked < first) {
+	    			reply.clear();
+	    			int r = channel.read(reply);
+	    			if (r >= HandShake_Packet.DELTA_COPY_ACK_SIZE
+	    					&& reply.get(0) == HandShake_Packet.DELTA_COPY_ACK
+	    					&& HandShake_Packet.get_file_Id(reply) == fileId) {
+	    				acked = Math.max(acked, HandShake_Packet.get_delta_next(reply));
+	    			} else if (r <= 0) {
+	    				LockSupport.parkNanos(500_000);
+	    			}
+	    		}
+	    		
+	    		if (acked > next) {
+	    			next = acked;
+	    			idleRounds = 0;
+	    		} else {
+	    			idleRounds++;
+	    		}
+	    	}
+	    	return next >= total;
+	    }
+	    
+	    /**
+	     * @return previous IP_DONTFRAGMENT value, or null if the channel has no such option
+	     */
+	    private Boolean setDontFragment(boolean value) {
+	    	try {
+	    		if (!channel.supportedOptions().contains(ExtendedSocketOptions.IP_DONTFRAGMENT)) {
+	    			return null;
+	    		}
+	    		Boolean previous = channel.getOption(ExtendedSocketOptions.IP_DONTFRAGMENT);
+	    		channel.setOption(ExtendedSocketOptions.IP_DONTFRAGMENT, value);
+	    		return previous;
+	    	} catch (IOException | RuntimeException e) {
+	    		return null;
+	    	}
+	    }
+	    
+	    public int getSliceSize() {
+	    	return sliceSize;
+	    }
+	    
+	    public void sendOne(PacketChecksum checksum, PacketCompressor compressor, CRC32C_Packet pkt,
+                ByteBuffer mem, long fileId,
                 int seqNo, int totalSeq, int take, int off) throws IOException{
-	    	ByteBuffer payload = preparePayload(mem, off, take);
-	    	ByteBuffer headerBuffer = pkt.headerBuffer();
-
-	    	crc.reset();
-	    	ByteBuffer crcView = payload.duplicate();
-	    	crc.update(crcView);
-	    	int crc32c = (int) crc.getValue();
+	    	ByteBuffer packed = compress(compressor, pkt, mem, off, take);
+	    	ByteBuffer payload = packed != null ? packed : preparePayload(pkt, mem, off, take);
 	    	
-	    	pkt.fillHeader(fileId, seqNo, totalSeq, take, crc32c);
+	    	pkt.fillHeader(fileId, seqNo, totalSeq,
+	    		packed != null ? packed.remaining() | CRC32C_Packet.PLEN_COMPRESSED : take, checksum.compute(payload));
 	    	
-	        ByteBuffer payloadForSend = payload.duplicate();
-	        payloadForSend.position(0).limit(take);
-	        ByteBuffer[] frame = new ByteBuffer[]{ headerBuffer, payloadForSend };
+	        ByteBuffer[] frame = pkt.frame(payload);
 		
 	        if (enhancedNackListener != null) {
 	        	enhancedNackListener.recordPacketSendTime(seqNo);
@@ -196,7 +723,7 @@ public class EnhancedFileTransferSender {
 	        }
 	        
 	        try{
-				final int packetBytes = CRC32C_Packet.HEADER_SIZE + take;
+				final int packetBytes = CRC32C_Packet.HEADER_SIZE + payload.remaining();
 				waitForBackpressure(packetBytes);
 	        	channel.write(frame);
 	        	
@@ -207,12 +734,154 @@ public class EnhancedFileTransferSender {
 				System.err.println("Frame sending error: " + e);
 				throw e;
 			} finally {
-				if (!zeroCopyEnabled) {
+				if (!zeroCopyEnabled && packed == null) {
 					bufferPool.release(payload);
 				}
 			}
 	    }
 	    
+	    /**
+	     * Batched variant of sendOne: encode the frame into batch and flush once it
+	     * is full. Pacing stays per packet; the transport call (and the send time
+	     * the NACK listener measures RTT from) happens per batch.
+	     */
+	    public void sendBatched(PacketChecksum checksum, PacketCompressor compressor, SendBatch batch,
+	    		ByteBuffer mem, long fileId,
+	    		int seqNo, int totalSeq, int take, int off) throws IOException{
+	    	CRC32C_Packet pkt = batch.nextHeader();
+	    	ByteBuffer packed = compress(compressor, pkt, mem, off, take);
+	    	ByteBuffer payload = packed != null ? packed : preparePayload(pkt, mem, off, take);
+	    	
+	    	pkt.fillHeader(fileId, seqNo, totalSeq,
+	    		packed != null ? packed.remaining() | CRC32C_Packet.PLEN_COMPRESSED : take, checksum.compute(payload));
+	    	// Packed payloads live in the compressor's ring (one slot per batch frame)
+	    	batch.add(payload, zeroCopyEnabled || packed != null ? null : payload);
+	    	
+	    	if (hybridControl != null) {
+	    		hybridControl.rateLimitSend(); // Rate pacing
+	    	}
+	    	if (batch.isFull()) {
+	    		flushBatch(batch);
+	    	}
+	    }
+	    
+	    /**
+	     * Send the parity of the group parity just completed. It follows its group
+	     * through the same batch; parity frames are never NACKed or retransmitted.
+	     */
+	    private void sendParity(PacketChecksum checksum, ParityEncoder parity, CRC32C_Packet pkt, SendBatch batch,
+	    		long fileId) throws IOException {
+	    	int first = parity.groupStart();
+	    	int count = parity.groupCount();
+	    	ByteBuffer payload = parity.parity();
+	    	CRC32C_Packet header = batch != null ? batch.nextHeader() : pkt;
+	    	header.fillHeader(fileId, first, count, payload.remaining() | CRC32C_Packet.PLEN_PARITY,
+	    		checksum.compute(payload));
+	    	parityFrames.increment();
+	    	if (hybridControl != null) {
+	    		hybridControl.rateLimitSend();
+	    	}
+	    	if (batch != null) {
+	    		batch.add(payload, null); // Lives in the encoder's ring
+	    		if (batch.isFull()) {
+	    			flushBatch(batch);
+	    		}
+	    		return;
+	    	}
+	    	int packetBytes = CRC32C_Packet.HEADER_SIZE + payload.remaining();
+	    	waitForBackpressure(packetBytes);
+	    	channel.write(header.frame(payload));
+	    	if (hybridControl != null) {
+	    		hybridControl.onPacketSent(packetBytes);
+	    	}
+	    }
+	    
+	    /**
+	     * Parity encoder for one sending thread, or null when the receiver takes no parity
+	     */
+	    private ParityEncoder newParityEncoder() {
+	    	// Groups have at least 2 members, so a batch holds at most batchSize / 3 + 1 parity frames
+	    	return fecActive ? new ParityEncoder(batchSize / 2 + 2, maxSlice) : null;
+	    }
+	    
+	    /**
+	     * Hand all frames in batch to the transport in one call
+	     */
+	    public void flushBatch(SendBatch batch) throws IOException {
+	    	if (batch == null || batch.isEmpty()) {
+	    		return;
+	    	}
+	    	int frames = batch.size();
+	    	try {
+	    		waitForBackpressure(batch.bytes());
+	    		batchEndpoint.sendBatch(batch.headers(), batch.payloads(), frames);
+	    		
+	    		for (int i = 0; i < frames; i++) {
+	    			ByteBuffer header = batch.headers()[i];
+	    			if (enhancedNackListener != null && !CRC32C_Packet.parity(header)) {
+	    				enhancedNackListener.recordPacketSendTime(CRC32C_Packet.seqNo(header));
+	    			}
+	    			if (hybridControl != null) {
+	    				hybridControl.onPacketSent(CRC32C_Packet.HEADER_SIZE + CRC32C_Packet.wireLen(header));
+	    			}
+	    		}
+	    		batchFlushes.increment();
+	    		batchedFrames.add(frames);
+	    	} catch (IOException e) {
+	    		System.err.println("Batch sending error: " + e);
+	    		throw e;
+	    	} finally {
+	    		if (!zeroCopyEnabled) {
+	    			for (int i = 0; i < frames; i++) {
+	    				bufferPool.release(batch.pooled(i));
+	    			}
+	    		}
+	    		batch.clear();
+	    	}
+	    }
+	    
+	    /**
+	     * New batch for one sending thread, or null when batching is off
+	     */
+	    private SendBatch newBatch() {
+	    	return batchEndpoint != null ? new SendBatch(batchSize) : null;
+	    }
+	    
+	    /**
+	     * Average frames per transport call (1.0 when batching is off or nothing sent)
+	     */
+	    public double getAverageBatchSize() {
+	    	long flushes = batchFlushes.sum();
+	    	return flushes == 0 ? 1.0 : (double) batchedFrames.sum() / flushes;
+	    }
+	    
+	    /**
+	     * Wire size of deflated payloads relative to their raw size, for the summary
+	     */
+	    private String compressionStats() {
+	    	long raw = compressedRaw.sum();
+	    	if (compressionMode == CompressionMode.NONE || raw == 0) {
+	    		return "Compression: " + compressionMode.label;
+	    	}
+	    	return String.format("Compression: %s, %d MB packed to %.0f%%", compressionMode.label,
+	    		raw >> 20, 100.0 * compressedWire.sum() / raw);
+	    }
+	    
+	    private String fecStats() {
+	    	return !fecActive ? "FEC: off" : "FEC: " + parityFrames.sum() + " parity frames";
+	    }
+	    
+	    private String backpressureStats() {
+	    	long stalled = flowController == null ? -1 : flowController.stallNanos();
+	    	return stalled < 0 ? "Backpressure: n/a"
+	    		: String.format("Backpressure: %.1f ms stalled", stalled / 1e6);
+	    }
+	    
+	    private String batchStats() {
+	    	return batchEndpoint == null ? "Batching: off"
+	    		: String.format("Batching: avg %.1f frames/flush (max %d)", getAverageBatchSize(), batchSize);
+	    }
+	    
 	    public void sendFile(Path filePath, long fileId) throws IOException{
 	    	sendFileInternal(filePath, fileId, true); // With handshake
 	    }
@@ -247,9 +916,19 @@ public class EnhancedFileTransferSender {
     		System.out.printf("[SEND-INTERNAL] ChunkManager initialized: %d chunks%n", totalSeq);
     		
     		// Thread-safe için her thread kendi instance'larını kullanacak
-    		CRC32C initialCrc = new CRC32C();
     		CRC32C_Packet initialPkt = new CRC32C_Packet();
     		
+    		// Merkle root goes into the handshake - hash the source first
+    		merkleTree = null;
+    		deltaSource = doHandshake && verifyEnabled && deltaEnabled && fileSize >= DeltaSync.MIN_FILE_BYTES
+    			&& fileSize <= DeltaSync.maxFileBytes() ? fc : null;
+    		if (doHandshake && verifyEnabled && fileSize > 0) {
+    			long hashStart = System.nanoTime();
+    			merkleTree = MerkleTree.build(fc, fileSize, MerkleTree.blockSizeFor(fileSize));
+    			System.out.printf("[SEND-INTERNAL] Merkle tree: %d blocks in %d ms%n",
+    				merkleTree.getLeafCount(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - hashStart));
+    		}
+    		
 		System.out.printf("[SEND-INTERNAL] ⚙️ doHandshake check: %s%n", doHandshake);
 		if (doHandshake) {
 			System.out.println("[SEND-INTERNAL] ✅ Handshake WILL BE PERFORMED");
@@ -257,8 +936,9 @@ public class EnhancedFileTransferSender {
 				final long MAX_BACKOFF = 10_000_000L;
 				long backoff  = 1_000_000L;
 			boolean hand_shaking;
+			long resumeToken = resumeEnabled ? TransferCheckpoint.resumeToken(filePath, fileSize) : 0L;
 			do{
-				hand_shaking = handshake(fileId, fileSize, totalSeq);  // Changed: long fileSize (no cast)
+				hand_shaking = handshake(fileId, fileSize, totalSeq, resumeToken);  // Changed: long fileSize (no cast)
 				if(hand_shaking) break;				if(Thread.currentThread().isInterrupted()){
 						throw new IllegalStateException("Handshake Thread interrupted");
 					}
@@ -270,11 +950,29 @@ public class EnhancedFileTransferSender {
 						   backoff = Math.min(MAX_BACKOFF, backoff << 1);
 						}
 				}while(!hand_shaking);
+				deltaSource = null;
 			} else {
 				System.out.println("[FILE-SEND] ⏩ Skipping handshake - already done by KeepAliveManager");
+				resumeRanges = null;
+				sliceSize = SLICE_SIZE;
+				checksumMode = ChecksumMode.CRC32C;
+				compressionMode = CompressionMode.NONE;
+				fecActive = false;
+				merkleActive = false;
+			}
+			PacketChecksum initialChecksum = checksumMode.newChecksum();
+			PacketCompressor initialCompressor = compressionMode.newCompressor(batchSize);
+			ParityEncoder initialParity = newParityEncoder();
+			
+			// Negotiated slice differs from the one totalSeq was announced with - remap
+			if (sliceSize != chunkManager.getSliceSize()) {
+				chunkManager.close();
+				this.chunkManager = new ChunkManager(filePath, sliceSize);
+				totalSeq = chunkManager.getTotalSequenceCount();
+				System.out.printf("[SEND-INTERNAL] Jumbo slice %d bytes: %d packets%n", sliceSize, totalSeq);
 			}
 
-	    	ConcurrentLinkedQueue<Integer> retxQueue = new ConcurrentLinkedQueue<>();
+	    	RetransmitQueue retxQueue = new RetransmitQueue(totalSeq);
 	    	
 	    	// Transfer completion için latch
 	    	final CountDownLatch transferCompleteLatch = new CountDownLatch(1);
@@ -288,30 +986,30 @@ public class EnhancedFileTransferSender {
 	    		transferCompleteLatch.countDown();
 	    	};
 	    	
-	    	// QUIC-inspired hybrid congestion control
-	    	this.hybridControl = new HybridCongestionController();
+	    	// Congestion control selected for this transfer, or the peer's shared budget
+	    	CongestionController shared = sharedControl;
+	    	this.hybridControl = shared != null ? shared : CongestionControllers.create(congestionAlgorithm);
+	    	hybridControl.setPacketSize(sliceSize);
 	    	
 	    	// Enhanced NACK listener'a congestion control referansını ver
 	    	enhancedNackListener.hybridControl = hybridControl;
+	    	enhancedNackListener.onCumulativeAck = chunkManager::releaseBelow;
+	    	// Verified transfers end on the receiver's completion signal, sent after the last block checks out
+	    	enhancedNackListener.completeOnMask = !merkleActive;
 	    	
 	    	// Network türüne göre optimize et
-	    	String targetHost = channel.getRemoteAddress().toString();
-	    	boolean isLocalNetwork = targetHost.contains("127.0.0.1") || targetHost.contains("localhost") || 
-	    	    targetHost.contains("192.168.") || targetHost.contains("10.");
-	    	    
-	    	if (isLocalNetwork) {
-	    		hybridControl.enableLocalNetworkMode();
-	    		System.out.println(" Local network detected - enabling aggressive mode");
-	    	} else {
-	    		hybridControl.enableWanMode();
-	    		System.out.println(" WAN detected - packet-by-packet conservative mode");
+	    	CongestionController.NetworkProfile profile =
+	    		CongestionController.NetworkProfile.detect(channel.getRemoteAddress());
+	    	if (shared == null) {
+	    		hybridControl.applyProfile(profile);
 	    	}
+	    	System.out.printf(" %s path - congestion control: %s%s%n", profile, hybridControl.name(),
+	    		shared != null ? " (shared)" : "");
 	    	
-	    	final boolean[] initialTransmissionDone = {false};
 	    	this.runtime = new FileTransferRuntime();
 	    	runtime.start(enhancedNackListener);
 	    	runtime.start(createStatsTask());
-	    	runtime.start(createRetransmissionTask(retxQueue, fileId, totalSeq, initialTransmissionDone));
+	    	runtime.start(createRetransmissionTask(retxQueue, fileId, totalSeq));
 		
 	    	long bytesSent = 0;
 
@@ -321,43 +1019,70 @@ public class EnhancedFileTransferSender {
 		long startTime = System.currentTimeMillis();
 		long lastProgressTime = startTime;
 		
-		// Chunk-based sequential transmission
-		int chunkCount = chunkManager.getChunkCount();
-		for(int chunkIdx = 0; chunkIdx < chunkCount; chunkIdx++) {
-			MappedByteBuffer chunkBuffer = chunkManager.getChunk(chunkIdx);
+		if (resumeRanges != null) {
+			// Resumed transfer - receiver already has everything outside these ranges
+			bytesSent = Math.max(0, fileSize - countResumeSequences(totalSeq) * (long) sliceSize);
+			System.out.printf("Resuming: %d of %d packets missing on receiver%n",
+				countResumeSequences(totalSeq), totalSeq);
+		}
+		
+		if (sendLanes > 1) {
+			// Striped transmission - lane i sends every sendLanes-th sequence
+			sendStriped(fileId, totalSeq, fileSize, startTime, bytesSent);
+		} else if (resumeRanges != null) {
+			sendResumeRanges(initialChecksum, initialCompressor, initialParity, initialPkt, newBatch(),
+				fileId, totalSeq, fileSize, bytesSent);
+		} else {
+			// Chunk-based sequential transmission
+			SendBatch batch = newBatch();
+			int windowCount = chunkManager.getWindowCount();
+			while(seqNo < totalSeq) {
+				// Window stays mapped until its frames are flushed
+				try (MappedWindow window = chunkManager.acquire(seqNo)) {
+					ByteBuffer windowBuffer = window.buffer();
 			
-			// Send all sequences in this chunk
-			for(int off = 0; off < chunkBuffer.capacity(); ) {
-				int remaining = chunkBuffer.capacity() - off;
-				int take = Math.min(SLICE_SIZE, remaining);
+					// Send all sequences in this window
+					for(; seqNo <= window.seqEnd; ) {
+						int off = window.offsetOf(seqNo);
+						int take = window.payloadSize(seqNo);
 				
-				// DYNAMIC RTT-BASED PACING - Controller'ın hesapladığı değeri kullan
-				sendOne(initialCrc, initialPkt, chunkBuffer, fileId, seqNo, totalSeq, take, off);
-				bytesSent += take;
-				if (transferListener != null) {
-					transferListener.onPacketProgress(fileId, bytesSent, fileSize);
-				}
+						// DYNAMIC RTT-BASED PACING - Controller'ın hesapladığı değeri kullan
+						if (batch != null) {
+							sendBatched(initialChecksum, initialCompressor, batch, windowBuffer, fileId, seqNo, totalSeq, take, off);
+						} else {
+							sendOne(initialChecksum, initialCompressor, initialPkt, windowBuffer, fileId, seqNo, totalSeq, take, off);
+						}
+						if (initialParity != null && initialParity.add(seqNo, windowBuffer, off, take, seqNo == totalSeq - 1,
+								initialParity.groupSize(hybridControl.getLossRate()))) {
+							sendParity(initialChecksum, initialParity, initialPkt, batch, fileId);
+						}
+						bytesSent += take;
+						if (transferListener != null) {
+							transferListener.onPacketProgress(fileId, bytesSent, fileSize);
+						}
 				
-				// Controller'dan dynamic pacing al - RTT'ye göre adaptive
-				// rateLimitSend() zaten internal pacing yapıyor, ekstra sabit pacing yok!
+						// Controller'dan dynamic pacing al - RTT'ye göre adaptive
+						// rateLimitSend() zaten internal pacing yapıyor, ekstra sabit pacing yok!
 				
-				off += take;
-				seqNo++;
+						seqNo++;
 				
-				// Enhanced progress display
-				if (System.currentTimeMillis() - lastProgressTime > 1000) {
-					double progress = (double)seqNo / totalSeq * 100;
-					long elapsed = System.currentTimeMillis() - startTime;
-					double throughputMbps = (seqNo * SLICE_SIZE * 8.0) / (elapsed * 1000.0);
-					System.out.printf(" Progress: %.1f%% (Chunk %d/%d), Throughput: %.1f Mbps\n", 
-						progress, chunkIdx + 1, chunkCount, throughputMbps);
-					System.out.println(" " + hybridControl.getStats());
-					lastProgressTime = System.currentTimeMillis();
+						// Enhanced progress display
+						if (System.currentTimeMillis() - lastProgressTime > 1000) {
+							double progress = (double)seqNo / totalSeq * 100;
+							long elapsed = System.currentTimeMillis() - startTime;
+							double throughputMbps = (seqNo * (double) sliceSize * 8.0) / (elapsed * 1000.0);
+							System.out.printf(" Progress: %.1f%% (Window %d/%d), Throughput: %.1f Mbps\n", 
+								progress, window.index + 1, windowCount, throughputMbps);
+							System.out.println(" " + hybridControl.getStats() + ", " + batchStats());
+							System.out.println(" " + chunkManager.getCacheStats());
+							lastProgressTime = System.currentTimeMillis();
+						}
+					}
+					flushBatch(batch);
 				}
 			}
 		}
 		
-		initialTransmissionDone[0] = true;
 	    	System.out.println("Initial transmission completed, waiting for retransmissions...");
 	    	
 	    	boolean completedSuccessfully = false;
@@ -396,11 +1121,187 @@ public class EnhancedFileTransferSender {
 	    			}
 	    		}
 	    		if (hybridControl != null) {
-	    			System.out.println(" Transfer summary: " + hybridControl.getStats());
+	    			System.out.println(" Transfer summary: " + hybridControl.getStats() + ", " + batchStats()
+	    				+ ", " + compressionStats() + ", " + fecStats() + ", " + backpressureStats());
+	    		}
+	    		try {
+	    			chunkManager.close(); // unmap every window now, not at GC
+	    		} catch (IOException e) {
+	    			System.err.println(" ChunkManager close error: " + e.getMessage());
+	    		}
+	    	}
+	    }
+	    
+	    /**
+	     * Striped send mode: split the sequence space across sendLanes workers.
+	     * Lane i owns every sequence with seq % sendLanes == i, so the receiver sees
+	     * interleaved lanes and the cumulative ACK keeps advancing. Each lane has its
+	     * own checksum/header state; all lanes share hybridControl's pacing budget.
+	     * Lanes stay within LANE_SKEW sequences of each other - a lane that falls
+	     * behind leaves holes in the NACK mask that look exactly like loss. A lane
+	     * that gets ahead parks in LaneProgress until the slowest one catches up.
+	     */
+	    private void sendStriped(long fileId, int totalSeq, long fileSize, long startTime,
+	    		long initialBytes) throws IOException {
+	    	System.out.printf("Striped transmission: %d lanes%n", sendLanes);
+	    	final AtomicLong bytesSent = new AtomicLong(initialBytes);
+	    	final AtomicLong packetsSent = new AtomicLong(0);
+	    	final LaneProgress progress = new LaneProgress(sendLanes);
+	    	List<Future<?>> lanes = new ArrayList<>(sendLanes);
+	    	for (int lane = 0; lane < sendLanes; lane++) {
+	    		final int laneId = lane;
+	    		lanes.add(threadPool.submit(() -> {
+	    			try {
+	    				sendLane(laneId, fileId, totalSeq, fileSize, startTime, bytesSent, packetsSent, progress);
+	    			} finally {
+	    				progress.advance(laneId, LaneProgress.DONE); // never hold the others back
+	    			}
+	    			return null;
+	    		}));
+	    	}
+	    	
+	    	try {
+	    		for (Future<?> lane : lanes) {
+	    			lane.get();
+	    		}
+	    	} catch (InterruptedException e) {
+	    		lanes.forEach(f -> f.cancel(true));
+	    		Thread.currentThread().interrupt();
+	    		throw new IOException("Striped transmission interrupted", e);
+	    	} catch (ExecutionException e) {
+	    		lanes.forEach(f -> f.cancel(true));
+	    		Throwable cause = e.getCause();
+	    		if (cause instanceof IOException io) {
+	    			throw io;
+	    		}
+	    		throw new IOException("Striped lane failed: " + cause, cause);
+	    	}
+	    }
+	    
+	    private void sendLane(int lane, long fileId, int totalSeq, long fileSize, long startTime,
+	    		AtomicLong bytesSent, AtomicLong packetsSent, LaneProgress lanes) throws IOException {
+	    	// Lane-local checksum and header - never shared between threads
+	    	PacketChecksum checksum = checksumMode.newChecksum();
+	    	PacketCompressor compressor = compressionMode.newCompressor(batchSize);
+	    	CRC32C_Packet pkt = new CRC32C_Packet();
+	    	SendBatch batch = newBatch();
+	    	long lastProgressTime = System.currentTimeMillis();
+	    	
+	    	int windowCount = chunkManager.getWindowCount();
+	    	// Frames held in a batch have not left yet - allow for them
+	    	int maxSkew = sendLanes * (LANE_SKEW + (batch != null ? batchSize : 0));
+	    	BooleanSupplier stopped = () -> stopRequested;
+	    	int next = lane;
+	    	while (next < totalSeq && !stopRequested) {
+	    		try (MappedWindow window = chunkManager.acquire(next)) {
+		    		ByteBuffer windowBuffer = window.buffer();
+	    		
+		    		// Every sendLanes-th sequence of this window belongs to this lane
+		    		for (; next <= window.seqEnd; next += sendLanes) {
+		    			if (!isResumeMissing(next)) {
+		    				continue;
+		    			}
+		    			lanes.advance(lane, next);
+		    			lanes.await(lane, next, maxSkew, stopped);
+		    			int off = window.offsetOf(next);
+		    			int take = window.payloadSize(next);
+		    			if (batch != null) {
+		    				sendBatched(checksum, compressor, batch, windowBuffer, fileId, next, totalSeq, take, off);
+		    			} else {
+		    				sendOne(checksum, compressor, pkt, windowBuffer, fileId, next, totalSeq, take, off);
+		    			}
+	    			
+		    			long sent = bytesSent.addAndGet(take);
+		    			long packets = packetsSent.incrementAndGet();
+		    			if (transferListener != null) {
+		    				transferListener.onPacketProgress(fileId, sent, fileSize);
+		    			}
+	    			
+		    			// Lane 0 reports progress for the whole transfer
+		    			if (lane == 0 && System.currentTimeMillis() - lastProgressTime > 1000) {
+		    				double progress = (double) packets / totalSeq * 100;
+		    				long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+		    				double throughputMbps = (sent * 8.0) / (elapsed * 1000.0);
+		    				System.out.printf(" Progress: %.1f%% (Window %d/%d, %d lanes), Throughput: %.1f Mbps%n",
+		    					progress, window.index + 1, windowCount, sendLanes, throughputMbps);
+		    				System.out.println(" " + hybridControl.getStats() + ", " + batchStats());
+		    				System.out.println(" " + chunkManager.getCacheStats());
+		    				lastProgressTime = System.currentTimeMillis();
+		    			}
+		    		}
+		    		flushBatch(batch);
+	    		}
+	    	}
+	    }
+
+	    /**
+	     * Resume mode: send only the sequences the receiver reported missing.
+	     */
+	    private void sendResumeRanges(PacketChecksum checksum, PacketCompressor compressor, ParityEncoder parity,
+	    		CRC32C_Packet pkt, SendBatch batch, long fileId, int totalSeq, long fileSize, long bytesSent) throws IOException {
+	    	int[] ranges = resumeRanges;
+	    	for (int r = 0; r + 1 < ranges.length && !stopRequested; r += 2) {
+	    		int end = Math.min(ranges[r + 1], totalSeq);
+	    		for (int seq = Math.max(0, ranges[r]); seq < end; ) {
+	    			try (MappedWindow window = chunkManager.acquire(seq)) {
+	    				ByteBuffer windowBuffer = window.buffer();
+	    				int last = Math.min(end - 1, window.seqEnd);
+	    				for (; seq <= last; seq++) {
+	    					int off = window.offsetOf(seq);
+	    					int take = window.payloadSize(seq);
+	    					if (batch != null) {
+	    						sendBatched(checksum, compressor, batch, windowBuffer, fileId, seq, totalSeq, take, off);
+	    					} else {
+	    						sendOne(checksum, compressor, pkt, windowBuffer, fileId, seq, totalSeq, take, off);
+	    					}
+	    					if (parity != null && parity.add(seq, windowBuffer, off, take, seq == end - 1,
+	    							parity.groupSize(hybridControl.getLossRate()))) {
+	    						sendParity(checksum, parity, pkt, batch, fileId);
+	    					}
+	    					bytesSent += take;
+	    					if (transferListener != null) {
+	    						transferListener.onPacketProgress(fileId, bytesSent, fileSize);
+	    					}
+	    				}
+	    				flushBatch(batch);
+	    			}
 	    		}
 	    	}
 	    }
 	    
+	    private long countResumeSequences(int totalSeq) {
+	    	int[] ranges = resumeRanges;
+	    	long count = 0;
+	    	for (int r = 0; r + 1 < ranges.length; r += 2) {
+	    		count += Math.max(0, Math.min(ranges[r + 1], totalSeq) - Math.max(0, ranges[r]));
+	    	}
+	    	return count;
+	    }
+	    
+	    /**
+	     * @return true if seq must be sent (no resume plan, or seq inside a missing range)
+	     */
+	    private boolean isResumeMissing(int seq) {
+	    	int[] ranges = resumeRanges;
+	    	if (ranges == null) {
+	    		return true;
+	    	}
+	    	// Ranges are sorted and disjoint - binary search on range starts
+	    	int lo = 0;
+	    	int hi = ranges.length / 2 - 1;
+	    	while (lo <= hi) {
+	    		int mid = (lo + hi) >>> 1;
+	    		if (seq < ranges[mid * 2]) {
+	    			hi = mid - 1;
+	    		} else if (seq >= ranges[mid * 2 + 1]) {
+	    			lo = mid + 1;
+	    		} else {
+	    			return true;
+	    		}
+	    	}
+	    	return false;
+	    }
+
 	    private Runnable createStatsTask() {
 	    	return () -> {
 	    		while (!Thread.currentThread().isInterrupted() && !stopRequested) {
@@ -420,37 +1321,36 @@ public class EnhancedFileTransferSender {
 	    	};
 	    }
 
-	    private Runnable createRetransmissionTask(ConcurrentLinkedQueue<Integer> retxQueue,
-	    		long fileId, int totalSeq, boolean[] initialTransmissionDone) {
+	    /**
+	     * Retransmission worker: sleeps on retxQueue until the NACK listener
+	     * queues a loss, so an idle transfer costs no CPU
+	     */
+	    private Runnable createRetransmissionTask(RetransmitQueue retxQueue, long fileId, int totalSeq) {
 	    	return () -> {
-	    		CRC32C retxCrc = new CRC32C();
+	    		PacketChecksum retxChecksum = checksumMode.newChecksum();
+	    		PacketCompressor retxCompressor = compressionMode.newCompressor(1);
 	    		CRC32C_Packet retxPkt = new CRC32C_Packet();
 	    		while (!Thread.currentThread().isInterrupted() && !stopRequested) {
-	    			Integer miss = retxQueue.poll();
-	    			if (miss == null) {
-	    				LockSupport.parkNanos(initialTransmissionDone[0] ? 1_000_000 : 50_000);
-	    				continue;
+	    			int miss;
+	    			try {
+	    				// Timed so stopRequested is seen without an interrupt
+	    				miss = retxQueue.poll(ChannelReadiness.IDLE_WAIT_MS, TimeUnit.MILLISECONDS);
+	    			} catch (InterruptedException e) {
+	    				Thread.currentThread().interrupt();
+	    				break;
 	    			}
 	    			if (miss < 0 || miss >= totalSeq) {
 	    				continue;
 	    			}
-	    			if (hybridControl != null && !hybridControl.canSendPacket()) {
-	    				retxQueue.offer(miss);
+	    			// Window closed: hold this loss until the controller lets it go
+	    			while (hybridControl != null && !hybridControl.canSendPacket()
+	    					&& !stopRequested && !Thread.currentThread().isInterrupted()) {
 	    				LockSupport.parkNanos(100_000);
-	    				continue;
 	    			}
-	    			try {
-	    				int chunkIdx = chunkManager.findChunkForSequence(miss);
-	    				if (chunkIdx < 0) {
-	    					continue;
-	    				}
-	    				ChunkMetadata chunkMeta = chunkManager.getChunkMetadata(chunkIdx);
-	    				MappedByteBuffer chunkBuffer = chunkManager.getChunk(chunkIdx);
-	    				int localSeq = chunkMeta.toLocalSequence(miss);
-	    				int localOff = chunkMeta.getLocalOffset(localSeq, SLICE_SIZE);
-	    				int take = chunkMeta.getPayloadSize(localSeq, SLICE_SIZE);
+	    			try (MappedWindow window = chunkManager.acquire(miss)) {
+	    				int take = window.payloadSize(miss);
 	    				if (take > 0) {
-	    					sendOne(retxCrc, retxPkt, chunkBuffer, fileId, miss, totalSeq, take, localOff);
+	    					sendOne(retxChecksum, retxCompressor, retxPkt, window.buffer(), fileId, miss, totalSeq, take, window.offsetOf(miss));
 	    				}
 	    			} catch (IOException e) {
 	    				System.err.println("Retransmission error for seq " + miss + ": " + e);
@@ -472,27 +1372,38 @@ public class EnhancedFileTransferSender {
 	    }
 	    
 	    private void waitForBackpressure(int bytesToSend) throws IOException {
-	    	if (flowController == null) {
-	    		return;
-	    	}
-	    	final long maxBuffered = Long.getLong("saferoom.transfer.buffer.maxBytes", 8L << 20);
-	    	while (flowController.bufferedAmount() + bytesToSend > maxBuffered) {
-	    		if (!flowController.isOpen()) {
-	    			throw new IOException("Transport closed");
-	    		}
-	    		LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+	    	if (flowController != null) {
+	    		flowController.awaitWritable(bytesToSend); // Parks until the buffer drains, no busy-wait
 	    	}
 	    }
 
-	    private ByteBuffer preparePayload(MappedByteBuffer mem, int off, int take) {
-	    	ByteBuffer slice = mem.duplicate();
-	    	slice.position(off).limit(off + take);
+	    /**
+	     * Deflated payload when compression is on and the bytes shrink, otherwise null
+	     */
+	    private ByteBuffer compress(PacketCompressor compressor, CRC32C_Packet pkt, ByteBuffer mem, int off, int take) {
+	    	if (compressor == null) {
+	    		return null;
+	    	}
+	    	ByteBuffer packed = compressor.compress(pkt.payloadView(mem, off, take));
+	    	if (packed != null) {
+	    		compressedRaw.add(take);
+	    		compressedWire.add(packed.remaining());
+	    	}
+	    	return packed;
+	    }
+	    
+	    /**
+	     * Payload for one frame: pkt's reusable view into mem (zero-copy), or a
+	     * pooled copy. Either way position..limit is exactly the payload.
+	     */
+	    private ByteBuffer preparePayload(CRC32C_Packet pkt, ByteBuffer mem, int off, int take) {
+	    	ByteBuffer view = pkt.payloadView(mem, off, take);
 	    	if (zeroCopyEnabled) {
-	    		return slice.slice();
+	    		return view;
 	    	}
 	    	ByteBuffer buffer = bufferPool.acquire();
 	    	buffer.clear();
-	    	buffer.put(slice);
+	    	buffer.put(view);
 	    	buffer.flip();
 	    	return buffer;
 	    }
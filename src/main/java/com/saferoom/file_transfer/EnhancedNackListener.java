@@ -4,32 +4,47 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
 
 public class EnhancedNackListener implements Runnable{
 	public final DatagramChannel channel;
 	public final long fileId;
 	public final int totalSeq;
-	public final ConcurrentLinkedQueue<Integer> retxQueue;
-	public final int backoffNs;
+	public final RetransmitQueue retxQueue; // Drained by the sender's retransmission worker
+	public final int backoffNs; // Park between reads when the channel cannot be selected
 	
 	// Completion callback
 	public volatile Runnable onTransferComplete = null;
 	
 	// Enhanced congestion control reference
-	public volatile HybridCongestionController hybridControl = null;
+	public volatile CongestionController hybridControl = null;
+	
+	// Cumulative ACK sink (sender unmaps windows the receiver already has)
+	public volatile IntConsumer onCumulativeAck = null;
+	
+	// false: only the receiver's completion signal ends the transfer (Merkle verification still running)
+	public volatile boolean completeOnMask = true;
+	private int lastCumAck = 0; // listener thread only
+	private ReceiveBitmap sackHoles;    // Holes already counted as lost (listener thread only)
+	private ReceiveBitmap sackReceived; // Receipts already counted as delivered (listener thread only)
 	
 	// RTT measurement - packet timestamp tracking
 	private final ConcurrentHashMap<Integer, Long> packetSendTimes = new ConcurrentHashMap<>();
 	private volatile long lastRttMeasurement = 0;
 	
     public static final int DEFAULT_BACKOFF_NS = 200_000;
+    
+    // Upper bound on retransmissions queued from one SACK frame (run blocks can be long)
+    public static final int MAX_SACK_ENQUEUE = 4096;
+    
+    // Re-offer spacing for SACK holes until the controller has an SRTT
+    public static final long DEFAULT_REOFFER_NS = 100_000_000L;
 
 	public EnhancedNackListener(DatagramChannel channel,
 			long fileId,
 			int totalSeq,
-			ConcurrentLinkedQueue<Integer> retxQueue,
+			RetransmitQueue retxQueue,
 			int backoffNs){
         this.channel   = channel;
         this.fileId    = fileId;
@@ -47,163 +62,192 @@ public class EnhancedNackListener implements Runnable{
 	
 	@Override
 	public void run() {
-		final ByteBuffer ctrl = ByteBuffer.allocateDirect(Math.max(NackFrame.SIZE, 8)); // Completion signal için 8 byte
+		final ByteBuffer ctrl = ByteBuffer.allocateDirect(SackFrame.MAX_SIZE); // NACK, SACK veya 8 byte completion
 		long lastCleanupTime = System.nanoTime();
 		
-		while(!Thread.currentThread().isInterrupted()) {
-			ctrl.clear();
-			try {
-				int r = channel.read(ctrl); //READ ONLY FROM CONNECTED PEER
-				if(r <= 0) {
-					LockSupport.parkNanos(backoffNs);
+		// Sleep until a control frame arrives instead of polling the channel
+		try (ChannelReadiness readiness = ChannelReadiness.of(channel, backoffNs)) {
+			while(!Thread.currentThread().isInterrupted()) {
+				ctrl.clear();
+				try {
+					int r = channel.read(ctrl); //READ ONLY FROM CONNECTED PEER
+					if(r <= 0) {
+						readiness.await(ChannelReadiness.IDLE_WAIT_MS);
 					
-					// Periodic cleanup of old timestamps (her 5 saniyede bir)
-					long now = System.nanoTime();
-					if (now - lastCleanupTime > 5_000_000_000L) {
-						cleanupOldTimestamps(now);
-						lastCleanupTime = now;
+						// Periodic cleanup of old timestamps (her 5 saniyede bir)
+						long now = System.nanoTime();
+						if (now - lastCleanupTime > 5_000_000_000L) {
+							cleanupOldTimestamps(now);
+							lastCleanupTime = now;
+						}
+						continue;
 					}
-					continue;
-				}
 				
-				long receiveTime = System.nanoTime();
+					long receiveTime = System.nanoTime();
 				
-				// Completion signal kontrolü (8 byte)
-				if(r == 8) {
-					ctrl.flip();
-					int magic = ctrl.getInt();
-					int receivedFileId = ctrl.getInt();
+					// Completion signal kontrolü (8 byte)
+					if(r == 8) {
+						ctrl.flip();
+						int magic = ctrl.getInt();
+						int receivedFileId = ctrl.getInt();
 					
-					if(magic == 0xDEADBEEF && receivedFileId == (int)fileId) {
-						System.out.println("Transfer completion signal received from receiver!");
-						if(onTransferComplete != null) {
-							try {
-								onTransferComplete.run();
-							} catch(Exception e) {
-								System.err.println("Error in completion callback: " + e.getMessage());
-								e.printStackTrace();
+						if(magic == 0xDEADBEEF && receivedFileId == (int)fileId) {
+							System.out.println("Transfer completion signal received from receiver!");
+							if(onTransferComplete != null) {
+								try {
+									onTransferComplete.run();
+								} catch(Exception e) {
+									System.err.println("Error in completion callback: " + e.getMessage());
+									e.printStackTrace();
+								}
+							} else {
+								System.err.println("onTransferComplete callback is null!");
 							}
-						} else {
-							System.err.println("onTransferComplete callback is null!");
+							break; // Exit listener loop
 						}
-						break; // Exit listener loop
+						continue;
 					}
-					continue;
-				}
 				
-				// NACK Frame tam boyut kontrolü - şimdi 28 byte (timestamp dahil)
-				if(r != NackFrame.SIZE) {
-					System.err.println("Invalid frame size: expected " + NackFrame.SIZE + " (NACK) or 8 (completion), received " + r + " bytes");
-					continue;
-				}
+					// Multi-window SACK (variable length)
+					if(r != NackFrame.SIZE && SackFrame.isSack(ctrl, r)) {
+						if(SackFrame.fileId(ctrl) == fileId) {
+							onSackFrame(ctrl);
+						}
+						continue;
+					}
 				
-				ctrl.flip();
+					// NACK Frame tam boyut kontrolü - şimdi 28 byte (timestamp dahil)
+					if(r != NackFrame.SIZE) {
+						System.err.println("Invalid frame size: expected " + NackFrame.SIZE + " (NACK) or 8 (completion), received " + r + " bytes");
+						continue;
+					}
 				
-				// Buffer'ın tam olarak frame size kadar olduğunu kontrol et
-				if(ctrl.remaining() != NackFrame.SIZE) {
-					System.err.println("Buffer remaining mismatch: expected " + NackFrame.SIZE + ", got " + ctrl.remaining());
-					continue;
-				}
+					ctrl.flip();
 				
-				long fid = NackFrame.fileId(ctrl);
-				if(fid != fileId) {
-					// Farklı dosya ID'si - sessizce atla
-					continue;
-				}
+					// Buffer'ın tam olarak frame size kadar olduğunu kontrol et
+					if(ctrl.remaining() != NackFrame.SIZE) {
+						System.err.println("Buffer remaining mismatch: expected " + NackFrame.SIZE + ", got " + ctrl.remaining());
+						continue;
+					}
 				
-				// RTT MEASUREMENT - NACK timestamp'ini al ve RTT hesapla!
-				long nackSentTime = NackFrame.timestamp(ctrl);
-				long nackReceiveTime = System.nanoTime();
-				long rttNs = nackReceiveTime - nackSentTime;
+					long fid = NackFrame.fileId(ctrl);
+					if(fid != fileId) {
+						// Farklı dosya ID'si - sessizce atla
+						continue;
+					}
 				
-				// RTT sanity check ve congestion control güncelle
-				if(rttNs > 50_000 && rttNs < 100_000_000) { // 50μs - 100ms arası
-					if(hybridControl != null) {
-						hybridControl.updateRtt(rttNs);
-						lastRttMeasurement = rttNs;
+					// RTT MEASUREMENT - NACK timestamp'ini al ve RTT hesapla!
+					long nackSentTime = NackFrame.timestamp(ctrl);
+					long nackReceiveTime = System.nanoTime();
+					long rttNs = nackReceiveTime - nackSentTime;
+				
+					// RTT sanity check ve congestion control güncelle
+					if(rttNs > 50_000 && rttNs < 100_000_000) { // 50μs - 100ms arası
+						if(hybridControl != null) {
+							hybridControl.updateRtt(rttNs);
+							lastRttMeasurement = rttNs;
+						}
 					}
-				}
 				
-				int base = NackFrame.baseSeq(ctrl);
-				long mask = NackFrame.mask64(ctrl);
+					int base = NackFrame.baseSeq(ctrl);
+					long mask = NackFrame.mask64(ctrl);
 				
-				// Base sequence validation
-				if(base < 0 || base >= totalSeq) {
-					System.err.println("Invalid base sequence: " + base + " (total: " + totalSeq + ")");
-					continue;
-				}
+					// Base sequence validation
+					if(base < 0 || base >= totalSeq) {
+						System.err.println("Invalid base sequence: " + base + " (total: " + totalSeq + ")");
+						continue;
+					}
 				
-				// Process NACKs - sadece loss ve delivery rate
-				int lossCount = 0;
-				int receivedCount = 0;
-				long totalRtt = 0;
-				int rttSamples = 0;
+					// Zero bits above the highest received one are usually still in flight:
+					// re-send them only in the last window (tail loss), and with an empty
+					// mask just the sequence holding the cumulative ACK back
+					boolean lastWindow = base + 64 >= totalSeq;
+					int highestReceived = 63 - Long.numberOfLeadingZeros(mask);
 				
-				for(int i = 0; i < 64; i++){
-					int seq = base + i;
-					if(seq >= totalSeq) break; // Son paketten sonrası için dur
+					IntConsumer ackSink = onCumulativeAck;
+					if(ackSink != null) {
+						ackSink.accept(base);
+					}
+					retxQueue.discardBelow(base); // Late arrivals - nothing to re-send below base
+					if(hybridControl != null) {
+						if(base > lastCumAck) {
+							hybridControl.onCumulativeAckAdvanced(base - lastCumAck);
+						}
+						hybridControl.onNackMask(base, mask);
+					}
+					lastCumAck = Math.max(lastCumAck, base);
+				
+					// Process NACKs - sadece loss ve delivery rate
+					int lossCount = 0;
+					int receivedCount = 0;
+					long totalRtt = 0;
+					int rttSamples = 0;
+				
+					for(int i = 0; i < 64; i++){
+						int seq = base + i;
+						if(seq >= totalSeq) break; // Son paketten sonrası için dur
 					
-					boolean received = ((mask >>> i) & 1L) == 1L;
-					if(!received) {
-						// NACK - retransmission gerekli
-						if(seq >= 0 && seq < totalSeq) {
-							boolean added = retxQueue.offer(seq);
-							if(!added) {
-								System.err.println("Failed to add seq " + seq + " to retransmission queue");
+						boolean received = ((mask >>> i) & 1L) == 1L;
+						if(!received) {
+							// NACK - retransmission gerekli
+							if(seq >= 0 && seq < totalSeq) {
+								if(i < highestReceived || lastWindow || i == 0) {
+									retxQueue.offer(seq); // No-op while seq is still pending
+								}
+								lossCount++;
 							}
-							lossCount++;
-						}
-					} else {
-						// Received (implicit ACK)
-						receivedCount++;
+						} else {
+							// Received (implicit ACK)
+							receivedCount++;
 						
-						// RTT calculation - sadece mantıklı RTT'ler
-						Long sendTime = packetSendTimes.remove(seq);
-						if (sendTime != null) {
-							long rtt = receiveTime - sendTime;
-							// Local network için: 50μs < RTT < 100ms
-							if (rtt > 50_000 && rtt < 100_000_000L) { 
-								totalRtt += rtt;
-								rttSamples++;
+							// RTT calculation - sadece mantıklı RTT'ler
+							Long sendTime = packetSendTimes.remove(seq);
+							if (sendTime != null) {
+								long rtt = receiveTime - sendTime;
+								// Local network için: 50μs < RTT < 100ms
+								if (rtt > 50_000 && rtt < 100_000_000L) { 
+									totalRtt += rtt;
+									rttSamples++;
+								}
 							}
 						}
 					}
-				}
 				
-				// RTT update (average of this NACK frame)
-				if (rttSamples > 0 && hybridControl != null) {
-					long avgRtt = totalRtt / rttSamples;
-					hybridControl.updateRtt(avgRtt);
-					lastRttMeasurement = receiveTime;
-				}
+					// RTT update (average of this NACK frame)
+					if (rttSamples > 0 && hybridControl != null) {
+						long avgRtt = totalRtt / rttSamples;
+						hybridControl.updateRtt(avgRtt);
+						lastRttMeasurement = receiveTime;
+					}
 				
-				// NACK frame feedback - bandwidth ve congestion update
-				// onNackFrameReceived() zaten loss'u handle ediyor, çift sayma yok!
-				if(hybridControl != null) {
-					hybridControl.onNackFrameReceived(receivedCount, lossCount);
-				}
+					// NACK frame feedback - bandwidth ve congestion update
+					// onNackFrameReceived() zaten loss'u handle ediyor, çift sayma yok!
+					if(hybridControl != null) {
+						hybridControl.onNackFrameReceived(receivedCount, lossCount);
+					}
 				
-				// Transfer completion kontrolü - eğer base + 64 >= totalSeq ve tüm bitler 1 ise tamamlanmış
-				int remainingPackets = totalSeq - base;
-				if(remainingPackets <= 64) {
-					// Son 64 paket içinde - tümünün alındığını kontrol et
-					long expectedMask = (1L << remainingPackets) - 1; // remainingPackets kadar bit 1
-					if((mask & expectedMask) == expectedMask) {
-						System.out.println("Transfer completed detected by sender! All packets received.");
-						if(onTransferComplete != null) {
-							try {
-								onTransferComplete.run();
-							} catch(Exception e) {
-								System.err.println("Transfer completion callback error: " + e);
+					// Transfer completion kontrolü - eğer base + 64 >= totalSeq ve tüm bitler 1 ise tamamlanmış
+					int remainingPackets = totalSeq - base;
+					if(remainingPackets <= 64 && completeOnMask) {
+						// Son 64 paket içinde - tümünün alındığını kontrol et
+						long expectedMask = (1L << remainingPackets) - 1; // remainingPackets kadar bit 1
+						if((mask & expectedMask) == expectedMask) {
+							System.out.println("Transfer completed detected by sender! All packets received.");
+							if(onTransferComplete != null) {
+								try {
+									onTransferComplete.run();
+								} catch(Exception e) {
+									System.err.println("Transfer completion callback error: " + e);
+								}
 							}
+							return; // Listener'ı sonlandır
 						}
-						return; // Listener'ı sonlandır
 					}
-				}
 				
-			}catch(IOException e) {
-				System.out.println("IO Error: " + e);
-				LockSupport.parkNanos(backoffNs);
+				}catch(IOException e) {
+					System.out.println("IO Error: " + e);
+					LockSupport.parkNanos(backoffNs);
+				}
 			}
 		}
 		
@@ -211,6 +255,74 @@ public class EnhancedNackListener implements Runnable{
 		packetSendTimes.clear();
 	}
 	
+	/**
+	 * Expand SACK blocks into retransmission requests. The receiver repeats
+	 * every hole on each NACK tick, so a hole is re-offered only once SRTT has
+	 * passed since it was last (re)sent - sooner, the copy is still in flight.
+	 * Loss and delivery feedback counts each hole and each receipt once.
+	 */
+	void onSackFrame(ByteBuffer frame) {
+		if(sackHoles == null) {
+			sackHoles = new ReceiveBitmap(totalSeq);
+			sackReceived = new ReceiveBitmap(totalSeq);
+		}
+		CongestionController cc = hybridControl;
+		long srtt = cc != null ? cc.getSmoothedRtt() : 0;
+		long now = System.nanoTime();
+		long resendBefore = now - (srtt > 0 ? srtt : DEFAULT_REOFFER_NS);
+		
+		int receivedCount = 0;
+		int lossCount = 0;
+		int holes = 0;
+		int blocks = SackFrame.blockCount(frame);
+		for(int b = 0; b < blocks && holes < MAX_SACK_ENQUEUE; b++) {
+			int base = SackFrame.blockBase(frame, b);
+			long bits = SackFrame.blockBits(frame, b);
+			if(base < 0 || base >= totalSeq) continue;
+			
+			if(SackFrame.isRun(frame, b)) {
+				long runEnd = base + Math.min(Math.max(0L, bits), MAX_SACK_ENQUEUE - holes);
+				int end = (int) Math.min((long) totalSeq, runEnd);
+				for(int seq = base; seq < end; seq++) {
+					if(onSackHole(seq, resendBefore)) {
+						lossCount++;
+					}
+				}
+				holes += Math.max(0, end - base);
+			} else {
+				for(int i = 0; i < 64; i++) {
+					int seq = base + i;
+					if(seq >= totalSeq) break;
+					if(((bits >>> i) & 1L) == 0) {
+						if(onSackHole(seq, resendBefore)) {
+							lossCount++;
+						}
+						holes++;
+					} else if(sackReceived.setIfAbsent(seq)) {
+						receivedCount++;
+					}
+				}
+			}
+		}
+		
+		if(cc != null && (receivedCount > 0 || lossCount > 0)) {
+			cc.onNackFrameReceived(receivedCount, lossCount);
+		}
+	}
+	
+	/**
+	 * Queue seq unless its last (re)send is newer than resendBefore
+	 *
+	 * @return true the first time seq is reported as a hole
+	 */
+	private boolean onSackHole(int seq, long resendBefore) {
+		Long sentAt = packetSendTimes.get(seq);
+		if(sentAt == null || sentAt - resendBefore <= 0) {
+			retxQueue.offer(seq); // No-op while seq is still pending
+		}
+		return sackHoles.setIfAbsent(seq);
+	}
+	
 	/**
 	 * Clean up old packet timestamps to prevent memory leak
 	 */
@@ -225,9 +337,9 @@ public class EnhancedNackListener implements Runnable{
 	 */
 	public String getRttStats() {
 		if (hybridControl != null) {
-			return String.format("RTT: %.1fms, Pending: %d", 
+			return String.format("RTT: %.1fms, Pending: %d, Retx queued: %d (%d repeats dropped)", 
 				hybridControl.getSmoothedRtt() / 1_000_000.0, 
-				packetSendTimes.size());
+				packetSendTimes.size(), retxQueue.size(), retxQueue.getSuppressedCount());
 		}
 		return "RTT: N/A";
 	}
@@ -0,0 +1,285 @@
+package com.saferoom.file_transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Many small files packed into one transfer
+ *
+ * Every file sent on its own costs a full SYN/ACK/SYN_ACK handshake and a
+ * fresh ChunkManager, which dominates for files of a few KB. A bundle puts
+ * them in one sequence space behind an index:
+ *
+ *   "SRBUNDL1" | entry count (int) | entries | file bytes, in entry order
+ *   entry = name length (u16) | UTF-8 relative path ('/' separated) | size (long)
+ *
+ * The bundle travels as an ordinary file named *.srbundle; the receiver
+ * recognises the name plus the magic and splits it back out (unpack).
+ * Large files are not bundled - packing copies the bytes once.
+ */
+public final class FileBundle {
+
+	public static final String EXTENSION = ".srbundle";
+	public static final int MAX_NAME_BYTES = 4096;
+
+	/** Files up to this size are bundled (saferoom.transfer.bundle.maxFileBytes) */
+	public static final long DEFAULT_MAX_FILE = 1L << 20;
+	/** Bundles are cut at this size (saferoom.transfer.bundle.maxBytes) */
+	public static final long DEFAULT_MAX_BUNDLE = 256L << 20;
+
+	private static final byte[] MAGIC = "SRBUNDL1".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * One file of a bundle: path relative to the bundle root and its size
+	 */
+	public record Entry(String name, long size) {
+	}
+
+	private FileBundle() {
+	}
+
+	public static long maxFileBytes() {
+		return Long.getLong("saferoom.transfer.bundle.maxFileBytes", DEFAULT_MAX_FILE);
+	}
+
+	public static long maxBundleBytes() {
+		return Math.max(maxFileBytes(), Long.getLong("saferoom.transfer.bundle.maxBytes", DEFAULT_MAX_BUNDLE));
+	}
+
+	/**
+	 * File name for bundle part (0-based) of parts sent for directory dirName
+	 */
+	public static String bundleName(String dirName, int part, int parts) {
+		return dirName + (parts > 1 ? ".part" + (part + 1) : "") + EXTENSION;
+	}
+
+	/**
+	 * Directory a bundle named by bundleName() unpacks into (all parts share it)
+	 */
+	public static String directoryName(String bundleName) {
+		String name = bundleName.endsWith(EXTENSION)
+			? bundleName.substring(0, bundleName.length() - EXTENSION.length()) : bundleName;
+		return name.replaceFirst("\\.part\\d+$", "");
+	}
+
+	/**
+	 * Regular files below dir, in a stable (sorted) order
+	 */
+	public static List<Path> listFiles(Path dir) throws IOException {
+		try (Stream<Path> walk = Files.walk(dir)) {
+			return walk.filter(Files::isRegularFile).sorted().toList();
+		}
+	}
+
+	/**
+	 * Split files (all below root) into bundles of at most maxBundleBytes()
+	 * containing only files of at most maxFileBytes(); larger files are left
+	 * out and should be sent on their own
+	 *
+	 * @return groups of files, one per bundle to pack
+	 */
+	public static List<List<Path>> plan(List<Path> files) throws IOException {
+		long maxFile = maxFileBytes();
+		long maxBundle = maxBundleBytes();
+		List<List<Path>> bundles = new ArrayList<>();
+		List<Path> current = new ArrayList<>();
+		long currentBytes = 0;
+		for (Path file : files) {
+			long size = Files.size(file);
+			if (size > maxFile) {
+				continue;
+			}
+			if (!current.isEmpty() && currentBytes + size > maxBundle) {
+				bundles.add(current);
+				current = new ArrayList<>();
+				currentBytes = 0;
+			}
+			current.add(file);
+			currentBytes += size;
+		}
+		if (!current.isEmpty()) {
+			bundles.add(current);
+		}
+		return bundles;
+	}
+
+	/**
+	 * Write files into a bundle at out; entry names are relative to root
+	 *
+	 * @throws IllegalArgumentException if a file lies outside root
+	 */
+	public static void pack(Path root, List<Path> files, Path out) throws IOException {
+		List<Entry> entries = new ArrayList<>(files.size());
+		for (Path file : files) {
+			entries.add(new Entry(relativeName(root, file), Files.size(file)));
+		}
+		try (FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(dst, encodeIndex(entries));
+			for (int i = 0; i < files.size(); i++) {
+				try (FileChannel src = FileChannel.open(files.get(i), StandardOpenOption.READ)) {
+					long size = entries.get(i).size();
+					long pos = 0;
+					while (pos < size) {
+						long n = src.transferTo(pos, size - pos, dst);
+						if (n <= 0) {
+							throw new IOException("File changed while bundling: " + files.get(i));
+						}
+						pos += n;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Whether path is a bundle (name and magic)
+	 */
+	public static boolean isBundle(Path path) {
+		if (!path.getFileName().toString().endsWith(EXTENSION) || !Files.isRegularFile(path)) {
+			return false;
+		}
+		try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+			while (magic.hasRemaining() && fc.read(magic) > 0) {
+				// read the whole magic
+			}
+			return !magic.hasRemaining() && ByteBuffer.wrap(MAGIC).equals(magic.flip());
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Split a bundle into targetDir, recreating the relative paths
+	 *
+	 * @return the extracted files, in bundle order
+	 * @throws IOException if the index is malformed, truncated or escapes targetDir
+	 */
+	public static List<Path> unpack(Path bundle, Path targetDir) throws IOException {
+		Path root = targetDir.toAbsolutePath().normalize();
+		try (FileChannel src = FileChannel.open(bundle, StandardOpenOption.READ)) {
+			List<Entry> entries = readIndex(src);
+			long pos = src.position();
+			if (pos + entries.stream().mapToLong(Entry::size).sum() != src.size()) {
+				throw new IOException("Bundle size does not match its index: " + bundle);
+			}
+			List<Path> out = new ArrayList<>(entries.size());
+			for (Entry entry : entries) {
+				Path target = root.resolve(entry.name()).normalize();
+				if (!target.startsWith(root) || target.equals(root)) {
+					throw new IOException("Bundle entry escapes target directory: " + entry.name());
+				}
+				Files.createDirectories(target.getParent());
+				try (FileChannel dst = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+					long done = 0;
+					while (done < entry.size()) {
+						long n = src.transferTo(pos + done, entry.size() - done, dst);
+						if (n <= 0) {
+							throw new IOException("Bundle truncated at " + entry.name());
+						}
+						done += n;
+					}
+				}
+				pos += entry.size();
+				out.add(target);
+			}
+			return out;
+		}
+	}
+
+	/**
+	 * Path of file relative to root, '/' separated (the bundle entry name)
+	 *
+	 * @throws IllegalArgumentException if file lies outside root
+	 */
+	public static String relativeName(Path root, Path file) {
+		Path absRoot = root.toAbsolutePath().normalize();
+		Path absFile = file.toAbsolutePath().normalize();
+		if (!absFile.startsWith(absRoot) || absFile.equals(absRoot)) {
+			throw new IllegalArgumentException(file + " is not below " + root);
+		}
+		StringBuilder name = new StringBuilder();
+		for (Path part : absRoot.relativize(absFile)) {
+			if (name.length() > 0) {
+				name.append('/');
+			}
+			name.append(part);
+		}
+		return name.toString();
+	}
+
+	private static ByteBuffer encodeIndex(List<Entry> entries) {
+		List<byte[]> names = new ArrayList<>(entries.size());
+		int size = MAGIC.length + Integer.BYTES;
+		for (Entry entry : entries) {
+			byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+			if (name.length > MAX_NAME_BYTES) {
+				throw new IllegalArgumentException("Name too long for bundle: " + entry.name());
+			}
+			names.add(name);
+			size += Short.BYTES + name.length + Long.BYTES;
+		}
+		ByteBuffer index = ByteBuffer.allocate(size).order(ByteOrder.BIG_ENDIAN);
+		index.put(MAGIC).putInt(entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			index.putShort((short) names.get(i).length).put(names.get(i)).putLong(entries.get(i).size());
+		}
+		return index.flip();
+	}
+
+	/**
+	 * Read the index from the start of fc; leaves fc positioned at the first file's bytes
+	 */
+	private static List<Entry> readIndex(FileChannel fc) throws IOException {
+		ByteBuffer head = readExactly(fc, MAGIC.length + Integer.BYTES);
+		byte[] magic = new byte[MAGIC.length];
+		head.get(magic);
+		int count = head.getInt();
+		if (!ByteBuffer.wrap(magic).equals(ByteBuffer.wrap(MAGIC)) || count < 0) {
+			throw new IOException("Not a file bundle");
+		}
+		List<Entry> entries = new ArrayList<>(Math.min(count, 1 << 16));
+		for (int i = 0; i < count; i++) {
+			int nameLen = Short.toUnsignedInt(readExactly(fc, Short.BYTES).getShort());
+			if (nameLen == 0 || nameLen > MAX_NAME_BYTES) {
+				throw new IOException("Bad bundle entry name length: " + nameLen);
+			}
+			ByteBuffer rest = readExactly(fc, nameLen + Long.BYTES);
+			byte[] name = new byte[nameLen];
+			rest.get(name);
+			long size = rest.getLong();
+			if (size < 0) {
+				throw new IOException("Bad bundle entry size: " + size);
+			}
+			entries.add(new Entry(new String(name, StandardCharsets.UTF_8), size));
+		}
+		return entries;
+	}
+
+	private static ByteBuffer readExactly(FileChannel fc, int len) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.BIG_ENDIAN);
+		while (buf.hasRemaining()) {
+			if (fc.read(buf) < 0) {
+				throw new IOException("Bundle index truncated");
+			}
+		}
+		return buf.flip();
+	}
+
+	private static void writeFully(FileChannel fc, ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			fc.write(buf);
+		}
+	}
+}
@@ -10,9 +10,12 @@ import java.nio.file.Path;
 import java.nio.MappedByteBuffer;
 import java.nio.file.StandardOpenOption;
 import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import com.saferoom.transport.TransportEndpoint;
+
 public class FileTransferReceiver {	
 	public  DatagramChannel channel;
 	public long fileId;
@@ -24,10 +27,35 @@ public class FileTransferReceiver {
 	public MappedByteBuffer mem_buf;  // Legacy support - will be replaced by ChunkManager
 	public ChunkManager chunkManager;  // NEW: Chunk-based I/O for unlimited file size
 	public static final long MAX_FILE_SIZE = 256L << 20;
-	public static final int SLICE_SIZE = 1450; // Maximum payload without fragmentation
+	public static final int SLICE_SIZE = HandShake_Packet.DEFAULT_SLICE; // Maximum payload without fragmentation
 	public static final int HEADER_SIZE = 22;
 	public static final int PACKET_SIZE = SLICE_SIZE + HEADER_SIZE;
 	
+	// Slice negotiated in the handshake (SYN offer -> ACK accept -> SYN_ACK final)
+	public int sliceSize = SLICE_SIZE;
+	private final int maxSlice = HandShake_Packet.configuredMaxSlice();
+	
+	// Payload checksum accepted in the ACK (CRC32C unless the sender asked otherwise)
+	public ChecksumMode checksumMode = ChecksumMode.CRC32C;
+	public CompressionMode compressionMode = CompressionMode.NONE;
+	// Sender follows data with XOR parity frames (ParityEncoder)
+	public boolean fecActive;
+	
+	// Whole-file verification: Merkle manifest sent between ACK and SYN_ACK (null = none)
+	public MerkleTree merkle;
+	private MerkleTree pendingMerkle;
+	
+	// Delta sync: earlier copy of this file to take matching blocks from (null = none)
+	public Path basePath;
+	private CompletableFuture<DeltaSync.Signatures> baseSignatures; // signed in the background from SYN on
+	private DeltaSync.Plan pendingDelta;
+	private DeltaSync.Plan deltaPlan;       // copies applied in initialize()
+	
+	// Resume support (SYN_RESUME)
+	public long resumeToken = 0;
+	public TransferCheckpoint checkpoint;   // null when sender did not ask for resume
+	private ReceiveBitmap resumedBitmap;    // bitmap loaded from a matching sidecar
+	
 	// Transfer timing
 	private long transferStartTime = 0;
 	private long transferEndTime = 0;
@@ -45,7 +73,7 @@ public class FileTransferReceiver {
 		if(channel == null){
 			throw new IllegalStateException("Datagram Channel is null you must bind and connect first");
 		}
-		ByteBuffer rcv_syn = ByteBuffer.allocateDirect(HandShake_Packet.HEADER_SIZE)
+		ByteBuffer rcv_syn = ByteBuffer.allocateDirect(HandShake_Packet.SYN_RESUME_FEC_SIZE)
 			.order(ByteOrder.BIG_ENDIAN);
 
 		rcv_syn.clear();
@@ -85,10 +113,10 @@ public class FileTransferReceiver {
 					senderAddress, rcv_syn.position());
 				
 				r = rcv_syn.position();
-				if( r == 0 || r != HandShake_Packet.HEADER_SIZE || HandShake_Packet.get_signal(rcv_syn) != HandShake_Packet.SYN) {
+				if(!isSyn(rcv_syn, r)) {
 					LockSupport.parkNanos(1_000_000); // 1ms bekleme
 				}
-			}while( r == 0 || r != HandShake_Packet.HEADER_SIZE || HandShake_Packet.get_signal(rcv_syn) != HandShake_Packet.SYN);
+			}while(!isSyn(rcv_syn, r));
 		}catch(IOException e ){
 			System.err.println("IO Error during handshake: " + e);
 			return false;
@@ -97,9 +125,29 @@ public class FileTransferReceiver {
 		fileId = HandShake_Packet.get_file_Id(rcv_syn);
 		file_size = HandShake_Packet.get_file_size(rcv_syn);
 		total_seq = HandShake_Packet.get_total_seq(rcv_syn);
+		resumeToken = HandShake_Packet.get_signal(rcv_syn) == HandShake_Packet.SYN_RESUME
+			? HandShake_Packet.get_resume_token(rcv_syn) : 0;
+		final boolean sliceOffered = r >= HandShake_Packet.SYN_SIZE;
+		final int offeredSlice = HandShake_Packet.get_slice(rcv_syn, r);
+		int acceptedSlice = Math.max(SLICE_SIZE, Math.min(offeredSlice, maxSlice));
+		sliceSize = SLICE_SIZE;
+		ChecksumMode requestedChecksum = ChecksumMode.fromWireId(HandShake_Packet.get_checksum(rcv_syn, r));
+		ChecksumMode acceptedChecksum = ChecksumMode.accept(requestedChecksum,
+			channel instanceof TransportEndpoint endpoint && endpoint.isAuthenticated());
+		checksumMode = ChecksumMode.CRC32C;
+		CompressionMode acceptedCompression = CompressionMode.accept(
+			CompressionMode.fromWireId(HandShake_Packet.get_compression(rcv_syn, r)));
+		compressionMode = CompressionMode.NONE;
+		boolean acceptedFec = ParityEncoder.enabled() && HandShake_Packet.get_fec(rcv_syn, r);
+		fecActive = false;
+		merkle = null;
+		pendingMerkle = null;
+		pendingDelta = null;
+		deltaPlan = null;
+		baseSignatures = null;
 		
-		System.out.printf("[RECEIVER-HANDSHAKE] SYN received: fileId=%d, size=%d, chunks=%d%n", 
-			fileId, file_size, total_seq);
+		System.out.printf("[RECEIVER-HANDSHAKE] SYN received: fileId=%d, size=%d, chunks=%d, slice offer=%d, checksum=%s%n", 
+			fileId, file_size, total_seq, offeredSlice, acceptedChecksum.label);
 		
 		if(fileId != 0 && file_size != 0 && total_seq != 0)
 		 {
@@ -117,7 +165,13 @@ public class FileTransferReceiver {
 			 }
 			 
 			 HandShake_Packet ack_pkt = new HandShake_Packet();
-			ack_pkt.make_ACK(fileId, file_size, total_seq);
+			if(prepareResume(ack_pkt, offeredSlice, acceptedChecksum, acceptedCompression, acceptedFec)) {
+				acceptedSlice = checkpoint.getSliceSize(); // Bitmap is in units of the old slice
+			} else {
+				ack_pkt.make_ACK(fileId, file_size, total_seq, sliceOffered ? acceptedSlice : -1, acceptedChecksum,
+					acceptedCompression, acceptedFec);
+				startBaseSigning();
+			}
 			
 			System.out.printf("[RECEIVER-HANDSHAKE] Sending ACK for fileId=%d%n", fileId);
 			
@@ -138,25 +192,101 @@ public class FileTransferReceiver {
 			System.out.println("[RECEIVER-HANDSHAKE] 🔄 Waiting for SYN_ACK (0x11)...");
 			long synAckDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
 			int synAckAttempts = 0;
+			// Large enough for a full-size PMTU probe
+			ByteBuffer rcv_ctrl = ByteBuffer.allocateDirect(
+				Math.max(HandShake_Packet.SYN_RESUME_FEC_SIZE, HEADER_SIZE + acceptedSlice)).order(ByteOrder.BIG_ENDIAN);
+			HandShake_Packet probe_ack = new HandShake_Packet();
+			HandShake_Packet merkle_ack = new HandShake_Packet();
+			HandShake_Packet delta_ack = new HandShake_Packet();
 			
 			try{
 				do{
 					// CRITICAL: Clear buffer before each read attempt!
-					rcv_syn.clear();
-					t = channel.read(rcv_syn);
+					rcv_ctrl.clear();
+					t = channel.read(rcv_ctrl);
+					
+					if(t > 0 && rcv_ctrl.get(0) == HandShake_Packet.PROBE) {
+						// Path MTU probe - echo only if the whole datagram arrived
+						if(t >= HandShake_Packet.PROBE_ACK_SIZE
+								&& HandShake_Packet.get_file_Id(rcv_ctrl) == fileId
+								&& HandShake_Packet.get_probe_size(rcv_ctrl) == t) {
+							probe_ack.make_PROBE_ACK(fileId, t);
+							channel.write(probe_ack.get_header().duplicate());
+						}
+						continue;
+					}
+					
+					if(t > 0 && rcv_ctrl.get(0) == HandShake_Packet.MERKLE) {
+						// Merkle manifest - every packet is answered with the first leaf still missing
+						if(t >= HandShake_Packet.OFF_MERKLE_HASHES
+								&& HandShake_Packet.get_file_Id(rcv_ctrl) == fileId) {
+							int next = onMerklePacket(rcv_ctrl, t);
+							if(next >= 0) {
+								merkle_ack.make_MERKLE_ACK(fileId, next);
+								channel.write(merkle_ack.get_header().duplicate());
+							}
+						}
+						continue;
+					}
+					
+					if(t > 0 && (rcv_ctrl.get(0) == HandShake_Packet.DELTA_REQ || rcv_ctrl.get(0) == HandShake_Packet.DELTA_COPY)
+							&& t >= HandShake_Packet.DELTA_REQ_SIZE
+							&& HandShake_Packet.get_file_Id(rcv_ctrl) == fileId) {
+						// Sender is still working on the delta (signing, matching) - keep waiting
+						synAckDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+						if(rcv_ctrl.get(0) == HandShake_Packet.DELTA_REQ) {
+							sendSignatures(HandShake_Packet.get_delta_first(rcv_ctrl));
+						} else {
+							int next = onDeltaPacket(rcv_ctrl, t);
+							if(next >= 0) {
+								delta_ack.make_DELTA_COPY_ACK(fileId, next);
+								channel.write(delta_ack.get_header().duplicate());
+							}
+						}
+						continue;
+					}
 					
 					if(t > 0) {
-						byte signal = rcv_syn.get(0);
+						byte signal = rcv_ctrl.get(0);
 						System.out.printf("[RECEIVER-HANDSHAKE] Read %d bytes, signal: 0x%02X%n", t, signal);
 						
+						// SYN retransmit - our ACK was lost, send it again
+						if((signal == HandShake_Packet.SYN || signal == HandShake_Packet.SYN_RESUME)
+								&& t >= HandShake_Packet.HEADER_SIZE
+								&& HandShake_Packet.get_file_Id(rcv_ctrl) == fileId) {
+							ack_pkt.resetForRetransmitter();
+							channel.write(ack_pkt.get_header().duplicate());
+						}
+						
 						// Check if it's SYN_ACK (0x11) with correct fileId
-						if(signal == 0x11) {
-							long receivedFileId = HandShake_Packet.get_file_Id(rcv_syn);
+						if(signal == HandShake_Packet.SYN_ACK) {
+							long receivedFileId = HandShake_Packet.get_file_Id(rcv_ctrl);
 							System.out.printf("[RECEIVER-HANDSHAKE] ✅ SYN_ACK received! fileId=%d (expected=%d)%n", 
 								receivedFileId, fileId);
 							
 							if(receivedFileId == fileId) {
-								System.out.println("[RECEIVER-HANDSHAKE] ✅ Handshake COMPLETE! Returning true...");
+								if(!applySlice(HandShake_Packet.get_syn_ack_slice(rcv_ctrl, t), acceptedSlice)) {
+									return false;
+								}
+								checksumMode = acceptedChecksum;
+								compressionMode = acceptedCompression;
+								fecActive = acceptedFec;
+								if(pendingMerkle != null && pendingMerkle.isComplete()) {
+									merkle = pendingMerkle;
+									System.out.printf("[RECEIVER-HANDSHAKE] Whole-file verification on: %d blocks%n",
+										merkle.getLeafCount());
+								}
+								pendingMerkle = null;
+								// Copies are only trusted when every block is verified afterwards
+								if(merkle != null && pendingDelta != null && pendingDelta.isComplete()) {
+									deltaPlan = pendingDelta;
+									System.out.printf("[RECEIVER-HANDSHAKE] Delta sync: %d blocks (%d MB) taken from %s%n",
+										deltaPlan.getCount(), deltaPlan.getCopiedBytes() >> 20, basePath.getFileName());
+								}
+								pendingDelta = null;
+								baseSignatures = null;
+								System.out.printf("[RECEIVER-HANDSHAKE] ✅ Handshake COMPLETE! slice=%d, chunks=%d, checksum=%s, compression=%s, fec=%s%n",
+									sliceSize, total_seq, checksumMode.label, compressionMode.label, fecActive ? "on" : "off");
 								return true;
 							} else {
 								System.err.printf("[RECEIVER-HANDSHAKE] ❌ FileId mismatch: got=%d, expected=%d%n",
@@ -188,6 +318,196 @@ public class FileTransferReceiver {
 		return false;
 	}
 	
+	private static boolean isSyn(ByteBuffer pkt, int r) {
+		return HandShake_Packet.is_syn(pkt, r);
+	}
+	
+	/**
+	 * Store the leaves of one MERKLE packet
+	 *
+	 * @return first leaf still missing, or -1 if the manifest is unusable
+	 */
+	private int onMerklePacket(ByteBuffer pkt, int len) {
+		int count = HandShake_Packet.get_merkle_count(pkt);
+		if(len < HandShake_Packet.OFF_MERKLE_HASHES + count * MerkleTree.HASH_SIZE) {
+			return -1;
+		}
+		if(pendingMerkle == null) {
+			try {
+				pendingMerkle = MerkleTree.expect(file_size, HandShake_Packet.get_merkle_block(pkt),
+					HandShake_Packet.get_merkle_leaves(pkt), HandShake_Packet.get_merkle_root(pkt));
+			} catch(IllegalArgumentException e) {
+				System.err.println("[RECEIVER-HANDSHAKE] " + e.getMessage());
+				return -1;
+			}
+		}
+		return pendingMerkle.putLeaves(HandShake_Packet.get_merkle_first(pkt), count,
+			pkt, HandShake_Packet.OFF_MERKLE_HASHES);
+	}
+	
+	/**
+	 * Sign basePath in the background so DELTA_REQ can be answered without
+	 * stalling the handshake
+	 */
+	private void startBaseSigning() {
+		Path base = basePath;
+		if(base == null || !DeltaSync.enabled() || file_size < DeltaSync.MIN_FILE_BYTES
+				|| base.toAbsolutePath().equals(filePath.toAbsolutePath())) {
+			return;
+		}
+		CompletableFuture<DeltaSync.Signatures> signatures = new CompletableFuture<>();
+		Thread signer = new Thread(() -> {
+			try(FileChannel in = FileChannel.open(base, StandardOpenOption.READ)) {
+				signatures.complete(DeltaSync.Signatures.compute(in));
+			} catch(IOException | RuntimeException e) {
+				System.err.println("[RECEIVER-HANDSHAKE] Delta base unreadable: " + e.getMessage());
+				signatures.completeExceptionally(e);
+			}
+		}, "delta-sign");
+		signer.setDaemon(true);
+		signer.start();
+		baseSignatures = signatures;
+	}
+	
+	/**
+	 * Answer DELTA_REQ: a window of signatures from first on, "not ready" while
+	 * the base is still being signed, or "no base"
+	 */
+	private void sendSignatures(int first) throws IOException {
+		CompletableFuture<DeltaSync.Signatures> signatures = baseSignatures;
+		if(signatures != null && !signatures.isDone()) {
+			channel.write(HandShake_Packet.make_DELTA_SIG(fileId, null, true, 0, 0));
+			return;
+		}
+		DeltaSync.Signatures sigs = signatures == null || signatures.isCompletedExceptionally()
+			? null : signatures.join();
+		if(sigs == null || first < 0 || first >= sigs.getBlockCount()) {
+			channel.write(HandShake_Packet.make_DELTA_SIG(fileId, sigs, false, 0, 0));
+			return;
+		}
+		for(int p = 0; p < EnhancedFileTransferSender.DELTA_WINDOW && first < sigs.getBlockCount(); p++) {
+			int count = Math.min(HandShake_Packet.DELTA_PER_PACKET, sigs.getBlockCount() - first);
+			channel.write(HandShake_Packet.make_DELTA_SIG(fileId, sigs, false, first, count));
+			first += count;
+		}
+	}
+	
+	/**
+	 * Store the copy instructions of one DELTA_COPY packet
+	 *
+	 * @return first instruction still missing, or -1 if the plan is unusable
+	 */
+	private int onDeltaPacket(ByteBuffer pkt, int len) {
+		int count = HandShake_Packet.get_delta_copy_count(pkt);
+		CompletableFuture<DeltaSync.Signatures> signatures = baseSignatures;
+		if(len < HandShake_Packet.OFF_DELTA_COPIES + count * DeltaSync.COPY_SIZE
+				|| signatures == null || !signatures.isDone() || signatures.isCompletedExceptionally()) {
+			return -1;
+		}
+		DeltaSync.Signatures sigs = signatures.join();
+		if(pendingDelta == null) {
+			try {
+				pendingDelta = DeltaSync.Plan.expect(sigs.getBlockSize(), HandShake_Packet.get_delta_total(pkt));
+			} catch(IllegalArgumentException e) {
+				System.err.println("[RECEIVER-HANDSHAKE] " + e.getMessage());
+				return -1;
+			}
+		}
+		int next = pendingDelta.put(HandShake_Packet.get_delta_copy_first(pkt), count,
+			pkt, HandShake_Packet.OFF_DELTA_COPIES);
+		if(pendingDelta.isComplete() && !pendingDelta.isValid(file_size, sigs.getBlockCount())) {
+			System.err.println("[RECEIVER-HANDSHAKE] Delta copies out of range - ignoring them");
+			baseSignatures = null; // Answers nothing more; the sender falls back to a full send
+			pendingDelta = null;
+			return -1;
+		}
+		return next;
+	}
+	
+	/**
+	 * Write the blocks the sender told us to take from basePath. On failure
+	 * those sequences simply stay missing and are NACKed like any other.
+	 */
+	private void applyDelta() {
+		try(FileChannel base = FileChannel.open(basePath, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(filePath, StandardOpenOption.WRITE)) {
+			long start = System.nanoTime();
+			deltaPlan.apply(base, out);
+			out.force(false);
+			System.out.printf("[RECEIVER] Delta copies applied in %d ms%n",
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		} catch(IOException e) {
+			System.err.println("[RECEIVER] Delta copy failed, receiving everything: " + e.getMessage());
+			deltaPlan = null;
+		}
+	}
+	
+	/**
+	 * Adopt the slice the sender settled on in SYN_ACK and derive total_seq from it.
+	 * A resumed transfer must keep the checkpoint's slice, otherwise the resume is dropped.
+	 *
+	 * @return false if the sender picked a slice we never accepted
+	 */
+	private boolean applySlice(int finalSlice, int acceptedSlice) {
+		if(finalSlice < SLICE_SIZE || finalSlice > acceptedSlice) {
+			System.err.printf("[RECEIVER-HANDSHAKE] ❌ Invalid slice in SYN_ACK: %d (accepted %d)%n",
+				finalSlice, acceptedSlice);
+			return false;
+		}
+		sliceSize = finalSlice;
+		total_seq = ChunkManager.sequenceCount(file_size, sliceSize);
+		
+		if(resumedBitmap != null && checkpoint.getSliceSize() != sliceSize) {
+			System.out.println("[RECEIVER-HANDSHAKE] Sender changed slice size - starting over");
+			resumedBitmap = null;
+			checkpoint = null;
+		}
+		if(checkpoint == null && resumeToken != 0) {
+			checkpoint = new TransferCheckpoint(filePath, resumeToken, file_size, total_seq, sliceSize);
+		}
+		return true;
+	}
+	
+	/**
+	 * SYN_RESUME handling: look up a sidecar for the token and, if one matches,
+	 * build an ACK_RESUME listing the ranges still missing.
+	 *
+	 * @return true if ack_pkt was filled with ACK_RESUME
+	 */
+	private boolean prepareResume(HandShake_Packet ack_pkt, int offeredSlice, ChecksumMode acceptedChecksum,
+			CompressionMode acceptedCompression, boolean acceptedFec) {
+		checkpoint = null;
+		resumedBitmap = null;
+		if(resumeToken == 0) {
+			return false;
+		}
+		
+		// Fresh checkpoint is created once the slice is final (applySlice)
+		TransferCheckpoint found = TransferCheckpoint.find(filePath, resumeToken, file_size, offeredSlice);
+		if(found == null) {
+			return false;
+		}
+		
+		ReceiveBitmap bitmap = new ReceiveBitmap(found.getTotalSeq());
+		if(!found.loadInto(bitmap)) {
+			return false;
+		}
+		
+		checkpoint = found;
+		resumedBitmap = bitmap;
+		if(!found.getOutputPath().equals(filePath)) {
+			System.out.printf("[RECEIVER-HANDSHAKE] Resuming into existing output: %s%n", found.getOutputPath());
+			filePath = found.getOutputPath();
+		}
+		
+		int[] ranges = new int[HandShake_Packet.MAX_RESUME_RANGES * 2];
+		int rangeCount = TransferCheckpoint.missingRanges(bitmap, ranges, HandShake_Packet.MAX_RESUME_RANGES);
+		ack_pkt.make_ACK_RESUME(fileId, file_size, total_seq, found.getSliceSize(), ranges, rangeCount, acceptedChecksum,
+			acceptedCompression, acceptedFec);
+		System.out.printf("[RECEIVER-HANDSHAKE] Sending ACK_RESUME: %d missing range(s)%n", rangeCount);
+		return true;
+	}
+	
 	public boolean initialize()
 	{
 		try{
@@ -198,10 +518,13 @@ public class FileTransferReceiver {
 						,StandardOpenOption.SYNC);
 
 				fc.truncate(file_size);
+				if (deltaPlan != null) {
+					applyDelta();
+				}
 				
 				// Initialize ChunkManager for unlimited file size support
 				// Use existing FileChannel (READ_WRITE mode)
-				this.chunkManager = new ChunkManager(fc, file_size, SLICE_SIZE);
+				this.chunkManager = new ChunkManager(fc, file_size, sliceSize);
 				
 				// Legacy: Keep mem_buf for backward compatibility (will map first chunk)
 				if (file_size <= MAX_FILE_SIZE) {
@@ -237,10 +560,28 @@ public class FileTransferReceiver {
 	// Use appropriate constructor based on file size
 	if (mem_buf != null) {
 		// Small file: use legacy MappedByteBuffer mode
-		sender = new NackSender(channel, fileId, file_size, total_seq, mem_buf, receiverCongestionControl);
+		sender = new NackSender(channel, fileId, file_size, total_seq, mem_buf, receiverCongestionControl, sliceSize);
 	} else {
 		// Large file: use ChunkManager mode
-		sender = new NackSender(channel, fileId, file_size, total_seq, chunkManager, receiverCongestionControl);
+		sender = new NackSender(channel, fileId, file_size, total_seq, chunkManager, receiverCongestionControl, sliceSize);
+	}
+	
+	sender.checksum = checksumMode.newChecksum();
+	sender.compressor = compressionMode.newCompressor(1);
+	sender.fecEnabled = fecActive;
+	if (merkle != null) {
+		sender.verifier = new MerkleVerifier(merkle, chunkManager, fc);
+	}
+	
+	// Resume: persist the bitmap periodically, seed it from the sidecar if found
+	sender.checkpoint = checkpoint;
+	if (resumedBitmap != null) {
+		sender.restoreFrom(resumedBitmap);
+		resumedBitmap = null;
+	} else if (deltaPlan != null) {
+		// Copied sequences are never sent - count them as received
+		sender.restoreFrom(deltaPlan.coveredBitmap(file_size, sliceSize));
+		deltaPlan = null;
 	}
 	
 	// Transfer completion için CountDownLatch kullan
@@ -270,6 +611,12 @@ public class FileTransferReceiver {
 		}
 		
 		t.interrupt();
+		try {
+			// NackSender flushes its last checkpoint on the way out
+			t.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 		
 		// Transfer timing'i sonlandır
 		transferEndTime = System.currentTimeMillis();
@@ -282,6 +629,13 @@ public class FileTransferReceiver {
 			completionFrame.flip();
 			
 			channel.write(completionFrame);
+			if (merkle != null) {
+				// Verified sender waits for this signal alone - send it twice more
+				for (int i = 0; i < 2; i++) {
+					Thread.sleep(20);
+					channel.write(completionFrame.rewind());
+				}
+			}
 			System.out.println("Transfer completion signal sent to sender");
 			
 			// Signal'ın gönderilmesi için kısa bir bekleme
@@ -292,7 +646,22 @@ public class FileTransferReceiver {
 		}
 		
 		System.out.println("File transfer completed successfully!");
+		if (sender.compressor != null) {
+			PacketCompressor c = sender.compressor;
+			if (c.rawBytes() > 0) {
+				System.out.printf("Compression: %d MB arrived as %d MB%n", c.rawBytes() >> 20, c.packedBytes() >> 20);
+			}
+			c.close();
+		}
+		if (sender.getRecoveredCount() > 0) {
+			System.out.printf("FEC: %d lost packets rebuilt from parity%n", sender.getRecoveredCount());
+		}
 		
+		try {
+			chunkManager.close(); // unmaps remaining windows, closes fc
+		} catch (IOException e) {
+			System.err.println("ChunkManager close error: " + e);
+		}
 
 	}else{
 		System.out.println("Initialization Error ");
@@ -7,39 +7,245 @@ import java.nio.ByteOrder;
 public class HandShake_Packet {
 
 public static final byte SYN = 0x01;
+public static final byte SYN_RESUME = 0x02;   // SYN + resume token
+public static final byte PROBE = 0x03;        // Path MTU probe (padded to data packet size)
+public static final byte MERKLE = 0x04;       // Merkle root + a run of leaf hashes
+public static final byte DELTA_REQ = 0x05;    // Ask for the receiver's base block signatures
+public static final byte DELTA_COPY = 0x06;   // A run of delta copy instructions
 public static final byte ACK = 0x10;
 public static final byte SYN_ACK = 0x11;
+public static final byte ACK_RESUME = 0x12;   // ACK + missing sequence ranges
+public static final byte PROBE_ACK = 0x13;    // Probe echo (size only)
+public static final byte MERKLE_ACK = 0x14;   // First Merkle leaf still missing
+public static final byte DELTA_SIG = 0x15;    // A run of base block signatures
+public static final byte DELTA_COPY_ACK = 0x16; // First copy instruction still missing
 
 	public static final int OFF_SIG = 0;
 	public static final int OFF_FILE_ID = 1;
 	public static final int OFF_FILE_SIZE = 9;
 	public static final int OFF_TOTAL_SEQ = 17;  // Changed: now after long file_size
+	public static final int OFF_SLICE = 21;        // SYN: max slice offered, ACK: slice accepted (u16)
+	public static final int OFF_RESUME_TOKEN = 23; // SYN_RESUME only
+	public static final int OFF_RANGE_COUNT = 23;  // ACK_RESUME only
+	public static final int OFF_RANGES = 25;       // ACK_RESUME: [start int, end int) pairs
+	public static final int OFF_SYN_ACK_SLICE = 9; // SYN_ACK: final slice (u16)
+	public static final int OFF_PROBE_SIZE = 9;    // PROBE / PROBE_ACK: probe datagram size (u16)
+	public static final int OFF_CHECKSUM = 23;        // SYN: mode requested, ACK: mode accepted (ChecksumMode.wireId)
+	public static final int OFF_RESUME_CHECKSUM = 31; // SYN_RESUME; ACK_RESUME carries it after the ranges
+	public static final int OFF_COMPRESSION = 24;        // SYN: mode requested, ACK: mode accepted (CompressionMode.wireId)
+	public static final int OFF_RESUME_COMPRESSION = 32; // SYN_RESUME; ACK_RESUME carries it after the checksum
+	public static final int OFF_FEC = 25;             // SYN: parity wanted, ACK: parity accepted (1/0)
+	public static final int OFF_RESUME_FEC = 33;      // SYN_RESUME; ACK_RESUME carries it after the compression
+	public static final int OFF_MERKLE_BLOCK = 9;     // MERKLE: block size (int)
+	public static final int OFF_MERKLE_LEAVES = 13;   // MERKLE: leaf count (int)
+	public static final int OFF_MERKLE_ROOT = 17;     // MERKLE: root hash (32)
+	public static final int OFF_MERKLE_FIRST = 49;    // MERKLE: first leaf in this packet (int)
+	public static final int OFF_MERKLE_COUNT = 53;    // MERKLE: leaves in this packet (u16)
+	public static final int OFF_MERKLE_HASHES = 55;   // MERKLE: count x 32 byte leaf hashes
+	public static final int OFF_MERKLE_NEXT = 9;      // MERKLE_ACK: first missing leaf (int)
+	public static final int OFF_DELTA_FIRST = 9;      // DELTA_REQ: first signature wanted (int)
+	public static final int OFF_DELTA_BASE = 9;       // DELTA_SIG: base size (long)
+	public static final int OFF_DELTA_BLOCK = 17;     // DELTA_SIG: block size (int)
+	public static final int OFF_DELTA_BLOCKS = 21;    // DELTA_SIG: block count (int), -1 = not signed yet
+	public static final int OFF_DELTA_SIG_FIRST = 25; // DELTA_SIG: first signature in this packet (int)
+	public static final int OFF_DELTA_SIG_COUNT = 29; // DELTA_SIG: signatures in this packet (u16)
+	public static final int OFF_DELTA_SIGS = 31;      // DELTA_SIG: count x DeltaSync.SIG_SIZE
+	public static final int OFF_DELTA_TOTAL = 9;      // DELTA_COPY: instruction count (int)
+	public static final int OFF_DELTA_COPY_FIRST = 13; // DELTA_COPY: first instruction in this packet (int)
+	public static final int OFF_DELTA_COPY_COUNT = 17; // DELTA_COPY: instructions in this packet (u16)
+	public static final int OFF_DELTA_COPIES = 19;    // DELTA_COPY: count x DeltaSync.COPY_SIZE
+	public static final int OFF_DELTA_NEXT = 9;       // DELTA_COPY_ACK: first missing instruction (int)
+
+	public static final int HEADER_SIZE = 21;  // Changed: 1 + 8 + 8 + 4 = 21 bytes (legacy SYN/ACK, slice = DEFAULT_SLICE)
+	public static final int SYN_SIZE = HEADER_SIZE + 2;        // 23 bytes, with slice
+	public static final int SYN_RESUME_SIZE = SYN_SIZE + 8;    // 31 bytes
+	public static final int SYN_CHECKSUM_SIZE = SYN_SIZE + 1;  // 24 bytes, SYN/ACK with checksum mode
+	public static final int SYN_RESUME_CHECKSUM_SIZE = SYN_RESUME_SIZE + 1; // 32 bytes
+	public static final int SYN_COMPRESSION_SIZE = SYN_CHECKSUM_SIZE + 1;   // 25 bytes, SYN/ACK with compression
+	public static final int SYN_RESUME_COMPRESSION_SIZE = SYN_RESUME_CHECKSUM_SIZE + 1; // 33 bytes
+	public static final int SYN_FEC_SIZE = SYN_COMPRESSION_SIZE + 1;        // 26 bytes, SYN/ACK with parity
+	public static final int SYN_RESUME_FEC_SIZE = SYN_RESUME_COMPRESSION_SIZE + 1; // 34 bytes
+	public static final int LEGACY_SYN_ACK_SIZE = 9;
+	public static final int SYN_ACK_SIZE = 11;
+	public static final int PROBE_ACK_SIZE = 11;
+	public static final int MERKLE_ACK_SIZE = 13;
+	public static final int MERKLE_LEAVES_PER_PACKET = 40; // 55 + 40 * 32 = 1335 bytes, MTU-safe
+	public static final int DELTA_REQ_SIZE = 13;
+	public static final int DELTA_COPY_ACK_SIZE = 13;
+	public static final int DELTA_PER_PACKET = 100;        // 31 + 100 * 12 = 1231 bytes, MTU-safe
+	public static final int MAX_RESUME_RANGES = 128;
+	public static final int MAX_SIZE = OFF_RANGES + MAX_RESUME_RANGES * 8 + 3; // 1052 bytes, MTU-safe
+	
+	/** Slice (payload per packet) every peer supports: 1500 MTU - IP/UDP - 22 byte data header */
+	public static final int DEFAULT_SLICE = 1450;
+	/** Upper bound for negotiated slices (9000 byte jumbo MTU) */
+	public static final int MAX_SLICE = 8950;
+
+	/**
+	 * Largest slice this peer offers/accepts: saferoom.transfer.maxSlice,
+	 * clamped to [DEFAULT_SLICE, MAX_SLICE]. DEFAULT_SLICE disables jumbo mode.
+	 */
+	public static int configuredMaxSlice() {
+		int configured = Integer.getInteger("saferoom.transfer.maxSlice", MAX_SLICE);
+		return Math.max(DEFAULT_SLICE, Math.min(MAX_SLICE, configured));
+	}
 
-	public static final int HEADER_SIZE = 21;  // Changed: 1 + 8 + 8 + 4 = 21 bytes
 	private ByteBuffer hnd_shk_pkt;
+	private int length = HEADER_SIZE; // Length of the packet currently built
 	public HandShake_Packet(){
-		this.hnd_shk_pkt = ByteBuffer.allocateDirect(HEADER_SIZE)
-					.order(ByteOrder.BIG_ENDIAN);	
+		this.hnd_shk_pkt = ByteBuffer.allocateDirect(MAX_SIZE)
+					.order(ByteOrder.BIG_ENDIAN);
 	}
-	
+
 	public ByteBuffer get_header()
 	{
 		return hnd_shk_pkt;
 	}
 
 	public void make_SYN(long file_Id, long file_size, int total_seq){
+		make_SYN(file_Id, file_size, total_seq, DEFAULT_SLICE);
+	}
+
+	/**
+	 * SYN offering a slice size; maxSlice == DEFAULT_SLICE produces the legacy 21 byte SYN.
+	 * total_seq is always computed with DEFAULT_SLICE.
+	 */
+	public void make_SYN(long file_Id, long file_size, int total_seq, int maxSlice){
+		make_SYN(file_Id, file_size, total_seq, maxSlice, ChecksumMode.CRC32C);
+	}
+
+	/**
+	 * SYN requesting a payload checksum mode; CRC32C (the default) adds no byte,
+	 * so peers without checksum negotiation still see the 21/23 byte forms.
+	 */
+	public void make_SYN(long file_Id, long file_size, int total_seq, int maxSlice, ChecksumMode checksum){
+		make_SYN(file_Id, file_size, total_seq, maxSlice, checksum, CompressionMode.NONE);
+	}
+
+	/**
+	 * SYN also requesting payload compression; NONE adds no byte
+	 */
+	public void make_SYN(long file_Id, long file_size, int total_seq, int maxSlice, ChecksumMode checksum,
+			CompressionMode compression){
+		make_SYN(file_Id, file_size, total_seq, maxSlice, checksum, compression, false);
+	}
+
+	/**
+	 * SYN also offering parity frames (ParityEncoder); false adds no byte
+	 */
+	public void make_SYN(long file_Id, long file_size, int total_seq, int maxSlice, ChecksumMode checksum,
+			CompressionMode compression, boolean fec){
 		hnd_shk_pkt.clear();
-		
+
 		hnd_shk_pkt.put(OFF_SIG, SYN);
 		hnd_shk_pkt.putLong(OFF_FILE_ID, file_Id);
 		hnd_shk_pkt.putLong(OFF_FILE_SIZE, file_size);  // Changed to long
 		hnd_shk_pkt.putInt(OFF_TOTAL_SEQ, total_seq);
-		
-		hnd_shk_pkt.limit(HEADER_SIZE);
-		hnd_shk_pkt.position(0);
+
+		if (fec) {
+			hnd_shk_pkt.putShort(OFF_SLICE, (short) maxSlice);
+			hnd_shk_pkt.put(OFF_CHECKSUM, checksum.wireId);
+			hnd_shk_pkt.put(OFF_COMPRESSION, compression.wireId);
+			hnd_shk_pkt.put(OFF_FEC, (byte) 1);
+			finish(SYN_FEC_SIZE);
+		} else if (compression != CompressionMode.NONE) {
+			hnd_shk_pkt.putShort(OFF_SLICE, (short) maxSlice);
+			hnd_shk_pkt.put(OFF_CHECKSUM, checksum.wireId);
+			hnd_shk_pkt.put(OFF_COMPRESSION, compression.wireId);
+			finish(SYN_COMPRESSION_SIZE);
+		} else if (checksum != ChecksumMode.CRC32C) {
+			hnd_shk_pkt.putShort(OFF_SLICE, (short) maxSlice);
+			hnd_shk_pkt.put(OFF_CHECKSUM, checksum.wireId);
+			finish(SYN_CHECKSUM_SIZE);
+		} else if (maxSlice == DEFAULT_SLICE) {
+			finish(HEADER_SIZE);
+		} else {
+			hnd_shk_pkt.putShort(OFF_SLICE, (short) maxSlice);
+			finish(SYN_SIZE);
+		}
 	}
-	
+
+	/**
+	 * SYN variant for resumable transfers: the token identifies the source file
+	 * across attempts so the receiver can find its persisted receive bitmap.
+	 */
+	public void make_SYN_RESUME(long file_Id, long file_size, int total_seq, long resumeToken, int maxSlice){
+		make_SYN_RESUME(file_Id, file_size, total_seq, resumeToken, maxSlice, ChecksumMode.CRC32C);
+	}
+
+	public void make_SYN_RESUME(long file_Id, long file_size, int total_seq, long resumeToken, int maxSlice,
+			ChecksumMode checksum){
+		make_SYN_RESUME(file_Id, file_size, total_seq, resumeToken, maxSlice, checksum, CompressionMode.NONE);
+	}
+
+	public void make_SYN_RESUME(long file_Id, long file_size, int total_seq, long resumeToken, int maxSlice,
+			ChecksumMode checksum, CompressionMode compression){
+		make_SYN_RESUME(file_Id, file_size, total_seq, resumeToken, maxSlice, checksum, compression, false);
+	}
+
+	public void make_SYN_RESUME(long file_Id, long file_size, int total_seq, long resumeToken, int maxSlice,
+			ChecksumMode checksum, CompressionMode compression, boolean fec){
+		hnd_shk_pkt.clear();
+
+		hnd_shk_pkt.put(OFF_SIG, SYN_RESUME);
+		hnd_shk_pkt.putLong(OFF_FILE_ID, file_Id);
+		hnd_shk_pkt.putLong(OFF_FILE_SIZE, file_size);
+		hnd_shk_pkt.putInt(OFF_TOTAL_SEQ, total_seq);
+		hnd_shk_pkt.putShort(OFF_SLICE, (short) maxSlice);
+		hnd_shk_pkt.putLong(OFF_RESUME_TOKEN, resumeToken);
+
+		if (fec) {
+			hnd_shk_pkt.put(OFF_RESUME_CHECKSUM, checksum.wireId);
+			hnd_shk_pkt.put(OFF_RESUME_COMPRESSION, compression.wireId);
+			hnd_shk_pkt.put(OFF_RESUME_FEC, (byte) 1);
+			finish(SYN_RESUME_FEC_SIZE);
+		} else if (compression != CompressionMode.NONE) {
+			hnd_shk_pkt.put(OFF_RESUME_CHECKSUM, checksum.wireId);
+			hnd_shk_pkt.put(OFF_RESUME_COMPRESSION, compression.wireId);
+			finish(SYN_RESUME_COMPRESSION_SIZE);
+		} else if (checksum != ChecksumMode.CRC32C) {
+			hnd_shk_pkt.put(OFF_RESUME_CHECKSUM, checksum.wireId);
+			finish(SYN_RESUME_CHECKSUM_SIZE);
+		} else {
+			finish(SYN_RESUME_SIZE);
+		}
+	}
+
 	public void make_ACK(long file_Id, long file_size, int total_seq)
+	{
+		make_ACK(file_Id, file_size, total_seq, -1);
+	}
+
+	/**
+	 * @param slice Slice accepted by the receiver, or -1 for the legacy 21 byte ACK
+	 */
+	public void make_ACK(long file_Id, long file_size, int total_seq, int slice)
+	{
+		make_ACK(file_Id, file_size, total_seq, slice, ChecksumMode.CRC32C);
+	}
+
+	/**
+	 * @param checksum Mode accepted by the receiver; anything but CRC32C forces the 24 byte form
+	 */
+	public void make_ACK(long file_Id, long file_size, int total_seq, int slice, ChecksumMode checksum)
+	{
+		make_ACK(file_Id, file_size, total_seq, slice, checksum, CompressionMode.NONE);
+	}
+
+	/**
+	 * @param compression Mode accepted by the receiver; anything but NONE forces the 25 byte form
+	 */
+	public void make_ACK(long file_Id, long file_size, int total_seq, int slice, ChecksumMode checksum,
+			CompressionMode compression)
+	{
+		make_ACK(file_Id, file_size, total_seq, slice, checksum, compression, false);
+	}
+
+	/**
+	 * @param fec Whether the receiver takes parity frames; true forces the 26 byte form
+	 */
+	public void make_ACK(long file_Id, long file_size, int total_seq, int slice, ChecksumMode checksum,
+			CompressionMode compression, boolean fec)
 	{
 		hnd_shk_pkt.clear();
 
@@ -47,9 +253,86 @@ public static final byte SYN_ACK = 0x11;
 		hnd_shk_pkt.putLong(OFF_FILE_ID, file_Id);
 		hnd_shk_pkt.putLong(OFF_FILE_SIZE, file_size);  // Changed to long
 		hnd_shk_pkt.putInt(OFF_TOTAL_SEQ, total_seq);
-		
-		hnd_shk_pkt.limit(HEADER_SIZE);
-		hnd_shk_pkt.position(0);
+
+		if (fec) {
+			hnd_shk_pkt.putShort(OFF_SLICE, (short) (slice < 0 ? DEFAULT_SLICE : slice));
+			hnd_shk_pkt.put(OFF_CHECKSUM, checksum.wireId);
+			hnd_shk_pkt.put(OFF_COMPRESSION, compression.wireId);
+			hnd_shk_pkt.put(OFF_FEC, (byte) 1);
+			finish(SYN_FEC_SIZE);
+		} else if (compression != CompressionMode.NONE) {
+			hnd_shk_pkt.putShort(OFF_SLICE, (short) (slice < 0 ? DEFAULT_SLICE : slice));
+			hnd_shk_pkt.put(OFF_CHECKSUM, checksum.wireId);
+			hnd_shk_pkt.put(OFF_COMPRESSION, compression.wireId);
+			finish(SYN_COMPRESSION_SIZE);
+		} else if (checksum != ChecksumMode.CRC32C) {
+			hnd_shk_pkt.putShort(OFF_SLICE, (short) (slice < 0 ? DEFAULT_SLICE : slice));
+			hnd_shk_pkt.put(OFF_CHECKSUM, checksum.wireId);
+			finish(SYN_CHECKSUM_SIZE);
+		} else if (slice < 0) {
+			finish(HEADER_SIZE);
+		} else {
+			hnd_shk_pkt.putShort(OFF_SLICE, (short) slice);
+			finish(SYN_SIZE);
+		}
+	}
+
+	/**
+	 * ACK variant for resumed transfers carrying the sequence ranges still missing
+	 * on the receiver. ranges holds [start, end) pairs; at most MAX_RESUME_RANGES.
+	 * slice is the one the checkpoint was written with; the sender must use it.
+	 */
+	public void make_ACK_RESUME(long file_Id, long file_size, int total_seq, int slice, int[] ranges, int rangeCount)
+	{
+		make_ACK_RESUME(file_Id, file_size, total_seq, slice, ranges, rangeCount, ChecksumMode.CRC32C);
+	}
+
+	public void make_ACK_RESUME(long file_Id, long file_size, int total_seq, int slice, int[] ranges, int rangeCount,
+			ChecksumMode checksum)
+	{
+		make_ACK_RESUME(file_Id, file_size, total_seq, slice, ranges, rangeCount, checksum, CompressionMode.NONE);
+	}
+
+	public void make_ACK_RESUME(long file_Id, long file_size, int total_seq, int slice, int[] ranges, int rangeCount,
+			ChecksumMode checksum, CompressionMode compression)
+	{
+		make_ACK_RESUME(file_Id, file_size, total_seq, slice, ranges, rangeCount, checksum, compression, false);
+	}
+
+	public void make_ACK_RESUME(long file_Id, long file_size, int total_seq, int slice, int[] ranges, int rangeCount,
+			ChecksumMode checksum, CompressionMode compression, boolean fec)
+	{
+		if (rangeCount < 0 || rangeCount > MAX_RESUME_RANGES) {
+			throw new IllegalArgumentException("rangeCount out of range: " + rangeCount);
+		}
+		hnd_shk_pkt.clear();
+
+		hnd_shk_pkt.put(OFF_SIG, ACK_RESUME);
+		hnd_shk_pkt.putLong(OFF_FILE_ID, file_Id);
+		hnd_shk_pkt.putLong(OFF_FILE_SIZE, file_size);
+		hnd_shk_pkt.putInt(OFF_TOTAL_SEQ, total_seq);
+		hnd_shk_pkt.putShort(OFF_SLICE, (short) slice);
+		hnd_shk_pkt.putShort(OFF_RANGE_COUNT, (short) rangeCount);
+		for (int i = 0; i < rangeCount; i++) {
+			hnd_shk_pkt.putInt(OFF_RANGES + i * 8, ranges[i * 2]);
+			hnd_shk_pkt.putInt(OFF_RANGES + i * 8 + 4, ranges[i * 2 + 1]);
+		}
+
+		if (fec) {
+			hnd_shk_pkt.put(OFF_RANGES + rangeCount * 8, checksum.wireId);
+			hnd_shk_pkt.put(OFF_RANGES + rangeCount * 8 + 1, compression.wireId);
+			hnd_shk_pkt.put(OFF_RANGES + rangeCount * 8 + 2, (byte) 1);
+			finish(OFF_RANGES + rangeCount * 8 + 3);
+		} else if (compression != CompressionMode.NONE) {
+			hnd_shk_pkt.put(OFF_RANGES + rangeCount * 8, checksum.wireId);
+			hnd_shk_pkt.put(OFF_RANGES + rangeCount * 8 + 1, compression.wireId);
+			finish(OFF_RANGES + rangeCount * 8 + 2);
+		} else if (checksum != ChecksumMode.CRC32C) {
+			hnd_shk_pkt.put(OFF_RANGES + rangeCount * 8, checksum.wireId);
+			finish(OFF_RANGES + rangeCount * 8 + 1);
+		} else {
+			finish(OFF_RANGES + rangeCount * 8);
+		}
 	}
 
 	public void make_SYN_ACK(long file_Id)
@@ -59,17 +342,299 @@ public static final byte SYN_ACK = 0x11;
 		hnd_shk_pkt.put(OFF_SIG, SYN_ACK);
 		hnd_shk_pkt.putLong(OFF_FILE_ID, file_Id);
 
-		hnd_shk_pkt.limit(9);
-		hnd_shk_pkt.position(0);
+		finish(LEGACY_SYN_ACK_SIZE);
 
 	}
 
+	/**
+	 * SYN_ACK carrying the final slice size both sides use for data packets
+	 */
+	public void make_SYN_ACK(long file_Id, int slice)
+	{
+		hnd_shk_pkt.clear();
+
+		hnd_shk_pkt.put(OFF_SIG, SYN_ACK);
+		hnd_shk_pkt.putLong(OFF_FILE_ID, file_Id);
+		hnd_shk_pkt.putShort(OFF_SYN_ACK_SLICE, (short) slice);
+
+		finish(SYN_ACK_SIZE);
+	}
+
+	public void make_PROBE_ACK(long file_Id, int probeSize)
+	{
+		hnd_shk_pkt.clear();
+
+		hnd_shk_pkt.put(OFF_SIG, PROBE_ACK);
+		hnd_shk_pkt.putLong(OFF_FILE_ID, file_Id);
+		hnd_shk_pkt.putShort(OFF_PROBE_SIZE, (short) probeSize);
+
+		finish(PROBE_ACK_SIZE);
+	}
+
+	/**
+	 * Path MTU probe: a datagram of exactly probeSize bytes (zero padded). The
+	 * receiver only answers if the whole datagram arrived.
+	 */
+	public static ByteBuffer make_PROBE(long file_Id, int probeSize)
+	{
+		ByteBuffer probe = ByteBuffer.allocateDirect(probeSize).order(ByteOrder.BIG_ENDIAN);
+		probe.put(OFF_SIG, PROBE);
+		probe.putLong(OFF_FILE_ID, file_Id);
+		probe.putShort(OFF_PROBE_SIZE, (short) probeSize);
+		probe.position(0).limit(probeSize);
+		return probe;
+	}
+
+	public void make_MERKLE_ACK(long file_Id, int nextLeaf)
+	{
+		hnd_shk_pkt.clear();
+
+		hnd_shk_pkt.put(OFF_SIG, MERKLE_ACK);
+		hnd_shk_pkt.putLong(OFF_FILE_ID, file_Id);
+		hnd_shk_pkt.putInt(OFF_MERKLE_NEXT, nextLeaf);
+
+		finish(MERKLE_ACK_SIZE);
+	}
+
+	/**
+	 * Merkle manifest packet: root plus leaves [first, first + count). The root
+	 * is repeated in every packet so any one of them starts the receiver's tree.
+	 */
+	public static ByteBuffer make_MERKLE(long file_Id, MerkleTree tree, int first, int count)
+	{
+		int size = OFF_MERKLE_HASHES + count * MerkleTree.HASH_SIZE;
+		ByteBuffer pkt = ByteBuffer.allocateDirect(size).order(ByteOrder.BIG_ENDIAN);
+		pkt.put(OFF_SIG, MERKLE);
+		pkt.putLong(OFF_FILE_ID, file_Id);
+		pkt.putInt(OFF_MERKLE_BLOCK, tree.getBlockSize());
+		pkt.putInt(OFF_MERKLE_LEAVES, tree.getLeafCount());
+		pkt.put(OFF_MERKLE_ROOT, tree.getRoot());
+		pkt.putInt(OFF_MERKLE_FIRST, first);
+		pkt.putShort(OFF_MERKLE_COUNT, (short) count);
+		tree.copyLeaves(first, count, pkt, OFF_MERKLE_HASHES);
+		pkt.position(0).limit(size);
+		return pkt;
+	}
+
+	public void make_DELTA_REQ(long file_Id, int first)
+	{
+		hnd_shk_pkt.clear();
+
+		hnd_shk_pkt.put(OFF_SIG, DELTA_REQ);
+		hnd_shk_pkt.putLong(OFF_FILE_ID, file_Id);
+		hnd_shk_pkt.putInt(OFF_DELTA_FIRST, first);
+
+		finish(DELTA_REQ_SIZE);
+	}
+
+	public void make_DELTA_COPY_ACK(long file_Id, int next)
+	{
+		hnd_shk_pkt.clear();
+
+		hnd_shk_pkt.put(OFF_SIG, DELTA_COPY_ACK);
+		hnd_shk_pkt.putLong(OFF_FILE_ID, file_Id);
+		hnd_shk_pkt.putInt(OFF_DELTA_NEXT, next);
+
+		finish(DELTA_COPY_ACK_SIZE);
+	}
+
+	/**
+	 * Base signatures [first, first + count). sigs == null answers "no base"
+	 * (blockCount 0) and notReady "still signing, ask again" (blockCount -1).
+	 */
+	public static ByteBuffer make_DELTA_SIG(long file_Id, DeltaSync.Signatures sigs, boolean notReady,
+			int first, int count)
+	{
+		int size = OFF_DELTA_SIGS + count * DeltaSync.SIG_SIZE;
+		ByteBuffer pkt = ByteBuffer.allocateDirect(size).order(ByteOrder.BIG_ENDIAN);
+		pkt.put(OFF_SIG, DELTA_SIG);
+		pkt.putLong(OFF_FILE_ID, file_Id);
+		pkt.putLong(OFF_DELTA_BASE, sigs == null ? 0 : sigs.getBaseSize());
+		pkt.putInt(OFF_DELTA_BLOCK, sigs == null ? 0 : sigs.getBlockSize());
+		pkt.putInt(OFF_DELTA_BLOCKS, notReady ? -1 : sigs == null ? 0 : sigs.getBlockCount());
+		pkt.putInt(OFF_DELTA_SIG_FIRST, first);
+		pkt.putShort(OFF_DELTA_SIG_COUNT, (short) count);
+		if (sigs != null) {
+			sigs.copyTo(first, count, pkt, OFF_DELTA_SIGS);
+		}
+		pkt.position(0).limit(size);
+		return pkt;
+	}
+
+	/**
+	 * Delta copy instructions [first, first + count) of plan
+	 */
+	public static ByteBuffer make_DELTA_COPY(long file_Id, DeltaSync.Plan plan, int first, int count)
+	{
+		int size = OFF_DELTA_COPIES + count * DeltaSync.COPY_SIZE;
+		ByteBuffer pkt = ByteBuffer.allocateDirect(size).order(ByteOrder.BIG_ENDIAN);
+		pkt.put(OFF_SIG, DELTA_COPY);
+		pkt.putLong(OFF_FILE_ID, file_Id);
+		pkt.putInt(OFF_DELTA_TOTAL, plan.getCount());
+		pkt.putInt(OFF_DELTA_COPY_FIRST, first);
+		pkt.putShort(OFF_DELTA_COPY_COUNT, (short) count);
+		plan.copyTo(first, count, pkt, OFF_DELTA_COPIES);
+		pkt.position(0).limit(size);
+		return pkt;
+	}
+
 	public void resetForRetransmitter()
 	{
-		hnd_shk_pkt.position(0).limit(HEADER_SIZE);
+		hnd_shk_pkt.position(0).limit(length);
+	}
+
+	private void finish(int size)
+	{
+		length = size;
+		hnd_shk_pkt.limit(size);
+		hnd_shk_pkt.position(0);
 	}
+
 	public static byte get_signal(ByteBuffer b) { return b.get(OFF_SIG); }
 	public static long get_file_Id(ByteBuffer b){ return b.getLong(OFF_FILE_ID); }
 	public static long get_file_size(ByteBuffer b) { return b.getLong(OFF_FILE_SIZE); }  // Changed to long
 	public static int get_total_seq(ByteBuffer b) { return b.getInt(OFF_TOTAL_SEQ); }
+	public static long get_resume_token(ByteBuffer b) { return b.getLong(OFF_RESUME_TOKEN); }
+	public static int get_probe_size(ByteBuffer b) { return Short.toUnsignedInt(b.getShort(OFF_PROBE_SIZE)); }
+	public static int get_merkle_block(ByteBuffer b) { return b.getInt(OFF_MERKLE_BLOCK); }
+	public static int get_merkle_leaves(ByteBuffer b) { return b.getInt(OFF_MERKLE_LEAVES); }
+	public static int get_merkle_first(ByteBuffer b) { return b.getInt(OFF_MERKLE_FIRST); }
+	public static int get_merkle_count(ByteBuffer b) { return Short.toUnsignedInt(b.getShort(OFF_MERKLE_COUNT)); }
+	public static int get_merkle_next(ByteBuffer b) { return b.getInt(OFF_MERKLE_NEXT); }
+	public static int get_delta_first(ByteBuffer b) { return b.getInt(OFF_DELTA_FIRST); }
+	public static long get_delta_base(ByteBuffer b) { return b.getLong(OFF_DELTA_BASE); }
+	public static int get_delta_block(ByteBuffer b) { return b.getInt(OFF_DELTA_BLOCK); }
+	public static int get_delta_blocks(ByteBuffer b) { return b.getInt(OFF_DELTA_BLOCKS); }
+	public static int get_delta_sig_first(ByteBuffer b) { return b.getInt(OFF_DELTA_SIG_FIRST); }
+	public static int get_delta_sig_count(ByteBuffer b) { return Short.toUnsignedInt(b.getShort(OFF_DELTA_SIG_COUNT)); }
+	public static int get_delta_total(ByteBuffer b) { return b.getInt(OFF_DELTA_TOTAL); }
+	public static int get_delta_copy_first(ByteBuffer b) { return b.getInt(OFF_DELTA_COPY_FIRST); }
+	public static int get_delta_copy_count(ByteBuffer b) { return Short.toUnsignedInt(b.getShort(OFF_DELTA_COPY_COUNT)); }
+	public static int get_delta_next(ByteBuffer b) { return b.getInt(OFF_DELTA_NEXT); }
+
+	public static byte[] get_merkle_root(ByteBuffer b) {
+		byte[] root = new byte[MerkleTree.HASH_SIZE];
+		b.get(OFF_MERKLE_ROOT, root);
+		return root;
+	}
+
+	/**
+	 * Slice carried by a SYN/ACK/SYN_RESUME/ACK_RESUME of length len
+	 * (DEFAULT_SLICE for the legacy 21 byte forms)
+	 */
+	public static int get_slice(ByteBuffer b, int len) {
+		return len >= SYN_SIZE ? Short.toUnsignedInt(b.getShort(OFF_SLICE)) : DEFAULT_SLICE;
+	}
+
+	public static int get_syn_ack_slice(ByteBuffer b, int len) {
+		return len >= SYN_ACK_SIZE ? Short.toUnsignedInt(b.getShort(OFF_SYN_ACK_SLICE)) : DEFAULT_SLICE;
+	}
+	public static int get_range_count(ByteBuffer b) { return Short.toUnsignedInt(b.getShort(OFF_RANGE_COUNT)); }
+
+	/**
+	 * Checksum mode byte of a SYN/ACK/SYN_RESUME/ACK_RESUME of length len; packets
+	 * without one (every legacy form) mean CRC32C
+	 */
+	public static byte get_checksum(ByteBuffer b, int len) {
+		int off;
+		switch (get_signal(b)) {
+			case SYN:
+			case ACK:
+				off = OFF_CHECKSUM;
+				break;
+			case SYN_RESUME:
+				off = OFF_RESUME_CHECKSUM;
+				break;
+			case ACK_RESUME:
+				off = OFF_RANGES + get_range_count(b) * 8;
+				break;
+			default:
+				return ChecksumMode.CRC32C.wireId;
+		}
+		return len > off ? b.get(off) : ChecksumMode.CRC32C.wireId;
+	}
+
+	/**
+	 * Compression mode carried by a SYN/ACK/SYN_RESUME/ACK_RESUME of length len
+	 * (NONE when the byte is absent)
+	 */
+	public static byte get_compression(ByteBuffer b, int len) {
+		int off;
+		switch (get_signal(b)) {
+			case SYN:
+			case ACK:
+				off = OFF_COMPRESSION;
+				break;
+			case SYN_RESUME:
+				off = OFF_RESUME_COMPRESSION;
+				break;
+			case ACK_RESUME:
+				off = OFF_RANGES + get_range_count(b) * 8 + 1;
+				break;
+			default:
+				return CompressionMode.NONE.wireId;
+		}
+		return len > off ? b.get(off) : CompressionMode.NONE.wireId;
+	}
+
+	/**
+	 * Whether a SYN/ACK/SYN_RESUME/ACK_RESUME of length len carries the parity flag
+	 */
+	public static boolean get_fec(ByteBuffer b, int len) {
+		int off;
+		switch (get_signal(b)) {
+			case SYN:
+			case ACK:
+				off = OFF_FEC;
+				break;
+			case SYN_RESUME:
+				off = OFF_RESUME_FEC;
+				break;
+			case ACK_RESUME:
+				off = OFF_RANGES + get_range_count(b) * 8 + 2;
+				break;
+			default:
+				return false;
+		}
+		return len > off && b.get(off) != 0;
+	}
+
+	/**
+	 * Whether len is the length of some SYN/ACK/SYN_RESUME form - the size gate
+	 * for telling handshake packets apart on a shared socket
+	 */
+	public static boolean is_handshake_size(int len) {
+		return len == HEADER_SIZE || len == SYN_SIZE || len == SYN_CHECKSUM_SIZE || len == SYN_COMPRESSION_SIZE
+			|| len == SYN_FEC_SIZE || len == SYN_RESUME_SIZE || len == SYN_RESUME_CHECKSUM_SIZE
+			|| len == SYN_RESUME_COMPRESSION_SIZE || len == SYN_RESUME_FEC_SIZE;
+	}
+
+	/**
+	 * Whether a datagram of length len is a complete SYN or SYN_RESUME
+	 */
+	public static boolean is_syn(ByteBuffer b, int len) {
+		if (len < HEADER_SIZE) {
+			return false;
+		}
+		byte signal = get_signal(b);
+		if (signal == SYN) {
+			return len == HEADER_SIZE || len == SYN_SIZE || len == SYN_CHECKSUM_SIZE || len == SYN_COMPRESSION_SIZE
+				|| len == SYN_FEC_SIZE;
+		}
+		return signal == SYN_RESUME && (len == SYN_RESUME_SIZE || len == SYN_RESUME_CHECKSUM_SIZE
+			|| len == SYN_RESUME_COMPRESSION_SIZE || len == SYN_RESUME_FEC_SIZE);
+	}
+
+	/**
+	 * Decode ACK_RESUME ranges as flat [start, end) pairs
+	 */
+	public static int[] get_ranges(ByteBuffer b) {
+		int count = Math.min(get_range_count(b), MAX_RESUME_RANGES);
+		int[] ranges = new int[count * 2];
+		for (int i = 0; i < count; i++) {
+			ranges[i * 2] = b.getInt(OFF_RANGES + i * 8);
+			ranges[i * 2 + 1] = b.getInt(OFF_RANGES + i * 8 + 4);
+		}
+		return ranges;
+	}
 }
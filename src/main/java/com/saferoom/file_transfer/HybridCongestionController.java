@@ -6,13 +6,17 @@ import java.util.concurrent.locks.LockSupport;
 /**
  * QUIC-inspired hybrid congestion control for NAK-based protocol
  * Combines QUIC's cubic congestion control with rate-based pacing
+ * 
+ * Default algorithm ("hybrid"); see CongestionControllers for alternatives.
  */
-public class HybridCongestionController {
+public class HybridCongestionController implements CongestionController {
+    
+    public static final String NAME = "hybrid";
     
     // QUIC-inspired congestion window (bytes)
-    private volatile long congestionWindow = 32 * 1450; // 32 packets başlangıç
+    private volatile long congestionWindow = 32 * HandShake_Packet.DEFAULT_SLICE; // 32 packets başlangıç
     private volatile long slowStartThreshold = Long.MAX_VALUE;
-    private volatile long maxCongestionWindow = 256 * 1450; // 256 packets max
+    private volatile long maxCongestionWindow = 256 * HandShake_Packet.DEFAULT_SLICE; // 256 packets max
     
     // Bandwidth estimation - NACK-based delivery rate tracking
     private volatile long estimatedBandwidthBps = 10_000_000; // 10 Mbps başlangıç
@@ -47,17 +51,20 @@ public class HybridCongestionController {
     private final AtomicLong totalPacketsSent = new AtomicLong(0);
     private final AtomicLong totalBytesSent = new AtomicLong(0);
     private final AtomicLong totalLossCount = new AtomicLong(0);
+    private final AtomicLong ackedBytes = new AtomicLong(0); // cumulative ACK progress (goodput)
+    private volatile double lossRate = 0.0; // EWMA of lost / reported per NACK frame
+    private static final double LOSS_EWMA_GAIN = 1.0 / 16;
     private volatile long startTime = System.nanoTime();
     
-    // Timing
-    private volatile long lastSendTime = 0;
+    // Timing - next pacing slot, shared by all sender lanes
+    private final PacingClock pacingClock = new PacingClock();
     private volatile long lastNackTime = 0;
     
     // Network type
     private volatile boolean isLocalNetwork = false;
     
-    // Constants
-    private static final int PACKET_SIZE = 1450;
+    // Packet payload size - 1450 unless a larger slice was negotiated (setPacketSize)
+    private volatile int packetSize = HandShake_Packet.DEFAULT_SLICE;
     
     public HybridCongestionController() {
         updatePacingRate();
@@ -80,23 +87,20 @@ public class HybridCongestionController {
         }
         
         // Pacing kontrolü - LAN dahil tüm networkler için
-        if (packetIntervalNs > 0) {
-            long now = System.nanoTime();
-            long timeSinceLastSend = now - lastSendTime;
-            
-            if (timeSinceLastSend < packetIntervalNs) {
-                long sleepTime = packetIntervalNs - timeSinceLastSend;
-                LockSupport.parkNanos(sleepTime);
-            }
-            lastSendTime = System.nanoTime();
-        }
+        // Slot reservation via CAS: striped lanes share one pacing budget
+        pacingClock.await(packetIntervalNs);
+    }
+    
+    @Override
+    public String name() {
+        return NAME;
     }
     
     /**
      * Packet sent notification - QUIC OnPacketSent benzeri
      */
     public void onPacketSent() {
-        onPacketSent(PACKET_SIZE);
+        onPacketSent(packetSize);
     }
     
     public void onPacketSent(int packetSize) {
@@ -111,9 +115,15 @@ public class HybridCongestionController {
 	 * In-flight tracking yapma, sadece bandwidth estimate
 	 */
 	public void onNackFrameReceived(int receivedPacketCount, int lostPacketCount) {
+		int reported = receivedPacketCount + lostPacketCount;
+		if (reported > 0) {
+			// Racy read-modify-write is fine - it only steers the FEC ratio
+			lossRate += ((double) lostPacketCount / reported - lossRate) * LOSS_EWMA_GAIN;
+		}
+		
 		if (receivedPacketCount > 0) {
 			// Delivery rate tracking - sadece bandwidth için
-			int deliveredBytes = receivedPacketCount * PACKET_SIZE;
+			int deliveredBytes = receivedPacketCount * packetSize;
 			this.deliveredBytes.addAndGet(deliveredBytes);
 			
 			long now = System.nanoTime();
@@ -122,7 +132,7 @@ public class HybridCongestionController {
 		
 		// Congestion window büyüt - SADECE loss yoksa
 		if (lostPacketCount == 0 && receivedPacketCount > 0) {
-			int ackedBytes = receivedPacketCount * PACKET_SIZE;
+			int ackedBytes = receivedPacketCount * packetSize;
 			
 			if (state == CongestionState.SLOW_START) {
 				// Exponential growth
@@ -133,7 +143,7 @@ public class HybridCongestionController {
 				}
 			} else if (state == CongestionState.CONGESTION_AVOIDANCE) {
 				// Additive increase
-				long increase = (PACKET_SIZE * PACKET_SIZE) / congestionWindow;
+				long increase = (packetSize * packetSize) / congestionWindow;
 				congestionWindow += Math.max(1, increase * receivedPacketCount);
 			}
 			
@@ -142,11 +152,19 @@ public class HybridCongestionController {
 		}
 	}
     
+    /**
+     * Cumulative ACK progress - only tracked for goodput reporting
+     */
+    @Override
+    public void onCumulativeAckAdvanced(int ackedPackets) {
+        ackedBytes.addAndGet((long) ackedPackets * packetSize);
+    }
+    
     /**
      * NACK-based loss detection - QUIC OnPacketLost benzeri
      */
     public void onPacketLoss(int lostPacketCount) {
-        onPacketLoss(lostPacketCount, lostPacketCount * PACKET_SIZE);
+        onPacketLoss(lostPacketCount, lostPacketCount * packetSize);
     }
     
 	public void onPacketLoss(int lostPacketCount, int lostBytes) {
@@ -163,12 +181,12 @@ public class HybridCongestionController {
             if (isLocalNetwork) {
                 // LAN - minimal backoff, fast recovery
                 slowStartThreshold = (congestionWindow * 7) / 8;  // 87.5% minimal reduction
-                congestionWindow = Math.max(slowStartThreshold, 64 * PACKET_SIZE); // Min 64 packets
+                congestionWindow = Math.max(slowStartThreshold, 64 * packetSize); // Min 64 packets
                 estimatedBandwidthBps = (long)(estimatedBandwidthBps * 0.9); // 10% reduction
             } else {
                 // WAN - gentler backoff for better recovery
                 slowStartThreshold = (congestionWindow * 3) / 4;  // 75% threshold
-                congestionWindow = Math.max(slowStartThreshold, 8 * PACKET_SIZE); // Min 8 packets
+                congestionWindow = Math.max(slowStartThreshold, 8 * packetSize); // Min 8 packets
                 estimatedBandwidthBps = (long)(estimatedBandwidthBps * 0.8); // 20% reduction
             }
             
@@ -249,7 +267,7 @@ public class HybridCongestionController {
         
         // Mikro-pacing interval hesapla
         if (pacingRate > 0) {
-            packetIntervalNs = (PACKET_SIZE * 1_000_000_000L) / pacingRate;
+            packetIntervalNs = (packetSize * 1_000_000_000L) / pacingRate;
             
             // LAN vs WAN için farklı minimumlar
             long minInterval = isLocalNetwork ? 20_000 : 1_000; // 20μs LAN, 1μs WAN
@@ -260,31 +278,65 @@ public class HybridCongestionController {
     }
     
     /**
-     * Network mode configuration - LAN optimized for NACK-based protocol
+     * Adopt the negotiated slice size. Windows are kept in packets, so byte
+     * values are rescaled; pacing interval follows the new packet size.
+     */
+    public void setPacketSize(int newPacketSize) {
+        int old = packetSize;
+        if (newPacketSize <= 0 || newPacketSize == old) {
+            return;
+        }
+        packetSize = newPacketSize;
+        congestionWindow = congestionWindow / old * newPacketSize;
+        maxCongestionWindow = maxCongestionWindow / old * newPacketSize;
+        if (slowStartThreshold != Long.MAX_VALUE) {
+            slowStartThreshold = slowStartThreshold / old * newPacketSize;
+        }
+        updatePacingRate();
+    }
+    
+    @Override
+    public void applyProfile(NetworkProfile profile) {
+        if (profile == NetworkProfile.LAN) {
+            enableLocalNetworkMode();
+        } else {
+            enableWanMode();
+        }
+    }
+    
+    /**
+     * Network mode configuration - LAN optimized for NACK-based protocol.
+     * Windows are counted in packets of the current packet size (1450 unless
+     * a larger slice was negotiated); setPacketSize rescales them later.
      */
     public void enableLocalNetworkMode() {
         isLocalNetwork = true;
         // LAN mode - büyük pencere, mikro-pacing
-        maxCongestionWindow = 512 * PACKET_SIZE;  // 512 packets = 742KB max
-        congestionWindow = 128 * PACKET_SIZE;     // 128 packets = 185KB start
-        slowStartThreshold = 256 * PACKET_SIZE;   // 256 packets threshold
+        maxCongestionWindow = 512 * packetSize;  // 512 packets max (742KB at 1450, 4.6MB at 8950)
+        congestionWindow = 128 * packetSize;     // 128 packets start (185KB at 1450, 1.1MB at 8950)
+        slowStartThreshold = 256 * packetSize;   // 256 packets threshold
         estimatedBandwidthBps = 500_000_000;      // 500 Mbps başlangıç
         smoothedRtt = 2_000_000;                  // 2ms realistic LAN RTT
-        packetIntervalNs = 20_000;                // 20μs mikro-pacing
+        packetIntervalNs = 20_000;                // 20μs - LAN floor, updatePacingRate derives the actual interval
         updatePacingRate();
-        System.out.println("LAN MODE: mikro-pacing (20μs), large cwnd (512 pkts)");
+        System.out.printf("LAN MODE: mikro-pacing (>= 20μs), large cwnd (512 pkts of %d bytes)%n", packetSize);
     }
     
     public void enableWanMode() {
         isLocalNetwork = false;
         // Optimized WAN settings - more aggressive than before
-        maxCongestionWindow = 128 * PACKET_SIZE;  // 128 packets (was 64)
-        congestionWindow = 32 * PACKET_SIZE;      // 32 packets start (was 16)
+        maxCongestionWindow = 128 * packetSize;  // 128 packets (was 64)
+        congestionWindow = 32 * packetSize;      // 32 packets start (was 16)
         estimatedBandwidthBps = 50_000_000;       // 50 Mbps estimate
         updatePacingRate();
         System.out.println("WAN MODE - Optimized settings for stability and performance");
     }
     
+    @Override
+    public double getLossRate() {
+        return lossRate;
+    }
+    
     /**
      * Current statistics - simplified for NACK-based
      */
@@ -292,6 +344,7 @@ public class HybridCongestionController {
         long now = System.nanoTime();
         long elapsed = now - startTime;
         double throughputMbps = (totalBytesSent.get() * 8.0 * 1_000_000_000L) / (elapsed * 1_000_000.0);
+        double goodputMbps = (ackedBytes.get() * 8.0 * 1_000_000_000L) / (elapsed * 1_000_000.0);
         
         // Fix loss rate calculation - cap at 100%
         long totalSent = Math.max(1, totalPacketsSent.get());
@@ -299,14 +352,16 @@ public class HybridCongestionController {
         double lossRate = Math.min(100.0, (totalLost * 100.0) / (totalSent + totalLost));
         
         return String.format(
-            "State: %s, CWnd: %d pkts, BW: %.1f Mbps, RTT: %.1fms, " +
-            "Loss: %.2f%%, Throughput: %.1f Mbps",
+            "CC: %s, State: %s, CWnd: %d pkts, BW: %.1f Mbps, RTT: %.1fms, " +
+            "Loss: %.2f%%, Throughput: %.1f Mbps, Goodput: %.1f Mbps",
+            NAME,
             state,
-            congestionWindow / PACKET_SIZE,
+            congestionWindow / packetSize,
             estimatedBandwidthBps / 1_000_000.0,
             smoothedRtt / 1_000_000.0,
             lossRate,
-            throughputMbps
+            throughputMbps,
+            goodputMbps
         );
     }
     
@@ -314,7 +369,7 @@ public class HybridCongestionController {
      * Get current sending capacity
      */
     public boolean canSendPacket() {
-        return canSendPacket(PACKET_SIZE);
+        return canSendPacket(packetSize);
     }
     
     public boolean canSendPacket(int packetSize) {
@@ -327,7 +382,7 @@ public class HybridCongestionController {
      * Reset controller
      */
     public void reset() {
-        congestionWindow = 32 * PACKET_SIZE;
+        congestionWindow = 32 * packetSize;
         slowStartThreshold = Long.MAX_VALUE;
         state = CongestionState.SLOW_START;
         bytesInFlight.set(0);
@@ -335,6 +390,8 @@ public class HybridCongestionController {
         totalPacketsSent.set(0);
         totalBytesSent.set(0);
         totalLossCount.set(0);
+        lossRate = 0.0;
+        ackedBytes.set(0);
         smoothedRtt = 100_000_000;
         rttVar = 50_000_000;
         minRtt = Long.MAX_VALUE;
@@ -0,0 +1,88 @@
+package com.saferoom.file_transfer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Next sequence of each striped send lane
+ *
+ * A lane running more than maxSkew sequences ahead of the slowest one parks
+ * until that lane catches up. A parked lane publishes the sequence the slowest
+ * lane has to reach; an advancing lane unparks only waiters whose threshold it
+ * reached, so a waiter wakes about once per catch-up instead of polling.
+ *
+ * Thread-safety: each lane index is advanced and awaited by one thread
+ */
+public final class LaneProgress {
+
+    /** Position of a finished lane - never holds the others back */
+    public static final int DONE = Integer.MAX_VALUE;
+
+    private final AtomicIntegerArray next;
+    private final AtomicIntegerArray waitFor; // Threshold of a parked lane, DONE otherwise
+    private final AtomicReferenceArray<Thread> waiters;
+
+    /**
+     * @param lanes Lane count; lane i starts at sequence i
+     */
+    public LaneProgress(int lanes) {
+        this.next = new AtomicIntegerArray(lanes);
+        this.waitFor = new AtomicIntegerArray(lanes);
+        this.waiters = new AtomicReferenceArray<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            next.set(i, i);
+            waitFor.set(i, DONE);
+        }
+    }
+
+    /**
+     * @return lowest next sequence over all lanes
+     */
+    public int slowest() {
+        int slowest = DONE;
+        for (int i = 0; i < next.length(); i++) {
+            slowest = Math.min(slowest, next.get(i));
+        }
+        return slowest;
+    }
+
+    /**
+     * Record that lane sends seq next, waking lanes that waited for it
+     */
+    public void advance(int lane, int seq) {
+        next.set(lane, seq);
+        for (int i = 0; i < waiters.length(); i++) {
+            if (seq >= waitFor.get(i)) {
+                Thread w = waiters.get(i);
+                if (w != null) {
+                    LockSupport.unpark(w);
+                }
+            }
+        }
+    }
+
+    /**
+     * Park the calling lane until the slowest lane is within maxSkew of seq
+     *
+     * @param stop checked at least every ChannelReadiness.IDLE_WAIT_MS
+     */
+    public void await(int lane, int seq, int maxSkew, BooleanSupplier stop) {
+        int target = seq - maxSkew;
+        while (slowest() < target && !stop.getAsBoolean()) {
+            waiters.set(lane, Thread.currentThread());
+            waitFor.set(lane, target);
+            try {
+                // Re-check after publishing the threshold - an advance in between won't unpark us
+                if (slowest() < target) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(ChannelReadiness.IDLE_WAIT_MS));
+                }
+            } finally {
+                waitFor.set(lane, DONE);
+                waiters.set(lane, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.saferoom.file_transfer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One mapped region of a file, handed out by ChunkManager.acquire()
+ *
+ * A window covers whole slices of a single chunk, so sequence numbering is
+ * exactly the same as with full-chunk mapping. The region is unmapped
+ * explicitly (Unsafe.invokeCleaner) when the last reference is released,
+ * instead of waiting for GC to collect the MappedByteBuffer. Shared-Arena
+ * segments would do the same, but JDK 21 rejects their buffers in gathering
+ * channel writes, which the sender uses for every frame.
+ *
+ * Reference counting: ChunkManager holds one reference while the window is
+ * in its table; every acquire() adds one. Use try-with-resources so the
+ * reference is dropped even on error paths. Buffer views must not be used
+ * after close() - the memory is gone and touching it crashes the JVM.
+ */
+public final class MappedWindow implements AutoCloseable {
+
+    /** sun.misc.Unsafe.invokeCleaner, null when jdk.unsupported is missing */
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method cleaner = null;
+        try {
+            Class<?> cls = Class.forName("sun.misc.Unsafe");
+            Field f = cls.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+            cleaner = cls.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("[MMAP] Explicit unmap unavailable, windows are freed by GC: " + e);
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = cleaner;
+    }
+
+    /** Global window index */
+    public final int index;
+
+    /** First global sequence number in this window (inclusive) */
+    public final int seqStart;
+
+    /** Last global sequence number in this window (inclusive) */
+    public final int seqEnd;
+
+    /** Byte offset of this window within the file */
+    public final long fileOffset;
+
+    private final int sliceSize;
+    private final MappedByteBuffer buffer;
+
+    /** Starts at 1: the reference owned by ChunkManager's window table */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    MappedWindow(int index, int seqStart, int seqEnd, long fileOffset, int sliceSize,
+                 MappedByteBuffer buffer) {
+        this.index = index;
+        this.seqStart = seqStart;
+        this.seqEnd = seqEnd;
+        this.fileOffset = fileOffset;
+        this.sliceSize = sliceSize;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Shared view of the whole window - duplicate() before changing position/limit
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public boolean contains(int globalSeq) {
+        return globalSeq >= seqStart && globalSeq <= seqEnd;
+    }
+
+    /**
+     * @return Byte offset of globalSeq's payload inside buffer()
+     */
+    public int offsetOf(int globalSeq) {
+        return (globalSeq - seqStart) * sliceSize;
+    }
+
+    /**
+     * @return Payload length of globalSeq (last slice of a chunk may be shorter)
+     */
+    public int payloadSize(int globalSeq) {
+        return Math.min(sliceSize, buffer.capacity() - offsetOf(globalSeq));
+    }
+
+    public long byteSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Take an extra reference; fails once the window has been unmapped
+     */
+    boolean retain() {
+        int r;
+        do {
+            r = refs.get();
+            if (r <= 0) {
+                return false;
+            }
+        } while (!refs.compareAndSet(r, r + 1));
+        return true;
+    }
+
+    /**
+     * Drop one reference; the last one unmaps the region
+     */
+    public void release() {
+        if (refs.decrementAndGet() == 0) {
+            unmap(buffer);
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    /** Fault pages in ahead of use (prefetch) */
+    void load() {
+        buffer.load();
+    }
+
+    /** Flush dirty pages of this window (receiver) */
+    void force() {
+        buffer.force();
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("[MMAP] Unmap failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.saferoom.file_transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * SHA-256 Merkle tree over fixed-size blocks of a file
+ *
+ * Blocks are cut in bytes (not sequences), so the tree does not depend on the
+ * slice negotiated later in the handshake. Leaf = H(0x00 || block), node =
+ * H(0x01 || left || right); an odd node is carried up unchanged.
+ *
+ * Sender: build() hashes the source before the handshake. Receiver: the
+ * leaves arrive in MERKLE packets (putLeaves) and are only trusted once they
+ * reproduce the root; MerkleVerifier then checks the output block by block.
+ */
+public final class MerkleTree {
+
+    public static final int HASH_SIZE = 32;
+
+    /** Default block size; grows for very large files to keep the leaf list small */
+    public static final int DEFAULT_BLOCK_BYTES = 4 << 20;
+
+    /** Upper bound on leaves (16384 x 32 bytes = 512 KB of manifest) */
+    public static final int MAX_LEAVES = 16384;
+
+    private static final int READ_BUFFER = 1 << 20;
+
+    private final long fileSize;
+    private final int blockSize;
+    private final int leafCount;
+    private final byte[] leaves; // leafCount * HASH_SIZE
+    private final byte[] root;
+
+    // Receiver side: which leaves arrived so far
+    private final BitSet present;
+    private boolean complete;
+
+    private MerkleTree(long fileSize, int blockSize, byte[] leaves, byte[] root, BitSet present) {
+        this.fileSize = fileSize;
+        this.blockSize = blockSize;
+        this.leafCount = leafCount(fileSize, blockSize);
+        this.leaves = leaves;
+        this.root = root;
+        this.present = present;
+        this.complete = present == null;
+    }
+
+    /**
+     * Block size for a file: saferoom.transfer.merkle.blockBytes (4 MB default),
+     * doubled until the file has at most MAX_LEAVES blocks
+     */
+    public static int blockSizeFor(long fileSize) {
+        long block = Math.max(4096, Integer.getInteger("saferoom.transfer.merkle.blockBytes", DEFAULT_BLOCK_BYTES));
+        while ((fileSize + block - 1) / block > MAX_LEAVES && block < (1 << 30)) {
+            block <<= 1;
+        }
+        return (int) block;
+    }
+
+    public static int leafCount(long fileSize, int blockSize) {
+        return (int) ((fileSize + blockSize - 1) / blockSize);
+    }
+
+    /**
+     * Hash every block of fc (sender side)
+     */
+    public static MerkleTree build(FileChannel fc, long fileSize, int blockSize) throws IOException {
+        int count = leafCount(fileSize, blockSize);
+        byte[] leaves = new byte[count * HASH_SIZE];
+        MessageDigest md = sha256();
+        ByteBuffer buf = ByteBuffer.allocateDirect(READ_BUFFER);
+        for (int i = 0; i < count; i++) {
+            long start = (long) i * blockSize;
+            hashRange(fc, start, Math.min(fileSize, start + blockSize), md, buf, leaves, i * HASH_SIZE);
+        }
+        return new MerkleTree(fileSize, blockSize, leaves, computeRoot(md, leaves, count), null);
+    }
+
+    /**
+     * Empty tree waiting for its leaves (receiver side)
+     *
+     * @throws IllegalArgumentException if the parameters cannot describe fileSize
+     */
+    public static MerkleTree expect(long fileSize, int blockSize, int leafCount, byte[] root) {
+        if (blockSize <= 0 || leafCount != leafCount(fileSize, blockSize)
+                || leafCount > MAX_LEAVES || root.length != HASH_SIZE) {
+            throw new IllegalArgumentException("Bad Merkle manifest: block=" + blockSize
+                + ", leaves=" + leafCount + ", fileSize=" + fileSize);
+        }
+        return new MerkleTree(fileSize, blockSize, new byte[leafCount * HASH_SIZE], root.clone(), new BitSet(leafCount));
+    }
+
+    /**
+     * Store count leaf hashes starting at leaf first, read from src at srcOff
+     * (absolute). Leaves may arrive in any order. Once all are present they must
+     * reproduce the root, otherwise they are dropped and must be sent again.
+     *
+     * @return first leaf still missing (leafCount when complete)
+     */
+    public synchronized int putLeaves(int first, int count, ByteBuffer src, int srcOff) {
+        if (complete) {
+            return leafCount;
+        }
+        if (first < 0 || count < 0 || first + count > leafCount) {
+            return present.nextClearBit(0);
+        }
+        src.get(srcOff, leaves, first * HASH_SIZE, count * HASH_SIZE);
+        present.set(first, first + count);
+
+        int next = present.nextClearBit(0);
+        if (next >= leafCount) {
+            if (Arrays.equals(computeRoot(sha256(), leaves, leafCount), root)) {
+                complete = true;
+            } else {
+                System.err.println("[MERKLE] Leaves do not match root - requesting them again");
+                present.clear();
+                return 0;
+            }
+        }
+        return next;
+    }
+
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Hash the bytes of leaf i from fc and compare them with the expected leaf
+     *
+     * @param md  Scratch digest (reset here)
+     * @param buf Scratch read buffer
+     */
+    public boolean verifyLeaf(int i, FileChannel fc, MessageDigest md, ByteBuffer buf) throws IOException {
+        byte[] actual = new byte[HASH_SIZE];
+        hashRange(fc, leafStart(i), leafEnd(i), md, buf, actual, 0);
+        return Arrays.equals(leaves, i * HASH_SIZE, (i + 1) * HASH_SIZE, actual, 0, HASH_SIZE);
+    }
+
+    public long leafStart(int i) {
+        return (long) i * blockSize;
+    }
+
+    /** Exclusive */
+    public long leafEnd(int i) {
+        return Math.min(fileSize, leafStart(i) + blockSize);
+    }
+
+    public int getBlockSize() { return blockSize; }
+    public int getLeafCount() { return leafCount; }
+    public long getFileSize() { return fileSize; }
+    public byte[] getRoot() { return root.clone(); }
+
+    /**
+     * Copy count leaf hashes starting at first into dst at dstOff (absolute)
+     */
+    public void copyLeaves(int first, int count, ByteBuffer dst, int dstOff) {
+        dst.put(dstOff, leaves, first * HASH_SIZE, count * HASH_SIZE);
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e); // mandatory in every JRE
+        }
+    }
+
+    private static void hashRange(FileChannel fc, long start, long end, MessageDigest md, ByteBuffer buf,
+            byte[] out, int outOff) throws IOException {
+        md.reset();
+        md.update((byte) 0x00);
+        long pos = start;
+        while (pos < end) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), end - pos));
+            int r = fc.read(buf, pos);
+            if (r < 0) {
+                throw new IOException("Unexpected end of file at " + pos + " (expected " + end + ")");
+            }
+            buf.flip();
+            md.update(buf);
+            pos += r;
+        }
+        try {
+            md.digest(out, outOff, HASH_SIZE);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] computeRoot(MessageDigest md, byte[] leaves, int count) {
+        if (count == 0) {
+            md.reset();
+            return md.digest();
+        }
+        byte[] level = Arrays.copyOf(leaves, count * HASH_SIZE);
+        int n = count;
+        while (n > 1) {
+            int parents = (n + 1) / 2;
+            byte[] next = new byte[parents * HASH_SIZE];
+            for (int p = 0; p < parents; p++) {
+                int left = 2 * p;
+                if (left + 1 < n) {
+                    md.reset();
+                    md.update((byte) 0x01);
+                    md.update(level, left * HASH_SIZE, HASH_SIZE);
+                    md.update(level, (left + 1) * HASH_SIZE, HASH_SIZE);
+                    System.arraycopy(md.digest(), 0, next, p * HASH_SIZE, HASH_SIZE);
+                } else {
+                    System.arraycopy(level, left * HASH_SIZE, next, p * HASH_SIZE, HASH_SIZE);
+                }
+            }
+            level = next;
+            n = parents;
+        }
+        return level;
+    }
+}
@@ -0,0 +1,77 @@
+package com.saferoom.file_transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * Incremental whole-file verification on the receiver
+ *
+ * Every block that lies completely below the cumulative ACK is read back from
+ * the output and checked against its Merkle leaf, in order. A block that does
+ * not match is reported to NackSender, which forgets its sequences so that
+ * only that region is NACKed and re-sent.
+ *
+ * Runs on NackSender's verify thread only; not thread-safe.
+ */
+public final class MerkleVerifier {
+
+    private static final int READ_BUFFER = 1 << 20;
+
+    private final MerkleTree tree;
+    private final ChunkManager chunkManager;
+    private final FileChannel output;
+    private final MessageDigest md = MerkleTree.sha256();
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(READ_BUFFER);
+
+    private volatile int nextLeaf = 0;
+    private long corruptBlocks = 0;
+
+    public MerkleVerifier(MerkleTree tree, ChunkManager chunkManager, FileChannel output) {
+        if (!tree.isComplete()) {
+            throw new IllegalArgumentException("Merkle leaves incomplete");
+        }
+        this.tree = tree;
+        this.chunkManager = chunkManager;
+        this.output = output;
+    }
+
+    /**
+     * Verify blocks whose last sequence is below cumAck
+     *
+     * @return index of the first corrupt block, or -1 if every block checked so far matched
+     */
+    public int verifyBelow(int cumAck) throws IOException {
+        int count = tree.getLeafCount();
+        while (nextLeaf < count && lastSeq(nextLeaf) < cumAck) {
+            if (!tree.verifyLeaf(nextLeaf, output, md, buf)) {
+                corruptBlocks++;
+                System.err.printf("[MERKLE] Block %d (seq %d-%d) corrupt - re-fetching%n",
+                    nextLeaf, firstSeq(nextLeaf), lastSeq(nextLeaf));
+                return nextLeaf;
+            }
+            nextLeaf++;
+        }
+        return -1;
+    }
+
+    public boolean isComplete() {
+        return nextLeaf >= tree.getLeafCount();
+    }
+
+    /** First sequence carrying bytes of block i */
+    public int firstSeq(int i) {
+        return chunkManager.sequenceAt(tree.leafStart(i));
+    }
+
+    /** Last sequence carrying bytes of block i */
+    public int lastSeq(int i) {
+        return chunkManager.sequenceAt(tree.leafEnd(i) - 1);
+    }
+
+    public String getStats() {
+        return String.format("Merkle: %d/%d blocks verified, %d corrupt",
+            nextLeaf, tree.getLeafCount(), corruptBlocks);
+    }
+}
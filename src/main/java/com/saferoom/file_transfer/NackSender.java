@@ -5,17 +5,21 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.DatagramChannel;
-import java.util.BitSet;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.locks.LockSupport;
-import java.util.zip.CRC32C;
+
+import com.saferoom.transport.BatchReceiveEndpoint;
+import com.saferoom.transport.PooledFrame;
 
 public class NackSender implements Runnable{
 	public final long fileId;
 	public final long file_size;  // Changed to long for large file support
 	public final int total_seq;
 	public final DatagramChannel channel;
-	public final BitSet recv;
+	public final ReceiveBitmap recv; // Lock-free: sender lanes arrive interleaved
 	public final NackFrame frame;
 	public final MappedByteBuffer mem_buf;
 	public final ChunkManager chunkManager; // NEW: For large files
@@ -24,79 +28,171 @@ public class NackSender implements Runnable{
 	public volatile Runnable onTransferComplete = null;
 	
 	// Enhanced congestion control reference  
-	public volatile HybridCongestionController hybridControl = null;
+	public volatile CongestionController hybridControl = null;
+	
+	// Resume support - receive bitmap persisted next to the output file
+	public volatile TransferCheckpoint checkpoint = null;
+	public static final long CHECKPOINT_INTERVAL_MS =
+		Long.getLong("saferoom.transfer.checkpoint.intervalMs", 2000L);
+	
+	// Whole-file verification - blocks below cumAck are checked against the Merkle leaves
+	public volatile MerkleVerifier verifier = null;
+	public static final long VERIFY_INTERVAL_MS = 20;
+	
+	// Multi-window SACK - reports holes beyond the 64-seq NackFrame window
+	public static final boolean SACK_ENABLED = Boolean.parseBoolean(
+		System.getProperty("saferoom.transfer.sack.enabled", "true"));
+	public final SackFrame sackFrame = new SackFrame();
+	private final AtomicInteger highestSeq = new AtomicInteger(-1);
 
 	// Legacy constructor (backward compatibility)
 	public NackSender(DatagramChannel channel, long fileId, long file_size,
 			int total_seq, MappedByteBuffer mem_buf){
-		this.channel = channel;
-		this.fileId = fileId;
-		this.file_size = file_size;
-		this.total_seq = total_seq;
-		this.mem_buf = mem_buf;
-		this.chunkManager = null;
-		this.recv = new BitSet(total_seq);
-		this.frame = new NackFrame();
+		this(channel, fileId, file_size, total_seq, mem_buf, null, null, HandShake_Packet.DEFAULT_SLICE);
 	}
 	
 	// Enhanced constructor with congestion control
 	public NackSender(DatagramChannel channel, long fileId, long file_size,
-			int total_seq, MappedByteBuffer mem_buf, HybridCongestionController hybridControl){
-		this.channel = channel;
-		this.fileId = fileId;
-		this.file_size = file_size;
-		this.total_seq = total_seq;
-		this.mem_buf = mem_buf;
-		this.chunkManager = null;
-		this.recv = new BitSet(total_seq);
-		this.frame = new NackFrame();
-		this.hybridControl = hybridControl;
+			int total_seq, MappedByteBuffer mem_buf, CongestionController hybridControl){
+		this(channel, fileId, file_size, total_seq, mem_buf, null, hybridControl, HandShake_Packet.DEFAULT_SLICE);
+	}
+	
+	// Enhanced constructor with negotiated slice size
+	public NackSender(DatagramChannel channel, long fileId, long file_size,
+			int total_seq, MappedByteBuffer mem_buf, CongestionController hybridControl, int sliceSize){
+		this(channel, fileId, file_size, total_seq, mem_buf, null, hybridControl, sliceSize);
 	}
 	
 	// FULL constructor with ChunkManager (for large files > 256MB)
 	public NackSender(DatagramChannel channel, long fileId, long file_size,
-			int total_seq, ChunkManager chunkManager, HybridCongestionController hybridControl){
+			int total_seq, ChunkManager chunkManager, CongestionController hybridControl){
+		this(channel, fileId, file_size, total_seq, null, chunkManager, hybridControl, HandShake_Packet.DEFAULT_SLICE);
+	}
+	
+	// FULL constructor with ChunkManager and negotiated slice size
+	public NackSender(DatagramChannel channel, long fileId, long file_size,
+			int total_seq, ChunkManager chunkManager, CongestionController hybridControl, int sliceSize){
+		this(channel, fileId, file_size, total_seq, null, chunkManager, hybridControl, sliceSize);
+	}
+	
+	private NackSender(DatagramChannel channel, long fileId, long file_size, int total_seq,
+			MappedByteBuffer mem_buf, ChunkManager chunkManager, CongestionController hybridControl,
+			int sliceSize){
 		this.channel = channel;
 		this.fileId = fileId;
 		this.file_size = file_size;
 		this.total_seq = total_seq;
-		this.mem_buf = null; // Using ChunkManager instead
+		this.mem_buf = mem_buf; // null when using ChunkManager
 		this.chunkManager = chunkManager;
-		this.recv = new BitSet(total_seq);
+		this.recv = new ReceiveBitmap(total_seq);
 		this.frame = new NackFrame();
 		this.hybridControl = hybridControl;
+		this.PAYLOAD_SIZE = sliceSize;
+		this.TOTAL_PACKET_SIZE = CRC32C_HEADER_SIZE + sliceSize;
+		this.buf = ByteBuffer.allocateDirect(TOTAL_PACKET_SIZE).order(ByteOrder.BIG_ENDIAN);
 	}
 
 	public volatile int cum_Ack = 0;
-	private volatile boolean transferCompleted = false;
+	private static final AtomicIntegerFieldUpdater<NackSender> CUM_ACK =
+		AtomicIntegerFieldUpdater.newUpdater(NackSender.class, "cum_Ack");
+	private final AtomicBoolean transferCompleted = new AtomicBoolean(false);
+	private final AtomicInteger receivedCount = new AtomicInteger(0);
 	public final int CRC32C_HEADER_SIZE = 22;
-	public final int PAYLOAD_SIZE = 1450; // Updated to match FileTransferSender
-	public final int TOTAL_PACKET_SIZE = CRC32C_HEADER_SIZE + PAYLOAD_SIZE;
+	public final int PAYLOAD_SIZE; // Slice negotiated in the handshake (1450 by default)
+	public final int TOTAL_PACKET_SIZE;
 
     	public static final int OFF_FILE_ID  = 0;
     	public static final int OFF_SEQ      = 8;
     	public static final int OFF_TOTAL    = 12;
     	public static final int OFF_PLEN     = 16;
+    	
+    	private static final int RECEIVE_BATCH = 64; // Frames drained per receiveBatch()
 
 
-	public  ByteBuffer buf = ByteBuffer.allocateDirect(CRC32C_HEADER_SIZE + PAYLOAD_SIZE).order(ByteOrder.BIG_ENDIAN);
-	public CRC32C crc = new CRC32C();
+	public final ByteBuffer buf;
+	public PacketChecksum checksum = ChecksumMode.CRC32C.newChecksum(); // Mode accepted in the handshake
+	public PacketCompressor compressor; // Deflated payloads accepted in the handshake, null = none
+	public volatile boolean fecEnabled; // Parity frames accepted in the handshake
+	private final AtomicInteger recoveredCount = new AtomicInteger(0);
+	private ByteBuffer parityScratch; // Rebuilt payload, allocated with the first parity frame
 
-	public synchronized boolean isTransferComplete(){
-		return recv.cardinality() == total_seq;	
+	public boolean isTransferComplete(){
+		return receivedCount.get() == total_seq;	
 	}
 	
 	public boolean isTransferCompleted() {
-		return transferCompleted;
+		return transferCompleted.get();
+	}
+	
+	/**
+	 * Lost packets rebuilt from parity frames instead of being NACKed
+	 */
+	public int getRecoveredCount() {
+		return recoveredCount.get();
+	}
+
+	/**
+	 * Seed the receive bitmap from a persisted checkpoint (resumed transfer)
+	 */
+	public void restoreFrom(ReceiveBitmap saved) {
+		recv.or(saved.snapshot());
+		receivedCount.set(recv.cardinality());
+		CUM_ACK.accumulateAndGet(this, recv.nextClear(0), Math::max);
+		System.out.printf("[NACK-SENDER] Resumed with %d/%d packets already received (cumAck=%d)%n",
+			receivedCount.get(), total_seq, cum_Ack);
+	}
+	
+	/**
+	 * Persist the receive bitmap. The snapshot is taken BEFORE flushing the
+	 * mapped output, so every bit written to the sidecar has its data on disk.
+	 */
+	public void checkpointNow() {
+		TransferCheckpoint cp = checkpoint;
+		if (cp == null || transferCompleted.get()) {
+			return;
+		}
+		try {
+			long[] words = recv.snapshot();
+			if (chunkManager != null) {
+				chunkManager.force();
+			} else if (mem_buf != null) {
+				mem_buf.force();
+			}
+			cp.save(words);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("[NACK-SENDER] Checkpoint failed: " + e.getMessage());
+		}
 	}
 
-	private void updateCumulativeAck() {
-    	synchronized(this) {
-    	    while(cum_Ack < total_seq && recv.get(cum_Ack)) {
-   	         cum_Ack++;
-  	      }
-	    if(isTransferComplete() && !transferCompleted){
-			transferCompleted = true;
+	/**
+	 * Lock-free cumulative ACK advance.
+	 *
+	 * The bit for seqNo is always set BEFORE cum_Ack is read, and every
+	 * successful CAS rescans from the new value. So when a packet that fills the
+	 * hole is skipped here (cum_Ack not yet at seqNo), the thread that moved
+	 * cum_Ack is guaranteed to see its bit on the rescan.
+	 */
+	private void updateCumulativeAck(int seqNo) {
+		// Out-of-order packets (other lanes) cannot move cum_Ack
+		if(seqNo == cum_Ack) {
+			int cur = cum_Ack;
+			int next;
+			while((next = recv.nextClear(cur)) != cur) {
+				// CAS failure means another thread advanced - rescan from its value
+				CUM_ACK.compareAndSet(this, cur, next);
+				cur = cum_Ack;
+			}
+		}
+		
+		checkCompletion();
+	}
+	
+	/**
+	 * All sequences received and, with a verifier, every block checked
+	 */
+	private void checkCompletion() {
+		MerkleVerifier v = verifier;
+	    if(isTransferComplete() && (v == null || v.isComplete()) && transferCompleted.compareAndSet(false, true)){
 			stopNackLoop();
 			System.out.println("File transfer completed successfully! Shutting down receiver...");
 			
@@ -108,9 +204,7 @@ public class NackSender implements Runnable{
 					System.err.println("Transfer completion callback error: " + e);
 				}
 			}
-			return;
 	    }
- 	   }
 	}
 
 	public void onData(ByteBuffer fullPacket){
@@ -122,7 +216,9 @@ public class NackSender implements Runnable{
 		
 		int seqNo = CRC32C_Packet.seqNo(fullPacket);
 		int receivedCrc = CRC32C_Packet.crc32(fullPacket);
-		int payloadLen = CRC32C_Packet.plen(fullPacket);
+		int payloadLen = CRC32C_Packet.wireLen(fullPacket);
+		boolean packed = CRC32C_Packet.compressed(fullPacket);
+		boolean parity = CRC32C_Packet.parity(fullPacket);
 		
 		// Sequence number validation
 		if(seqNo < 0 || seqNo >= total_seq) {
@@ -131,8 +227,8 @@ public class NackSender implements Runnable{
 		}
 		
 		// Payload length validation
-		if(payloadLen <= 0 || payloadLen > PAYLOAD_SIZE) {
-			System.err.println("Invalid payload length: " + payloadLen);
+		if(payloadLen <= 0 || payloadLen > PAYLOAD_SIZE || (packed && (compressor == null || parity))) {
+			System.err.println("Invalid payload length: " + payloadLen + (packed ? " (compressed)" : ""));
 			return;
 		}
 		
@@ -142,63 +238,53 @@ public class NackSender implements Runnable{
 			return;
 		}
 		
-		// Extract payload - safely slice (Java 8 uyumlu)
-		fullPacket.position(CRC32C_HEADER_SIZE);
-		fullPacket.limit(CRC32C_HEADER_SIZE + payloadLen);
-		ByteBuffer payload = fullPacket.slice();
+		// Checksum over the payload in place - no slice/duplicate per packet
+		fullPacket.limit(CRC32C_HEADER_SIZE + payloadLen).position(CRC32C_HEADER_SIZE);
+		boolean valid = checksum.verify(fullPacket, receivedCrc);
 		fullPacket.clear(); // Reset position/limit
 		
-
-		// CRC validation
-		crc.reset();
-		crc.update(payload.duplicate());
-		int calculatedCrc = (int) crc.getValue();
+		if(parity) {
+			if(valid && fecEnabled) {
+				onParity(fullPacket, seqNo, fullPacket.getInt(CRC32C_Packet.OFF_TOTAL), payloadLen);
+			}
+			return;
+		}
 		
-		if(calculatedCrc == receivedCrc){
+		if(valid){
 			int off = seqNo * PAYLOAD_SIZE;
 			
 			// Chunk-aware write logic
 			if (chunkManager != null) {
 				// Large file mode: use ChunkManager
-				try {
-					// CRITICAL FIX: Do I/O operations OUTSIDE synchronized block to prevent deadlock!
-					int chunkIdx = chunkManager.findChunkForSequence(seqNo);
-					if (chunkIdx < 0) {
-						System.err.println("No chunk found for sequence: " + seqNo);
-						return;
-					}
-					
-					ChunkMetadata chunkMeta = chunkManager.getChunkMetadata(chunkIdx);
-					MappedByteBuffer chunkBuffer = chunkManager.getChunk(chunkIdx);
-					int localSeq = chunkMeta.toLocalSequence(seqNo);
-					int localOff = chunkMeta.getLocalOffset(localSeq, PAYLOAD_SIZE);
+				// Duplicates below cumAck must not remap a released window
+				if(recv.get(seqNo)) return; // Already received
+				
+				// Write payload first, then publish the bit (no lock on the receive path)
+				try (MappedWindow window = chunkManager.acquire(seqNo)) {
+					ByteBuffer windowBuffer = window.buffer();
+					int localOff = window.offsetOf(seqNo);
 					
-					// Bounds check BEFORE synchronized block
-					if(localOff + payloadLen > chunkBuffer.capacity()) {
-						System.err.println("️Chunk bounds exceeded: localOff=" + localOff + 
-							", payloadLen=" + payloadLen + ", capacity=" + chunkBuffer.capacity() + 
+					// Bounds check BEFORE touching the mapped buffer
+					if(localOff + payloadLen > windowBuffer.capacity()) {
+						System.err.println("️Window bounds exceeded: localOff=" + localOff + 
+							", payloadLen=" + payloadLen + ", capacity=" + windowBuffer.capacity() + 
 							", seqNo=" + seqNo);
 						// Adjust payload length to fit
-						payloadLen = chunkBuffer.capacity() - localOff;
+						payloadLen = windowBuffer.capacity() - localOff;
 						System.out.println("Adjusted payloadLen to: " + payloadLen);
 					}
 					
-					// Prepare buffer views OUTSIDE synchronized block
-					MappedByteBuffer view = chunkBuffer.duplicate();
-					view.position(localOff);
-					view.limit(localOff + payloadLen);
-					
-					ByteBuffer payloadToPut = payload.duplicate();
-					payloadToPut.limit(payloadLen);
-					payloadToPut.rewind();
-					
-					// NOW enter synchronized block - ONLY for BitSet update and write
-					synchronized(this) {
-						if(recv.get(seqNo)) return; // Already received
-						
-						view.put(payloadToPut);
-						recv.set(seqNo);
+					// Duplicate writes carry identical bytes; the CAS decides who counts it
+					// Absolute bulk put: the shared window's position is never touched
+					if(packed) {
+						ByteBuffer raw = inflate(fullPacket, payloadLen, window.payloadSize(seqNo));
+						if(raw == null) return; // Corrupt - stays missing and is NACKed
+						windowBuffer.put(localOff, raw, 0, raw.limit());
+					} else {
+						windowBuffer.put(localOff, fullPacket, CRC32C_HEADER_SIZE, payloadLen);
 					}
+					if(!recv.setIfAbsent(seqNo)) return;
+					receivedCount.incrementAndGet();
 				} catch(IOException e) {
 					System.err.println("Chunk write error for seq " + seqNo + ": " + e);
 					return;
@@ -216,29 +302,27 @@ public class NackSender implements Runnable{
 					payloadLen = mem_buf.capacity() - off;
 				}
 				
-				// Prepare buffer views OUTSIDE synchronized block
-				MappedByteBuffer view = mem_buf.duplicate();
-				view.position(off);
-				view.limit(off + payloadLen);
+				if(recv.get(seqNo)) return; // Already received
 				
-				ByteBuffer payloadToPut = payload.duplicate();
-				payloadToPut.limit(payloadLen);
-				payloadToPut.rewind();
-				
-				// NOW enter synchronized block - ONLY for BitSet update and write
-				synchronized(this) {
-					if(recv.get(seqNo)) return; // Already received
-					
-					view.put(payloadToPut);
-					recv.set(seqNo);
+				if(packed) {
+					ByteBuffer raw = inflate(fullPacket, payloadLen, Math.min(PAYLOAD_SIZE, mem_buf.capacity() - off));
+					if(raw == null) return; // Corrupt - stays missing and is NACKed
+					mem_buf.put(off, raw, 0, raw.limit());
+				} else {
+					mem_buf.put(off, fullPacket, CRC32C_HEADER_SIZE, payloadLen);
 				}
+				if(!recv.setIfAbsent(seqNo)) return;
+				receivedCount.incrementAndGet();
 			}
 			
-			updateCumulativeAck();
+			if(seqNo > highestSeq.get()) {
+				highestSeq.accumulateAndGet(seqNo, Math::max);
+			}
+			updateCumulativeAck(seqNo);
 		} else {
 			// CRC mismatch - bu paketi alınmamış olarak işaretle
-			synchronized(this) {
-				recv.clear(seqNo);
+			if(recv.clear(seqNo)) {
+				receivedCount.decrementAndGet();
 			}
 			
 			// NACK-based: CRC mismatch sadece log, sender NACK alınca tekrar gönderecek
@@ -246,23 +330,182 @@ public class NackSender implements Runnable{
 		}
 	}
 
+	/**
+	 * Parity frame for the group [first, first + count): if exactly one member
+	 * is missing, rebuild it as parity ^ every other member and count it as
+	 * received. Otherwise (nothing or several lost) the frame is dropped and
+	 * NACKs take care of the holes.
+	 */
+	private void onParity(ByteBuffer fullPacket, int first, int count, int parityLen) {
+		if(count < 2 || count > ParityEncoder.MAX_GROUP || first + count > total_seq) {
+			return;
+		}
+		int missing = -1;
+		for(int seq = first; seq < first + count; seq++) {
+			if(!recv.get(seq)) {
+				if(missing >= 0) return; // Two or more lost
+				missing = seq;
+			}
+		}
+		if(missing < 0) return;
+		
+		if(parityScratch == null) {
+			parityScratch = ByteBuffer.allocateDirect(PAYLOAD_SIZE);
+		}
+		ByteBuffer acc = parityScratch;
+		acc.clear();
+		acc.put(0, fullPacket, CRC32C_HEADER_SIZE, parityLen);
+		try {
+			for(int seq = first; seq < first + count; seq++) {
+				if(seq == missing) continue;
+				if(chunkManager != null) {
+					try (MappedWindow window = chunkManager.acquire(seq)) {
+						int len = window.payloadSize(seq);
+						if(len > parityLen) return; // Parity is as long as the longest member
+						ParityEncoder.xorInto(acc, 0, window.buffer(), window.offsetOf(seq), len);
+					}
+				} else {
+					int off = seq * PAYLOAD_SIZE;
+					int len = Math.min(PAYLOAD_SIZE, mem_buf.capacity() - off);
+					if(len > parityLen) return;
+					ParityEncoder.xorInto(acc, 0, mem_buf, off, len);
+				}
+			}
+			
+			// Same write-then-publish order as a regular data packet
+			if(chunkManager != null) {
+				try (MappedWindow window = chunkManager.acquire(missing)) {
+					int len = window.payloadSize(missing);
+					if(len > parityLen) return;
+					window.buffer().put(window.offsetOf(missing), acc, 0, len);
+				}
+			} else {
+				int off = missing * PAYLOAD_SIZE;
+				int len = Math.min(PAYLOAD_SIZE, mem_buf.capacity() - off);
+				if(len > parityLen) return;
+				mem_buf.put(off, acc, 0, len);
+			}
+		} catch(IOException e) {
+			System.err.println("Parity rebuild error for seq " + missing + ": " + e);
+			return;
+		}
+		if(!recv.setIfAbsent(missing)) return;
+		receivedCount.incrementAndGet();
+		recoveredCount.incrementAndGet();
+		
+		if(missing > highestSeq.get()) {
+			highestSeq.accumulateAndGet(missing, Math::max);
+		}
+		updateCumulativeAck(missing);
+	}
+
+	/**
+	 * Inflate a compressed payload, which must expand to exactly expected bytes
+	 *
+	 * @return raw payload (compressor scratch), or null if it does not
+	 */
+	private ByteBuffer inflate(ByteBuffer fullPacket, int wireLen, int expected) {
+		fullPacket.limit(CRC32C_HEADER_SIZE + wireLen).position(CRC32C_HEADER_SIZE);
+		ByteBuffer raw = compressor.decompress(fullPacket, expected);
+		fullPacket.clear();
+		if(raw == null) {
+			System.err.println("Compressed payload does not inflate to " + expected + " bytes");
+		}
+		return raw;
+	}
+	
+	/**
+	 * Forget sequences [from, to) so they are NACKed and re-sent (block failed
+	 * verification). cum_Ack moves back to from.
+	 *
+	 * Only called for ranges entirely below cum_Ack, so a concurrent advance
+	 * either lands above the range (and is overridden here) or fails its CAS
+	 * and rescans from from, which is clear.
+	 */
+	public void invalidate(int from, int to) {
+		int cleared = 0;
+		for(int seq = from; seq < to; seq++) {
+			if(recv.clear(seq)) {
+				cleared++;
+			}
+		}
+		receivedCount.addAndGet(-cleared);
+		int cur;
+		while((cur = cum_Ack) > from && !CUM_ACK.compareAndSet(this, cur, from)) {
+			// retry with the value another thread just published
+		}
+	}
+	
+	/**
+	 * Verify blocks the cumulative ACK has passed; a corrupt block is re-fetched
+	 */
+	public void verifyNow() {
+		MerkleVerifier v = verifier;
+		if(v == null || transferCompleted.get()) {
+			return;
+		}
+		try {
+			int corrupt = v.verifyBelow(cum_Ack);
+			if(corrupt >= 0) {
+				invalidate(v.firstSeq(corrupt), v.lastSeq(corrupt) + 1);
+			} else {
+				checkCompletion();
+			}
+		} catch(IOException | RuntimeException e) {
+			System.err.println("[NACK-SENDER] Verification failed: " + e.getMessage());
+		}
+	}
+
 	public long build64(){
-		long mask = 0L;
+		return recv.window64(cum_Ack);
+	}
+
+	/**
+	 * Fill sackFrame with holes beyond the NackFrame window (cumAck + 64) up to
+	 * the highest sequence seen so far. Sequences above that may simply not
+	 * have been sent yet and are not reported.
+	 *
+	 * @return true if there is at least one block to send
+	 */
+	public boolean buildSackFrame(){
 		int base = cum_Ack;
-		for(int i = 0; i < 64; i++)
-		{
-			if(base + i >= total_seq) break;
-			if(recv.get(base + i))
-					mask |= (1L << i);
+		int limit = highestSeq.get(); // exclusive - highest itself was received
+		int from = base + 64;
+		if(limit <= from) {
+			return false;
+		}
+		
+		sackFrame.begin(fileId, base);
+		while(true) {
+			int hole = recv.nextClear(from);
+			if(hole >= limit) break;
+			int end = Math.min(recv.nextSet(hole), limit);
+			boolean added;
+			if(end - hole >= 64) {
+				added = sackFrame.addRun(hole, end - hole);
+				from = end;
+			} else {
+				long mask = recv.window64(hole);
+				if(limit - hole < 64) {
+					mask |= -1L << (limit - hole); // Not yet seen - don't NACK
+				}
+				added = sackFrame.addMask(hole, mask);
+				from = hole + 64;
+			}
+			if(!added) break;
+		}
+		if(sackFrame.blockCount() == 0) {
+			return false;
 		}
-		return mask;
+		sackFrame.finish();
+		return true;
 	}
 
 	// controlFrames() method removed - use isTransferComplete() instead
 	// isTransferComplete() has O(1) complexity vs controlFrames() O(N)
 	
 	public void printTransferStatus() {
-		int received = recv.cardinality();
+		int received = receivedCount.get();
 		int missing = total_seq - received;
 		double progress = (received * 100.0) / total_seq;
 		
@@ -280,6 +523,13 @@ public class NackSender implements Runnable{
 	
 
 	public void send_Nack_Frame(){
+		if (chunkManager != null) {
+			// Everything below cumAck is written - drop those windows off the receive path
+			chunkManager.releaseBelow(cum_Ack);
+		}
+		if(cum_Ack >= total_seq) {
+			return; // Everything received, verification still running - nothing to NACK
+		}
 		long mask = build64();
 		frame.fill(fileId, cum_Ack, mask);
 
@@ -315,6 +565,11 @@ public class NackSender implements Runnable{
 			if (retries > 0) {
 				System.out.printf("[NACK]NACK sent after %d retries%n", retries);
 			}
+			
+			if(SACK_ENABLED && buildSackFrame()) {
+				// Best effort - next NACK tick rebuilds it anyway
+				channel.write(sackFrame.buffer().duplicate());
+			}
 		}catch(IOException e){
 			System.err.println("NACK write failed: " + e.getMessage());
 			// Don't throw RuntimeException, just log and continue
@@ -339,6 +594,11 @@ public class NackSender implements Runnable{
 	};
 
 	public ScheduledFuture<?> nackHandle;
+	public ScheduledFuture<?> checkpointHandle;
+	public ScheduledFuture<?> verifyHandle;
+	
+	// Hashing must not delay NACK frames - own thread
+	private ScheduledExecutorService verifyScheduler;
 
 	public void startNackLoop()
 	{
@@ -361,14 +621,57 @@ public class NackSender implements Runnable{
 			nackHandle.cancel(false);
 			nackHandle = null;
 		}
+		if(checkpointHandle != null){
+			checkpointHandle.cancel(false);
+			checkpointHandle = null;
+		}
+		if(verifyHandle != null){
+			verifyHandle.cancel(false);
+			verifyHandle = null;
+		}
+	}
+	
+	public void startCheckpointLoop()
+	{
+		if(checkpoint != null && checkpointHandle == null)
+		{
+			checkpointHandle = scheduler.scheduleWithFixedDelay(this::checkpointNow,
+				CHECKPOINT_INTERVAL_MS, CHECKPOINT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	public void startVerifyLoop()
+	{
+		if(verifier != null && verifyHandle == null)
+		{
+			verifyScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "merkle-verify");
+				t.setDaemon(true);
+				return t;
+			});
+			verifyHandle = verifyScheduler.scheduleWithFixedDelay(this::verifyNow,
+				VERIFY_INTERVAL_MS, VERIFY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		}
 	}
 	
 	public void shutdownScheduler(){
 		scheduler.shutdown();
+		if(verifyScheduler != null) {
+			verifyScheduler.shutdown();
+		}
 	}
 	
 	public void cleanup() {
 		stopNackLoop();
+		// Interrupted transfer: keep what we have for the next attempt
+		TransferCheckpoint cp = checkpoint;
+		if (cp != null) {
+			if (transferCompleted.get()) {
+				cp.delete();
+			} else {
+				checkpointNow();
+			}
+		}
 		shutdownScheduler();
 		try {
 			if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
@@ -391,54 +694,67 @@ public class NackSender implements Runnable{
 		
 		try {
 			startNackLoop();
+			startCheckpointLoop();
+			startVerifyLoop();
+			
+			// Resumed transfer may already be complete (or have a cumAck to advance)
+			updateCumulativeAck(cum_Ack);
+			
+			if (channel instanceof BatchReceiveEndpoint batch) {
+				receiveBatches(batch);
+				return;
+			}
 			
 			int packetCount = 0;
-			while(!Thread.currentThread().isInterrupted() && !transferCompleted){
-				buf.clear();
+			// Waits for data in a Selector (UDP) or in read() itself (DataChannel queues)
+			try (ChannelReadiness readiness = ChannelReadiness.of(channel, 100_000)) {
+				while(!Thread.currentThread().isInterrupted() && !transferCompleted.get()){
+					buf.clear();
 
-				int x = 0; // Initialize x
-				do{
-					try{
-					x = channel.read(buf);
+					int x = 0; // Initialize x
+					do{
+						try{
+						x = channel.read(buf);
 					
-					// Debug: Log first few packets
-					if (x > 0 && packetCount < 5) {
-						System.out.printf("[NACK-SENDER] Packet received: %d bytes (count: %d)%n", x, packetCount);
-						packetCount++;
-					}
-					}catch(java.net.PortUnreachableException e){
-						System.err.println("Sender port unreachable - connection may be closed: " + e.getMessage());
-						LockSupport.parkNanos(10_000_000); // 10ms bekle ve tekrar dene
-						x = 0; // Reset x for retry
-						continue;
-					}catch(IOException e){
-						System.err.println("read failed: " + e);
-						return ;
-					}
-				if( x == 0 ){
-					LockSupport.parkNanos(100_000); // Daha kısa bekleme süresi
+						// Debug: Log first few packets
+						if (x > 0 && packetCount < 5) {
+							System.out.printf("[NACK-SENDER] Packet received: %d bytes (count: %d)%n", x, packetCount);
+							packetCount++;
+						}
+						}catch(java.net.PortUnreachableException e){
+							System.err.println("Sender port unreachable - connection may be closed: " + e.getMessage());
+							LockSupport.parkNanos(10_000_000); // 10ms bekle ve tekrar dene
+							x = 0; // Reset x for retry
+							continue;
+						}catch(IOException e){
+							System.err.println("read failed: " + e);
+							return ;
+						}
+					if( x == 0 ){
+						readiness.await(ChannelReadiness.IDLE_WAIT_MS);
 					
-					if(transferCompleted) {
-						System.out.println("Transfer completed, exiting receiver loop.");
-						break;
+						if(transferCompleted.get()) {
+							System.out.println("Transfer completed, exiting receiver loop.");
+							break;
+						}
 					}
-				}
-				}while(x == 0 && !transferCompleted);
+					}while(x == 0 && !transferCompleted.get() && !Thread.currentThread().isInterrupted());
 				
-				if(transferCompleted) break;
+					if(transferCompleted.get()) break;
 			
-			buf.flip();		
+				buf.flip();		
 
-			if (x < CRC32C_HEADER_SIZE || x > TOTAL_PACKET_SIZE || buf.getLong(OFF_FILE_ID) != fileId) {
-		    		buf.clear();
-		    	continue;
-			}
+				if (x < CRC32C_HEADER_SIZE || x > TOTAL_PACKET_SIZE || buf.getLong(OFF_FILE_ID) != fileId) {
+			    		buf.clear();
+			    	continue;
+				}
 
-				onData(buf);
-				buf.clear();
+					onData(buf);
+					buf.clear();
+				}
 			}
 			
-			if(transferCompleted) {
+			if(transferCompleted.get()) {
 				System.out.println("NackSender: All packets received, transfer complete!");
 			}
 		} finally {
@@ -446,6 +762,41 @@ public class NackSender implements Runnable{
 		}
 	}
 	
+	/**
+	 * Receive loop for queue-backed transports (DataChannel): frames are drained
+	 * several at a time and parsed where they lie instead of copied into buf
+	 */
+	private void receiveBatches(BatchReceiveEndpoint batch) {
+		PooledFrame[] frames = new PooledFrame[RECEIVE_BATCH];
+		while(!Thread.currentThread().isInterrupted() && !transferCompleted.get()){
+			int n;
+			try {
+				n = batch.receiveBatch(frames, ChannelReadiness.IDLE_WAIT_MS);
+			} catch(IOException e) {
+				System.err.println("receive failed: " + e);
+				return;
+			}
+			for (int i = 0; i < n; i++) {
+				PooledFrame frame = frames[i];
+				frames[i] = null;
+				try {
+					int x = frame.length();
+					ByteBuffer packet = frame.buffer();
+					if (transferCompleted.get() || x < CRC32C_HEADER_SIZE || x > TOTAL_PACKET_SIZE
+							|| packet.getLong(OFF_FILE_ID) != fileId) {
+						continue;
+					}
+					onData(packet);
+				} finally {
+					frame.release();
+				}
+			}
+		}
+		if(transferCompleted.get()) {
+			System.out.println("NackSender: All packets received, transfer complete!");
+		}
+	}
+	
 	public void sendCompletionSignal() {
 		try {
 			// Özel completion frame gönder
@@ -0,0 +1,36 @@
+package com.saferoom.file_transfer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shared pacing slot for congestion controllers
+ *
+ * Each send reserves the next slot with a CAS, so striped lanes and the
+ * retransmission task together stay within one pacing budget.
+ */
+final class PacingClock {
+
+    private final AtomicLong nextSendTime = new AtomicLong(0);
+
+    /**
+     * Reserve a slot intervalNs after the previous one and park until it starts
+     */
+    void await(long intervalNs) {
+        if (intervalNs <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long prev;
+        long slot;
+        do {
+            prev = nextSendTime.get();
+            slot = Math.max(now, prev);
+        } while (!nextSendTime.compareAndSet(prev, slot + intervalNs));
+
+        long sleepTime = slot - now;
+        if (sleepTime > 0) {
+            LockSupport.parkNanos(sleepTime);
+        }
+    }
+}
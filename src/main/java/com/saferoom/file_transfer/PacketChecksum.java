@@ -0,0 +1,46 @@
+package com.saferoom.file_transfer;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * Reusable checksum state for one thread (ChecksumMode.newChecksum)
+ *
+ * Works on the caller's buffer in place: the bytes between position and limit
+ * are summed and the position is restored afterwards, so the hot path needs no
+ * duplicate() per packet. Not thread-safe.
+ */
+public final class PacketChecksum {
+    private final ChecksumMode mode;
+    private final Checksum impl; // null for NONE
+
+    PacketChecksum(ChecksumMode mode, Checksum impl) {
+        this.mode = mode;
+        this.impl = impl;
+    }
+
+    public ChecksumMode mode() {
+        return mode;
+    }
+
+    /**
+     * @return checksum of payload's remaining bytes (0 for NONE); position unchanged
+     */
+    public int compute(ByteBuffer payload) {
+        if (impl == null) {
+            return 0;
+        }
+        int pos = payload.position();
+        impl.reset();
+        impl.update(payload);
+        payload.position(pos);
+        return (int) impl.getValue();
+    }
+
+    /**
+     * @return true if payload's remaining bytes match expected (always for NONE)
+     */
+    public boolean verify(ByteBuffer payload, int expected) {
+        return impl == null || compute(payload) == expected;
+    }
+}
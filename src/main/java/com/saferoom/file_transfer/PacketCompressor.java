@@ -0,0 +1,133 @@
+package com.saferoom.file_transfer;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reusable deflate state for one thread (CompressionMode.newCompressor)
+ *
+ * compress() works on the caller's payload view and returns the packed bytes
+ * in one of its own direct buffers, or null when the payload does not shrink;
+ * the caller then sends it raw. After MISS_LIMIT incompressible payloads in a
+ * row compression is skipped for a while (doubling up to MAX_SKIP packets) so
+ * already-compressed files cost almost no CPU. Not thread-safe.
+ */
+public final class PacketCompressor {
+
+    /** Level for the per-packet deflater (saferoom.transfer.compression.level) */
+    public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+    public static final int MISS_LIMIT = 16;
+    public static final int MAX_SKIP = 1024;
+
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater(true);
+    private final ByteBuffer[] ring; // Packed payloads, reused round-robin
+    private final ByteBuffer scratch; // Inflated payload
+    private int next;
+
+    private int misses;
+    private int skip;     // Packets left to send raw without trying
+    private int backoff = MISS_LIMIT;
+
+    private long rawBytes;    // Payload bytes that were compressed
+    private long packedBytes; // ... and what they became on the wire
+
+    PacketCompressor(int inFlight, int maxSlice) {
+        int level = Integer.getInteger("saferoom.transfer.compression.level", DEFAULT_LEVEL);
+        this.deflater = new Deflater(Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level)), true);
+        this.ring = new ByteBuffer[Math.max(1, inFlight)];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = ByteBuffer.allocateDirect(maxSlice);
+        }
+        this.scratch = ByteBuffer.allocateDirect(maxSlice);
+    }
+
+    /**
+     * @return packed copy of payload's remaining bytes, valid until ring.length
+     *         further calls, or null to send raw; payload position unchanged
+     */
+    public ByteBuffer compress(ByteBuffer payload) {
+        if (skip > 0) {
+            skip--;
+            return null;
+        }
+        int len = payload.remaining();
+        ByteBuffer out = ring[next];
+        out.clear().limit(Math.min(out.capacity(), len - 1)); // Must come out strictly smaller
+        int pos = payload.position();
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+        while (!deflater.finished() && out.hasRemaining()) {
+            deflater.deflate(out);
+        }
+        boolean shrunk = deflater.finished();
+        payload.position(pos);
+        deflater.reset(); // Drop the reference to the caller's buffer
+
+        if (!shrunk) {
+            if (++misses >= MISS_LIMIT) {
+                skip = backoff;
+                backoff = Math.min(MAX_SKIP, backoff << 1);
+                misses = 0;
+            }
+            return null;
+        }
+        misses = 0;
+        backoff = MISS_LIMIT;
+        next = (next + 1) % ring.length;
+        rawBytes += len;
+        packedBytes += out.position();
+        return out.flip();
+    }
+
+    /**
+     * Inflate packed's remaining bytes, which must expand to exactly expected bytes
+     *
+     * @return inflated payload (valid until the next call), or null if packed is corrupt
+     */
+    public ByteBuffer decompress(ByteBuffer packed, int expected) {
+        if (expected <= 0 || expected > scratch.capacity()) {
+            return null;
+        }
+        int pos = packed.position();
+        scratch.clear().limit(expected);
+        inflater.reset();
+        inflater.setInput(packed);
+        try {
+            while (!inflater.finished() && scratch.hasRemaining()) {
+                if (inflater.inflate(scratch) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+            if (!inflater.finished() || scratch.hasRemaining()) {
+                return null;
+            }
+            rawBytes += expected;
+            packedBytes += packed.limit() - pos;
+            return scratch.flip();
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            packed.position(pos);
+            inflater.reset();
+        }
+    }
+
+    /** Payload bytes that went through (de)compression */
+    public long rawBytes() {
+        return rawBytes;
+    }
+
+    /** Wire bytes those payloads took */
+    public long packedBytes() {
+        return packedBytes;
+    }
+
+    public void close() {
+        deflater.end();
+        inflater.end();
+    }
+}
@@ -0,0 +1,170 @@
+package com.saferoom.file_transfer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * XOR forward error correction for one sending thread
+ *
+ * Consecutive sequences form groups of k; after the last member the sender
+ * emits one parity frame holding the XOR of the members' raw payloads (each
+ * zero-padded to the longest). A receiver missing exactly one member of a
+ * group rebuilds it from the parity and the k - 1 it has, without a NACK
+ * round trip. Two or more losses in a group fall back to NACKs.
+ *
+ * Parity frames are CRC32C_Packet frames with PLEN_PARITY set: seq is the
+ * group's first sequence and the total field carries the member count.
+ *
+ * k follows the loss rate the congestion controller sees (groupSize). Not
+ * thread-safe.
+ */
+public final class ParityEncoder {
+
+    public static final int MIN_GROUP = 4;
+    public static final int MAX_GROUP = 64;
+
+    /** Loss rate from which parity is sent (saferoom.transfer.fec.minLoss) */
+    public static final double DEFAULT_MIN_LOSS = 0.005;
+
+    /** Expected losses per group we aim for: one is repairable, two are not */
+    private static final double LOSSES_PER_GROUP = 0.25;
+
+    private final ByteBuffer[] ring; // Parity payloads, reused round-robin
+    private final double minLoss;
+    private int next;
+    private ByteBuffer acc;
+    private int start = -1;
+    private int count;
+    private int k;
+    private int len;
+    private boolean engaged; // Parity was needed once - stay on at MAX_GROUP
+
+    /**
+     * @param inFlight parity payloads the caller may hold before sending, plus the one being built
+     */
+    public ParityEncoder(int inFlight, int maxSlice) {
+        this.ring = new ByteBuffer[Math.max(2, inFlight)];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = ByteBuffer.allocateDirect(maxSlice);
+        }
+        this.acc = ring[0];
+        this.minLoss = Double.parseDouble(System.getProperty("saferoom.transfer.fec.minLoss",
+            String.valueOf(DEFAULT_MIN_LOSS)));
+    }
+
+    /**
+     * saferoom.transfer.fec: "auto" (default) takes parity when a sender offers
+     * it, "on" also offers it, "off" does neither
+     */
+    public static boolean enabled() {
+        return !fecProperty().equals("off");
+    }
+
+    /**
+     * Whether senders offer parity in the SYN. Opt-in: the option byte makes
+     * the SYN longer than baseline receivers accept.
+     */
+    public static boolean offered() {
+        return fecProperty().equals("on");
+    }
+
+    private static String fecProperty() {
+        return System.getProperty("saferoom.transfer.fec", "auto").trim().toLowerCase();
+    }
+
+    /**
+     * Members per parity frame for a loss rate, 0 = no parity. Once parity was
+     * sent the encoder keeps at least 1/MAX_GROUP: repaired losses no longer
+     * show up in NACK frames, so the measured rate drops while FEC works.
+     */
+    public int groupSize(double lossRate) {
+        if (lossRate < minLoss) {
+            return engaged ? MAX_GROUP : 0;
+        }
+        engaged = true;
+        return (int) Math.max(MIN_GROUP, Math.min(MAX_GROUP, LOSSES_PER_GROUP / lossRate));
+    }
+
+    /**
+     * Add the payload of seq (mem[off, off + take)) to its group. A sequence
+     * that does not continue the current group starts a new one (the old one
+     * is dropped - it was not sent in order).
+     *
+     * @param last      seq ends a run (last sequence, end of a resume range): close the group early
+     * @param groupSize k for a group starting here, 0 = none
+     * @return true when the group is complete and parity() should be sent
+     */
+    public boolean add(int seq, ByteBuffer mem, int off, int take, boolean last, int groupSize) {
+        if (start < 0 || seq != start + count) {
+            if (groupSize <= 1) {
+                start = -1;
+                return false;
+            }
+            start = seq;
+            count = 0;
+            k = groupSize;
+            len = 0;
+            acc.clear();
+        }
+        if (take > len) {
+            // The ring buffer still holds an older group (or a dropped one) past len
+            zero(acc, len, take);
+            len = take;
+        }
+        xorInto(acc, 0, mem, off, take);
+        count++;
+        if (last && count == 1) {
+            start = -1; // A lone packet's parity would just be a copy
+            return false;
+        }
+        return count == k || last;
+    }
+
+    /** First sequence of the completed group */
+    public int groupStart() {
+        return start;
+    }
+
+    /** Members of the completed group */
+    public int groupCount() {
+        return count;
+    }
+
+    /**
+     * Parity payload of the completed group; valid until ring.length further
+     * groups complete. The encoder moves on to a fresh group.
+     */
+    public ByteBuffer parity() {
+        ByteBuffer out = acc;
+        out.position(0).limit(len);
+        next = (next + 1) % ring.length;
+        acc = ring[next];
+        start = -1;
+        return out;
+    }
+
+    private static void zero(ByteBuffer buf, int from, int to) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            buf.putLong(i, 0L);
+        }
+        for (; i < to; i++) {
+            buf.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * dst[dstOff, dstOff + len) ^= src[srcOff, srcOff + len); bytes of dst beyond
+     * its previous content must be zero (fresh group) - absolute, positions untouched
+     */
+    public static void xorInto(ByteBuffer dst, int dstOff, ByteBuffer src, int srcOff, int len) {
+        boolean swap = dst.order() != src.order(); // Words must line up byte for byte
+        int i = 0;
+        for (; i + Long.BYTES <= len; i += Long.BYTES) {
+            long word = src.getLong(srcOff + i);
+            dst.putLong(dstOff + i, dst.getLong(dstOff + i) ^ (swap ? Long.reverseBytes(word) : word));
+        }
+        for (; i < len; i++) {
+            dst.put(dstOff + i, (byte) (dst.get(dstOff + i) ^ src.get(srcOff + i)));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.saferoom.file_transfer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size receive bitmap backed by an AtomicLongArray
+ *
+ * Replaces the monitor-guarded java.util.BitSet on the receive path so that
+ * packets from several sender lanes can be marked without a global lock.
+ * Each sequence number maps to one bit; setting a bit is a CAS on its word.
+ *
+ * Thread-safety: all operations are lock-free
+ */
+public final class ReceiveBitmap {
+
+    /** Backing words (64 sequences per word) */
+    private final AtomicLongArray words;
+
+    /** Number of addressable bits (total sequence count) */
+    private final int size;
+
+    /**
+     * Create bitmap for given sequence count
+     *
+     * @param size Number of sequences to track
+     */
+    public ReceiveBitmap(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must be >= 0: " + size);
+        }
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    /**
+     * Check whether a sequence has been received
+     *
+     * @param index Sequence number
+     * @return true if bit is set
+     */
+    public boolean get(int index) {
+        checkIndex(index);
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Set bit if not already set
+     *
+     * @param index Sequence number
+     * @return true if this call set the bit, false if it was already set
+     */
+    public boolean setIfAbsent(int index) {
+        checkIndex(index);
+        int wordIndex = index >>> 6;
+        long bit = 1L << index;
+        long current;
+        do {
+            current = words.get(wordIndex);
+            if ((current & bit) != 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(wordIndex, current, current | bit));
+        return true;
+    }
+
+    /**
+     * Clear bit
+     *
+     * @param index Sequence number
+     * @return true if the bit was set before this call
+     */
+    public boolean clear(int index) {
+        checkIndex(index);
+        int wordIndex = index >>> 6;
+        long bit = 1L << index;
+        long current;
+        do {
+            current = words.get(wordIndex);
+            if ((current & bit) == 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(wordIndex, current, current & ~bit));
+        return true;
+    }
+
+    /**
+     * Count set bits (O(words), intended for status output only)
+     *
+     * @return Number of received sequences
+     */
+    public int cardinality() {
+        int count = 0;
+        for (int i = 0; i < words.length(); i++) {
+            count += Long.bitCount(words.get(i));
+        }
+        return count;
+    }
+
+    /**
+     * Find first clear bit at or after index
+     *
+     * @param from Start sequence (inclusive)
+     * @return Index of first missing sequence, or size() if none
+     */
+    public int nextClear(int from) {
+        if (from >= size) return size;
+        int wordIndex = from >>> 6;
+        long word = ~words.get(wordIndex) & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return Math.min(size, (wordIndex << 6) + Long.numberOfTrailingZeros(word));
+            }
+            if (++wordIndex >= words.length()) return size;
+            word = ~words.get(wordIndex);
+        }
+    }
+
+    /**
+     * Find first set bit at or after index
+     *
+     * @param from Start sequence (inclusive)
+     * @return Index of first received sequence, or size() if none
+     */
+    public int nextSet(int from) {
+        if (from >= size) return size;
+        int wordIndex = from >>> 6;
+        long word = words.get(wordIndex) & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return Math.min(size, (wordIndex << 6) + Long.numberOfTrailingZeros(word));
+            }
+            if (++wordIndex >= words.length()) return size;
+            word = words.get(wordIndex);
+        }
+    }
+
+    /**
+     * Read 64 consecutive bits starting at index (bit i = sequence from + i).
+     * Bits at or beyond size() are returned as 0. Reads at most two words and
+     * never blocks writers, so the result is a best-effort view while packets
+     * are still arriving.
+     *
+     * @param from First sequence (inclusive)
+     * @return Bit window
+     */
+    public long window64(int from) {
+        if (from < 0 || from >= size) return 0L;
+        int wordIndex = from >>> 6;
+        int shift = from & 63;
+        long bits = words.get(wordIndex) >>> shift;
+        if (shift != 0 && wordIndex + 1 < words.length()) {
+            bits |= words.get(wordIndex + 1) << (64 - shift);
+        }
+        int valid = size - from;
+        if (valid < 64) {
+            bits &= (1L << valid) - 1;
+        }
+        return bits;
+    }
+
+    /**
+     * Copy backing words (for checkpointing)
+     *
+     * @return Snapshot of all words, 64 sequences per word
+     */
+    public long[] snapshot() {
+        long[] copy = new long[words.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = words.get(i);
+        }
+        return copy;
+    }
+
+    /**
+     * Merge previously persisted words into this bitmap
+     *
+     * @param saved Words from snapshot() of a bitmap with the same size
+     */
+    public void or(long[] saved) {
+        if (saved.length != words.length()) {
+            throw new IllegalArgumentException("Word count mismatch: " + saved.length + " != " + words.length());
+        }
+        for (int i = 0; i < saved.length; i++) {
+            long bits = saved[i];
+            if (i == saved.length - 1 && (size & 63) != 0) {
+                bits &= (1L << size) - 1; // Mask bits beyond size
+            }
+            words.getAndAccumulate(i, bits, (a, b) -> a | b);
+        }
+    }
+
+    /**
+     * Get number of addressable bits
+     *
+     * @return Sequence count
+     */
+    public int size() {
+        return size;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Sequence " + index + " out of range [0, " + size + ")");
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.saferoom.file_transfer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sequences waiting for retransmission, as a pending bitmap
+ *
+ * A sequence is queued at most once: a NACK repeating a loss that is still
+ * pending is dropped (counted in getSuppressedCount). poll() hands out the
+ * lowest pending sequence, so the hole holding the receiver's cumulative ACK
+ * back goes first. Everything below the cumulative ACK is discarded unsent.
+ * No boxing - offer/poll touch one bitmap word each.
+ *
+ * Thread-safety: any number of producers, ONE consumer (poll)
+ */
+public final class RetransmitQueue {
+
+    private final ReceiveBitmap pending;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger floor = new AtomicInteger(); // No pending sequence below (hint)
+    private volatile int ackFloor;                            // Receiver has everything below
+    private volatile Thread waiter;
+    private final LongAdder suppressed = new LongAdder();
+
+    /**
+     * @param totalSeq Sequence count of the transfer
+     */
+    public RetransmitQueue(int totalSeq) {
+        this.pending = new ReceiveBitmap(totalSeq);
+    }
+
+    /**
+     * Queue seq unless it is pending already, out of range or acknowledged
+     *
+     * @return true if seq was added
+     */
+    public boolean offer(int seq) {
+        if (seq < ackFloor || seq >= pending.size()) {
+            return false;
+        }
+        if (!pending.setIfAbsent(seq)) {
+            suppressed.increment();
+            return false;
+        }
+        size.incrementAndGet();
+        floor.accumulateAndGet(seq, Math::min);
+        Thread w = waiter;
+        if (w != null) {
+            LockSupport.unpark(w);
+        }
+        return true;
+    }
+
+    /**
+     * @return lowest pending sequence, or -1 if none
+     */
+    public int poll() {
+        while (size.get() > 0) {
+            int from = floor.get();
+            int seq = pending.nextSet(from);
+            if (seq >= pending.size()) {
+                // An offer set its bit but has not lowered floor yet
+                seq = pending.nextSet(0);
+                if (seq >= pending.size()) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+            }
+            if (!floor.compareAndSet(from, seq + 1)) {
+                continue; // Lower sequence offered meanwhile - rescan
+            }
+            if (pending.clear(seq)) {
+                size.decrementAndGet();
+                return seq;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * poll(), waiting up to timeout for an offer
+     *
+     * @return lowest pending sequence, or -1 on timeout
+     */
+    public int poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            int seq = poll();
+            if (seq >= 0) {
+                return seq;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return -1;
+            }
+            waiter = Thread.currentThread();
+            try {
+                // Re-check after publishing the waiter - an offer in between won't unpark us
+                if (size.get() <= 0) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+            } finally {
+                waiter = null;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Drop pending sequences below cumAck (they arrived after all) and refuse
+     * further offers there. Only moves forward.
+     */
+    public void discardBelow(int cumAck) {
+        int from = ackFloor;
+        int to = Math.min(cumAck, pending.size());
+        if (to <= from) {
+            return;
+        }
+        ackFloor = to;
+        for (int seq = pending.nextSet(from); seq < to; seq = pending.nextSet(seq + 1)) {
+            if (pending.clear(seq)) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    public int size() {
+        return Math.max(0, size.get());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Offers dropped because the sequence was already pending */
+    public long getSuppressedCount() {
+        return suppressed.sum();
+    }
+}
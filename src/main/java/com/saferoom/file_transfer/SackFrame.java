@@ -0,0 +1,110 @@
+package com.saferoom.file_transfer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Variable-length selective ACK frame (receiver -> sender)
+ *
+ * NackFrame only describes the 64 sequences after cumAck. On high BDP links
+ * losses further out cannot be reported until that window slides, so the
+ * receiver sends this frame next to the legacy NackFrame whenever there are
+ * holes beyond the first window.
+ *
+ * Layout (big-endian):
+ *   0-3:   magic 'SACK' (never collides with the 8-byte completion or 28-byte NACK)
+ *   4-11:  fileId
+ *   12-15: cumAck
+ *   16-23: send timestamp (nanoTime)
+ *   24-25: block count
+ *   26-:   blocks, 12 bytes each
+ *
+ * Block: base(4) | bits(8)
+ *   mask block: base = first seq, bits = 64-bit mask (1 = received)
+ *   run block:  base = first seq | RUN_FLAG, bits = number of missing seqs
+ */
+public final class SackFrame {
+    public static final int MAGIC = 0x5341434B; // "SACK"
+    public static final int HEADER_SIZE = 26;
+    public static final int BLOCK_SIZE = 12;
+    public static final int MAX_BLOCKS = 64;
+    public static final int MAX_SIZE = HEADER_SIZE + MAX_BLOCKS * BLOCK_SIZE; // 794 bytes
+    public static final int RUN_FLAG = 0x80000000;
+
+    private static final int OFF_FILE_ID = 4;
+    private static final int OFF_CUM_ACK = 12;
+    private static final int OFF_TIMESTAMP = 16;
+    private static final int OFF_COUNT = 24;
+
+    private final ByteBuffer buf;
+    private int blocks;
+
+    public SackFrame() {
+        this.buf = ByteBuffer.allocateDirect(MAX_SIZE).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    public ByteBuffer buffer() { return buf; }
+
+    /**
+     * Start a new frame; add blocks, then call finish()
+     */
+    public void begin(long fileId, int cumAck) {
+        buf.clear();
+        buf.putInt(0, MAGIC);
+        buf.putLong(OFF_FILE_ID, fileId);
+        buf.putInt(OFF_CUM_ACK, cumAck);
+        blocks = 0;
+    }
+
+    /**
+     * @return false if the frame is full
+     */
+    public boolean addMask(int base, long mask) {
+        return addBlock(base, mask);
+    }
+
+    /**
+     * @return false if the frame is full
+     */
+    public boolean addRun(int base, int missing) {
+        return addBlock(base | RUN_FLAG, missing);
+    }
+
+    private boolean addBlock(int base, long bits) {
+        if (blocks >= MAX_BLOCKS) return false;
+        int off = HEADER_SIZE + blocks * BLOCK_SIZE;
+        buf.putInt(off, base);
+        buf.putLong(off + 4, bits);
+        blocks++;
+        return true;
+    }
+
+    public int blockCount() { return blocks; }
+
+    public void finish() {
+        buf.putShort(OFF_COUNT, (short) blocks);
+        buf.putLong(OFF_TIMESTAMP, System.nanoTime());
+        buf.limit(HEADER_SIZE + blocks * BLOCK_SIZE);
+        buf.position(0);
+    }
+
+    public void resetForRetry() { buf.position(0).limit(HEADER_SIZE + blocks * BLOCK_SIZE); }
+
+    /**
+     * Check magic and that the declared block count fits in len bytes
+     */
+    public static boolean isSack(ByteBuffer b, int len) {
+        if (len < HEADER_SIZE || b.getInt(0) != MAGIC) return false;
+        int count = blockCount(b);
+        return count <= MAX_BLOCKS && len >= HEADER_SIZE + count * BLOCK_SIZE;
+    }
+
+    public static long fileId(ByteBuffer b)     { return b.getLong(OFF_FILE_ID); }
+    public static int  cumAck(ByteBuffer b)     { return b.getInt(OFF_CUM_ACK); }
+    public static long timestamp(ByteBuffer b)  { return b.getLong(OFF_TIMESTAMP); }
+    public static int  blockCount(ByteBuffer b) { return Short.toUnsignedInt(b.getShort(OFF_COUNT)); }
+
+    public static boolean isRun(ByteBuffer b, int i) { return (b.getInt(HEADER_SIZE + i * BLOCK_SIZE) & RUN_FLAG) != 0; }
+    public static int  blockBase(ByteBuffer b, int i) { return b.getInt(HEADER_SIZE + i * BLOCK_SIZE) & ~RUN_FLAG; }
+    public static long blockBits(ByteBuffer b, int i) { return b.getLong(HEADER_SIZE + i * BLOCK_SIZE + 4); }
+}
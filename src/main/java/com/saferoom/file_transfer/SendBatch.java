@@ -0,0 +1,68 @@
+package com.saferoom.file_transfer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames waiting to be flushed together by EnhancedFileTransferSender
+ *
+ * Each slot owns its own header buffer, so frames can be encoded one by one and
+ * sent in a single BatchSendEndpoint call. Not thread-safe: one batch per
+ * sending thread (main loop or striped lane).
+ */
+public final class SendBatch {
+    private final CRC32C_Packet[] packets;
+    private final ByteBuffer[] headers;
+    private final ByteBuffer[] payloads;
+    private final ByteBuffer[] pooled; // Payloads to return to BufferPool after flush
+    private int count;
+    private int bytes;
+
+    public SendBatch(int capacity) {
+        this.packets = new CRC32C_Packet[capacity];
+        this.headers = new ByteBuffer[capacity];
+        this.payloads = new ByteBuffer[capacity];
+        this.pooled = new ByteBuffer[capacity];
+        for (int i = 0; i < capacity; i++) {
+            packets[i] = new CRC32C_Packet();
+        }
+    }
+
+    /**
+     * Header packet for the next free slot (fill it, then call add)
+     */
+    public CRC32C_Packet nextHeader() {
+        return packets[count];
+    }
+
+    /**
+     * Commit the next slot
+     *
+     * @param payload     Payload view, position 0, limit = payload length
+     * @param pooledOwner Buffer to release after send, or null
+     */
+    public void add(ByteBuffer payload, ByteBuffer pooledOwner) {
+        headers[count] = packets[count].headerBuffer();
+        payloads[count] = payload;
+        pooled[count] = pooledOwner;
+        bytes += CRC32C_Packet.HEADER_SIZE + payload.remaining();
+        count++;
+    }
+
+    public boolean isFull() { return count == packets.length; }
+    public boolean isEmpty() { return count == 0; }
+    public int size() { return count; }
+    public int bytes() { return bytes; }
+    public ByteBuffer[] headers() { return headers; }
+    public ByteBuffer[] payloads() { return payloads; }
+    public ByteBuffer pooled(int i) { return pooled[i]; }
+
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            headers[i] = null;
+            payloads[i] = null;
+            pooled[i] = null;
+        }
+        count = 0;
+        bytes = 0;
+    }
+}
@@ -0,0 +1,268 @@
+package com.saferoom.file_transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Persisted receive bitmap for resumable transfers
+ *
+ * The receiver periodically writes its ReceiveBitmap to a sidecar file
+ * next to the mapped output ("<output>.resume"). When the sender reconnects
+ * with a SYN_RESUME carrying the same resume token, the receiver reloads the
+ * bitmap and answers with the missing sequence ranges only.
+ *
+ * Sidecar layout (big-endian):
+ *   magic(4) | token(8) | fileSize(8) | totalSeq(4) | sliceSize(4) | words(8 * n)
+ *
+ * Writes go to a temp file followed by an atomic rename, so a crash mid-write
+ * leaves the previous checkpoint intact.
+ */
+public final class TransferCheckpoint {
+
+    public static final String SUFFIX = ".resume";
+    private static final int MAGIC = 0x53524350; // "SRCP"
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 4 + 4;
+
+    /** Output file the bitmap describes */
+    private final Path outputPath;
+
+    /** Sidecar path (outputPath + SUFFIX) */
+    private final Path sidecarPath;
+
+    private final long resumeToken;
+    private final long fileSize;
+    private final int totalSeq;
+    private final int sliceSize;
+
+    public TransferCheckpoint(Path outputPath, long resumeToken, long fileSize, int totalSeq, int sliceSize) {
+        this.outputPath = outputPath;
+        this.sidecarPath = sidecarFor(outputPath);
+        this.resumeToken = resumeToken;
+        this.fileSize = fileSize;
+        this.totalSeq = totalSeq;
+        this.sliceSize = sliceSize;
+    }
+
+    /**
+     * Resume token for a source file: stable across attempts as long as the
+     * file name, size and modification time do not change (FNV-1a 64).
+     */
+    public static long resumeToken(Path file, long fileSize) throws IOException {
+        long hash = 0xcbf29ce484222325L;
+        byte[] name = file.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+        for (byte b : name) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        long mtime = Files.getLastModifiedTime(file).toMillis();
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ ((fileSize >>> (i * 8)) & 0xFF)) * 0x100000001b3L;
+            hash = (hash ^ ((mtime >>> (i * 8)) & 0xFF)) * 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash; // 0 means "no resume"
+    }
+
+    public static Path sidecarFor(Path outputPath) {
+        return outputPath.resolveSibling(outputPath.getFileName().toString() + SUFFIX);
+    }
+
+    public static boolean isSidecar(Path file) {
+        return file.getFileName().toString().endsWith(SUFFIX);
+    }
+
+    /**
+     * Look for a checkpoint matching the token: first next to the preferred
+     * output path, then any sidecar in the same directory (output names may
+     * differ between attempts). The slice size comes from the sidecar; it is
+     * accepted only if it does not exceed maxSlice (what the sender offers now).
+     *
+     * @return Matching checkpoint, or null if none
+     */
+    public static TransferCheckpoint find(Path preferredOutput, long resumeToken,
+                                          long fileSize, int maxSlice) {
+        if (resumeToken == 0 || preferredOutput == null) {
+            return null;
+        }
+        TransferCheckpoint preferred = open(preferredOutput, resumeToken, fileSize, maxSlice);
+        if (preferred != null) {
+            return preferred;
+        }
+        Path dir = preferredOutput.toAbsolutePath().getParent();
+        if (dir == null || !Files.isDirectory(dir)) {
+            return null;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path sidecar : stream) {
+                String name = sidecar.getFileName().toString();
+                Path output = sidecar.resolveSibling(name.substring(0, name.length() - SUFFIX.length()));
+                TransferCheckpoint candidate = open(output, resumeToken, fileSize, maxSlice);
+                if (candidate != null) {
+                    return candidate;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[CHECKPOINT] Sidecar scan failed: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Read the sidecar header for output and build a checkpoint from it
+     *
+     * @return Checkpoint if token and size match and the slice is usable, else null
+     */
+    private static TransferCheckpoint open(Path output, long resumeToken, long fileSize, int maxSlice) {
+        Path sidecar = sidecarFor(output);
+        if (!Files.isRegularFile(sidecar) || !Files.isRegularFile(output)) {
+            return null;
+        }
+        try (FileChannel fc = FileChannel.open(sidecar, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining() && fc.read(header) > 0) { }
+            if (header.hasRemaining()) return null;
+            header.flip();
+            if (header.getInt() != MAGIC || header.getLong() != resumeToken || header.getLong() != fileSize) {
+                return null;
+            }
+            int totalSeq = header.getInt();
+            int sliceSize = header.getInt();
+            if (sliceSize <= 0 || sliceSize > maxSlice
+                    || totalSeq != ChunkManager.sequenceCount(fileSize, sliceSize)) {
+                return null;
+            }
+            return new TransferCheckpoint(output, resumeToken, fileSize, totalSeq, sliceSize);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sidecar exists, header matches this transfer and output is still there
+     */
+    private boolean matches() {
+        if (!Files.isRegularFile(sidecarPath) || !Files.isRegularFile(outputPath)) {
+            return false;
+        }
+        try (FileChannel fc = FileChannel.open(sidecarPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining() && fc.read(header) > 0) { }
+            if (header.hasRemaining()) return false;
+            header.flip();
+            return header.getInt() == MAGIC
+                && header.getLong() == resumeToken
+                && header.getLong() == fileSize
+                && header.getInt() == totalSeq
+                && header.getInt() == sliceSize;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Load persisted words into bitmap
+     *
+     * @return true if loaded
+     */
+    public boolean loadInto(ReceiveBitmap bitmap) {
+        if (!matches()) {
+            return false;
+        }
+        int wordCount = (totalSeq + 63) >>> 6;
+        try (FileChannel fc = FileChannel.open(sidecarPath, StandardOpenOption.READ)) {
+            ByteBuffer body = ByteBuffer.allocate(wordCount * 8).order(ByteOrder.BIG_ENDIAN);
+            fc.position(HEADER_SIZE);
+            while (body.hasRemaining() && fc.read(body) > 0) { }
+            if (body.hasRemaining()) {
+                System.err.println("[CHECKPOINT] Truncated sidecar: " + sidecarPath);
+                return false;
+            }
+            body.flip();
+            long[] words = new long[wordCount];
+            body.asLongBuffer().get(words);
+            bitmap.or(words);
+            return true;
+        } catch (IOException e) {
+            System.err.println("[CHECKPOINT] Load failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Persist bitmap words. Callers must have flushed the mapped output for
+     * every bit in the snapshot before calling this.
+     */
+    public synchronized void save(long[] words) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + words.length * 8).order(ByteOrder.BIG_ENDIAN);
+        out.putInt(MAGIC).putLong(resumeToken).putLong(fileSize).putInt(totalSeq).putInt(sliceSize);
+        out.asLongBuffer().put(words);
+        out.position(out.capacity()).flip();
+
+        Path tmp = sidecarPath.resolveSibling(sidecarPath.getFileName().toString() + ".tmp");
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                fc.write(out);
+            }
+            fc.force(false);
+        }
+        Files.move(tmp, sidecarPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove sidecar after successful completion
+     */
+    public synchronized void delete() {
+        try {
+            Files.deleteIfExists(sidecarPath);
+        } catch (IOException e) {
+            System.err.println("[CHECKPOINT] Failed to delete sidecar: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Missing sequences as flat [start, end) pairs. If there are more holes than
+     * maxRanges, the last range is extended to totalSeq so the result is always
+     * a superset of what is missing.
+     *
+     * @return Number of ranges written to out (out must hold 2 * maxRanges ints)
+     */
+    public static int missingRanges(ReceiveBitmap bitmap, int[] out, int maxRanges) {
+        int count = 0;
+        int size = bitmap.size();
+        int start = bitmap.nextClear(0);
+        while (start < size && count < maxRanges) {
+            int end = bitmap.nextSet(start);
+            if (count == maxRanges - 1) {
+                end = size; // Out of room: cover everything after start
+            }
+            out[count * 2] = start;
+            out[count * 2 + 1] = end;
+            count++;
+            start = bitmap.nextClear(end);
+        }
+        return count;
+    }
+
+    public Path getOutputPath() {
+        return outputPath;
+    }
+
+    public long getResumeToken() {
+        return resumeToken;
+    }
+
+    public int getTotalSeq() {
+        return totalSeq;
+    }
+
+    public int getSliceSize() {
+        return sliceSize;
+    }
+}
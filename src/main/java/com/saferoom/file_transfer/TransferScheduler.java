@@ -0,0 +1,230 @@
+package com.saferoom.file_transfer;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-peer queue of outgoing files with weighted deficit round robin
+ *
+ * All transfers to one peer go through a single scheduler: at most "slots"
+ * files are on the wire at once (one per receiver the peer runs - 1 for a
+ * single DataChannel/socket), and every one of them paces through the same
+ * CongestionController. Queued files no longer race each other for the link,
+ * and the controller keeps its window and RTT estimate from one file to the
+ * next instead of slow-starting every time.
+ *
+ * DRR decides the start order, not a byte interleaving: each round a waiting
+ * file earns quantum x weight of credit and starts once its credit covers its
+ * size, then runs to completion in its slot. Small and heavy files overtake
+ * large ones and nothing waits forever. With one slot, files still go one
+ * after another; the link is only shared between files when the peer runs
+ * several receivers (slots > 1). Rounds in which nobody could start are
+ * skipped arithmetically.
+ */
+public final class TransferScheduler implements AutoCloseable {
+
+	/** Credit per round and unit of weight (saferoom.transfer.scheduler.quantumBytes) */
+	public static final long DEFAULT_QUANTUM = 8L << 20;
+	public static final int  MAX_WEIGHT = 64;
+
+	/**
+	 * Moves one file over the peer connection and returns once it is
+	 * delivered; cc is the shared controller to hand to
+	 * EnhancedFileTransferSender.setSharedCongestionControl()
+	 */
+	@FunctionalInterface
+	public interface Transport {
+		void send(Path file, long fileId, CongestionController cc) throws Exception;
+	}
+
+	private static final class Job {
+		final Path file;
+		final long fileId;
+		final int weight;
+		final long cost;
+		final CompletableFuture<Void> result = new CompletableFuture<>();
+		long deficit;
+
+		Job(Path file, long fileId, int weight, long cost) {
+			this.file = file;
+			this.fileId = fileId;
+			this.weight = weight;
+			this.cost = cost;
+		}
+	}
+
+	private final String name;
+	private final Transport transport;
+	private final int slots;
+	private final long quantum;
+	private final ExecutorService workers;
+
+	// Guarded by this
+	private final List<Job> waiting = new ArrayList<>();
+	private int cursor = 0; // DRR round position in waiting
+	private int running = 0;
+	private boolean closed = false;
+
+	private final CongestionController congestion;
+	private final AtomicInteger completed = new AtomicInteger();
+
+	public TransferScheduler(String name, SocketAddress remote, Transport transport) {
+		this(name, remote, transport, 1);
+	}
+
+	/**
+	 * @param remote Peer address, picks the LAN/WAN profile of the shared controller
+	 * @param slots  Files sent concurrently (receivers available on the peer)
+	 */
+	public TransferScheduler(String name, SocketAddress remote, Transport transport, int slots) {
+		this.name = name;
+		this.transport = transport;
+		this.slots = Math.max(1, slots);
+		this.quantum = Math.max(64 << 10,
+			Long.getLong("saferoom.transfer.scheduler.quantumBytes", DEFAULT_QUANTUM));
+		this.congestion = CongestionControllers.create(CongestionControllers.defaultAlgorithm());
+		congestion.applyProfile(CongestionController.NetworkProfile.detect(remote));
+		this.workers = Executors.newFixedThreadPool(this.slots, r -> {
+			Thread t = new Thread(r, "TransferScheduler-" + name);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public CompletableFuture<Void> submit(Path file, long fileId) {
+		return submit(file, fileId, 1);
+	}
+
+	/**
+	 * Queue a file
+	 *
+	 * @param weight Relative share of the link, 1..MAX_WEIGHT
+	 * @return completes when the receiver confirmed the file, exceptionally on failure
+	 */
+	public CompletableFuture<Void> submit(Path file, long fileId, int weight) {
+		long size;
+		try {
+			size = Files.size(file);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		Job job = new Job(file, fileId, Math.max(1, Math.min(MAX_WEIGHT, weight)), Math.max(1, size));
+		synchronized (this) {
+			if (closed) {
+				return CompletableFuture.failedFuture(new RejectedExecutionException("Scheduler closed: " + name));
+			}
+			waiting.add(job);
+			System.out.printf("[SCHED] %s: queued fileId=%d (%d bytes, weight %d) - %d waiting, %d running%n",
+				name, fileId, size, job.weight, waiting.size(), running);
+		}
+		dispatch();
+		return job.result;
+	}
+
+	/** Controller every transfer of this scheduler paces through */
+	public CongestionController congestionControl() {
+		return congestion;
+	}
+
+	public synchronized int queued() {
+		return waiting.size();
+	}
+
+	public synchronized int active() {
+		return running;
+	}
+
+	public String getStats() {
+		synchronized (this) {
+			return String.format("Scheduler %s: %d waiting, %d running, %d completed, %s", name, waiting.size(),
+				running, completed.get(), congestion.getStats());
+		}
+	}
+
+	/**
+	 * Fail every queued file; transfers already on the wire run to completion
+	 */
+	@Override
+	public void close() {
+		List<Job> dropped;
+		synchronized (this) {
+			closed = true;
+			dropped = new ArrayList<>(waiting);
+			waiting.clear();
+		}
+		for (Job job : dropped) {
+			job.result.completeExceptionally(new RejectedExecutionException("Scheduler closed: " + name));
+		}
+		workers.shutdown();
+	}
+
+	private void dispatch() {
+		while (true) {
+			Job job;
+			synchronized (this) {
+				if (closed || running >= slots || waiting.isEmpty()) {
+					return;
+				}
+				job = next();
+				running++;
+			}
+			workers.execute(() -> run(job));
+		}
+	}
+
+	/**
+	 * DRR pick: skip the whole rounds nobody could finish, then walk the round
+	 * from the cursor and take the first file whose credit covers its size
+	 */
+	private Job next() {
+		int n = waiting.size();
+		long rounds = Long.MAX_VALUE;
+		for (Job job : waiting) {
+			long share = quantum * job.weight;
+			rounds = Math.min(rounds, Math.max(0, (job.cost - job.deficit + share - 1) / share));
+		}
+		if (rounds > 1) {
+			for (Job job : waiting) {
+				job.deficit += (rounds - 1) * quantum * job.weight;
+			}
+		}
+		cursor = cursor % n;
+		while (true) {
+			Job job = waiting.get(cursor);
+			if (job.deficit >= job.cost) {
+				waiting.remove(cursor);
+				return job;
+			}
+			job.deficit += quantum * job.weight;
+			if (job.deficit >= job.cost) {
+				waiting.remove(cursor);
+				return job;
+			}
+			cursor = (cursor + 1) % n;
+		}
+	}
+
+	private void run(Job job) {
+		try {
+			transport.send(job.file, job.fileId, congestion);
+			completed.incrementAndGet();
+			job.result.complete(null);
+		} catch (Throwable e) {
+			job.result.completeExceptionally(e);
+		} finally {
+			synchronized (this) {
+				running--;
+			}
+			dispatch();
+		}
+	}
+}
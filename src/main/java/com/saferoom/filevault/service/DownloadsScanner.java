@@ -1,5 +1,6 @@
 package com.saferoom.filevault.service;
 
+import com.saferoom.file_transfer.TransferCheckpoint;
 import com.saferoom.gui.model.VaultFile;
 
 import java.io.IOException;
@@ -67,7 +68,7 @@ public class DownloadsScanner {
             Files.walkFileTree(downloadsDir, new SimpleFileVisitor<>() {
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                    if (Files.isRegularFile(file)) {
+                    if (Files.isRegularFile(file) && !isTransferSidecar(file)) {
                         VaultFile vf = createVaultFile(file, attrs);
                         if (vf != null) {
                             files.add(vf);
@@ -111,6 +112,14 @@ public class DownloadsScanner {
             .collect(Collectors.toList());
     }
     
+    /**
+     * Yarım kalan transferlerin checkpoint dosyaları (.resume / .resume.tmp) listelenmez
+     */
+    private boolean isTransferSidecar(Path file) {
+        String name = file.getFileName().toString();
+        return TransferCheckpoint.isSidecar(file) || name.endsWith(TransferCheckpoint.SUFFIX + ".tmp");
+    }
+    
     /**
      * Path'ten VaultFile oluştur
      */
@@ -1,5 +1,7 @@
 package com.saferoom.natghost;
 
+import com.saferoom.file_transfer.HandShake_Packet;
+
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -25,6 +27,10 @@ public final class KeepAliveManager implements AutoCloseable {
     private volatile boolean listening = false;
     private DatagramChannel activeChannel = null; // 🆕 Store channel reference for buffer flushing
     
+    // Inbound packet dispatch: handler per LLS type byte, peers updated in place
+    private final PeerRegistry peers;
+    private final PacketRouter router;
+    
     // 🔒 SERVER IP BLACKLIST - Never accept burst packets from signaling server!
     private static InetAddress SERVER_IP = null;
     static {
@@ -36,7 +42,13 @@ public final class KeepAliveManager implements AutoCloseable {
     }
 
     public KeepAliveManager(long intervalMs) {
+        this(intervalMs, NatAnalyzer.peerRegistry());
+    }
+
+    KeepAliveManager(long intervalMs, PeerRegistry peers) {
         this.intervalMs = intervalMs;
+        this.peers = Objects.requireNonNull(peers, "peers");
+        this.router = buildRouter();
         this.exec = Executors.newScheduledThreadPool(
                 1,
                 r -> { Thread t = new Thread(r, "KeepAliveScheduler"); t.setDaemon(false); return t; }
@@ -144,341 +156,11 @@ public final class KeepAliveManager implements AutoCloseable {
                             System.out.printf("[KA] 📡 Received packet type: 0x%02X from %s%n", type, from);
                         }
                         
-                        if (type == LLS.SIG_MESSAGE) {
-                            System.out.println("[KA] 🎯 SIG_MESSAGE detected - forwarding to NatAnalyzer");
-                            
-                            // 🔄 UPDATE PEER ADDRESS - Peer may have switched to different port!
-                            try {
-                                // Parse message to get sender username
-                                ByteBuffer msgBuf = buf.duplicate();
-                                msgBuf.get(); // Skip type
-                                msgBuf.getShort(); // Skip length
-                                byte[] senderBytes = new byte[20];
-                                msgBuf.get(senderBytes);
-                                String sender = new String(senderBytes).trim();
-                                
-                                // Update activePeers with new address
-                                java.lang.reflect.Field activePeersField = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                    .getDeclaredField("activePeers");
-                                activePeersField.setAccessible(true);
-                                @SuppressWarnings("unchecked")
-                                Map<String, InetSocketAddress> activePeers = 
-                                    (Map<String, InetSocketAddress>) activePeersField.get(null);
-                                
-                                InetSocketAddress oldAddr = activePeers.get(sender);
-                                InetSocketAddress newAddr = (InetSocketAddress) from;
-                                
-                                if (oldAddr == null || !oldAddr.equals(newAddr)) {
-                                    activePeers.put(sender, newAddr);
-                                    System.out.printf("[KA-UPDATE] 🔄 Updated %s address: %s → %s%n", 
-                                        sender, oldAddr, newAddr);
-                                }
-                                
-                                // Update last activity
-                                java.lang.reflect.Field lastActivityField = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                    .getDeclaredField("lastActivity");
-                                lastActivityField.setAccessible(true);
-                                @SuppressWarnings("unchecked")
-                                Map<String, Long> lastActivity = 
-                                    (Map<String, Long>) lastActivityField.get(null);
-                                lastActivity.put(sender, System.currentTimeMillis());
-                                
-                            } catch (Exception e) {
-                                System.err.println("[KA] Warning: Could not update peer address: " + e.getMessage());
-                            }
-                            
-                            // Forward to NatAnalyzer for processing
-                            try {
-                                java.lang.reflect.Method method = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                    .getDeclaredMethod("handleIncomingMessage", ByteBuffer.class, SocketAddress.class);
-                                method.setAccessible(true);
-                                method.invoke(null, buf.duplicate(), from);
-                            } catch (Exception e) {
-                                System.err.println("[KA] Error forwarding message: " + e.getMessage());
-                            }
-                        } else if (type == LLS.SIG_PUNCH_INSTRUCT) {
-                            System.out.printf("[KA] 🧠 SIG_PUNCH_INSTRUCT detected from %s - forwarding to NatAnalyzer%n", from);
-                            // Forward intelligent punch instruction to NatAnalyzer for processing
-                            try {
-                                java.lang.reflect.Method method = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                    .getDeclaredMethod("handleIncomingPunchInstruction", ByteBuffer.class, SocketAddress.class);
-                                method.setAccessible(true);
-                                method.invoke(null, buf.duplicate(), from);
-                                System.out.println("[KA] ✅ Punch instruction forwarded successfully");
-                            } catch (Exception e) {
-                                System.err.println("[KA] ❌ Error forwarding punch instruction: " + e.getMessage());
-                                e.printStackTrace();
-                            }
-                        } else if (type == LLS.SIG_P2P_NOTIFY) {
-                            System.out.printf("[KA] 📢 SIG_P2P_NOTIFY detected from %s - forwarding to NatAnalyzer%n", from);
-                            // Forward P2P notification to NatAnalyzer for processing
-                            try {
-                                java.lang.reflect.Method method = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                    .getDeclaredMethod("handleIncomingP2PNotification", ByteBuffer.class, SocketAddress.class);
-                                method.setAccessible(true);
-                                method.invoke(null, buf.duplicate(), from);
-                                System.out.println("[KA] ✅ P2P notification forwarded successfully");
-                            } catch (Exception e) {
-                                System.err.println("[KA] ❌ Error forwarding P2P notification: " + e.getMessage());
-                                e.printStackTrace();
-                            }
-                        } else if (type == LLS.SIG_DNS_QUERY) {
-                            // Keep-alive DNS packet - UPDATE PEER ADDRESS if needed
-                            System.out.printf("[KA] 🔄 Keep-alive DNS from %s%n", from);
-                            
-                            // 🔄 Try to identify sender and update address
-                            try {
-                                java.lang.reflect.Field activePeersField = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                    .getDeclaredField("activePeers");
-                                activePeersField.setAccessible(true);
-                                @SuppressWarnings("unchecked")
-                                Map<String, InetSocketAddress> activePeers = 
-                                    (Map<String, InetSocketAddress>) activePeersField.get(null);
-                                
-                                // Find which peer this address belongs to by IP
-                                InetSocketAddress fromAddr = (InetSocketAddress) from;
-                                for (Map.Entry<String, InetSocketAddress> entry : activePeers.entrySet()) {
-                                    if (entry.getValue().getAddress().equals(fromAddr.getAddress())) {
-                                        // Same IP, but port may have changed
-                                        if (!entry.getValue().equals(fromAddr)) {
-                                            InetSocketAddress oldAddr = entry.getValue();
-                                            activePeers.put(entry.getKey(), fromAddr);
-                                            System.out.printf("[KA-UPDATE] 🔄 Updated %s address: %s → %s (from DNS keepalive)%n", 
-                                                entry.getKey(), oldAddr, fromAddr);
-                                        }
-                                        
-                                        // Update last activity
-                                        java.lang.reflect.Field lastActivityField = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                            .getDeclaredField("lastActivity");
-                                        lastActivityField.setAccessible(true);
-                                        @SuppressWarnings("unchecked")
-                                        Map<String, Long> lastActivity = 
-                                            (Map<String, Long>) lastActivityField.get(null);
-                                        lastActivity.put(entry.getKey(), System.currentTimeMillis());
-                                        break;
-                                    }
-                                }
-                            } catch (Exception e) {
-                                System.err.println("[KA] Warning: Could not update peer from DNS: " + e.getMessage());
-                            }
-                        } else if (type == LLS.SIG_PUNCH_BURST) {
-                            System.out.printf("[KA] 🎯 SIG_PUNCH_BURST detected from %s%n", from);
-                            
-                            // 🔒 BLACKLIST CHECK: NEVER accept burst packets from signaling server!
-                            InetSocketAddress senderAddr = (InetSocketAddress) from;
-                            if (SERVER_IP != null && senderAddr.getAddress().equals(SERVER_IP)) {
-                                System.out.printf("[KA-BURST] ⛔ BLOCKED: Burst from SIGNALING SERVER %s - THIS SHOULD NEVER HAPPEN!%n", from);
-                                System.out.println("[KA-BURST] ⛔ Server should COORDINATE, not send burst packets!");
-                                continue; // Ignore server burst packets
-                            }
-                            
-                            // Auto-respond to burst packets to establish bidirectional NAT mapping
-                            try {
-                                // Parse burst packet to get usernames
-                                java.util.List<Object> parsed = LLS.parseBurstPacket(buf.duplicate());
-                                String senderUsername = (String) parsed.get(2);
-                                String receiverUsername = (String) parsed.get(3);
-                                String payload = (String) parsed.get(4);
-                                
-                                // 🔧 PREVENT INFINITE LOOP: Don't respond to ACK packets!
-                                if ("BURST-ACK".equals(payload)) {
-                                    System.out.printf("[KA-BURST] ✅ Received ACK from %s - NAT hole confirmed%n", 
-                                        senderUsername);
-                                    
-                                    // Register peer but don't respond
-                                    try {
-                                        java.lang.reflect.Field activePeersField = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                            .getDeclaredField("activePeers");
-                                        activePeersField.setAccessible(true);
-                                        @SuppressWarnings("unchecked")
-                                        Map<String, InetSocketAddress> activePeers = 
-                                            (Map<String, InetSocketAddress>) activePeersField.get(null);
-                                        activePeers.put(senderUsername, (InetSocketAddress) from);
-                                        System.out.printf("[KA-BURST] 📝 Registered %s for P2P messaging%n", senderUsername);
-                                    } catch (Exception e) {
-                                        System.err.printf("[KA-BURST] ⚠️ Failed to register peer: %s%n", e.getMessage());
-                                    }
-                                    
-                                    continue; // Don't respond to ACK packets!
-                                }
-                                
-                                System.out.println("[KA-BURST] ✅ Source validated - AUTO-RESPONDING");
-                                
-                                System.out.printf("[KA-BURST] Burst from %s -> %s: %s%n", 
-                                    senderUsername, receiverUsername, payload);
-                                
-                                // Send immediate response to establish NAT hole (ONLY if not an ACK)
-                                ByteBuffer response = LLS.New_Burst_Packet(
-                                    receiverUsername,  // Me
-                                    senderUsername,    // Them
-                                    "BURST-ACK"
-                                );
-                                dc.send(response, (InetSocketAddress) from);
-                                
-                                System.out.printf("[KA-BURST] ✅ Auto-responded to %s - NAT hole established%n", 
-                                    senderUsername);
-                                
-                                // Register peer in NatAnalyzer for messaging
-                                try {
-                                    java.lang.reflect.Field activePeersField = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                        .getDeclaredField("activePeers");
-                                    activePeersField.setAccessible(true);
-                                    @SuppressWarnings("unchecked")
-                                    Map<String, InetSocketAddress> activePeers = 
-                                        (Map<String, InetSocketAddress>) activePeersField.get(null);
-                                    activePeers.put(senderUsername, (InetSocketAddress) from);
-                                    
-                                    java.lang.reflect.Field lastActivityField = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                        .getDeclaredField("lastActivity");
-                                    lastActivityField.setAccessible(true);
-                                    @SuppressWarnings("unchecked")
-                                    Map<String, Long> lastActivity = 
-                                        (Map<String, Long>) lastActivityField.get(null);
-                                    lastActivity.put(senderUsername, System.currentTimeMillis());
-                                    
-                                    System.out.printf("[KA-BURST] 📝 Registered %s for P2P messaging%n", senderUsername);
-                                } catch (Exception e) {
-                                    System.err.println("[KA-BURST] Warning: Could not register peer: " + e.getMessage());
-                                }
-                                
-                            } catch (Exception e) {
-                                System.err.println("[KA-BURST] ❌ Error handling burst: " + e.getMessage());
-                                e.printStackTrace();
-                            }
-                        } else if (type == LLS.SIG_RMSG_DATA) {
-                            // 🆕 Reliable message DATA chunk
-                            System.out.printf("[KA] 📦 Reliable DATA chunk from %s%n", from);
-                            try {
-                                Object[] parsed = LLS.parseReliableMessageChunk(buf.duplicate());
-                                
-                                // Forward to ReliableMessageReceiver via NatAnalyzer
-                                java.lang.reflect.Field receiverField = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                    .getDeclaredField("reliableReceiver");
-                                receiverField.setAccessible(true);
-                                ReliableMessageReceiver receiver = (ReliableMessageReceiver) receiverField.get(null);
-                                
-                                if (receiver != null) {
-                                    receiver.handleDataChunk(parsed, (InetSocketAddress) from);
-                                }
-                            } catch (Exception e) {
-                                System.err.println("[KA] ❌ Error handling reliable DATA: " + e.getMessage());
-                            }
-                        } else if (type == LLS.SIG_RMSG_ACK) {
-                            // 🆕 Reliable message ACK
-                            System.out.printf("[KA] ✅ Reliable ACK from %s%n", from);
-                            try {
-                                Object[] parsed = LLS.parseReliableMessageACK(buf.duplicate());
-                                
-                                // Forward to ReliableMessageSender via NatAnalyzer
-                                java.lang.reflect.Field senderField = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                    .getDeclaredField("reliableSender");
-                                senderField.setAccessible(true);
-                                ReliableMessageSender sender = (ReliableMessageSender) senderField.get(null);
-                                
-                                if (sender != null) {
-                                    sender.handleACK((long) parsed[4], (int) parsed[5], (long) parsed[6]);
-                                }
-                            } catch (Exception e) {
-                                System.err.println("[KA] ❌ Error handling reliable ACK: " + e.getMessage());
-                            }
-                        } else if (type == LLS.SIG_RMSG_NACK) {
-                            // 🆕 Reliable message NACK
-                            System.out.printf("[KA] ⚠️  Reliable NACK from %s%n", from);
-                            try {
-                                Object[] parsed = LLS.parseReliableMessageNACK(buf.duplicate());
-                                
-                                // Forward to ReliableMessageSender via NatAnalyzer
-                                java.lang.reflect.Field senderField = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                    .getDeclaredField("reliableSender");
-                                senderField.setAccessible(true);
-                                ReliableMessageSender sender = (ReliableMessageSender) senderField.get(null);
-                                
-                                if (sender != null) {
-                                    sender.handleNACK((long) parsed[4], (int[]) parsed[5], (InetSocketAddress) from);
-                                }
-                            } catch (Exception e) {
-                                System.err.println("[KA] ❌ Error handling reliable NACK: " + e.getMessage());
-                            }
-                        } else if (type == LLS.SIG_RMSG_FIN) {
-                            // 🆕 Reliable message FIN
-                            System.out.printf("[KA] 🏁 Reliable FIN from %s%n", from);
-                            try {
-                                Object[] parsed = LLS.parseReliableMessageFIN(buf.duplicate());
-                                
-                                // Forward to ReliableMessageReceiver via NatAnalyzer
-                                java.lang.reflect.Field receiverField = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                    .getDeclaredField("reliableReceiver");
-                                receiverField.setAccessible(true);
-                                ReliableMessageReceiver receiver = (ReliableMessageReceiver) receiverField.get(null);
-                                
-                                if (receiver != null) {
-                                    receiver.handleFIN((long) parsed[4]);
-                                }
-                            } catch (Exception e) {
-                                System.err.println("[KA] ❌ Error handling reliable FIN: " + e.getMessage());
-                            }
-                        } else {
-                            // 📁 File transfer packet detection by size and structure
-                            // Note: size already defined at top of loop
-                            boolean isFilePacket = false;
-                            String packetType = null;
-                            
-                            // HandShake_Packet: 21 bytes (type + fileId + state + seqNum + ackNum)
-                            if (size == 21) {
-                                packetType = "HANDSHAKE";
-                                isFilePacket = true;
-                            }
-                            // NackFrame: 28 bytes (type + fileId + lostSeqStart + bitmap + timestamp)
-                            else if (size == 28) {
-                                packetType = "NACK";
-                                isFilePacket = true;
-                            }
-                            // Completion signal: 8 bytes
-                            else if (size == 8) {
-                                packetType = "COMPLETION";
-                                isFilePacket = true;
-                            }
-                            // CRC32C_Packet: 22+ bytes (type + fileId + seqNum + CRC32 + data)
-                            else if (size >= 22 && type == 0x00) {
-                                // Verify it has fileId structure (8 bytes after type)
-                                ByteBuffer verify = buf.duplicate();
-                                verify.get(); // Skip type
-                                long fileId = verify.getLong(); // Read fileId
-                                
-                                if (fileId != 0) { // Valid fileId
-                                    packetType = "DATA";
-                                    isFilePacket = true;
-                                }
-                            }
-                            
-                            if (isFilePacket) {
-                                // Only log non-data packets to avoid spam
-                                if (!"DATA".equals(packetType)) {
-                                    System.out.printf("[KA] 📁 File %s packet detected (%d bytes) from %s%n", 
-                                        packetType, size, from);
-                                }
-                                
-                                // Forward to NatAnalyzer.FileTransferDispatcher
-                                try {
-                                    java.lang.reflect.Method method = Class.forName("com.saferoom.natghost.NatAnalyzer")
-                                        .getDeclaredMethod("onFileTransferPacket", ByteBuffer.class, SocketAddress.class);
-                                    method.setAccessible(true);
-                                    method.invoke(null, buf.duplicate(), from);
-                                    
-                                    // Only log forwarding for non-data packets
-                                    if (!"DATA".equals(packetType)) {
-                                        System.out.println("[KA] ✅ File packet forwarded to NatAnalyzer");
-                                    }
-                                } catch (Exception e) {
-                                    System.err.println("[KA] ❌ Error forwarding file packet: " + e.getMessage());
-                                    e.printStackTrace();
-                                }
-                            } else if (type == 0x00 && size >= 22) {
-                                // Late DATA packet - file transfer probably finished, silently drop
-                                // (This prevents spam from in-flight packets after transfer completion)
-                            } else {
-                                System.out.printf("[KA] ❓ Unknown packet type 0x%02X (%d bytes) from %s%n", type, size, from);
-                            }
+                        try {
+                            router.dispatch(type, dc, buf, (InetSocketAddress) from);
+                        } catch (Exception e) {
+                            System.err.printf("[KA] ❌ Error handling packet type 0x%02X from %s: %s%n",
+                                type, from, e.getMessage());
                         }
                     }
                 }
@@ -493,6 +175,288 @@ public final class KeepAliveManager implements AutoCloseable {
         messageListenerThread.start();
     }
     
+    /**
+     * Handler table for the listener: one entry per LLS signal type, built
+     * once so per-packet dispatch is an array lookup
+     */
+    private PacketRouter buildRouter() {
+        return new PacketRouter()
+            .on(LLS.SIG_MESSAGE, this::onMessage)
+            .on(LLS.SIG_PUNCH_INSTRUCT, this::onPunchInstruction)
+            .on(LLS.SIG_P2P_NOTIFY, this::onP2PNotification)
+            .on(LLS.SIG_DNS_QUERY, this::onKeepAliveDns)
+            .on(LLS.SIG_PUNCH_BURST, this::onPunchBurst)
+            .on(LLS.SIG_RMSG_DATA, this::onReliableData)
+            .on(LLS.SIG_RMSG_ACK, this::onReliableAck)
+            .on(LLS.SIG_RMSG_NACK, this::onReliableNack)
+            .on(LLS.SIG_RMSG_FIN, this::onReliableFin)
+            .otherwise(this::onUnroutedPacket);
+    }
+    
+    private void onMessage(DatagramChannel dc, ByteBuffer buf, InetSocketAddress from) {
+        System.out.println("[KA] 🎯 SIG_MESSAGE detected - forwarding to NatAnalyzer");
+        
+        // 🔄 UPDATE PEER ADDRESS - Peer may have switched to different port!
+        try {
+            // Parse message to get sender username
+            ByteBuffer msgBuf = buf.duplicate();
+            msgBuf.get(); // Skip type
+            msgBuf.getShort(); // Skip length
+            byte[] senderBytes = new byte[20];
+            msgBuf.get(senderBytes);
+            String sender = new String(senderBytes).trim();
+            
+            InetSocketAddress oldAddr = peers.address(sender);
+            if (oldAddr == null || !oldAddr.equals(from)) {
+                peers.updateAddress(sender, from);
+                System.out.printf("[KA-UPDATE] 🔄 Updated %s address: %s → %s%n", 
+                    sender, oldAddr, from);
+            }
+            
+            // Update last activity
+            peers.touch(sender);
+            
+        } catch (Exception e) {
+            System.err.println("[KA] Warning: Could not update peer address: " + e.getMessage());
+        }
+        
+        // Forward to NatAnalyzer for processing
+        try {
+            NatAnalyzer.handleIncomingMessage(buf.duplicate(), from);
+        } catch (Exception e) {
+            System.err.println("[KA] Error forwarding message: " + e.getMessage());
+        }
+    }
+    
+    private void onPunchInstruction(DatagramChannel dc, ByteBuffer buf, InetSocketAddress from) {
+        System.out.printf("[KA] 🧠 SIG_PUNCH_INSTRUCT detected from %s - forwarding to NatAnalyzer%n", from);
+        // Forward intelligent punch instruction to NatAnalyzer for processing
+        try {
+            NatAnalyzer.handleIncomingPunchInstruction(buf.duplicate(), from);
+            System.out.println("[KA] ✅ Punch instruction forwarded successfully");
+        } catch (Exception e) {
+            System.err.println("[KA] ❌ Error forwarding punch instruction: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private void onP2PNotification(DatagramChannel dc, ByteBuffer buf, InetSocketAddress from) {
+        System.out.printf("[KA] 📢 SIG_P2P_NOTIFY detected from %s - forwarding to NatAnalyzer%n", from);
+        // Forward P2P notification to NatAnalyzer for processing
+        try {
+            NatAnalyzer.handleIncomingP2PNotification(buf.duplicate(), from);
+            System.out.println("[KA] ✅ P2P notification forwarded successfully");
+        } catch (Exception e) {
+            System.err.println("[KA] ❌ Error forwarding P2P notification: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private void onKeepAliveDns(DatagramChannel dc, ByteBuffer buf, InetSocketAddress from) {
+        // Keep-alive DNS packet - UPDATE PEER ADDRESS if needed
+        System.out.printf("[KA] 🔄 Keep-alive DNS from %s%n", from);
+        
+        // 🔄 Find which peer this address belongs to by IP - port may have changed
+        String username = peers.findByIp(from.getAddress());
+        if (username == null) {
+            return;
+        }
+        InetSocketAddress oldAddr = peers.address(username);
+        if (!from.equals(oldAddr)) {
+            peers.updateAddress(username, from);
+            System.out.printf("[KA-UPDATE] 🔄 Updated %s address: %s → %s (from DNS keepalive)%n", 
+                username, oldAddr, from);
+        }
+        
+        // Update last activity
+        peers.touch(username);
+    }
+    
+    private void onPunchBurst(DatagramChannel dc, ByteBuffer buf, InetSocketAddress from) {
+        System.out.printf("[KA] 🎯 SIG_PUNCH_BURST detected from %s%n", from);
+        
+        // 🔒 BLACKLIST CHECK: NEVER accept burst packets from signaling server!
+        if (SERVER_IP != null && from.getAddress().equals(SERVER_IP)) {
+            System.out.printf("[KA-BURST] ⛔ BLOCKED: Burst from SIGNALING SERVER %s - THIS SHOULD NEVER HAPPEN!%n", from);
+            System.out.println("[KA-BURST] ⛔ Server should COORDINATE, not send burst packets!");
+            return; // Ignore server burst packets
+        }
+        
+        // Auto-respond to burst packets to establish bidirectional NAT mapping
+        try {
+            // Parse burst packet to get usernames
+            java.util.List<Object> parsed = LLS.parseBurstPacket(buf.duplicate());
+            String senderUsername = (String) parsed.get(2);
+            String receiverUsername = (String) parsed.get(3);
+            String payload = (String) parsed.get(4);
+            
+            // 🔧 PREVENT INFINITE LOOP: Don't respond to ACK packets!
+            if ("BURST-ACK".equals(payload)) {
+                System.out.printf("[KA-BURST] ✅ Received ACK from %s - NAT hole confirmed%n", 
+                    senderUsername);
+                
+                // Register peer but don't respond
+                peers.updateAddress(senderUsername, from);
+                System.out.printf("[KA-BURST] 📝 Registered %s for P2P messaging%n", senderUsername);
+                return; // Don't respond to ACK packets!
+            }
+            
+            System.out.println("[KA-BURST] ✅ Source validated - AUTO-RESPONDING");
+            
+            System.out.printf("[KA-BURST] Burst from %s -> %s: %s%n", 
+                senderUsername, receiverUsername, payload);
+            
+            // Send immediate response to establish NAT hole (ONLY if not an ACK)
+            ByteBuffer response = LLS.New_Burst_Packet(
+                receiverUsername,  // Me
+                senderUsername,    // Them
+                "BURST-ACK"
+            );
+            dc.send(response, from);
+            
+            System.out.printf("[KA-BURST] ✅ Auto-responded to %s - NAT hole established%n", 
+                senderUsername);
+            
+            // Register peer in NatAnalyzer for messaging
+            peers.updateAddress(senderUsername, from);
+            peers.touch(senderUsername);
+            System.out.printf("[KA-BURST] 📝 Registered %s for P2P messaging%n", senderUsername);
+            
+        } catch (Exception e) {
+            System.err.println("[KA-BURST] ❌ Error handling burst: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    private void onReliableData(DatagramChannel dc, ByteBuffer buf, InetSocketAddress from) {
+        // 🆕 Reliable message DATA chunk
+        System.out.printf("[KA] 📦 Reliable DATA chunk from %s%n", from);
+        try {
+            Object[] parsed = LLS.parseReliableMessageChunk(buf.duplicate());
+            
+            // Forward to NatAnalyzer's ReliableMessageReceiver
+            ReliableMessageReceiver receiver = NatAnalyzer.reliableReceiver();
+            if (receiver != null) {
+                receiver.handleDataChunk(parsed, from);
+            }
+        } catch (Exception e) {
+            System.err.println("[KA] ❌ Error handling reliable DATA: " + e.getMessage());
+        }
+    }
+    
+    private void onReliableAck(DatagramChannel dc, ByteBuffer buf, InetSocketAddress from) {
+        // 🆕 Reliable message ACK
+        System.out.printf("[KA] ✅ Reliable ACK from %s%n", from);
+        try {
+            Object[] parsed = LLS.parseReliableMessageACK(buf.duplicate());
+            
+            // Forward to NatAnalyzer's ReliableMessageSender
+            ReliableMessageSender sender = NatAnalyzer.reliableSender();
+            if (sender != null) {
+                sender.handleACK((long) parsed[4], (int) parsed[5], (long) parsed[6]);
+            }
+        } catch (Exception e) {
+            System.err.println("[KA] ❌ Error handling reliable ACK: " + e.getMessage());
+        }
+    }
+    
+    private void onReliableNack(DatagramChannel dc, ByteBuffer buf, InetSocketAddress from) {
+        // 🆕 Reliable message NACK
+        System.out.printf("[KA] ⚠️  Reliable NACK from %s%n", from);
+        try {
+            Object[] parsed = LLS.parseReliableMessageNACK(buf.duplicate());
+            
+            // Forward to NatAnalyzer's ReliableMessageSender
+            ReliableMessageSender sender = NatAnalyzer.reliableSender();
+            if (sender != null) {
+                sender.handleNACK((long) parsed[4], (int[]) parsed[5], from);
+            }
+        } catch (Exception e) {
+            System.err.println("[KA] ❌ Error handling reliable NACK: " + e.getMessage());
+        }
+    }
+    
+    private void onReliableFin(DatagramChannel dc, ByteBuffer buf, InetSocketAddress from) {
+        // 🆕 Reliable message FIN
+        System.out.printf("[KA] 🏁 Reliable FIN from %s%n", from);
+        try {
+            Object[] parsed = LLS.parseReliableMessageFIN(buf.duplicate());
+            
+            // Forward to NatAnalyzer's ReliableMessageReceiver
+            ReliableMessageReceiver receiver = NatAnalyzer.reliableReceiver();
+            if (receiver != null) {
+                receiver.handleFIN((long) parsed[4]);
+            }
+        } catch (Exception e) {
+            System.err.println("[KA] ❌ Error handling reliable FIN: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * No handler for the type byte: file transfer packets (detected by size and
+     * structure), late DATA packets, or unknown
+     */
+    private void onUnroutedPacket(DatagramChannel dc, ByteBuffer buf, InetSocketAddress from) {
+        byte type = LLS.peekType(buf);
+        int size = buf.remaining();
+        boolean isFilePacket = false;
+        String packetType = null;
+        
+        // HandShake_Packet: SYN/ACK/SYN_RESUME in any of their negotiated lengths
+        if (HandShake_Packet.is_handshake_size(size)) {
+            packetType = "HANDSHAKE";
+            isFilePacket = true;
+        }
+        // NackFrame: 28 bytes (type + fileId + lostSeqStart + bitmap + timestamp)
+        else if (size == 28) {
+            packetType = "NACK";
+            isFilePacket = true;
+        }
+        // Completion signal: 8 bytes
+        else if (size == 8) {
+            packetType = "COMPLETION";
+            isFilePacket = true;
+        }
+        // CRC32C_Packet: 22+ bytes (type + fileId + seqNum + CRC32 + data)
+        else if (size >= 22 && type == 0x00) {
+            // Verify it has fileId structure (8 bytes after type)
+            ByteBuffer verify = buf.duplicate();
+            verify.get(); // Skip type
+            long fileId = verify.getLong(); // Read fileId
+            
+            if (fileId != 0) { // Valid fileId
+                packetType = "DATA";
+                isFilePacket = true;
+            }
+        }
+        
+        if (isFilePacket) {
+            // Only log non-data packets to avoid spam
+            if (!"DATA".equals(packetType)) {
+                System.out.printf("[KA] 📁 File %s packet detected (%d bytes) from %s%n", 
+                    packetType, size, from);
+            }
+            
+            // Forward to NatAnalyzer.FileTransferDispatcher
+            try {
+                NatAnalyzer.onFileTransferPacket(buf.duplicate(), from);
+                
+                // Only log forwarding for non-data packets
+                if (!"DATA".equals(packetType)) {
+                    System.out.println("[KA] ✅ File packet forwarded to NatAnalyzer");
+                }
+            } catch (Exception e) {
+                System.err.println("[KA] ❌ Error forwarding file packet: " + e.getMessage());
+                e.printStackTrace();
+            }
+        } else if (type == 0x00 && size >= 22) {
+            // Late DATA packet - file transfer probably finished, silently drop
+            // (This prevents spam from in-flight packets after transfer completion)
+        } else {
+            System.out.printf("[KA] ❓ Unknown packet type 0x%02X (%d bytes) from %s%n", type, size, from);
+        }
+    }
+    
     /**
      * Stop message listening (for temporary selector changes during hole punch)
      */
@@ -30,6 +30,7 @@ public class LLS {
     public static final byte SIG_RMSG_ACK    = 0x21; // Selective ACK with bitmap (SACK)
     public static final byte SIG_RMSG_NACK   = 0x22; // NACK for fast retransmission (optional)
     public static final byte SIG_RMSG_FIN    = 0x23; // Message transfer complete signal
+    public static final byte SIG_RMSG_SACK   = 0x24; // Cumulative ACK + received ranges (DataChannel, negotiated)
 
     // ---- COMMON HELPERS ----
     private static void putFixedString(ByteBuffer buf, String str, int len) {
@@ -12,6 +12,7 @@ import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.Enumeration;
@@ -45,13 +46,14 @@ public class NatAnalyzer {
     // Multiple peer connections support
     private static final Map<String, InetSocketAddress> activePeers = new ConcurrentHashMap<>();
     private static final Map<String, Long> lastActivity = new ConcurrentHashMap<>();
+    private static final PeerRegistry peerRegistry = new PeerRegistry(activePeers, lastActivity);
     
     // 🆕 Pending file transfers - store filename from chat message
     private static final Map<String, String> pendingFileNames = new ConcurrentHashMap<>();
     
     // 🆕 Reliable Messaging components
-    private static ReliableMessageSender reliableSender = null;
-    private static ReliableMessageReceiver reliableReceiver = null;
+    private static volatile ReliableMessageSender reliableSender = null;
+    private static volatile ReliableMessageReceiver reliableReceiver = null;
     private static String currentUsername = null;
     
     // 🆕 Callback for received reliable messages
@@ -1183,6 +1185,7 @@ public class NatAnalyzer {
     public static void closeP2PConnection(String username) {
         activePeers.remove(username);
         lastActivity.remove(username);
+        closeSendScheduler(username);
         System.out.println("[P2P] Connection closed with " + username);
         
         // If no more peers, close the channel
@@ -1203,6 +1206,9 @@ public class NatAnalyzer {
     public static void closeAllP2PConnections() {
         activePeers.clear();
         lastActivity.clear();
+        for (String username : new ArrayList<>(sendSchedulers.keySet())) {
+            closeSendScheduler(username);
+        }
         try {
             if (stunChannel != null) {
                 stunChannel.close();
@@ -2473,10 +2479,36 @@ public class NatAnalyzer {
         }
     }
     
+    // One outgoing queue per peer - stunChannel carries a single transfer at a time
+    private static final Map<String, com.saferoom.file_transfer.TransferScheduler> sendSchedulers = new ConcurrentHashMap<>();
+    
+    // fileIds must stay unique when many files are queued within one millisecond
+    private static final AtomicLong LAST_FILE_ID = new AtomicLong();
+    
+    private static long nextFileId() {
+        return LAST_FILE_ID.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+    }
+    
+    /** Fail the files still queued for username (the one on the wire finishes or errors on its own) */
+    private static void closeSendScheduler(String username) {
+        com.saferoom.file_transfer.TransferScheduler scheduler = sendSchedulers.remove(username);
+        if (scheduler != null) {
+            scheduler.close();
+        }
+    }
+    
     /**
      * Send file to peer (SENDER role)  
      */
     public static CompletableFuture<Void> sendFile(String targetUser, java.nio.file.Path filePath) {
+        return sendFile(targetUser, filePath, 1);
+    }
+    
+    /**
+     * Queue a file for a peer; weight is its share while other files to the
+     * same peer are waiting (TransferScheduler)
+     */
+    public static CompletableFuture<Void> sendFile(String targetUser, java.nio.file.Path filePath, int weight) {
         InetSocketAddress peerAddr = activePeers.get(targetUser);
         if (peerAddr == null) {
             return CompletableFuture.failedFuture(
@@ -2484,60 +2516,71 @@ public class NatAnalyzer {
             );
         }
         
-        return CompletableFuture.runAsync(() -> {
-            long fileId = System.currentTimeMillis();
+        com.saferoom.file_transfer.TransferScheduler scheduler = sendSchedulers.computeIfAbsent(targetUser,
+            user -> new com.saferoom.file_transfer.TransferScheduler(user, peerAddr,
+                (file, fileId, cc) -> sendScheduledFile(user, file, fileId, cc)));
+        return scheduler.submit(filePath, nextFileId(), weight);
+    }
+    
+    private static void sendScheduledFile(String targetUser, java.nio.file.Path filePath,
+            long fileId, com.saferoom.file_transfer.CongestionController congestion) throws Exception {
+        // The peer may have moved or left while the file was queued
+        InetSocketAddress peerAddr = activePeers.get(targetUser);
+        if (peerAddr == null) {
+            throw new IllegalStateException("No P2P connection to " + targetUser);
+        }
+        try {
+            System.out.printf("[FILE-SEND] 📤 Sending %s to %s%n",
+                filePath.getFileName(), targetUser);
             
-            try {
-                System.out.printf("[FILE-SEND] 📤 Sending %s to %s%n",
-                    filePath.getFileName(), targetUser);
-                
-                // STOP KeepAliveManager
-                if (globalKeepAlive != null) {
-                    System.out.println("[FILE-SEND] ⏸️  Stopping KeepAliveManager");
-                    globalKeepAlive.stopMessageListening();
-                    Thread.sleep(100);
-                }
-                
-                // Connect stunChannel to peer for file transfer
-                synchronized (stunChannel) {
-                    stunChannel.connect(peerAddr);
-                    System.out.printf("[FILE-SEND] 🔗 Connected to %s%n", peerAddr);
-                
-                    try {
-                        // Create sender - will do normal handshake
-                        com.saferoom.file_transfer.EnhancedFileTransferSender sender = 
-                            new com.saferoom.file_transfer.EnhancedFileTransferSender(stunChannel);
-                        
-                        // Send file - sender does handshake + data transfer
-                        sender.sendFile(filePath, fileId);
-                        
-                        System.out.printf("[FILE-SEND] ✅ File sent successfully%n");
-                        
-                        // NOTE: Don't call onFileTransferComplete here!
-                        // That callback is for RECEIVER side only (to send confirmation message)
-                        // Sender doesn't need to send any confirmation message
-                    } finally {
-                        // Disconnect after transfer
-                        stunChannel.disconnect();
-                        System.out.println("[FILE-SEND] 🔌 Disconnected");
-                    }
-                }
-                
-            } catch (Exception e) {
-                System.err.printf("[FILE-SEND] ❌ Failed: %s%n", e.getMessage());
-                e.printStackTrace();
-                if (fileTransferCallback != null) {
-                    fileTransferCallback.onFileTransferError(targetUser, fileId, e);
-                }
-                throw new RuntimeException(e);
-            } finally {
-                // RESTART KeepAliveManager
-                if (globalKeepAlive != null) {
-                    System.out.println("[FILE-SEND] ▶️  Resuming KeepAliveManager");
-                    globalKeepAlive.startMessageListening(stunChannel);
+            // STOP KeepAliveManager
+            if (globalKeepAlive != null) {
+                System.out.println("[FILE-SEND] ⏸️  Stopping KeepAliveManager");
+                globalKeepAlive.stopMessageListening();
+                Thread.sleep(100);
+            }
+            
+            // Connect stunChannel to peer for file transfer
+            synchronized (stunChannel) {
+                stunChannel.connect(peerAddr);
+                System.out.printf("[FILE-SEND] 🔗 Connected to %s%n", peerAddr);
+            
+                try {
+                    // Create sender - will do normal handshake
+                    com.saferoom.file_transfer.EnhancedFileTransferSender sender = 
+                        new com.saferoom.file_transfer.EnhancedFileTransferSender(stunChannel);
+                    // Keep the peer's congestion state across queued files
+                    sender.setSharedCongestionControl(congestion);
+                    
+                    // Send file - sender does handshake + data transfer
+                    sender.sendFile(filePath, fileId);
+                    
+                    System.out.printf("[FILE-SEND] ✅ File sent successfully%n");
+                    
+                    // NOTE: Don't call onFileTransferComplete here!
+                    // That callback is for RECEIVER side only (to send confirmation message)
+                    // Sender doesn't need to send any confirmation message
+                } finally {
+                    // Disconnect after transfer
+                    stunChannel.disconnect();
+                    System.out.println("[FILE-SEND] 🔌 Disconnected");
                 }
             }
-        }, P2P_EXECUTOR);
+            
+        } catch (Exception e) {
+            System.err.printf("[FILE-SEND] ❌ Failed: %s%n", e.getMessage());
+            e.printStackTrace();
+            if (fileTransferCallback != null) {
+                fileTransferCallback.onFileTransferError(targetUser, fileId, e);
+            }
+            throw e;
+        } finally {
+            // RESTART KeepAliveManager
+            if (globalKeepAlive != null) {
+                System.out.println("[FILE-SEND] ▶️  Resuming KeepAliveManager");
+                globalKeepAlive.startMessageListening(stunChannel);
+            }
+        }
     }
     
     /**
@@ -2562,10 +2605,11 @@ public class NatAnalyzer {
             int packetSize = packet.remaining();
             
             // Handshake detection
-            if (packetSize == com.saferoom.file_transfer.HandShake_Packet.HEADER_SIZE) {
+            if (com.saferoom.file_transfer.HandShake_Packet.is_handshake_size(packetSize)) {
                 byte signal = packet.get(0);
                 
-                if (signal == com.saferoom.file_transfer.HandShake_Packet.SYN) {
+                if (signal == com.saferoom.file_transfer.HandShake_Packet.SYN
+                        || signal == com.saferoom.file_transfer.HandShake_Packet.SYN_RESUME) {
                     // NEW FILE TRANSFER REQUEST - Auto-start receiver!
                     handleIncomingFileTransferSYN(senderAddr, packet);
                     return;
@@ -2638,10 +2682,12 @@ public class NatAnalyzer {
                             // Receive file - receiver does handshake + data transfer!
                             receiver.ReceiveData();
                             
-                            System.out.printf("[FILE-RECV] ✅ File received successfully: %s%n", savePath);
+                            // Resumed transfers continue into the earlier partial file
+                            java.nio.file.Path receivedPath = receiver.filePath;
+                            System.out.printf("[FILE-RECV] ✅ File received successfully: %s%n", receivedPath);
                             
                             if (fileTransferCallback != null) {
-                                fileTransferCallback.onFileTransferComplete(senderUsername, fileId, savePath);
+                                fileTransferCallback.onFileTransferComplete(senderUsername, fileId, receivedPath);
                             }
                         } finally {
                             stunChannel.disconnect();
@@ -2665,6 +2711,19 @@ public class NatAnalyzer {
         }
     }
     
+    // Direct access for KeepAliveManager's packet handlers
+    static PeerRegistry peerRegistry() {
+        return peerRegistry;
+    }
+    
+    static ReliableMessageSender reliableSender() {
+        return reliableSender;
+    }
+    
+    static ReliableMessageReceiver reliableReceiver() {
+        return reliableReceiver;
+    }
+    
     /**
      * Called by KeepAliveManager when file transfer packet detected
      */
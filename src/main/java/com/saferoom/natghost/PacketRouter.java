@@ -0,0 +1,42 @@
+package com.saferoom.natghost;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Handler table for inbound datagrams, indexed by the LLS type byte
+ *
+ * Handlers are registered once (on) and looked up per packet with a single
+ * array index. Types without a handler go to the fallback (otherwise), which
+ * is where size-based file transfer detection lives.
+ */
+final class PacketRouter {
+
+    @FunctionalInterface
+    interface Handler {
+        void handle(DatagramChannel channel, ByteBuffer packet, InetSocketAddress from) throws Exception;
+    }
+
+    private final Handler[] handlers = new Handler[256];
+    private volatile Handler fallback = (channel, packet, from) -> { };
+
+    PacketRouter on(byte type, Handler handler) {
+        handlers[type & 0xFF] = handler;
+        return this;
+    }
+
+    PacketRouter otherwise(Handler handler) {
+        this.fallback = handler;
+        return this;
+    }
+
+    boolean handles(byte type) {
+        return handlers[type & 0xFF] != null;
+    }
+
+    void dispatch(byte type, DatagramChannel channel, ByteBuffer packet, InetSocketAddress from) throws Exception {
+        Handler handler = handlers[type & 0xFF];
+        (handler != null ? handler : fallback).handle(channel, packet, from);
+    }
+}
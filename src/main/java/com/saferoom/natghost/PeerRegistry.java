@@ -0,0 +1,45 @@
+package com.saferoom.natghost;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+/**
+ * Typed view of the active P2P peers: username -> address and last activity
+ *
+ * NatAnalyzer owns the maps; KeepAliveManager updates them from the packets
+ * it receives (peers may move to a new port behind their NAT).
+ */
+final class PeerRegistry {
+
+    private final Map<String, InetSocketAddress> addresses;
+    private final Map<String, Long> lastActivity;
+
+    PeerRegistry(Map<String, InetSocketAddress> addresses, Map<String, Long> lastActivity) {
+        this.addresses = addresses;
+        this.lastActivity = lastActivity;
+    }
+
+    InetSocketAddress address(String username) {
+        return addresses.get(username);
+    }
+
+    /** @return the previous address, null if the peer was unknown */
+    InetSocketAddress updateAddress(String username, InetSocketAddress address) {
+        return addresses.put(username, address);
+    }
+
+    void touch(String username) {
+        lastActivity.put(username, System.currentTimeMillis());
+    }
+
+    /** First peer registered with this IP (any port), null if none */
+    String findByIp(InetAddress ip) {
+        for (Map.Entry<String, InetSocketAddress> entry : addresses.entrySet()) {
+            if (entry.getValue().getAddress().equals(ip)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+}
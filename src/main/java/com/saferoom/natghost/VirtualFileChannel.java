@@ -160,7 +160,7 @@ public class VirtualFileChannel extends DatagramChannel {
         int packetSize = src.remaining() + bytesSent; // approximation
         String packetType = "UNKNOWN";
         
-        if (bytesSent == 21) {
+        if (com.saferoom.file_transfer.HandShake_Packet.is_handshake_size(bytesSent)) {
             packetType = "HANDSHAKE";
         } else if (bytesSent == 8) {
             packetType = "COMPLETION";
@@ -8,10 +8,15 @@ import com.saferoom.transport.TransportRegistry;
 import dev.onvoid.webrtc.RTCDataChannel;
 import dev.onvoid.webrtc.RTCDataChannelBuffer;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.*;
+import java.util.stream.Stream;
 
 /**
  * File Transfer Manager for WebRTC DataChannel
@@ -35,11 +40,14 @@ public class DataChannelFileTransfer {
     private final FileTransferReceiver receiver;
     
     private final ExecutorService executor;
+    private final TransferScheduler scheduler;
+    private final ConcurrentMap<Long, FileTransferObserver> observers = new ConcurrentHashMap<>();
     
     private final ConcurrentMap<Long, Path> pendingDownloadPaths = new ConcurrentHashMap<>();
     private final ConcurrentMap<Long, CompletableFuture<Void>> receiverReadySignals = new ConcurrentHashMap<>();
     
     private FileTransferCallback transferCallback;
+    private volatile ReceiverAnnouncer receiverAnnouncer;
     private volatile boolean receiverStarted = false;  // Track if receiver is running
     
     @FunctionalInterface
@@ -71,6 +79,8 @@ public class DataChannelFileTransfer {
             this.sender = new EnhancedFileTransferSender(channelWrapper, flowControlledEndpoint);
             this.receiver = new FileTransferReceiver();
             this.receiver.channel = channelWrapper;  // SAME wrapper as sender!
+            // One receiver per DataChannel - outgoing files queue up behind each other
+            this.scheduler = new TransferScheduler(remoteUsername, channelWrapper.getRemoteAddress(), this::sendScheduled);
             
             System.out.printf("[DCFileTransfer] Initialized for %s (SHARED wrapper)%n", username);
         } catch (Exception e) {
@@ -79,71 +89,114 @@ public class DataChannelFileTransfer {
         }
     }
     
+    /**
+     * Tells the peer about an outgoing file right before it goes on the wire
+     */
+    @FunctionalInterface
+    public interface ReceiverAnnouncer {
+        /** @return completes once the peer's receiver is waiting for fileId */
+        CompletableFuture<Void> announce(long fileId, Path filePath) throws IOException;
+    }
+    
     public void setTransferCallback(FileTransferCallback callback) {
         this.transferCallback = callback;
     }
     
+    /**
+     * Announce each file when its turn comes, so the peer prepares exactly one
+     * receiver at a time however many files are queued
+     */
+    public void setReceiverAnnouncer(ReceiverAnnouncer announcer) {
+        this.receiverAnnouncer = announcer;
+    }
+    
     public CompletableFuture<Boolean> sendFile(Path filePath, long fileId) {
         return sendFile(filePath, fileId, null);
     }
 
     public CompletableFuture<Boolean> sendFile(Path filePath, long fileId, FileTransferObserver observer) {
-        CompletableFuture<Boolean> future = new CompletableFuture<>();
-        
+        return sendFile(filePath, fileId, observer, 1);
+    }
+
+    /**
+     * Queue a file for this peer. Files are sent one after another through the
+     * shared sender in weighted DRR order (TransferScheduler); weight is the
+     * file's relative share when several are waiting.
+     */
+    public CompletableFuture<Boolean> sendFile(Path filePath, long fileId, FileTransferObserver observer, int weight) {
         System.out.println("[DCFileTransfer] ╔════════════════════════════════════════════════");
         System.out.printf("[DCFileTransfer] ║ sendFile() CALLED%n");
         System.out.printf("[DCFileTransfer] ║ filePath: %s%n", filePath);
-        System.out.printf("[DCFileTransfer] ║ fileId: %d%n", fileId);
+        System.out.printf("[DCFileTransfer] ║ fileId: %d (weight %d)%n", fileId, weight);
         System.out.printf("[DCFileTransfer] ║ sender: %s%n", sender != null ? "INITIALIZED" : "NULL");
         System.out.printf("[DCFileTransfer] ║ thread: %s%n", Thread.currentThread().getName());
         System.out.println("[DCFileTransfer] ╚════════════════════════════════════════════════");
         
-        final long dropBaseline = flowControlledEndpoint != null ? flowControlledEndpoint.droppedPackets() : -1;
-
-        executor.execute(() -> {
+        if (observer != null) {
+            observers.put(fileId, observer);
+        }
+        return scheduler.submit(filePath, fileId, weight)
+            .handle((ok, error) -> {
+                observers.remove(fileId);
+                return error == null;
+            });
+    }
+    
+    /**
+     * One scheduled transfer - runs on the scheduler's worker, never concurrently
+     */
+    private void sendScheduled(Path filePath, long fileId, CongestionController congestion) throws IOException {
+        FileTransferObserver observer = observers.get(fileId);
+        ReceiverAnnouncer announcer = receiverAnnouncer;
+        if (announcer != null) {
             try {
-                System.out.printf("[DCFileTransfer] 📤 Executor thread started: %s%n", Thread.currentThread().getName());
-                System.out.printf("[DCFileTransfer] 🚀 Calling sender.sendFile()...%n");
+                announcer.announce(fileId, filePath).join();
+            } catch (CompletionException e) {
+                if (observer != null) observer.onTransferFailed(fileId, e.getCause());
+                throw new IOException("Receiver not ready for fileId " + fileId, e.getCause());
+            }
+        }
+        final long dropBaseline = flowControlledEndpoint != null ? flowControlledEndpoint.droppedPackets() : -1;
+        try {
+            System.out.printf("[DCFileTransfer] 📤 Scheduler thread started: %s%n", Thread.currentThread().getName());
+            System.out.printf("[DCFileTransfer] 🚀 Calling sender.sendFile()...%n");
 
-                sender.setTransferListener(new EnhancedFileTransferSender.TransferListener() {
-                    @Override
-                    public void onPacketProgress(long transferId, long bytesSent, long totalBytes) {
-                        if (observer != null) observer.onTransferProgress(transferId, bytesSent, totalBytes);
-                    }
+            sender.setTransferListener(new EnhancedFileTransferSender.TransferListener() {
+                @Override
+                public void onPacketProgress(long transferId, long bytesSent, long totalBytes) {
+                    if (observer != null) observer.onTransferProgress(transferId, bytesSent, totalBytes);
+                }
 
-                    @Override
-                    public void onTransferComplete(long transferId) {
-                        if (observer != null) observer.onTransferCompleted(transferId);
-                        emitTransportStats(transferId, dropBaseline, observer);
-                    }
+                @Override
+                public void onTransferComplete(long transferId) {
+                    if (observer != null) observer.onTransferCompleted(transferId);
+                    emitTransportStats(transferId, dropBaseline, observer);
+                }
 
-                    @Override
-                    public void onTransferFailed(long transferId, Throwable error) {
-                        if (observer != null) observer.onTransferFailed(transferId, error);
-                        emitTransportStats(transferId, dropBaseline, observer);
-                    }
-                });
-                try {
-                    sender.sendFile(filePath, fileId);
-                } finally {
-                    sender.setTransferListener(null);
+                @Override
+                public void onTransferFailed(long transferId, Throwable error) {
+                    if (observer != null) observer.onTransferFailed(transferId, error);
+                    emitTransportStats(transferId, dropBaseline, observer);
                 }
-                
-                System.out.printf("[DCFileTransfer] ✅ sender.sendFile() returned successfully%n");
-                System.out.printf("[DCFileTransfer] Sent: %s%n", filePath.getFileName());
-                future.complete(true);
-            } catch (Exception e) {
-                System.err.println("[DCFileTransfer] ❌❌❌ EXCEPTION CAUGHT ❌❌❌");
-                System.err.printf("[DCFileTransfer] Exception type: %s%n", e.getClass().getName());
-                System.err.printf("[DCFileTransfer] Exception message: %s%n", e.getMessage());
-                System.err.println("[DCFileTransfer] Stack trace:");
-                e.printStackTrace();
-                emitTransportStats(fileId, dropBaseline, observer);
-                future.complete(false);
+            });
+            sender.setSharedCongestionControl(congestion);
+            try {
+                sender.sendFile(filePath, fileId);
+            } finally {
+                sender.setTransferListener(null);
             }
-        });
-        
-        return future;
+            
+            System.out.printf("[DCFileTransfer] ✅ sender.sendFile() returned successfully%n");
+            System.out.printf("[DCFileTransfer] Sent: %s - %s%n", filePath.getFileName(), scheduler.getStats());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[DCFileTransfer] ❌❌❌ EXCEPTION CAUGHT ❌❌❌");
+            System.err.printf("[DCFileTransfer] Exception type: %s%n", e.getClass().getName());
+            System.err.printf("[DCFileTransfer] Exception message: %s%n", e.getMessage());
+            System.err.println("[DCFileTransfer] Stack trace:");
+            e.printStackTrace();
+            emitTransportStats(fileId, dropBaseline, observer);
+            throw e;
+        }
     }
     
     public void startReceiver(Path downloadPath) {
@@ -164,14 +217,27 @@ public class DataChannelFileTransfer {
             try {
                 downloadPath.getParent().toFile().mkdirs();
                 receiver.filePath = downloadPath;
+                receiver.basePath = findDeltaBase(downloadPath);
                 
                 System.out.printf("[FT-RECV] Receiver thread started, calling ReceiveData()...%n");
                 receiver.ReceiveData();
                 
-                System.out.printf("[DCFileTransfer] Received: %s%n", downloadPath);
+                // filePath may point to an earlier partial download if the transfer was resumed
+                Path receivedPath = receiver.filePath;
+                long receivedSize = receiver.file_size;
+                System.out.printf("[DCFileTransfer] Received: %s%n", receivedPath);
+                
+                if (FileBundle.isBundle(receivedPath)) {
+                    Path bundle = receivedPath;
+                    receivedPath = bundleDirectory(bundle);
+                    List<Path> files = FileBundle.unpack(bundle, receivedPath);
+                    receivedSize = files.stream().mapToLong(f -> f.toFile().length()).sum();
+                    Files.deleteIfExists(bundle);
+                    System.out.printf("[DCFileTransfer] Unpacked %d files into %s%n", files.size(), receivedPath);
+                }
                 
                 if (transferCallback != null) {
-                    transferCallback.onFileReceived(remoteUsername, receiver.fileId, downloadPath, receiver.file_size);
+                    transferCallback.onFileReceived(remoteUsername, receiver.fileId, receivedPath, receivedSize);
                 }
             } catch (Exception e) {
                 System.err.printf("[DCFileTransfer] Receive error: %s%n", e.getMessage());
@@ -186,7 +252,7 @@ public class DataChannelFileTransfer {
         java.nio.ByteBuffer data = buffer.data.duplicate();
         if (data.remaining() > 0) {
             byte signal = data.get(0);
-            if (signal == 0x01 && !receiverStarted) {
+            if ((signal == HandShake_Packet.SYN || signal == HandShake_Packet.SYN_RESUME) && !receiverStarted) {
                 long fileId = System.currentTimeMillis();
                 if (data.remaining() >= HandShake_Packet.HEADER_SIZE) {
                     java.nio.ByteBuffer dup = data.duplicate();
@@ -204,11 +270,19 @@ public class DataChannelFileTransfer {
         channelWrapper.onDataChannelMessage(buffer);
     }
     
+    /**
+     * Forward the file channel's buffered-amount callback to the wrapper's send gate
+     */
+    public void handleBufferedAmountChange(long previousAmount) {
+        channelWrapper.onBufferedAmountChange(previousAmount);
+    }
+    
     public DataChannelWrapper getWrapper() {
         return channelWrapper;
     }
     
     public void shutdown() {
+        scheduler.close();
         executor.shutdownNow();
         try {
             transportEndpoint.close();
@@ -220,8 +294,11 @@ public class DataChannelFileTransfer {
     public Path prepareIncomingFile(long fileId, String originalName) {
         Path downloadsDir = Paths.get("downloads");
         downloadsDir.toFile().mkdirs();
-        String sanitized = sanitizeFileName(Optional.ofNullable(originalName).orElse("file.bin"));
-        Path target = downloadsDir.resolve(fileId + "_" + sanitized);
+        String name = Optional.ofNullable(originalName).orElse("file.bin");
+        Path target = name.indexOf('/') > 0 ? directoryEntryPath(downloadsDir, name) : null;
+        if (target == null) {
+            target = downloadsDir.resolve(fileId + "_" + sanitizeFileName(name));
+        }
         pendingDownloadPaths.put(fileId, target);
         System.out.printf("[DCFileTransfer] Incoming file registered: %s%n", target);
         return target;
@@ -254,6 +331,54 @@ public class DataChannelFileTransfer {
         receiverReadySignals.remove(fileId);
     }
     
+    /**
+     * downloads/<dir>/<relative path> for a large file of a directory send, next to
+     * what its bundles unpack; null if a segment is empty or a dot segment
+     */
+    static Path directoryEntryPath(Path downloadsDir, String name) {
+        Path target = downloadsDir;
+        for (String segment : name.split("/", -1)) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+                return null;
+            }
+            target = target.resolve(sanitizeFileName(segment));
+        }
+        return target;
+    }
+    
+    /**
+     * downloads/<fileId>_<dir>[.partN].srbundle unpacks into downloads/<dir>
+     */
+    private static Path bundleDirectory(Path bundle) {
+        String name = FileBundle.directoryName(bundle.getFileName().toString()).replaceFirst("^\\d+_", "");
+        return bundle.resolveSibling(name.isEmpty() || name.equals(".") || name.equals("..") ? "bundle" : name);
+    }
+    
+    /**
+     * Newest earlier download of the same file (downloads/<otherId>_<name>),
+     * used as the delta sync base - null if there is none
+     */
+    private static Path findDeltaBase(Path target) {
+        String name = target.getFileName().toString();
+        if (!name.matches("\\d+_.+")) {
+            return null;
+        }
+        String suffix = name.substring(name.indexOf('_'));
+        try (Stream<Path> siblings = Files.list(target.getParent())) {
+            return siblings
+                .filter(p -> !p.equals(target))
+                .filter(p -> {
+                    String n = p.getFileName().toString();
+                    return n.endsWith(suffix) && n.substring(0, n.length() - suffix.length()).matches("\\d+");
+                })
+                .filter(Files::isRegularFile)
+                .max(Comparator.comparingLong(p -> p.toFile().lastModified()))
+                .orElse(null);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    
     private Path createDefaultDownloadPath(long fileId) {
         return Paths.get("downloads", "received_" + fileId + ".bin");
     }
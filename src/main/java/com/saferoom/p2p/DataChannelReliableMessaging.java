@@ -8,6 +8,7 @@ import dev.onvoid.webrtc.RTCDataChannelState;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.CRC32;
 
@@ -19,33 +20,83 @@ import java.util.zip.CRC32;
  * 
  * Features:
  * - Chunking (1131 bytes/chunk, MTU-safe)
- * - Selective ACK with 64-bit bitmap
+ * - Sliding send window (SEND_WINDOW chunks in flight)
+ * - Selective ACK (SIG_RMSG_SACK): cumulative ACK + up to MAX_SACK_RANGES
+ *   received ranges, so messages of any chunk count can be acknowledged.
+ *   Only used once the peer advertised it (setPeerSackSupported) and only for
+ *   messages over 64 chunks - everything else gets the legacy bitmap ACK
  * - NACK for fast retransmission
+ * - Receiver writes chunks in place into one buffer per message (bounded by
+ *   saferoom.p2p.rmsg.maxBytes); all partial messages together are bounded by
+ *   saferoom.p2p.rmsg.reassemblyBytes, stale ones are dropped
  * - CRC32 validation
- * - RTT estimation
+ * - Per-peer RTT estimation and adaptive RTO (RFC 6298, Karn's rule)
+ * - Retransmit deadlines in a timer wheel (no scans over in-flight chunks)
+ * - Chunks are encoded straight from the message into one reusable direct
+ *   buffer and decoded straight into the reassembly buffer (no per-chunk garbage)
+ * - At most one delayed ACK per message, flushed by the same tick
  * 
- * Protocol: Uses LLS packet format (SIG_RMSG_DATA, SIG_RMSG_ACK, SIG_RMSG_NACK, SIG_RMSG_FIN)
+ * Protocol: Uses LLS packet format (SIG_RMSG_DATA, SIG_RMSG_ACK, SIG_RMSG_SACK,
+ * SIG_RMSG_NACK, SIG_RMSG_FIN)
  */
 public class DataChannelReliableMessaging {
     
     // Constants from ReliableMessageSender
     private static final int MAX_CHUNK_SIZE = 1131;
     private static final int INITIAL_RTO_MS = 1000;
+    private static final int MIN_RTO_MS = 200;
+    private static final int MAX_RTO_MS = 60_000;
+    private static final int TICK_MS = 10;         // Timer wheel granularity
+    private static final int WHEEL_SLOTS = 512;    // ~5s per revolution
+    private static final long HOUSEKEEPING_MS = 1000;
     private static final int MAX_RETRIES = 5;
     private static final int ACK_DELAY_MS = 50;
+    private static final int SEND_WINDOW = 64;          // Unacknowledged chunks in flight per message
+    private static final int ACK_EVERY = SEND_WINDOW / 4; // Immediate ACK after this many new chunks
+    private static final int MAX_SACK_RANGES = 16;
+    private static final int MAX_MESSAGE_BYTES = Integer.getInteger("saferoom.p2p.rmsg.maxBytes", 16 << 20);
+    // Reassembly buffers of all peers' partial messages; at least one maximum-size message fits
+    private static final long REASSEMBLY_BYTES = Math.max(
+        Long.getLong("saferoom.p2p.rmsg.reassemblyBytes", 64L << 20), MAX_MESSAGE_BYTES + (long) MAX_CHUNK_SIZE);
+    private static final AtomicLong sharedReassemblyBudget = new AtomicLong(REASSEMBLY_BYTES);
+    private static final long RECEIVE_TIMEOUT_MS = 30_000;  // Partial message without progress is dropped
+    private static final long COMPLETED_MEMORY_MS = 30_000; // Re-ACK (not redeliver) late duplicates
+    
+    // DATA: signal(1) + messageId(8) + chunkId(4) + totalChunks(4) + crc(4) + data(N)
+    private static final int DATA_HEADER_SIZE = 1 + 8 + 4 + 4 + 4;
+    
+    // ACK: signal(1) + messageId(8) + bitmap(8) - chunks 0..63, what every peer understands
+    private static final int LEGACY_ACK_SIZE = 1 + 8 + 8;
+    private static final int LEGACY_ACK_CHUNKS = 64;
+    
+    // SACK: signal(1) + messageId(8) + cumAck(4) + rangeCount(2) + ranges(8 each)
+    private static final int SACK_HEADER_SIZE = 1 + 8 + 4 + 2;
     
     // Message ID generator
     private static final AtomicLong messageIdGenerator = new AtomicLong(System.currentTimeMillis());
     
     private final String username;
-    private final RTCDataChannel dataChannel;
+    private final FrameChannel dataChannel;
+    private final AtomicLong reassemblyBudget;
     private final ScheduledExecutorService scheduler;
+    private volatile boolean peerSackSupported;
+    
+    // One peer per instance: RTT estimate and retransmit deadlines of all its messages
+    private final RtoEstimator rto = new RtoEstimator(INITIAL_RTO_MS, MIN_RTO_MS, MAX_RTO_MS, TICK_MS);
+    private final TimerWheel<Deadline> retransmitWheel =
+        new TimerWheel<>(WHEEL_SLOTS, TICK_MS, System.currentTimeMillis());
+    private final ConcurrentLinkedQueue<ReceiveState> pendingAcks = new ConcurrentLinkedQueue<>();
+    
+    private final ChunkEncoder encoder = new ChunkEncoder();
+    private final CRC32 receiveCrc = new CRC32(); // Guarded by itself
+    private long lastHousekeeping;
     
     // Send state
     private final ConcurrentHashMap<Long, SendState> sendingMessages = new ConcurrentHashMap<>();
     
     // Receive state
     private final ConcurrentHashMap<Long, ReceiveState> receivingMessages = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Long> completedMessages = new ConcurrentHashMap<>(); // id -> completion time
     
     // Callback for completed messages
     private MessageCompletionCallback completionCallback;
@@ -55,40 +106,84 @@ public class DataChannelReliableMessaging {
         void onMessageComplete(String sender, long messageId, byte[] message);
     }
     
+    /**
+     * Where frames go: the RTCDataChannel, or a loopback in tests
+     */
+    interface FrameChannel {
+        boolean isOpen();
+        
+        /** The frame's bytes are copied before this returns */
+        void send(ByteBuffer frame) throws Exception;
+    }
+    
     public DataChannelReliableMessaging(String username, RTCDataChannel dataChannel) {
+        this(username, new FrameChannel() {
+            @Override
+            public boolean isOpen() {
+                return dataChannel.getState() == RTCDataChannelState.OPEN;
+            }
+            
+            @Override
+            public void send(ByteBuffer frame) throws Exception {
+                dataChannel.send(new RTCDataChannelBuffer(frame, true));
+            }
+        }, sharedReassemblyBudget);
+    }
+    
+    DataChannelReliableMessaging(String username, FrameChannel dataChannel, AtomicLong reassemblyBudget) {
         this.username = username;
         this.dataChannel = dataChannel;
+        this.reassemblyBudget = reassemblyBudget;
         this.scheduler = Executors.newScheduledThreadPool(1, r -> {
             Thread t = new Thread(r, "DCReliable-" + username);
             t.setDaemon(true);
             return t;
         });
         
-        startRetryTimer();
+        startTicker();
     }
     
     public void setCompletionCallback(MessageCompletionCallback callback) {
         this.completionCallback = callback;
     }
     
+    /**
+     * Peer advertised SIG_RMSG_SACK (P2PConnectionManager capability exchange).
+     * Until then every message is acknowledged with the legacy bitmap ACK.
+     */
+    public void setPeerSackSupported(boolean supported) {
+        this.peerSackSupported = supported;
+    }
+    
     /**
      * Send message reliably over DataChannel
      */
     public CompletableFuture<Boolean> sendMessage(String receiver, String messageText) {
+        return sendMessage(receiver, messageText.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Send raw message bytes reliably (e.g. a MessageCoalescer batch)
+     */
+    public CompletableFuture<Boolean> sendMessage(String receiver, byte[] messageBytes) {
         try {
-            byte[] messageBytes = messageText.getBytes("UTF-8");
             long messageId = messageIdGenerator.incrementAndGet();
             
+            if (messageBytes.length > MAX_MESSAGE_BYTES) {
+                System.err.printf("[DCReliable] Message too large: %d bytes (max %d)%n",
+                    messageBytes.length, MAX_MESSAGE_BYTES);
+                return CompletableFuture.completedFuture(false);
+            }
+            
             SendState state = new SendState(messageId, receiver, messageBytes);
             sendingMessages.put(messageId, state);
             
-            // Send all chunks
-            state.state = SendState.State.SENDING;
-            for (ChunkInfo chunk : state.chunks) {
-                sendChunk(state, chunk);
+            // First window only - ACKs open it further
+            synchronized (state) {
+                state.state = SendState.State.SENDING;
+                pumpWindow(state);
+                state.state = SendState.State.WAITING_ACK;
             }
-            
-            state.state = SendState.State.WAITING_ACK;
             return state.completionFuture;
             
         } catch (Exception e) {
@@ -101,8 +196,11 @@ public class DataChannelReliableMessaging {
      * Handle incoming DataChannel message
      */
     public void handleIncomingMessage(RTCDataChannelBuffer buffer) {
+        handleIncomingFrame(buffer.data.duplicate());
+    }
+    
+    void handleIncomingFrame(ByteBuffer data) {
         try {
-            ByteBuffer data = buffer.data.duplicate();
             if (data.remaining() < 1) return;
             
             byte signalType = data.get();
@@ -112,7 +210,10 @@ public class DataChannelReliableMessaging {
                     handleDataChunk(data);
                     break;
                 case LLS.SIG_RMSG_ACK:
-                    handleAck(data);
+                    handleAck(data, false);
+                    break;
+                case LLS.SIG_RMSG_SACK:
+                    handleAck(data, true);
                     break;
                 case LLS.SIG_RMSG_NACK:
                     handleNack(data);
@@ -130,42 +231,33 @@ public class DataChannelReliableMessaging {
         }
     }
     
+    /**
+     * Send new chunks while fewer than SEND_WINDOW are unacknowledged
+     * (caller holds the state's lock)
+     */
+    private void pumpWindow(SendState state) {
+        while (state.nextToSend < state.chunks.size()
+                && state.nextToSend - state.ackedChunks.cardinality() < SEND_WINDOW) {
+            sendChunk(state, state.chunks.get(state.nextToSend++));
+        }
+    }
+    
     /**
      * Send a single chunk
      */
     private void sendChunk(SendState state, ChunkInfo chunk) {
+        // Every attempt counts and gets a deadline - also when the channel is down
+        long now = System.currentTimeMillis();
+        chunk.lastSentTime = now;
+        chunk.retries++;
+        retransmitWheel.schedule(new Deadline(state, chunk, chunk.retries), now + rto.rtoMs());
         try {
-            if (dataChannel.getState() != RTCDataChannelState.OPEN) {
+            if (!dataChannel.isOpen()) {
                 System.err.println("[DCReliable] DataChannel not open!");
                 return;
             }
             
-            // Build LLS SIG_RMSG_DATA packet
-            // Format: signal(1) + messageId(8) + chunkId(4) + totalChunks(4) + crc(4) + data(N)
-            int packetSize = 1 + 8 + 4 + 4 + 4 + chunk.length;
-            ByteBuffer packet = ByteBuffer.allocate(packetSize);
-            
-            packet.put(LLS.SIG_RMSG_DATA);
-            packet.putLong(state.messageId);
-            packet.putInt(chunk.chunkId);
-            packet.putInt(state.chunks.size());
-            
-            // Calculate CRC32
-            byte[] chunkData = new byte[chunk.length];
-            System.arraycopy(state.fullMessage, chunk.offset, chunkData, 0, chunk.length);
-            CRC32 crc = new CRC32();
-            crc.update(chunkData);
-            packet.putInt((int) crc.getValue());
-            
-            // Add data
-            packet.put(chunkData);
-            
-            packet.flip();
-            RTCDataChannelBuffer dcBuffer = new RTCDataChannelBuffer(packet, true);
-            dataChannel.send(dcBuffer);
-            
-            chunk.lastSentTime = System.currentTimeMillis();
-            chunk.retries++;
+            encoder.send(dataChannel, state, chunk);
             state.inFlightChunks.set(chunk.chunkId);
             
         } catch (Exception e) {
@@ -183,35 +275,59 @@ public class DataChannelReliableMessaging {
             int totalChunks = data.getInt();
             int crc = data.getInt();
             
-            byte[] chunkData = new byte[data.remaining()];
-            data.get(chunkData);
-            
-            // Validate CRC
-            CRC32 crcCalc = new CRC32();
-            crcCalc.update(chunkData);
-            if ((int) crcCalc.getValue() != crc) {
+            // Validate CRC over the payload in place (position restored)
+            int payloadStart = data.position();
+            int actualCrc;
+            synchronized (receiveCrc) {
+                receiveCrc.reset();
+                receiveCrc.update(data);
+                actualCrc = (int) receiveCrc.getValue();
+            }
+            data.position(payloadStart);
+            if (actualCrc != crc) {
                 System.err.printf("[DCReliable] CRC mismatch for chunk %d of message %d%n", chunkId, messageId);
                 sendNack(messageId, chunkId);
                 return;
             }
             
-            // Get or create receive state
-            ReceiveState state = receivingMessages.computeIfAbsent(messageId, 
-                id -> new ReceiveState(messageId, totalChunks));
+            if (completedMessages.containsKey(messageId)) {
+                sendFullAck(messageId, totalChunks); // Our ACK was lost - don't deliver twice
+                return;
+            }
+            if (totalChunks <= 0 || (long) totalChunks * MAX_CHUNK_SIZE > MAX_MESSAGE_BYTES + (long) MAX_CHUNK_SIZE
+                    || chunkId < 0 || chunkId >= totalChunks) {
+                System.err.printf("[DCReliable] Rejecting chunk %d/%d of message %d%n", chunkId, totalChunks, messageId);
+                return;
+            }
             
-            // Store chunk
-            state.receivedChunks.put(chunkId, chunkData);
-            state.receivedBitmap.set(chunkId);
-            state.lastChunkTime = System.currentTimeMillis();
+            ReceiveState state = openReceiveState(messageId, totalChunks);
+            if (state == null) {
+                return; // Over the reassembly budget - unacknowledged, the sender retries
+            }
             
-            System.out.printf("[DCReliable] Received chunk %d/%d of message %d%n", 
-                chunkId + 1, totalChunks, messageId);
+            boolean complete;
+            boolean ackNow;
+            synchronized (state) {
+                if (totalChunks != state.totalChunks || !state.store(chunkId, data)) {
+                    return; // Malformed or duplicate
+                }
+                complete = state.isComplete();
+                ackNow = complete || ++state.unackedChunks >= ACK_EVERY;
+                if (ackNow) {
+                    state.unackedChunks = 0;
+                }
+            }
             
-            // Schedule ACK
-            scheduler.schedule(() -> sendAck(state), ACK_DELAY_MS, TimeUnit.MILLISECONDS);
+            // ACK every ACK_EVERY chunks, otherwise once per ACK_DELAY_MS
+            if (ackNow) {
+                sendAck(state);
+            } else if (!state.ackScheduled.getAndSet(true)) {
+                state.ackDueTime = System.currentTimeMillis() + ACK_DELAY_MS;
+                pendingAcks.add(state); // Flushed by the ticker
+            }
             
             // Check if complete
-            if (state.isComplete()) {
+            if (complete) {
                 completeMessage(state);
             }
             
@@ -221,29 +337,90 @@ public class DataChannelReliableMessaging {
     }
     
     /**
-     * Handle ACK
+     * Existing receive state, or a new one if its buffer fits the reassembly budget
+     *
+     * @return null when over budget
+     */
+    private ReceiveState openReceiveState(long messageId, int totalChunks) {
+        ReceiveState state = receivingMessages.get(messageId);
+        if (state != null) {
+            return state;
+        }
+        long bytes = (long) totalChunks * MAX_CHUNK_SIZE;
+        if (reassemblyBudget.addAndGet(-bytes) < 0) {
+            reassemblyBudget.addAndGet(bytes);
+            System.err.printf("[DCReliable] Reassembly budget exhausted - deferring message %d (%d bytes)%n",
+                messageId, bytes);
+            return null;
+        }
+        ReceiveState created = new ReceiveState(messageId, totalChunks);
+        state = receivingMessages.putIfAbsent(messageId, created);
+        if (state != null) {
+            reassemblyBudget.addAndGet(bytes); // Lost the race - use the other one
+            return state;
+        }
+        return created;
+    }
+    
+    /**
+     * Forget a receive state and return its buffer to the budget (once)
+     */
+    private void dropReceiveState(ReceiveState state) {
+        if (receivingMessages.remove(state.messageId, state)) {
+            reassemblyBudget.addAndGet(state.buffer.length);
+        }
+    }
+    
+    /**
+     * Handle ACK (legacy bitmap) or SACK (cumulative ACK + ranges)
      */
-    private void handleAck(ByteBuffer data) {
+    private void handleAck(ByteBuffer data, boolean sack) {
         try {
+            if (data.remaining() < (sack ? SACK_HEADER_SIZE : LEGACY_ACK_SIZE) - 1) return;
             long messageId = data.getLong();
-            long bitmap = data.getLong();
             
             SendState state = sendingMessages.get(messageId);
             if (state == null) return;
             
-            // Mark chunks as ACKed based on bitmap
-            for (int i = 0; i < 64 && i < state.chunks.size(); i++) {
-                if ((bitmap & (1L << i)) != 0) {
-                    state.ackedChunks.set(i);
+            int total = state.chunks.size();
+            int acked;
+            synchronized (state) {
+                long sentAt = 0; // Latest send time of a newly acked, never retransmitted chunk
+                if (!sack) {
+                    // Bitmap of chunks 0..63
+                    long bitmap = data.getLong();
+                    for (int i = 0; i < LEGACY_ACK_CHUNKS && i < total; i++) {
+                        if ((bitmap & (1L << i)) != 0) {
+                            sentAt = Math.max(sentAt, ackRange(state, i, i + 1));
+                        }
+                    }
+                } else {
+                    int cumAck = Math.min(data.getInt(), total);
+                    int ranges = data.getShort() & 0xFFFF;
+                    sentAt = ackRange(state, 0, cumAck);
+                    for (int i = 0; i < ranges && data.remaining() >= 8; i++) {
+                        int start = Math.max(0, data.getInt());
+                        int end = Math.min(data.getInt(), total);
+                        sentAt = Math.max(sentAt, ackRange(state, start, end));
+                    }
+                }
+                if (sentAt > 0) {
+                    rto.onSample(System.currentTimeMillis() - sentAt);
                 }
+                
+                if (state.isComplete()) {
+                    state.state = SendState.State.COMPLETE;
+                } else {
+                    pumpWindow(state); // Acked chunks free window slots
+                }
+                acked = state.ackedChunks.cardinality();
             }
             
             System.out.printf("[DCReliable] ACK for message %d: %d/%d chunks%n", 
-                messageId, state.ackedChunks.cardinality(), state.chunks.size());
+                messageId, acked, total);
             
             // Check if complete
-            if (state.isComplete()) {
-                state.state = SendState.State.COMPLETE;
+            if (state.state == SendState.State.COMPLETE) {
                 state.completionFuture.complete(true);
                 sendingMessages.remove(messageId);
             }
@@ -253,6 +430,24 @@ public class DataChannelReliableMessaging {
         }
     }
     
+    /**
+     * Mark [start, end) acknowledged (caller holds the state's lock)
+     *
+     * @return latest send time among newly acked chunks sent exactly once
+     *         (Karn: retransmitted chunks give ambiguous samples), 0 if none
+     */
+    private static long ackRange(SendState state, int start, int end) {
+        long sentAt = 0;
+        for (int id = state.ackedChunks.nextClearBit(start); id < end; id = state.ackedChunks.nextClearBit(id + 1)) {
+            ChunkInfo chunk = state.chunks.get(id);
+            if (chunk.retries == 1) {
+                sentAt = Math.max(sentAt, chunk.lastSentTime);
+            }
+            state.ackedChunks.set(id);
+        }
+        return sentAt;
+    }
+    
     /**
      * Handle NACK
      */
@@ -268,9 +463,10 @@ public class DataChannelReliableMessaging {
                 messageId, chunkId);
             
             // Retransmit requested chunk
-            if (chunkId < state.chunks.size()) {
-                ChunkInfo chunk = state.chunks.get(chunkId);
-                sendChunk(state, chunk);
+            synchronized (state) {
+                if (chunkId >= 0 && chunkId < state.nextToSend && !state.ackedChunks.get(chunkId)) {
+                    sendChunk(state, state.chunks.get(chunkId));
+                }
             }
             
         } catch (Exception e) {
@@ -300,17 +496,41 @@ public class DataChannelReliableMessaging {
      */
     private void sendAck(ReceiveState state) {
         try {
-            if (dataChannel.getState() != RTCDataChannelState.OPEN) return;
+            if (!dataChannel.isOpen()) return;
             
-            // Format: signal(1) + messageId(8) + bitmap(8)
-            ByteBuffer packet = ByteBuffer.allocate(17);
-            packet.put(LLS.SIG_RMSG_ACK);
-            packet.putLong(state.messageId);
-            packet.putLong(state.getBitmap());
+            ByteBuffer packet;
+            synchronized (state) {
+                packet = useSack(state.totalChunks)
+                    ? encodeAck(state.messageId, state.receivedBitmap, state.totalChunks)
+                    : encodeLegacyAck(state.messageId, state.receivedBitmap);
+            }
+            dataChannel.send(packet);
             
-            packet.flip();
-            RTCDataChannelBuffer dcBuffer = new RTCDataChannelBuffer(packet, true);
-            dataChannel.send(dcBuffer);
+        } catch (Exception e) {
+            System.err.printf("[DCReliable] Error sending ACK: %s%n", e.getMessage());
+        }
+    }
+    
+    /**
+     * Legacy ACK unless the peer speaks SACK and the bitmap can't cover the message
+     */
+    private boolean useSack(int totalChunks) {
+        return peerSackSupported && totalChunks > LEGACY_ACK_CHUNKS;
+    }
+    
+    /**
+     * ACK a message that was already delivered (every chunk)
+     */
+    private void sendFullAck(long messageId, int totalChunks) {
+        try {
+            if (!dataChannel.isOpen() || totalChunks <= 0) return;
+            
+            BitSet all = new BitSet(totalChunks);
+            all.set(0, totalChunks);
+            ByteBuffer packet = useSack(totalChunks)
+                ? encodeAck(messageId, all, totalChunks)
+                : encodeLegacyAck(messageId, all);
+            dataChannel.send(packet);
             
         } catch (Exception e) {
             System.err.printf("[DCReliable] Error sending ACK: %s%n", e.getMessage());
@@ -322,7 +542,7 @@ public class DataChannelReliableMessaging {
      */
     private void sendNack(long messageId, int chunkId) {
         try {
-            if (dataChannel.getState() != RTCDataChannelState.OPEN) return;
+            if (!dataChannel.isOpen()) return;
             
             // Format: signal(1) + messageId(8) + chunkId(4)
             ByteBuffer packet = ByteBuffer.allocate(13);
@@ -331,8 +551,7 @@ public class DataChannelReliableMessaging {
             packet.putInt(chunkId);
             
             packet.flip();
-            RTCDataChannelBuffer dcBuffer = new RTCDataChannelBuffer(packet, true);
-            dataChannel.send(dcBuffer);
+            dataChannel.send(packet);
             
         } catch (Exception e) {
             System.err.printf("[DCReliable] Error sending NACK: %s%n", e.getMessage());
@@ -350,7 +569,10 @@ public class DataChannelReliableMessaging {
             System.out.printf("[DCReliable] ✅ Message %d complete: %d bytes%n", 
                 state.messageId, fullMessage.length);
             
-            receivingMessages.remove(state.messageId);
+            dropReceiveState(state);
+            if (completedMessages.putIfAbsent(state.messageId, System.currentTimeMillis()) != null) {
+                return; // FIN and last chunk raced - already delivered
+            }
             
             if (completionCallback != null) {
                 completionCallback.onMessageComplete(username, state.messageId, fullMessage);
@@ -362,39 +584,79 @@ public class DataChannelReliableMessaging {
     }
     
     /**
-     * Retry timer for retransmissions
+     * One tick: expired retransmit deadlines, due delayed ACKs and (every
+     * HOUSEKEEPING_MS) stale receive state
      */
-    private void startRetryTimer() {
+    private void startTicker() {
         scheduler.scheduleAtFixedRate(() -> {
             try {
                 long now = System.currentTimeMillis();
+                retransmitWheel.advance(now, deadline -> onRetransmitDeadline(deadline, now));
                 
-                for (SendState state : sendingMessages.values()) {
-                    if (state.state == SendState.State.WAITING_ACK) {
-                        // Retransmit unacked chunks
-                        for (ChunkInfo chunk : state.chunks) {
-                            if (!state.ackedChunks.get(chunk.chunkId) && 
-                                now - chunk.lastSentTime > INITIAL_RTO_MS) {
-                                
-                                if (chunk.retries >= MAX_RETRIES) {
-                                    state.state = SendState.State.FAILED;
-                                    state.completionFuture.complete(false);
-                                    sendingMessages.remove(state.messageId);
-                                    break;
-                                }
-                                
-                                sendChunk(state, chunk);
-                            }
+                ReceiveState pending;
+                while ((pending = pendingAcks.peek()) != null && pending.ackDueTime <= now) {
+                    pendingAcks.poll(); // Same delay for all - the queue is in due order
+                    pending.ackScheduled.set(false);
+                    sendAck(pending);
+                }
+                
+                if (now - lastHousekeeping >= HOUSEKEEPING_MS) {
+                    lastHousekeeping = now;
+                    // Bound receiver memory: forget stalled partial messages and old completions
+                    for (ReceiveState state : receivingMessages.values()) {
+                        if (now - state.lastChunkTime > RECEIVE_TIMEOUT_MS) {
+                            dropReceiveState(state);
                         }
                     }
+                    completedMessages.values().removeIf(completedAt -> now - completedAt > COMPLETED_MEMORY_MS);
                 }
                 
             } catch (Exception e) {
                 System.err.printf("[DCReliable] Error in retry timer: %s%n", e.getMessage());
             }
-        }, INITIAL_RTO_MS, INITIAL_RTO_MS / 2, TimeUnit.MILLISECONDS);
+        }, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
     }
     
+    /**
+     * Retransmit deadline of one chunk send passed
+     */
+    private void onRetransmitDeadline(Deadline deadline, long now) {
+        SendState state = deadline.state();
+        ChunkInfo chunk = deadline.chunk();
+        synchronized (state) {
+            if (state.state == SendState.State.COMPLETE || state.state == SendState.State.FAILED
+                    || state.ackedChunks.get(chunk.chunkId) || chunk.retries != deadline.attempt()) {
+                return; // Acked, or superseded by a later send (NACK)
+            }
+            if (chunk.retries >= MAX_RETRIES) {
+                state.state = SendState.State.FAILED;
+            } else {
+                rto.backoff(now);
+                sendChunk(state, chunk);
+            }
+        }
+        if (state.state == SendState.State.FAILED && sendingMessages.remove(state.messageId) != null) {
+            System.err.printf("[DCReliable] Message %d failed: chunk %d unacknowledged after %d tries (RTO %dms)%n",
+                state.messageId, chunk.chunkId, chunk.retries, rto.rtoMs());
+            state.completionFuture.complete(false);
+        }
+    }
+    
+    /** Smoothed RTT to this peer */
+    public long getSmoothedRttMs() {
+        return rto.srttMs();
+    }
+    
+    /** Current retransmission timeout for this peer */
+    public long getRtoMs() {
+        return rto.rtoMs();
+    }
+    
+    /**
+     * Retransmit deadline for one send of a chunk
+     */
+    private record Deadline(SendState state, ChunkInfo chunk, int attempt) {}
+    
     /**
      * Send state
      */
@@ -407,6 +669,7 @@ public class DataChannelReliableMessaging {
         final List<ChunkInfo> chunks;
         final BitSet ackedChunks;
         final BitSet inFlightChunks;
+        int nextToSend; // Chunks below have been sent at least once
         
         State state;
         CompletableFuture<Boolean> completionFuture;
@@ -437,55 +700,126 @@ public class DataChannelReliableMessaging {
     }
     
     /**
-     * Receive state
+     * Receive state: chunks are written in place at chunkId * MAX_CHUNK_SIZE,
+     * so a message costs one buffer however it arrives
      */
     private static class ReceiveState {
         final long messageId;
         final int totalChunks;
-        final Map<Integer, byte[]> receivedChunks;
+        final byte[] buffer;
         final BitSet receivedBitmap;
-        long lastChunkTime;
+        final AtomicBoolean ackScheduled = new AtomicBoolean();
+        volatile long ackDueTime;
+        int received;
+        int lastChunkLength = -1;
+        int unackedChunks;
+        volatile long lastChunkTime;
         
         ReceiveState(long messageId, int totalChunks) {
             this.messageId = messageId;
             this.totalChunks = totalChunks;
-            this.receivedChunks = new ConcurrentHashMap<>();
+            this.buffer = new byte[totalChunks * MAX_CHUNK_SIZE];
             this.receivedBitmap = new BitSet(totalChunks);
             this.lastChunkTime = System.currentTimeMillis();
         }
         
-        boolean isComplete() {
-            return receivedChunks.size() == totalChunks;
+        /**
+         * Copy payload's remaining bytes to the chunk's final offset
+         *
+         * @return false for duplicates and chunks of the wrong size
+         */
+        boolean store(int chunkId, ByteBuffer payload) {
+            int length = payload.remaining();
+            boolean last = chunkId == totalChunks - 1;
+            if (receivedBitmap.get(chunkId) || length > MAX_CHUNK_SIZE
+                    || (!last && length != MAX_CHUNK_SIZE)) {
+                return false;
+            }
+            payload.get(buffer, chunkId * MAX_CHUNK_SIZE, length);
+            receivedBitmap.set(chunkId);
+            received++;
+            if (last) {
+                lastChunkLength = length;
+            }
+            lastChunkTime = System.currentTimeMillis();
+            return true;
         }
         
-        long getBitmap() {
-            long bitmap = 0;
-            for (int i = 0; i < Math.min(64, totalChunks); i++) {
-                if (receivedChunks.containsKey(i)) {
-                    bitmap |= (1L << i);
-                }
-            }
-            return bitmap;
+        boolean isComplete() {
+            return received == totalChunks;
         }
         
         byte[] reassemble() {
-            int totalSize = receivedChunks.values().stream()
-                .mapToInt(arr -> arr.length)
-                .sum();
-            
-            byte[] fullMessage = new byte[totalSize];
-            int offset = 0;
-            
-            for (int i = 0; i < totalChunks; i++) {
-                byte[] chunk = receivedChunks.get(i);
-                if (chunk == null) {
-                    throw new IllegalStateException("Missing chunk " + i);
-                }
-                System.arraycopy(chunk, 0, fullMessage, offset, chunk.length);
-                offset += chunk.length;
-            }
-            
-            return fullMessage;
+            int totalSize = (totalChunks - 1) * MAX_CHUNK_SIZE + lastChunkLength;
+            return totalSize == buffer.length ? buffer : Arrays.copyOf(buffer, totalSize);
+        }
+    }
+    
+    /**
+     * SIG_RMSG_ACK for received: bitmap of chunks 0..63
+     */
+    static ByteBuffer encodeLegacyAck(long messageId, BitSet received) {
+        long bitmap = 0;
+        for (int i = received.nextSetBit(0); i >= 0 && i < LEGACY_ACK_CHUNKS; i = received.nextSetBit(i + 1)) {
+            bitmap |= 1L << i;
+        }
+        ByteBuffer packet = ByteBuffer.allocate(LEGACY_ACK_SIZE);
+        packet.put(LLS.SIG_RMSG_ACK);
+        packet.putLong(messageId);
+        packet.putLong(bitmap);
+        packet.flip();
+        return packet;
+    }
+    
+    /**
+     * SIG_RMSG_SACK for received: cumulative ACK plus the first MAX_SACK_RANGES
+     * received ranges [start, end) above it
+     */
+    static ByteBuffer encodeAck(long messageId, BitSet received, int totalChunks) {
+        int cumAck = Math.min(received.nextClearBit(0), totalChunks);
+        ByteBuffer packet = ByteBuffer.allocate(SACK_HEADER_SIZE + MAX_SACK_RANGES * 8);
+        packet.put(LLS.SIG_RMSG_SACK);
+        packet.putLong(messageId);
+        packet.putInt(cumAck);
+        int countPos = packet.position();
+        packet.putShort((short) 0);
+        
+        int ranges = 0;
+        int start = received.nextSetBit(cumAck);
+        while (start >= 0 && start < totalChunks && ranges < MAX_SACK_RANGES) {
+            int end = Math.min(received.nextClearBit(start), totalChunks);
+            packet.putInt(start).putInt(end);
+            ranges++;
+            start = received.nextSetBit(end);
+        }
+        packet.putShort(countPos, (short) ranges);
+        packet.flip();
+        return packet;
+    }
+    
+    /**
+     * Encodes SIG_RMSG_DATA frames from the message array into one direct
+     * buffer. The DataChannel copies the bytes during send(), so the buffer
+     * is free again when send() returns; the lock keeps concurrent senders
+     * (caller, ACK handler, ticker) from sharing it mid-frame.
+     */
+    private static final class ChunkEncoder {
+        private final ByteBuffer frame = ByteBuffer.allocateDirect(DATA_HEADER_SIZE + MAX_CHUNK_SIZE);
+        private final CRC32 crc = new CRC32();
+        
+        synchronized void send(FrameChannel channel, SendState state, ChunkInfo chunk) throws Exception {
+            crc.reset();
+            crc.update(state.fullMessage, chunk.offset, chunk.length);
+            
+            frame.clear();
+            frame.put(LLS.SIG_RMSG_DATA)
+                .putLong(state.messageId)
+                .putInt(chunk.chunkId)
+                .putInt(state.chunks.size())
+                .putInt((int) crc.getValue())
+                .put(state.fullMessage, chunk.offset, chunk.length);
+            frame.flip();
+            channel.send(frame);
         }
     }
     
@@ -510,7 +844,12 @@ public class DataChannelReliableMessaging {
     
     public void shutdown() {
         scheduler.shutdownNow();
+        for (SendState state : sendingMessages.values()) {
+            state.completionFuture.complete(false); // No timer left to retry or fail it
+        }
         sendingMessages.clear();
-        receivingMessages.clear();
+        for (ReceiveState state : receivingMessages.values()) {
+            dropReceiveState(state);
+        }
     }
 }
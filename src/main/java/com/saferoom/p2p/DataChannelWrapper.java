@@ -5,19 +5,28 @@ import dev.onvoid.webrtc.RTCDataChannelBuffer;
 import dev.onvoid.webrtc.RTCDataChannelState;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.SocketAddress;
 import java.net.SocketOption;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.MembershipKey;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.saferoom.transport.BatchReceiveEndpoint;
+import com.saferoom.transport.BatchSendEndpoint;
+import com.saferoom.transport.BufferedAmountGate;
 import com.saferoom.transport.FlowControlledEndpoint;
+import com.saferoom.transport.FramePool;
+import com.saferoom.transport.PooledFrame;
 
 /**
  * Wraps WebRTC RTCDataChannel as a DatagramChannel
@@ -28,18 +37,45 @@ import com.saferoom.transport.FlowControlledEndpoint;
  * Design:
  * - send() → dataChannel.send()
  * - receive() → polls from inbound queue (filled by onMessage callback)
+ * - receiveBatch() → hands queued frames over without a second copy
+ * - Data frames (gathering write / sendBatch) are striped round-robin over the
+ *   unordered "file-data-N" lanes when any are open; control packets always
+ *   take the ordered primary channel. All channels feed the same inbound queue.
+ * - awaitWritable() → parks until onBufferedAmountChange reports the send
+ *   buffer below the low watermark (saferoom.transfer.buffer.maxBytes / lowBytes)
  * - No real socket address needed (P2P is already established)
+ * 
+ * Per-message logging only with -Dsaferoom.datachannel.debug=true.
  */
-public class DataChannelWrapper extends DatagramChannel implements FlowControlledEndpoint {
+public class DataChannelWrapper extends DatagramChannel
+        implements FlowControlledEndpoint, BatchSendEndpoint, BatchReceiveEndpoint {
+    
+    private static final boolean DEBUG = Boolean.getBoolean("saferoom.datachannel.debug");
     
     private final RTCDataChannel dataChannel;
     private final String remoteUsername;
     
+    // Unordered, unreliable bulk channels (NACK layer recovers losses)
+    private final List<RTCDataChannel> lanes = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextLane = new AtomicInteger();
+    
     // Inbound message deque (handshake packets go to front, data packets to back)
     private static final int MAX_QUEUE_SIZE = 50_000;
-    private final BlockingDeque<ByteBuffer> inboundQueue = new LinkedBlockingDeque<>(MAX_QUEUE_SIZE);
+    private final BlockingDeque<PooledFrame> inboundQueue = new LinkedBlockingDeque<>(MAX_QUEUE_SIZE);
+    
+    // Default slice (1450) + 22 byte header fits; jumbo messages get one-off frames
+    private static final int FRAME_SIZE = 2048;
+    private static final int MAX_POOLED_FRAMES = 4096;
+    private final FramePool framePool = new FramePool(MAX_POOLED_FRAMES, FRAME_SIZE);
     private final AtomicLong droppedPackets = new AtomicLong();
     
+    // Outbound frames are assembled here; the DataChannel copies them during send()
+    private final Object sendLock = new Object();
+    private ByteBuffer sendFrame = ByteBuffer.allocateDirect(FRAME_SIZE); // Guarded by sendLock
+    
+    // Native send buffer watermarks: writers stop above high, resume at low
+    private final BufferedAmountGate sendGate;
+    
     // Fake addresses for compatibility
     private final FakeSocketAddress localAddress;
     private final FakeSocketAddress remoteAddress;
@@ -50,34 +86,85 @@ public class DataChannelWrapper extends DatagramChannel implements FlowControlle
         this.remoteUsername = remoteUsername;
         this.localAddress = new FakeSocketAddress(localUsername);
         this.remoteAddress = new FakeSocketAddress(remoteUsername);
+        long high = Long.getLong("saferoom.transfer.buffer.maxBytes", 8L << 20);
+        long low = Long.getLong("saferoom.transfer.buffer.lowBytes", high / 4);
+        this.sendGate = new BufferedAmountGate(high, Math.min(low, high));
+    }
+    
+    /**
+     * Stripe data frames over channel too (once it is open)
+     */
+    public void addLane(RTCDataChannel lane) {
+        if (!lanes.contains(lane)) {
+            lanes.add(lane);
+            System.out.printf("[Wrapper] Data lane %s added for %s (%d lanes)%n",
+                lane.getLabel(), remoteUsername, lanes.size());
+        }
+    }
+    
+    public void removeLane(RTCDataChannel lane) {
+        lanes.remove(lane);
+    }
+    
+    public int getLaneCount() {
+        return lanes.size();
+    }
+    
+    /**
+     * Next open lane round-robin, or the primary channel if none is open
+     */
+    private RTCDataChannel dataLane() {
+        int n = lanes.size();
+        for (int i = 0; i < n; i++) {
+            RTCDataChannel lane;
+            try {
+                lane = lanes.get(Math.floorMod(nextLane.getAndIncrement(), n));
+            } catch (IndexOutOfBoundsException e) {
+                break; // Lane removed meanwhile
+            }
+            if (lane.getState() == RTCDataChannelState.OPEN) {
+                return lane;
+            }
+        }
+        return dataChannel;
+    }
+    
+    /**
+     * Called by P2PConnectionManager from the DataChannel observer
+     */
+    public void onBufferedAmountChange(long previousAmount) {
+        sendGate.onBufferedAmountChange(getBufferedAmountSafe());
     }
     
     /**
      * Called by P2PConnectionManager when DataChannel receives message
      */
     public void onDataChannelMessage(RTCDataChannelBuffer buffer) {
-        ByteBuffer src = buffer.data;
-        ByteBuffer duplicate = src.duplicate();
-        ByteBuffer copy = ByteBuffer.allocateDirect(duplicate.remaining());
-        copy.put(duplicate);
-        copy.flip();
+        // The native buffer is only valid during this callback - the one copy we make
+        PooledFrame frame = framePool.copyOf(buffer.data);
         
-        if (copy.remaining() > 0) {
-            byte signal = copy.get(copy.position());
+        if (frame.length() > 0) {
+            int signal = frame.signal();
             
-            // CRITICAL: Handshake packets (SYN, ACK, SYN_ACK) go to FRONT of queue
+            // CRITICAL: Handshake packets (SYN, ACK, SYN_ACK + resume/probe/merkle/delta variants) go to FRONT of queue
             // This ensures FileTransferReceiver.handshake() reads these BEFORE data flood
-            if (signal == 0x01 || signal == 0x10 || signal == 0x11) {
-                System.out.printf("[Wrapper] 📥 PRIORITY signal 0x%02X (%d bytes) from %s → FRONT of queue%n",
-                    signal, copy.remaining(), remoteUsername);
-                enqueuePriority(copy);
+            if (signal == 0x01 || signal == 0x02 || signal == 0x03 || signal == 0x04 || signal == 0x05 || signal == 0x06
+                    || signal == 0x10 || signal == 0x11 || signal == 0x12 || signal == 0x13 || signal == 0x14
+                    || signal == 0x15 || signal == 0x16) {
+                if (DEBUG) {
+                    System.out.printf("[Wrapper] 📥 PRIORITY signal 0x%02X (%d bytes) from %s → FRONT of queue%n",
+                        signal, frame.length(), remoteUsername);
+                }
+                enqueuePriority(frame);
             } else {
-                System.out.printf("[Wrapper] 📥 Received signal 0x%02X (%d bytes) from %s → queue (size: %d)%n",
-                    signal, copy.remaining(), remoteUsername, inboundQueue.size());
-                enqueueData(copy);
+                if (DEBUG) {
+                    System.out.printf("[Wrapper] 📥 Received signal 0x%02X (%d bytes) from %s → queue (size: %d)%n",
+                        signal, frame.length(), remoteUsername, inboundQueue.size());
+                }
+                enqueueData(frame);
             }
         } else {
-            enqueueData(copy);
+            enqueueData(frame);
         }
     }
     
@@ -91,8 +178,7 @@ public class DataChannelWrapper extends DatagramChannel implements FlowControlle
         
         int remaining = src.remaining();
         
-        // DEBUG: Log what we're sending
-        if (remaining > 0) {
+        if (DEBUG && remaining > 0) {
             byte signal = src.get(src.position());
             System.out.printf("[Wrapper] 📤 Sending signal 0x%02X (%d bytes) to %s%n",
                 signal, remaining, remoteUsername);
@@ -116,24 +202,25 @@ public class DataChannelWrapper extends DatagramChannel implements FlowControlle
     public SocketAddress receive(ByteBuffer dst) throws IOException {
         try {
             // Poll from front (handshake packets inserted via offerFirst)
-            ByteBuffer data = inboundQueue.pollFirst(50, TimeUnit.MILLISECONDS);
-            if (data == null) {
+            PooledFrame frame = inboundQueue.pollFirst(50, TimeUnit.MILLISECONDS);
+            if (frame == null) {
                 return null; // No data available
             }
             
-            // DEBUG: Log what we're reading from queue
-            if (data.remaining() > 0) {
-                byte signal = data.get(data.position());
-                System.out.printf("[Wrapper] 📖 Reading signal 0x%02X (%d bytes) from queue (remaining: %d)%n",
-                    signal, data.remaining(), inboundQueue.size());
+            try {
+                if (DEBUG && frame.length() > 0) {
+                    System.out.printf("[Wrapper] 📖 Reading signal 0x%02X (%d bytes) from queue (remaining: %d)%n",
+                        frame.signal(), frame.length(), inboundQueue.size());
+                }
+                
+                // Copy to destination buffer (receiveBatch avoids this copy)
+                int toCopy = Math.min(dst.remaining(), frame.length());
+                dst.put(dst.position(), frame.buffer(), 0, toCopy);
+                dst.position(dst.position() + toCopy);
+            } finally {
+                frame.release();
             }
             
-            // Copy to destination buffer
-            int toCopy = Math.min(dst.remaining(), data.remaining());
-            ByteBuffer slice = data.duplicate();
-            slice.limit(slice.position() + toCopy);
-            dst.put(slice);
-            
             return remoteAddress;
             
         } catch (InterruptedException e) {
@@ -177,7 +264,11 @@ public class DataChannelWrapper extends DatagramChannel implements FlowControlle
     
     @Override
     protected void implCloseSelectableChannel() throws IOException {
-        inboundQueue.clear();
+        sendGate.wakeAll(); // Stalled writers see the channel closed
+        PooledFrame frame;
+        while ((frame = inboundQueue.pollFirst()) != null) {
+            frame.release();
+        }
     }
     
     @Override
@@ -269,25 +360,115 @@ public class DataChannelWrapper extends DatagramChannel implements FlowControlle
         }
         
         // Merge all buffers into one packet for DataChannel
-        ByteBuffer merged = ByteBuffer.allocateDirect(totalBytes);
-        for (int i = 0; i < length; i++) {
-            ByteBuffer buffer = srcs[offset + i];
-            if (buffer == null) {
-                continue;
+        synchronized (sendLock) {
+            ByteBuffer merged = sendFrame(totalBytes);
+            for (int i = 0; i < length; i++) {
+                ByteBuffer buffer = srcs[offset + i];
+                if (buffer == null) {
+                    continue;
+                }
+                merged.put(buffer);  // Consumes original buffer position
+            }
+            merged.flip();
+            if (lanes.isEmpty()) {
+                send(merged, remoteAddress);
+                return totalBytes;
+            }
+            try {
+                dataLane().send(new RTCDataChannelBuffer(merged, true));
+            } catch (Exception e) {
+                throw new IOException("DataChannel send failed: " + e.getMessage(), e);
             }
-            merged.put(buffer);  // Consumes original buffer position
         }
-        merged.flip();
-        send(merged, remoteAddress);
         return totalBytes;
     }
 
+    /**
+     * Send several file frames back to back. Every frame stays its own DataChannel
+     * message (the receiver parses one frame per message); the state check, the
+     * lock and the frame buffer are shared by the whole batch.
+     */
+    @Override
+    public int sendBatch(ByteBuffer[] headers, ByteBuffer[] payloads, int count) throws IOException {
+        if (dataChannel.getState() != RTCDataChannelState.OPEN) {
+            throw new IOException("DataChannel not open");
+        }
+        int sent = 0;
+        try {
+            synchronized (sendLock) {
+                for (int i = 0; i < count; i++) {
+                    ByteBuffer header = headers[i];
+                    ByteBuffer payload = payloads[i];
+                    ByteBuffer merged = sendFrame(header.remaining() + payload.remaining());
+                    merged.put(header).put(payload);
+                    merged.flip();
+                    dataLane().send(new RTCDataChannelBuffer(merged, true));
+                    sent++;
+                }
+            }
+        } catch (Exception e) {
+            throw new IOException("DataChannel batch send failed after " + sent + "/" + count + " frames: "
+                + e.getMessage(), e);
+        }
+        return sent;
+    }
+
+    /**
+     * The reusable outbound frame, cleared, grown to hold bytes (caller holds sendLock)
+     */
+    private ByteBuffer sendFrame(int bytes) {
+        if (sendFrame.capacity() < bytes) {
+            sendFrame = ByteBuffer.allocateDirect(bytes);
+        }
+        sendFrame.clear();
+        return sendFrame;
+    }
+
+    /**
+     * Hand queued frames to the caller without copying them again. Blocks up to
+     * timeoutMs for the first frame, then takes whatever else is already queued.
+     */
+    @Override
+    public int receiveBatch(PooledFrame[] frames, long timeoutMs) throws IOException {
+        if (frames.length == 0) {
+            return 0;
+        }
+        PooledFrame first;
+        try {
+            first = inboundQueue.pollFirst(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        if (first == null) {
+            return 0;
+        }
+        frames[0] = first;
+        int n = 1;
+        PooledFrame next;
+        while (n < frames.length && (next = inboundQueue.pollFirst()) != null) {
+            frames[n++] = next;
+        }
+        if (DEBUG) {
+            System.out.printf("[Wrapper] 📖 Drained %d frame(s) from queue (remaining: %d)%n", n, inboundQueue.size());
+        }
+        return n;
+    }
+
+    /**
+     * Bytes queued natively on the primary channel and all lanes together
+     */
     public long getBufferedAmountSafe() {
+        long total = 0;
         try {
-            return dataChannel.getBufferedAmount();
+            total = dataChannel.getBufferedAmount();
+            for (RTCDataChannel lane : lanes) {
+                total += lane.getBufferedAmount();
+            }
         } catch (Throwable t) {
-            return 0;
+            // Channel being torn down - report what we have
         }
+        return total;
     }
 
     public long getDroppedPacketCount() {
@@ -308,21 +489,54 @@ public class DataChannelWrapper extends DatagramChannel implements FlowControlle
     public long droppedPackets() {
         return droppedPackets.get();
     }
+    
+    @Override
+    public void awaitWritable(int bytes) throws IOException {
+        try {
+            if (!sendGate.await(bytes, this::getBufferedAmountSafe,
+                    () -> isOpen() && dataChannel.getState() == RTCDataChannelState.OPEN)) {
+                throw new IOException("DataChannel closed while waiting for send buffer");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for send buffer");
+        }
+    }
+    
+    @Override
+    public long stallNanos() {
+        return sendGate.stallNanos();
+    }
+    
+    /** Sends that had to wait for the buffer to drain */
+    public long getStallCount() {
+        return sendGate.stallCount();
+    }
 
-    private void enqueuePriority(ByteBuffer packet) {
+    /**
+     * DataChannels run over DTLS - every message is authenticated
+     */
+    @Override
+    public boolean isAuthenticated() {
+        return true;
+    }
+
+    private void enqueuePriority(PooledFrame packet) {
         while (!inboundQueue.offerFirst(packet)) {
-            ByteBuffer dropped = inboundQueue.pollLast();
+            PooledFrame dropped = inboundQueue.pollLast();
+            droppedPackets.incrementAndGet();
             if (dropped == null) {
-                droppedPackets.incrementAndGet();
+                packet.release();
                 break;
             }
-            droppedPackets.incrementAndGet();
+            dropped.release();
         }
     }
 
-    private void enqueueData(ByteBuffer packet) {
+    private void enqueueData(PooledFrame packet) {
         if (!inboundQueue.offerLast(packet)) {
             droppedPackets.incrementAndGet();
+            packet.release();
         }
     }
 }
@@ -0,0 +1,223 @@
+package com.saferoom.p2p;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Nagle-style batching of short chat messages into one reliable message
+ *
+ * The first message of a batch starts a latency budget (budgetMs); everything
+ * submitted until it runs out - or until maxBatchBytes is reached - goes out
+ * as one frame with one message ID, one ACK exchange and one completion.
+ * Every submitter's future completes with the batch's outcome.
+ *
+ * Batch frame: 0xFF + count(2) + { length(4) + UTF-8 bytes } * count.
+ * 0xFF never starts valid UTF-8, so a receiver tells batches from plain
+ * messages by the first byte (isBatch/unpack). Both peers must run with
+ * coalescing support; it is opt-in via saferoom.p2p.chat.coalesceMs.
+ */
+final class MessageCoalescer {
+
+    static final byte BATCH_MARKER = (byte) 0xFF;
+    private static final int MAX_BATCH_MESSAGES = 0xFFFF;
+
+    private final long budgetMs;
+    private final int maxBatchBytes;
+    private final Function<byte[], CompletableFuture<Boolean>> sink;
+    private final ScheduledExecutorService timer;
+
+    // Current batch (guarded by this)
+    private List<byte[]> pending = new ArrayList<>();
+    private List<CompletableFuture<Boolean>> waiters = new ArrayList<>();
+    private long pendingBytes;
+    private long pendingSubmitNanos; // Sum of submit times in the batch
+    private ScheduledFuture<?> flushTask;
+
+    // Metrics
+    private final long createdNanos = System.nanoTime();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder payloadBytes = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();    // Submit -> flush, summed per message
+    private final LongAdder deliveryNanos = new LongAdder(); // Submit -> batch acknowledged
+    private final LongAdder delivered = new LongAdder();
+
+    /**
+     * @param sink sends one encoded frame reliably; its future completes on ACK
+     */
+    MessageCoalescer(String name, long budgetMs, int maxBatchBytes, Function<byte[], CompletableFuture<Boolean>> sink) {
+        this.budgetMs = budgetMs;
+        this.maxBatchBytes = maxBatchBytes;
+        this.sink = sink;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ChatCoalescer-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queue message for the current batch
+     *
+     * @return completes with the batch's delivery result
+     */
+    CompletableFuture<Boolean> submit(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        long submitted = System.nanoTime();
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        result.whenComplete((ok, error) -> {
+            if (Boolean.TRUE.equals(ok)) {
+                deliveryNanos.add(System.nanoTime() - submitted);
+                delivered.increment();
+            }
+        });
+        synchronized (this) {
+            messages.increment();
+            if (!pending.isEmpty() && frameSize(pendingBytes + bytes.length, pending.size() + 1) > maxBatchBytes) {
+                flush(); // This one doesn't fit - ship what we have
+            }
+            if (pending.isEmpty()) {
+                flushTask = timer.schedule(this::flushFromTimer, budgetMs, TimeUnit.MILLISECONDS);
+            }
+            pending.add(bytes);
+            waiters.add(result);
+            pendingBytes += bytes.length;
+            pendingSubmitNanos += submitted;
+            if (frameSize(pendingBytes, pending.size()) >= maxBatchBytes || pending.size() >= MAX_BATCH_MESSAGES) {
+                flush();
+            }
+        }
+        return result;
+    }
+
+    private void flushFromTimer() {
+        synchronized (this) {
+            flush();
+        }
+    }
+
+    /** Caller holds the lock */
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        List<byte[]> batch = pending;
+        List<CompletableFuture<Boolean>> batchWaiters = waiters;
+        pending = new ArrayList<>();
+        waiters = new ArrayList<>();
+        long bytes = pendingBytes;
+        pendingBytes = 0;
+
+        queueNanos.add((long) batch.size() * System.nanoTime() - pendingSubmitNanos);
+        pendingSubmitNanos = 0;
+        batches.increment();
+        payloadBytes.add(bytes);
+
+        CompletableFuture<Boolean> sent;
+        try {
+            sent = sink.apply(encode(batch, bytes));
+        } catch (RuntimeException e) {
+            sent = CompletableFuture.completedFuture(false);
+        }
+        sent.whenComplete((ok, error) -> {
+            boolean success = error == null && Boolean.TRUE.equals(ok);
+            for (CompletableFuture<Boolean> waiter : batchWaiters) {
+                waiter.complete(success);
+            }
+        });
+    }
+
+    /** Send whatever is queued now */
+    void flushNow() {
+        synchronized (this) {
+            flush();
+        }
+    }
+
+    void shutdown() {
+        flushNow();
+        timer.shutdown();
+    }
+
+    static byte[] encode(List<byte[]> messages, long totalBytes) {
+        ByteBuffer frame = ByteBuffer.allocate(frameSize(totalBytes, messages.size()));
+        frame.put(BATCH_MARKER).putShort((short) messages.size());
+        for (byte[] message : messages) {
+            frame.putInt(message.length).put(message);
+        }
+        return frame.array();
+    }
+
+    static boolean isBatch(byte[] frame) {
+        return frame.length >= 3 && frame[0] == BATCH_MARKER;
+    }
+
+    /**
+     * Hand each message of a batch frame to consumer
+     *
+     * @return number of messages, -1 if the frame is malformed (nothing delivered)
+     */
+    static int unpack(byte[] frame, Consumer<String> consumer) {
+        ByteBuffer in = ByteBuffer.wrap(frame);
+        in.get(); // Marker
+        int count = in.getShort() & 0xFFFF;
+        List<String> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.remaining() < 4) {
+                return -1;
+            }
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                return -1;
+            }
+            messages.add(new String(frame, in.position(), length, StandardCharsets.UTF_8));
+            in.position(in.position() + length);
+        }
+        messages.forEach(consumer);
+        return count;
+    }
+
+    private static int frameSize(long payloadBytes, int count) {
+        return (int) Math.min(Integer.MAX_VALUE, 1 + 2 + 4L * count + payloadBytes);
+    }
+
+    long getMessageCount() {
+        return messages.sum();
+    }
+
+    long getBatchCount() {
+        return batches.sum();
+    }
+
+    String getStats() {
+        long msgs;
+        long flushed;
+        synchronized (this) {
+            msgs = messages.sum();
+            flushed = msgs - pending.size();
+        }
+        long sentBatches = batches.sum();
+        long done = delivered.sum();
+        double seconds = Math.max(1e-3, (System.nanoTime() - createdNanos) / 1e9);
+        return String.format("Coalescing: %d msgs in %d frames (%.1f/frame), queue delay avg %.2f ms, "
+                + "delivery avg %.1f ms, %.1f msgs/s, %.1f KB/s",
+            msgs, sentBatches, sentBatches == 0 ? 0.0 : (double) flushed / sentBatches,
+            flushed == 0 ? 0.0 : queueNanos.sum() / 1e6 / flushed,
+            done == 0 ? 0.0 : deliveryNanos.sum() / 1e6 / done,
+            msgs / seconds, payloadBytes.sum() / 1024.0 / seconds);
+    }
+}
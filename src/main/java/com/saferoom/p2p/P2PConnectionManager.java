@@ -16,6 +16,7 @@ import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * P2P Connection Manager for WebRTC-based messaging/file transfer
@@ -37,10 +38,26 @@ public class P2PConnectionManager {
     private static final String FILE_CTRL_PREFIX = "__FT_CTRL__";
     private static final String CTRL_UR_RECEIVER = "UR_RECEIVER";
     private static final String CTRL_OK_SNDFILE = "OK_SNDFILE";
+    private static final String CTRL_CAPS = "CAPS";
+    
+    // Optional protocol features, advertised with CAPS when the messaging channel opens.
+    // Peers that predate CAPS ignore it and are treated as supporting none of them.
+    private static final int CAP_MSG_SACK = 1;   // Accepts SIG_RMSG_SACK for messages over 64 chunks
+    private static final int CAP_FILE_LANES = 2; // Routes file-data-N channels to file transfer
     private static final Base64.Encoder BASE64_ENCODER = Base64.getUrlEncoder().withoutPadding();
     private static final Base64.Decoder BASE64_DECODER = Base64.getUrlDecoder();
     private static final long RECEIVER_READY_TIMEOUT_SEC = 30;
     
+    // Unordered, unreliable channels that carry bulk file frames (0 = file-transfer channel only).
+    // The offerer opens them once the peer's CAPS shows it knows them - older peers would
+    // treat any unknown label as a second messaging channel.
+    private static final String FILE_LANE_PREFIX = "file-data-";
+    private static final int FILE_DATA_LANES = Math.max(0, Integer.getInteger("saferoom.p2p.fileLanes", 2));
+    
+    // Opt-in chat batching (both peers must support it): latency budget, 0 = every message on its own
+    private static final long CHAT_COALESCE_MS = Long.getLong("saferoom.p2p.chat.coalesceMs", 0);
+    private static final int CHAT_COALESCE_MAX_BYTES = Integer.getInteger("saferoom.p2p.chat.coalesceMaxBytes", 16 * 1024);
+    
     private String myUsername;
     private WebRTCSignalingClient signalingClient;
     private PeerConnectionFactory factory;
@@ -49,7 +66,9 @@ public class P2PConnectionManager {
     private final Map<String, P2PConnection> activeConnections = new ConcurrentHashMap<>();
     private final Map<String, CompletableFuture<Boolean>> pendingConnections = new ConcurrentHashMap<>();
     
-    private P2PConnectionManager() {}
+    private P2PConnectionManager() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "P2P-ShutdownHook"));
+    }
     
     public static synchronized P2PConnectionManager getInstance() {
         if (instance == null) {
@@ -460,6 +479,11 @@ public class P2PConnectionManager {
         }
         
         try {
+            MessageCoalescer coalescer = connection.chatCoalescer;
+            if (coalescer != null) {
+                // Shares one reliable message with whatever else is sent within the budget
+                return coalescer.submit(message);
+            }
             // Send via reliable messaging protocol (with chunking, ACK, NACK, CRC)
             System.out.printf("[P2P] Sending reliable message to %s: %s%n", targetUsername, message);
             return connection.reliableMessaging.sendMessage(targetUsername, message);
@@ -470,6 +494,17 @@ public class P2PConnectionManager {
         }
     }
     
+    /**
+     * Stop the messaging and file transfer threads of every connection (queued
+     * chat is flushed first, queued files fail)
+     */
+    public void shutdown() {
+        for (P2PConnection connection : activeConnections.values()) {
+            connection.close();
+        }
+        activeConnections.clear();
+    }
+    
     /**
      * Send file via WebRTC DataChannel with file transfer protocol
      */
@@ -483,6 +518,17 @@ public class P2PConnectionManager {
     public CompletableFuture<Boolean> sendFile(String targetUsername,
                                                java.nio.file.Path filePath,
                                                FileTransferObserver observer) {
+        return sendFile(targetUsername, filePath, observer, null);
+    }
+    
+    /**
+     * @param targetName name announced to the peer ('/' separated path below its
+     *                   downloads directory), null for the file's own name
+     */
+    private CompletableFuture<Boolean> sendFile(String targetUsername,
+                                                java.nio.file.Path filePath,
+                                                FileTransferObserver observer,
+                                                String targetName) {
         P2PConnection connection = activeConnections.get(targetUsername);
         if (connection == null || !connection.isActive()) {
             System.err.printf("[P2P] No active connection to %s%n", targetUsername);
@@ -499,7 +545,7 @@ public class P2PConnectionManager {
         
         try {
             long fileSize = Files.size(filePath);
-            long fileId = System.currentTimeMillis();
+            long fileId = nextFileId();
             if (observer != null) {
                 observer.onTransferStarted(fileId, filePath, fileSize);
             }
@@ -508,23 +554,107 @@ public class P2PConnectionManager {
                 fileId, filePath.getFileName(), fileSize);
             System.out.println("[FT-SENDER] ═══════════════════════════════════════════════");
             
-            CompletableFuture<Void> readyFuture = connection.fileTransfer.awaitReceiverReady(fileId);
-            connection.sendControlMessage(connection.buildUrReceiverControl(
-                fileId, fileSize, filePath.getFileName().toString()));
-            
-            return readyFuture.orTimeout(RECEIVER_READY_TIMEOUT_SEC, TimeUnit.SECONDS)
-                .thenCompose(v -> connection.fileTransfer.sendFile(filePath, fileId, observer))
-                .exceptionally(ex -> {
-                    System.err.printf("[P2P] File transfer failed: %s%n", ex.getMessage());
-                    if (observer != null) observer.onTransferFailed(fileId, ex);
-                    return false;
-                });
+            if (targetName != null) {
+                connection.announceNames.put(fileId, targetName);
+            }
+            // Queued per peer; UR_RECEIVER goes out when the file's turn comes (announceFile)
+            return connection.fileTransfer.sendFile(filePath, fileId, observer);
         } catch (Exception e) {
             System.err.printf("[P2P] Error preparing file transfer: %s%n", e.getMessage());
             return CompletableFuture.completedFuture(false);
         }
     }
     
+    /**
+     * Send a directory: files up to saferoom.transfer.bundle.maxFileBytes travel
+     * packed in FileBundles (one handshake per bundle instead of per file), larger
+     * ones on their own, announced as <dir name>/<relative path>. The peer puts
+     * both under downloads/<dir name>.
+     */
+    public CompletableFuture<Boolean> sendDirectory(String targetUsername,
+                                                    java.nio.file.Path dir,
+                                                    FileTransferObserver observer) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return packDirectory(dir);
+            } catch (java.io.IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+        }).thenCompose(parts -> {
+            List<CompletableFuture<Boolean>> sends = new ArrayList<>();
+            for (java.nio.file.Path part : parts) {
+                CompletableFuture<Boolean> send;
+                if (com.saferoom.file_transfer.FileBundle.isBundle(part)) {
+                    send = sendFile(targetUsername, part, observer)
+                        .whenComplete((ok, error) -> deleteBundle(part));
+                } else {
+                    send = sendFile(targetUsername, part, observer, directoryName(dir) + "/"
+                        + com.saferoom.file_transfer.FileBundle.relativeName(dir, part));
+                }
+                sends.add(send);
+            }
+            return CompletableFuture.allOf(sends.toArray(CompletableFuture[]::new))
+                .thenApply(v -> sends.stream().allMatch(CompletableFuture::join));
+        }).exceptionally(ex -> {
+            System.err.printf("[P2P] Directory transfer failed: %s%n", ex.getMessage());
+            return false;
+        });
+    }
+    
+    /**
+     * Bundles for the small files of dir (in a temp directory) followed by the large files
+     */
+    private static List<java.nio.file.Path> packDirectory(java.nio.file.Path dir) throws java.io.IOException {
+        List<java.nio.file.Path> files = com.saferoom.file_transfer.FileBundle.listFiles(dir);
+        List<List<java.nio.file.Path>> bundles = com.saferoom.file_transfer.FileBundle.plan(files);
+        List<java.nio.file.Path> parts = new ArrayList<>();
+        java.util.Set<java.nio.file.Path> bundled = new java.util.HashSet<>();
+        if (!bundles.isEmpty()) {
+            java.nio.file.Path tmp = Files.createTempDirectory("saferoom-bundle");
+            String dirName = directoryName(dir);
+            for (int i = 0; i < bundles.size(); i++) {
+                java.nio.file.Path bundle = tmp.resolve(
+                    com.saferoom.file_transfer.FileBundle.bundleName(dirName, i, bundles.size()));
+                com.saferoom.file_transfer.FileBundle.pack(dir, bundles.get(i), bundle);
+                bundled.addAll(bundles.get(i));
+                parts.add(bundle);
+            }
+        }
+        for (java.nio.file.Path file : files) {
+            if (!bundled.contains(file)) {
+                parts.add(file);
+            }
+        }
+        System.out.printf("[P2P] Directory %s: %d files -> %d bundles + %d single transfers%n",
+            dir, files.size(), bundles.size(), parts.size() - bundles.size());
+        return parts;
+    }
+    
+    private static String directoryName(java.nio.file.Path dir) {
+        return dir.getFileName() != null ? dir.getFileName().toString() : "bundle";
+    }
+    
+    private static void deleteBundle(java.nio.file.Path bundle) {
+        try {
+            Files.deleteIfExists(bundle);
+            java.nio.file.Path tmp = bundle.getParent();
+            try (java.util.stream.Stream<java.nio.file.Path> rest = Files.list(tmp)) {
+                if (rest.findAny().isEmpty()) {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        } catch (java.io.IOException e) {
+            System.err.printf("[P2P] Could not delete bundle %s: %s%n", bundle, e.getMessage());
+        }
+    }
+    
+    // fileIds must stay unique when many files are queued within one millisecond
+    private static final java.util.concurrent.atomic.AtomicLong LAST_FILE_ID = new java.util.concurrent.atomic.AtomicLong();
+    
+    private static long nextFileId() {
+        return LAST_FILE_ID.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+    }
+    
     /**
      * P2P Connection class (inner class)
      * Represents one WebRTC peer connection with DataChannel
@@ -536,16 +666,23 @@ public class P2PConnectionManager {
         RTCPeerConnection peerConnection;
         RTCDataChannel dataChannel;
         RTCDataChannel fileDataChannel;
+        final List<RTCDataChannel> fileDataLanes = new java.util.concurrent.CopyOnWriteArrayList<>();
+        final AtomicBoolean lanesOpened = new AtomicBoolean();
         DataChannelReliableMessaging reliableMessaging;  // Reliable messaging protocol
+        volatile MessageCoalescer chatCoalescer;         // Null unless saferoom.p2p.chat.coalesceMs > 0
+        volatile int peerCapabilities;                   // CAP_* bits from the peer's CAPS, 0 until it arrives
+        final Map<Long, String> announceNames = new ConcurrentHashMap<>(); // fileId -> name other than the file's
         
         // File transfer: DataChannelFileTransfer coordinates roles, uses original file_transfer/
         DataChannelFileTransfer fileTransfer;
         
         volatile boolean active = false;
         
+        final boolean isOfferer; // Creates the DataChannels (and the file lanes)
+        
         P2PConnection(String remoteUsername, boolean isOfferer) {
             this.remoteUsername = remoteUsername;
-            // isOfferer not needed - WebRTC handles offer/answer automatically
+            this.isOfferer = isOfferer;
         }
         
         void createPeerConnection() {
@@ -616,6 +753,7 @@ public class P2PConnectionManager {
                         // Clean up failed connection
                         activeConnections.remove(remoteUsername);
                         pendingConnections.remove(remoteUsername);
+                        close();
                         
                         // TODO: Fallback to server relay
                     } else if (state == RTCIceConnectionState.DISCONNECTED) {
@@ -623,6 +761,7 @@ public class P2PConnectionManager {
                     } else if (state == RTCIceConnectionState.CLOSED) {
                         System.out.printf("[P2P] ICE connection closed with %s%n", remoteUsername);
                         activeConnections.remove(remoteUsername);
+                        close();
                     }
                 }
                 
@@ -632,6 +771,8 @@ public class P2PConnectionManager {
                     System.out.printf("[P2P] DataChannel received (%s) from %s%n", label, remoteUsername);
                     if ("file-transfer".equals(label)) {
                         attachFileChannel(channel);
+                    } else if (label != null && label.startsWith(FILE_LANE_PREFIX)) {
+                        attachFileLane(channel);
                     } else {
                         attachMessagingChannel(channel);
                     }
@@ -659,7 +800,29 @@ public class P2PConnectionManager {
             RTCDataChannel ftChannel = peerConnection.createDataChannel("file-transfer", ftInit);
             attachFileChannel(ftChannel);
             
-            System.out.printf("[P2P] DataChannels created for %s%n", remoteUsername);
+            System.out.printf("[P2P] DataChannels created for %s (file data lanes wait for CAPS)%n",
+                remoteUsername);
+        }
+        
+        /**
+         * Offer side, after the peer advertised CAP_FILE_LANES: open the bulk lanes
+         * (in-band, on the established SCTP association)
+         */
+        private void openFileLanes() {
+            if (!isOfferer || FILE_DATA_LANES == 0 || peerConnection == null || !lanesOpened.compareAndSet(false, true)) {
+                return;
+            }
+            
+            // Bulk lanes: no ordering, no SCTP retransmits - the NACK protocol repairs losses,
+            // and one late frame doesn't hold back the others (or chat)
+            for (int i = 0; i < FILE_DATA_LANES; i++) {
+                RTCDataChannelInit laneInit = new RTCDataChannelInit();
+                laneInit.ordered = false;
+                laneInit.maxRetransmits = 0;
+                attachFileLane(peerConnection.createDataChannel(FILE_LANE_PREFIX + i, laneInit));
+            }
+            
+            System.out.printf("[P2P] %d file data lanes opened for %s%n", FILE_DATA_LANES, remoteUsername);
         }
         
         private void attachMessagingChannel(RTCDataChannel channel) {
@@ -686,6 +849,7 @@ public class P2PConnectionManager {
                     } else if (state == RTCDataChannelState.CLOSED) {
                         active = false;
                         activeConnections.remove(remoteUsername);
+                        closeMessaging();
                     }
                 }
                 
@@ -700,7 +864,12 @@ public class P2PConnectionManager {
             this.fileDataChannel = channel;
             channel.registerObserver(new RTCDataChannelObserver() {
                 @Override
-                public void onBufferedAmountChange(long previousAmount) {}
+                public void onBufferedAmountChange(long previousAmount) {
+                    DataChannelFileTransfer transfer = fileTransfer;
+                    if (transfer != null) {
+                        transfer.handleBufferedAmountChange(previousAmount);
+                    }
+                }
                 
                 @Override
                 public void onStateChange() {
@@ -724,6 +893,44 @@ public class P2PConnectionManager {
             });
         }
         
+        private void attachFileLane(RTCDataChannel channel) {
+            fileDataLanes.add(channel);
+            channel.registerObserver(new RTCDataChannelObserver() {
+                @Override
+                public void onBufferedAmountChange(long previousAmount) {
+                    DataChannelFileTransfer transfer = fileTransfer;
+                    if (transfer != null) {
+                        transfer.handleBufferedAmountChange(previousAmount);
+                    }
+                }
+                
+                @Override
+                public void onStateChange() {
+                    RTCDataChannelState state = channel.getState();
+                    DataChannelFileTransfer transfer = fileTransfer;
+                    if (state == RTCDataChannelState.OPEN) {
+                        if (transfer != null) {
+                            transfer.getWrapper().addLane(channel);
+                        }
+                    } else if (state == RTCDataChannelState.CLOSED) {
+                        fileDataLanes.remove(channel);
+                        if (transfer != null) {
+                            transfer.getWrapper().removeLane(channel);
+                        }
+                    }
+                }
+                
+                @Override
+                public void onMessage(RTCDataChannelBuffer buffer) {
+                    DataChannelFileTransfer transfer = fileTransfer;
+                    if (transfer != null) {
+                        // Lanes carry data frames only - no SYN handling needed
+                        transfer.getWrapper().onDataChannelMessage(buffer);
+                    }
+                }
+            });
+        }
+        
         /**
          * Initialize reliable messaging protocol over DataChannel
          */
@@ -733,47 +940,36 @@ public class P2PConnectionManager {
                 return;
             }
             
-            reliableMessaging = new DataChannelReliableMessaging(myUsername, dataChannel);
+            closeMessaging(); // Channel reopened - the previous instance's threads go
+            
+            DataChannelReliableMessaging messaging = new DataChannelReliableMessaging(myUsername, dataChannel);
+            reliableMessaging = messaging;
+            messaging.setPeerSackSupported((peerCapabilities & CAP_MSG_SACK) != 0);
+            sendControlMessage(buildCapsControl());
+            
+            if (CHAT_COALESCE_MS > 0) {
+                chatCoalescer = new MessageCoalescer(remoteUsername, CHAT_COALESCE_MS, CHAT_COALESCE_MAX_BYTES,
+                    frame -> messaging.sendMessage(remoteUsername, frame));
+            }
             
             // Set callback for completed messages
             reliableMessaging.setCompletionCallback((sender, messageId, messageBytes) -> {
                 try {
-                    String messageText = new String(messageBytes, StandardCharsets.UTF_8);
-                    System.out.printf("[P2P] Reliable message complete from %s: %s%n", 
-                        remoteUsername, messageText);
-                    
-                    if (handleFileTransferControl(messageText)) {
+                    if (MessageCoalescer.isBatch(messageBytes)) {
+                        if (MessageCoalescer.unpack(messageBytes, this::deliverIncomingMessage) < 0) {
+                            System.err.printf("[P2P] Malformed message batch %d from %s%n", messageId, remoteUsername);
+                        }
                         return;
                     }
-                    
-                    // Forward to ChatService
-                    javafx.application.Platform.runLater(() -> {
-                        try {
-                            com.saferoom.gui.service.ChatService chatService = 
-                                com.saferoom.gui.service.ChatService.getInstance();
-                            
-                            // FIXED: Call receiveP2PMessage() instead of direct add
-                            // This ensures persistence hooks are triggered!
-                            chatService.receiveP2PMessage(remoteUsername, myUsername, messageText);
-                            
-                            // Update contact last message
-                            com.saferoom.gui.service.ContactService.getInstance()
-                                .updateLastMessage(remoteUsername, messageText, false);
-                                
-                            System.out.printf("[P2P] Message forwarded to ChatService for persistence%n");
-                            
-                        } catch (Exception e) {
-                            System.err.println("[P2P] Error forwarding message: " + e.getMessage());
-                            e.printStackTrace();
-                        }
-                    });
+                    deliverIncomingMessage(new String(messageBytes, StandardCharsets.UTF_8));
                     
                 } catch (Exception e) {
                     System.err.printf("[P2P] Error processing completed message: %s%n", e.getMessage());
                 }
             });
             
-            System.out.printf("[P2P] Reliable messaging initialized for %s%n", remoteUsername);
+            System.out.printf("[P2P] Reliable messaging initialized for %s%s%n", remoteUsername,
+                CHAT_COALESCE_MS > 0 ? " (coalescing " + CHAT_COALESCE_MS + "ms)" : "");
             
             // Also initialize file transfer (if not already initialized)
             if (fileTransfer == null) {
@@ -781,6 +977,72 @@ public class P2PConnectionManager {
             }
         }
         
+        /**
+         * Connection gone: messaging threads, then the file transfer scheduler
+         * and receiver executor
+         */
+        void close() {
+            closeMessaging();
+            DataChannelFileTransfer transfer = fileTransfer;
+            if (transfer != null) {
+                transfer.shutdown();
+            }
+        }
+        
+        /**
+         * Stop the chat coalescer and the reliable messaging timer (one thread
+         * each); logs the connection's messaging stats
+         */
+        void closeMessaging() {
+            MessageCoalescer coalescer = chatCoalescer;
+            chatCoalescer = null;
+            if (coalescer != null) {
+                coalescer.shutdown();
+            }
+            
+            DataChannelReliableMessaging messaging = reliableMessaging;
+            if (messaging != null) {
+                System.out.printf("[P2P] Messaging with %s closed: SRTT %dms, RTO %dms, %s%n",
+                    remoteUsername, messaging.getSmoothedRttMs(), messaging.getRtoMs(),
+                    coalescer != null ? coalescer.getStats() : "Coalescing: off");
+                messaging.shutdown();
+            }
+        }
+        
+        /**
+         * One chat message (or file-transfer control) from the peer
+         */
+        private void deliverIncomingMessage(String messageText) {
+            System.out.printf("[P2P] Reliable message complete from %s: %s%n", 
+                remoteUsername, messageText);
+            
+            if (handleFileTransferControl(messageText)) {
+                return;
+            }
+            
+            // Forward to ChatService
+            javafx.application.Platform.runLater(() -> {
+                try {
+                    com.saferoom.gui.service.ChatService chatService = 
+                        com.saferoom.gui.service.ChatService.getInstance();
+                    
+                    // FIXED: Call receiveP2PMessage() instead of direct add
+                    // This ensures persistence hooks are triggered!
+                    chatService.receiveP2PMessage(remoteUsername, myUsername, messageText);
+                    
+                    // Update contact last message
+                    com.saferoom.gui.service.ContactService.getInstance()
+                        .updateLastMessage(remoteUsername, messageText, false);
+                        
+                    System.out.printf("[P2P] Message forwarded to ChatService for persistence%n");
+                    
+                } catch (Exception e) {
+                    System.err.println("[P2P] Error forwarding message: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            });
+        }
+        
         /**
          * Initialize file transfer protocol over DataChannel
          * Uses DataChannelFileTransfer which coordinates roles and uses original file_transfer/
@@ -794,6 +1056,12 @@ public class P2PConnectionManager {
             try {
                 // Create DataChannelFileTransfer (handles wrapper + original classes)
                 fileTransfer = new DataChannelFileTransfer(myUsername, fileDataChannel, remoteUsername);
+                for (RTCDataChannel lane : fileDataLanes) {
+                    if (lane.getState() == RTCDataChannelState.OPEN) {
+                        fileTransfer.getWrapper().addLane(lane); // Opened before the file channel
+                    }
+                }
+                fileTransfer.setReceiverAnnouncer(this::announceFile);
                 fileTransfer.setTransferCallback((sender, fileId, path, size) -> {
                     javafx.application.Platform.runLater(() -> {
                         com.saferoom.gui.service.ChatService.getInstance()
@@ -811,6 +1079,17 @@ public class P2PConnectionManager {
             }
         }
         
+        /**
+         * UR_RECEIVER for a scheduled file; completes on the peer's OK_SNDFILE
+         */
+        CompletableFuture<Void> announceFile(long fileId, java.nio.file.Path filePath) throws java.io.IOException {
+            CompletableFuture<Void> readyFuture = fileTransfer.awaitReceiverReady(fileId);
+            String name = announceNames.remove(fileId);
+            sendControlMessage(buildUrReceiverControl(
+                fileId, Files.size(filePath), name != null ? name : filePath.getFileName().toString()));
+            return readyFuture.orTimeout(RECEIVER_READY_TIMEOUT_SEC, TimeUnit.SECONDS);
+        }
+        
         void handleMessagingChannelMessage(RTCDataChannelBuffer buffer) {
             try {
                 ByteBuffer data = buffer.data.duplicate();
@@ -836,8 +1115,8 @@ public class P2PConnectionManager {
                     return;
                 }
                 
-                // Messaging signals only (0x20-0x23)
-                if (signal >= 0x20 && signal <= 0x23) {
+                // Messaging signals only (0x20-0x24)
+                if (signal >= 0x20 && signal <= 0x24) {
                     if (reliableMessaging != null) {
                         reliableMessaging.handleIncomingMessage(buffer);
                     } else {
@@ -906,6 +1185,17 @@ public class P2PConnectionManager {
                 } else {
                     System.err.println("[FT-CTRL-RECV] ERROR: File transfer still null after initialization!");
                 }
+            } else if (CTRL_CAPS.equals(type)) {
+                peerCapabilities = (int) parseLongSafe(parts[2]);
+                System.out.printf("[FT-CTRL-RECV] Peer %s capabilities: 0x%X%n", remoteUsername, peerCapabilities);
+                
+                DataChannelReliableMessaging messaging = reliableMessaging;
+                if (messaging != null) {
+                    messaging.setPeerSackSupported((peerCapabilities & CAP_MSG_SACK) != 0);
+                }
+                if ((peerCapabilities & CAP_FILE_LANES) != 0) {
+                    openFileLanes();
+                }
             } else if (CTRL_OK_SNDFILE.equals(type)) {
                 long fileId = parseLongSafe(parts[2]);
                 System.out.println("[FT-CTRL-RECV] ╔════════════════════════════════════════════════");
@@ -939,7 +1229,7 @@ public class P2PConnectionManager {
             
             try {
                 byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
-                // Use signal 0xF0 for file transfer control (different from messaging 0x20-0x23)
+                // Use signal 0xF0 for file transfer control (different from messaging 0x20-0x24)
                 java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(1 + payloadBytes.length);
                 buffer.put((byte) 0xF0); // File transfer control signal
                 buffer.put(payloadBytes);
@@ -963,6 +1253,10 @@ public class P2PConnectionManager {
             return FILE_CTRL_PREFIX + "|" + CTRL_OK_SNDFILE + "|" + fileId;
         }
         
+        private String buildCapsControl() {
+            return FILE_CTRL_PREFIX + "|" + CTRL_CAPS + "|" + (CAP_MSG_SACK | CAP_FILE_LANES);
+        }
+        
         private long parseLongSafe(String value) {
             try {
                 return Long.parseLong(value);
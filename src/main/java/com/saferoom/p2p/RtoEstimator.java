@@ -0,0 +1,71 @@
+package com.saferoom.p2p;
+
+/**
+ * Retransmission timeout for one peer (RFC 6298)
+ *
+ * - First sample R: SRTT = R, RTTVAR = R/2
+ * - Later samples: RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|, SRTT = 7/8 SRTT + 1/8 R
+ * - RTO = SRTT + max(G, 4 RTTVAR), clamped to [minRtoMs, maxRtoMs]
+ * - backoff() doubles the RTO after a timeout until the next valid sample
+ *
+ * Callers follow Karn's rule: no samples from retransmitted chunks.
+ */
+final class RtoEstimator {
+
+    private final long initialRtoMs;
+    private final long minRtoMs;
+    private final long maxRtoMs;
+    private final long granularityMs;
+
+    private long srttMs = -1;  // -1 until the first sample
+    private long rttVarMs;
+    private long rtoMs;
+    private long lastBackoffMs;
+
+    RtoEstimator(long initialRtoMs, long minRtoMs, long maxRtoMs, long granularityMs) {
+        this.initialRtoMs = initialRtoMs;
+        this.minRtoMs = minRtoMs;
+        this.maxRtoMs = maxRtoMs;
+        this.granularityMs = granularityMs;
+        this.rtoMs = initialRtoMs;
+    }
+
+    synchronized void onSample(long rttMs) {
+        if (rttMs < 0) {
+            return;
+        }
+        if (srttMs < 0) {
+            srttMs = rttMs;
+            rttVarMs = rttMs / 2;
+        } else {
+            rttVarMs = (3 * rttVarMs + Math.abs(srttMs - rttMs)) / 4;
+            srttMs = (7 * srttMs + rttMs) / 8;
+        }
+        rtoMs = clamp(srttMs + Math.max(granularityMs, 4 * rttVarMs));
+    }
+
+    /**
+     * Timer expired: double the RTO, at most once per RTO so a window of
+     * chunks timing out together counts as one expiry
+     */
+    synchronized void backoff(long nowMs) {
+        if (nowMs - lastBackoffMs < rtoMs) {
+            return;
+        }
+        lastBackoffMs = nowMs;
+        rtoMs = clamp(rtoMs * 2);
+    }
+
+    synchronized long rtoMs() {
+        return rtoMs;
+    }
+
+    /** Smoothed RTT, or the initial RTO before any sample */
+    synchronized long srttMs() {
+        return srttMs < 0 ? initialRtoMs : srttMs;
+    }
+
+    private long clamp(long rto) {
+        return Math.min(maxRtoMs, Math.max(minRtoMs, rto));
+    }
+}
@@ -0,0 +1,81 @@
+package com.saferoom.p2p;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel for many short deadlines
+ *
+ * schedule() drops an item into the slot of its deadline tick; advance()
+ * visits only the slots whose ticks have passed, so cost follows the number
+ * of deadlines due, not the number pending. Deadlines further out than one
+ * revolution stay in their slot for the next visit.
+ *
+ * There is no cancel: owners ignore deadlines that have become stale.
+ */
+final class TimerWheel<T> {
+
+    private final List<Entry<T>>[] slots;
+    private final long tickMs;
+    private long cursor; // Ticks up to here are fully processed
+    private int size;
+
+    private record Entry<T>(T item, long deadlineMs) {}
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(int slotCount, long tickMs, long startMs) {
+        if (slotCount <= 0 || tickMs <= 0) {
+            throw new IllegalArgumentException("slotCount and tickMs must be positive");
+        }
+        this.slots = (List<Entry<T>>[]) new List<?>[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        this.tickMs = tickMs;
+        this.cursor = startMs / tickMs - 1;
+    }
+
+    synchronized void schedule(T item, long deadlineMs) {
+        long tick = deadlineMs / tickMs;
+        if (tick <= cursor) {
+            tick = cursor + 1; // Already passed - fire on the next advance
+        }
+        slots[(int) Math.floorMod(tick, (long) slots.length)].add(new Entry<>(item, deadlineMs));
+        size++;
+    }
+
+    /**
+     * Hand every item due at nowMs to expired (outside the wheel's lock, so
+     * it may schedule again)
+     */
+    void advance(long nowMs, Consumer<T> expired) {
+        List<T> due = new ArrayList<>();
+        synchronized (this) {
+            long target = nowMs / tickMs;
+            // One revolution visits every slot
+            long from = Math.max(cursor + 1, target - slots.length + 1);
+            for (long tick = from; tick <= target; tick++) {
+                List<Entry<T>> slot = slots[(int) Math.floorMod(tick, (long) slots.length)];
+                for (int i = slot.size() - 1; i >= 0; i--) {
+                    Entry<T> entry = slot.get(i);
+                    if (entry.deadlineMs() <= nowMs) {
+                        slot.set(i, slot.get(slot.size() - 1));
+                        slot.remove(slot.size() - 1);
+                        size--;
+                        due.add(entry.item());
+                    }
+                }
+            }
+            // The current tick may still hold later deadlines - visit it again next time
+            cursor = Math.max(cursor, target - 1);
+        }
+        for (T item : due) {
+            expired.accept(item);
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,18 @@
+package com.saferoom.transport;
+
+import java.io.IOException;
+
+/**
+ * Endpoint whose inbound messages can be consumed in place, several at a time,
+ * instead of being copied into the caller's buffer by read()/receive()
+ */
+public interface BatchReceiveEndpoint extends TransportEndpoint {
+    /**
+     * Move up to {@code frames.length} queued messages into {@code frames[0..n)},
+     * waiting at most {@code timeoutMs} for the first one. The caller owns every
+     * returned frame and must release it.
+     *
+     * @return number of frames drained, 0 on timeout
+     */
+    int receiveBatch(PooledFrame[] frames, long timeoutMs) throws IOException;
+}
@@ -0,0 +1,19 @@
+package com.saferoom.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Endpoint that can hand several independent frames to the transport in one call.
+ * Each frame keeps its own message boundary (unlike a gathering write, which
+ * turns all buffers into a single datagram).
+ */
+public interface BatchSendEndpoint extends TransportEndpoint {
+    /**
+     * Send frames {@code headers[i] + payloads[i]} for {@code i < count}.
+     * Buffers are consumed (position advanced to limit).
+     *
+     * @return number of frames sent
+     */
+    int sendBatch(ByteBuffer[] headers, ByteBuffer[] payloads, int count) throws IOException;
+}
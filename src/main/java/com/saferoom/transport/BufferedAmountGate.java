@@ -0,0 +1,110 @@
+package com.saferoom.transport;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * High/low watermark gate over a transport's native send buffer
+ *
+ * Writers pass while bufferedAmount + bytes stays at or under the high
+ * watermark. Once it would go over, they park until the transport reports
+ * (onBufferedAmountChange) that the buffer has drained to the low watermark.
+ * The gap between the two marks means a stalled writer sends a burst when it
+ * wakes up, not one message per callback. Waits re-check every RECHECK_MS in
+ * case a callback never arrives.
+ */
+public final class BufferedAmountGate {
+
+    static final long RECHECK_MS = 20;
+
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+    private volatile int waiters;
+
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+
+    public BufferedAmountGate(long highWatermark, long lowWatermark) {
+        if (highWatermark <= 0 || lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("Need 0 <= lowWatermark <= highWatermark, highWatermark > 0");
+        }
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+    }
+
+    /**
+     * Block until bytes more can be queued
+     *
+     * @param bytes    size of the next send
+     * @param buffered current native buffered amount
+     * @param open     false once the transport is closed
+     * @return false if the transport closed while waiting
+     */
+    public boolean await(long bytes, LongSupplier buffered, BooleanSupplier open) throws InterruptedException {
+        if (buffered.getAsLong() + bytes <= highWatermark) {
+            return true; // Fast path - no lock
+        }
+        long start = System.nanoTime();
+        stalls.increment();
+        lock.lock();
+        waiters++;
+        try {
+            // A single message larger than the whole window still goes out once the buffer is empty
+            long resumeAt = Math.max(0, Math.min(lowWatermark, highWatermark - bytes));
+            while (buffered.getAsLong() > resumeAt) {
+                if (!open.getAsBoolean()) {
+                    return false;
+                }
+                drained.await(RECHECK_MS, TimeUnit.MILLISECONDS);
+            }
+            return open.getAsBoolean();
+        } finally {
+            waiters--;
+            lock.unlock();
+            stallNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Transport callback: the native buffered amount is now current
+     */
+    public void onBufferedAmountChange(long current) {
+        if (waiters > 0 && current <= lowWatermark) {
+            wakeAll();
+        }
+    }
+
+    /** Let waiters re-check (e.g. the transport closed) */
+    public void wakeAll() {
+        lock.lock();
+        try {
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long highWatermark() {
+        return highWatermark;
+    }
+
+    public long lowWatermark() {
+        return lowWatermark;
+    }
+
+    /** Number of await() calls that had to wait */
+    public long stallCount() {
+        return stalls.sum();
+    }
+
+    /** Total time spent waiting in await() */
+    public long stallNanos() {
+        return stallNanos.sum();
+    }
+}
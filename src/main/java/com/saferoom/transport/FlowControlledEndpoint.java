@@ -1,10 +1,38 @@
 package com.saferoom.transport;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 public interface FlowControlledEndpoint extends TransportEndpoint {
     long bufferedAmount();
 
     default long droppedPackets() {
         return -1;
     }
-}
 
+    /**
+     * Block until bytes more can be sent without overfilling the transport's
+     * send buffer. Endpoints with buffered-amount callbacks override this to
+     * wait for them; the default polls bufferedAmount() against
+     * saferoom.transfer.buffer.maxBytes.
+     */
+    default void awaitWritable(int bytes) throws IOException {
+        final long maxBuffered = Long.getLong("saferoom.transfer.buffer.maxBytes", 8L << 20);
+        while (bufferedAmount() + bytes > maxBuffered) {
+            if (!isOpen()) {
+                throw new IOException("Transport closed");
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Interrupted waiting for send buffer");
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+        }
+    }
+
+    /** Total time senders spent in awaitWritable(), -1 if not tracked */
+    default long stallNanos() {
+        return -1;
+    }
+}
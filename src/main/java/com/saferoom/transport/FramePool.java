@@ -0,0 +1,53 @@
+package com.saferoom.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Free list of PooledFrame buffers for one transport's receive path
+ *
+ * Frames are allocated on demand and kept (up to maxPooled) once released,
+ * so a steady inbound stream stops allocating after warm-up. Messages longer
+ * than frameSize get a one-off frame that is left to GC.
+ */
+public final class FramePool {
+
+    private final ArrayBlockingQueue<PooledFrame> free;
+    private final int frameSize;
+
+    public FramePool(int maxPooled, int frameSize) {
+        if (maxPooled <= 0 || frameSize <= 0) {
+            throw new IllegalArgumentException("maxPooled and frameSize must be positive");
+        }
+        this.free = new ArrayBlockingQueue<>(maxPooled);
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * Frame holding a copy of src's remaining bytes (src position unchanged)
+     */
+    public PooledFrame copyOf(ByteBuffer src) {
+        int length = src.remaining();
+        PooledFrame frame = length <= frameSize ? free.poll() : null;
+        if (frame == null) {
+            frame = new PooledFrame(length <= frameSize ? this : null,
+                ByteBuffer.allocateDirect(Math.max(length, frameSize)));
+        }
+        frame.open();
+        ByteBuffer buffer = frame.buffer();
+        buffer.put(0, src, src.position(), length);
+        buffer.limit(length);
+        return frame;
+    }
+
+    /** Frames waiting for reuse */
+    public int available() {
+        return free.size();
+    }
+
+    void recycle(PooledFrame frame) {
+        if (frame.fits(frameSize)) {
+            free.offer(frame); // Dropped to GC when the pool is full
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.saferoom.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One inbound message in a pooled direct buffer (FramePool)
+ *
+ * The transport copies a message once, out of its native callback buffer, and
+ * queues the frame; a BatchReceiveEndpoint consumer then reads buffer() in
+ * place. The last release() returns the buffer to its pool.
+ *
+ * Reference counting: a frame starts with one reference, owned first by the
+ * transport's inbound queue and then by whoever drained it. Call retain()
+ * before handing a frame to a second owner. buffer() must not be used after
+ * the owning reference is released - the buffer is reused for another message.
+ */
+public final class PooledFrame implements AutoCloseable {
+
+    private final FramePool pool;      // null = unpooled (oversized message)
+    private final ByteBuffer buffer;
+    private final AtomicInteger refs = new AtomicInteger();
+
+    PooledFrame(FramePool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Reset for a new message; called by FramePool with no outstanding references
+     */
+    PooledFrame open() {
+        buffer.clear();
+        refs.set(1);
+        return this;
+    }
+
+    /**
+     * Message bytes: position 0, limit = length(), big-endian. Absolute reads
+     * only if the frame is shared.
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return buffer.limit();
+    }
+
+    /** First byte (packet signal), or -1 for an empty message */
+    public int signal() {
+        return buffer.limit() > 0 ? buffer.get(0) & 0xFF : -1;
+    }
+
+    /**
+     * Take an extra reference
+     */
+    public PooledFrame retain() {
+        int r;
+        do {
+            r = refs.get();
+            if (r <= 0) {
+                throw new IllegalStateException("Frame already released");
+            }
+        } while (!refs.compareAndSet(r, r + 1));
+        return this;
+    }
+
+    /**
+     * Drop one reference; the last one hands the buffer back to the pool
+     */
+    public void release() {
+        int r = refs.decrementAndGet();
+        if (r == 0) {
+            if (pool != null) {
+                pool.recycle(this);
+            }
+        } else if (r < 0) {
+            refs.set(0);
+            throw new IllegalStateException("Frame released twice");
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    boolean fits(int length) {
+        return length <= buffer.capacity();
+    }
+}
@@ -15,6 +15,14 @@ public interface TransportEndpoint extends Closeable {
         }
     }
 
+    /**
+     * Whether every message is already integrity-protected by the transport
+     * (DTLS), so per-packet payload checksums add nothing
+     */
+    default boolean isAuthenticated() {
+        return false;
+    }
+
     @Override
     default void close() throws IOException {
         channel().close();
@@ -0,0 +1,48 @@
+package com.saferoom.file_transfer;
+
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for selector-driven receive waits
+ */
+public class ChannelReadinessTest {
+
+    @Test
+    public void testWakesOnDatagramAndReleasesChannel() throws IOException {
+        try (DatagramChannel rx = DatagramChannel.open();
+             DatagramChannel tx = DatagramChannel.open()) {
+            rx.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            tx.connect(rx.getLocalAddress());
+            rx.configureBlocking(false);
+
+            ByteBuffer buf = ByteBuffer.allocate(64);
+            try (ChannelReadiness readiness = ChannelReadiness.of(rx, 1_000_000)) {
+                assertTrue(readiness.isSelecting());
+                tx.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+                long start = System.nanoTime();
+                readiness.await(5_000);
+                assertTrue(System.nanoTime() - start < 4_000_000_000L);
+                assertNotNull(rx.receive(buf));
+                assertEquals(3, buf.position());
+            }
+            // Selector closed - the channel may block again
+            rx.configureBlocking(true);
+            assertTrue(rx.isBlocking());
+        }
+    }
+
+    @Test
+    public void testBlockingChannelIsNotSelected() throws IOException {
+        try (DatagramChannel ch = DatagramChannel.open();
+             ChannelReadiness readiness = ChannelReadiness.of(ch, 1_000)) {
+            assertFalse(readiness.isSelecting());
+            readiness.await(5_000); // Fallback park only
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.saferoom.file_transfer;
+
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for rsync-style delta sync
+ */
+public class DeltaSyncTest {
+
+    private static final int SLICE = 1450;
+
+    private static Path file(byte[] data) throws IOException {
+        Path path = Files.createTempFile("delta", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, data);
+        return path;
+    }
+
+    @Test
+    public void testInsertedBytesKeepLaterBlocks() throws IOException {
+        byte[] base = new byte[3 << 20];
+        new Random(7).nextBytes(base);
+        // New version: 1000 bytes inserted near the start, one byte changed near the end
+        byte[] next = new byte[base.length + 1000];
+        System.arraycopy(base, 0, next, 0, 100_000);
+        System.arraycopy(base, 100_000, next, 101_000, base.length - 100_000);
+        next[next.length - 200_000] ^= 1;
+
+        Path basePath = file(base);
+        Path nextPath = file(next);
+        DeltaSync.Signatures sigs;
+        try (FileChannel fc = FileChannel.open(basePath, StandardOpenOption.READ)) {
+            sigs = DeltaSync.Signatures.compute(fc);
+        }
+        DeltaSync.Plan plan;
+        try (FileChannel fc = FileChannel.open(nextPath, StandardOpenOption.READ)) {
+            plan = DeltaSync.match(fc, next.length, sigs);
+        }
+        // Only the blocks touched by the insert and the flipped byte are lost
+        assertEquals(sigs.getBlockCount() - 2, plan.getCount());
+        assertTrue(plan.isValid(next.length, sigs.getBlockCount()));
+
+        // Receiver: copies from base, everything in missingRanges from the sender
+        Path out = Files.createTempFile("delta-out", ".bin");
+        out.toFile().deleteOnExit();
+        try (FileChannel src = FileChannel.open(basePath, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(out, StandardOpenOption.WRITE)) {
+            plan.apply(src, dst);
+            int[] missing = plan.missingRanges(next.length, SLICE);
+            for (int r = 0; r < missing.length; r += 2) {
+                for (int seq = missing[r]; seq < missing[r + 1]; seq++) {
+                    long off = (long) seq * SLICE;
+                    int len = (int) Math.min(SLICE, next.length - off);
+                    dst.write(ByteBuffer.wrap(next, (int) off, len), off);
+                }
+            }
+        }
+        assertTrue(Arrays.equals(next, Files.readAllBytes(out)));
+    }
+
+    @Test
+    public void testCoveredBitmapIsComplementOfMissing() {
+        ByteBuffer wire = ByteBuffer.allocate(2 * DeltaSync.COPY_SIZE);
+        wire.putLong(0, 0).putInt(8, 0).putLong(12, 65_536).putInt(20, 3);
+        DeltaSync.Plan plan = DeltaSync.Plan.expect(65_536, 2);
+        assertEquals(2, plan.put(0, 2, wire, 0));
+
+        long fileSize = 200_000;
+        int[] missing = plan.missingRanges(fileSize, SLICE);
+        // 131072 / 1450 = 90 whole slices copied, the rest is sent
+        assertEquals(2, missing.length);
+        assertEquals(90, missing[0]);
+        assertEquals(ChunkManager.sequenceCount(fileSize, SLICE), missing[1]);
+
+        ReceiveBitmap covered = plan.coveredBitmap(fileSize, SLICE);
+        assertEquals(90, covered.cardinality());
+        assertEquals(90, covered.nextClear(0));
+    }
+
+    @Test
+    public void testOverlappingCopiesAreRejected() {
+        ByteBuffer wire = ByteBuffer.allocate(2 * DeltaSync.COPY_SIZE);
+        wire.putLong(0, 0).putInt(8, 0).putLong(12, 1000).putInt(20, 1);
+        DeltaSync.Plan plan = DeltaSync.Plan.expect(65_536, 2);
+        plan.put(0, 2, wire, 0);
+        assertFalse(plan.isValid(1L << 20, 16));
+    }
+}
@@ -0,0 +1,70 @@
+package com.saferoom.file_transfer;
+
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for small-file bundles
+ */
+public class FileBundleTest {
+
+    @Test
+    public void testPackUnpackRoundTrip() throws IOException {
+        Path src = Files.createTempDirectory("bundle-src");
+        Files.createDirectories(src.resolve("sub/deeper"));
+        Files.writeString(src.resolve("a.txt"), "alpha");
+        Files.writeString(src.resolve("sub/b.txt"), "beta beta");
+        Files.write(src.resolve("sub/deeper/empty.bin"), new byte[0]);
+
+        List<Path> files = FileBundle.listFiles(src);
+        List<List<Path>> plan = FileBundle.plan(files);
+        assertEquals(1, plan.size());
+
+        Path bundle = Files.createTempDirectory("bundle-out").resolve(FileBundle.bundleName("src", 0, 1));
+        FileBundle.pack(src, plan.get(0), bundle);
+        assertTrue(FileBundle.isBundle(bundle));
+
+        Path dst = Files.createTempDirectory("bundle-dst");
+        List<Path> out = FileBundle.unpack(bundle, dst);
+        assertEquals(3, out.size());
+        assertEquals("alpha", Files.readString(dst.resolve("a.txt")));
+        assertEquals("beta beta", Files.readString(dst.resolve("sub/b.txt")));
+        assertEquals(0, Files.size(dst.resolve("sub/deeper/empty.bin")));
+    }
+
+    @Test
+    public void testEntryCannotEscapeTarget() throws IOException {
+        byte[] name = "../evil".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer raw = ByteBuffer.allocate(8 + 4 + 2 + name.length + 8 + 1);
+        raw.put("SRBUNDL1".getBytes(StandardCharsets.US_ASCII)).putInt(1)
+            .putShort((short) name.length).put(name).putLong(1).put((byte) 'x');
+        Path bundle = Files.createTempFile("evil", FileBundle.EXTENSION);
+        Files.write(bundle, raw.array());
+
+        Path dst = Files.createTempDirectory("bundle-dst");
+        assertThrows(IOException.class, () -> FileBundle.unpack(bundle, dst));
+        assertFalse(Files.exists(dst.resolveSibling("evil")));
+    }
+
+    @Test
+    public void testLargeFilesStayOutOfBundles() throws IOException {
+        Path src = Files.createTempDirectory("bundle-src");
+        Files.write(src.resolve("big.bin"), new byte[(int) FileBundle.maxFileBytes() + 1]);
+        Files.writeString(src.resolve("small.txt"), "s");
+
+        List<List<Path>> plan = FileBundle.plan(FileBundle.listFiles(src));
+        assertEquals(List.of(List.of(src.resolve("small.txt"))), plan);
+    }
+
+    @Test
+    public void testPartsShareDirectory() {
+        assertEquals("photos", FileBundle.directoryName(FileBundle.bundleName("photos", 2, 3)));
+        assertEquals("photos", FileBundle.directoryName(FileBundle.bundleName("photos", 0, 1)));
+    }
+}
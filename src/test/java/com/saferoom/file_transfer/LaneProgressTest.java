@@ -0,0 +1,46 @@
+package com.saferoom.file_transfer;
+
+import org.junit.jupiter.api.Test;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for striped lane skew control
+ */
+public class LaneProgressTest {
+
+    @Test
+    public void testLeadingLaneParksUntilSlowestCatchesUp() throws Exception {
+        LaneProgress lanes = new LaneProgress(2);
+        assertEquals(0, lanes.slowest());
+
+        // Lane 1 at 41 with a skew of 16: lane 0 has to reach 25
+        lanes.advance(1, 41);
+        CompletableFuture<Void> released = CompletableFuture.runAsync(() -> lanes.await(1, 41, 16, () -> false));
+        lanes.advance(0, 10);
+        assertThrows(Exception.class, () -> released.get(200, TimeUnit.MILLISECONDS));
+
+        lanes.advance(0, 26);
+        released.get(1, TimeUnit.SECONDS);
+
+        // A finished lane never holds the others back
+        lanes.advance(0, LaneProgress.DONE);
+        assertEquals(41, lanes.slowest());
+        lanes.advance(1, 1_000_000);
+        lanes.await(1, 1_000_000, 16, () -> false);
+    }
+
+    @Test
+    public void testStopReleasesParkedLane() throws Exception {
+        LaneProgress lanes = new LaneProgress(2);
+        lanes.advance(1, 101);
+        long start = System.nanoTime();
+        AtomicBoolean stop = new AtomicBoolean();
+        CompletableFuture<Void> released = CompletableFuture.runAsync(() -> lanes.await(1, 101, 8, stop::get));
+        stop.set(true);
+        released.get(1, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,92 @@
+package com.saferoom.file_transfer;
+
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for the Merkle manifest and block verification
+ */
+public class MerkleTreeTest {
+
+    private static final int BLOCK = 4096;
+
+    private static Path writeRandom(long seed, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        Path path = Files.createTempFile("merkle", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, data);
+        return path;
+    }
+
+    @Test
+    public void testLeavesOutOfOrderReproduceRoot() throws IOException {
+        int size = 5 * BLOCK + 123; // odd leaf count, short last block
+        Path path = writeRandom(1, size);
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            MerkleTree source = MerkleTree.build(fc, size, BLOCK);
+            assertEquals(6, source.getLeafCount());
+
+            MerkleTree received = MerkleTree.expect(size, BLOCK, 6, source.getRoot());
+            ByteBuffer wire = ByteBuffer.allocate(6 * MerkleTree.HASH_SIZE);
+            source.copyLeaves(0, 6, wire, 0);
+
+            assertEquals(0, received.putLeaves(3, 3, wire, 3 * MerkleTree.HASH_SIZE));
+            assertFalse(received.isComplete());
+            assertEquals(6, received.putLeaves(0, 3, wire, 0));
+            assertTrue(received.isComplete());
+
+            for (int i = 0; i < 6; i++) {
+                assertTrue(received.verifyLeaf(i, fc, MerkleTree.sha256(), ByteBuffer.allocate(1000)));
+            }
+        }
+    }
+
+    @Test
+    public void testTamperedLeafIsRejected() throws IOException {
+        int size = 4 * BLOCK;
+        Path path = writeRandom(2, size);
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            MerkleTree source = MerkleTree.build(fc, size, BLOCK);
+            MerkleTree received = MerkleTree.expect(size, BLOCK, 4, source.getRoot());
+            ByteBuffer wire = ByteBuffer.allocate(4 * MerkleTree.HASH_SIZE);
+            source.copyLeaves(0, 4, wire, 0);
+            wire.put(40, (byte) (wire.get(40) ^ 1));
+
+            assertEquals(0, received.putLeaves(0, 4, wire, 0));
+            assertFalse(received.isComplete());
+        }
+    }
+
+    @Test
+    public void testCorruptBlockDetected() throws IOException {
+        int size = 3 * BLOCK;
+        Path path = writeRandom(3, size);
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MerkleTree tree = MerkleTree.build(fc, size, BLOCK);
+            ByteBuffer one = ByteBuffer.allocate(1);
+            fc.read(one, BLOCK + 17);
+            one.put(0, (byte) (one.get(0) ^ 0x55));
+            fc.write(one.rewind(), BLOCK + 17);
+
+            ByteBuffer buf = ByteBuffer.allocate(1000);
+            assertTrue(tree.verifyLeaf(0, fc, MerkleTree.sha256(), buf));
+            assertFalse(tree.verifyLeaf(1, fc, MerkleTree.sha256(), buf));
+            assertTrue(tree.verifyLeaf(2, fc, MerkleTree.sha256(), buf));
+        }
+    }
+
+    @Test
+    public void testManifestMustDescribeFile() {
+        byte[] root = new byte[MerkleTree.HASH_SIZE];
+        assertThrows(IllegalArgumentException.class, () -> MerkleTree.expect(10 * BLOCK, BLOCK, 9, root));
+        assertThrows(IllegalArgumentException.class, () -> MerkleTree.expect(BLOCK, 0, 1, root));
+    }
+}
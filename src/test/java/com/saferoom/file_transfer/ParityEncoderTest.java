@@ -0,0 +1,147 @@
+package com.saferoom.file_transfer;
+
+import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for XOR parity frames
+ */
+public class ParityEncoderTest {
+
+    private static final int SLICE = 1450;
+
+    @Test
+    public void testSingleLossIsRebuilt() {
+        // 5 packets, the last one short - as at the end of a file
+        int total = 5;
+        int fileLen = 4 * SLICE + 300;
+        byte[] file = new byte[fileLen];
+        new Random(3).nextBytes(file);
+        ByteBuffer mem = ByteBuffer.wrap(file);
+
+        ParityEncoder encoder = new ParityEncoder(2, SLICE);
+        int k = encoder.groupSize(0.05);
+        assertEquals(5, k); // 0.25 / 0.05
+        boolean complete = false;
+        for (int seq = 0; seq < total; seq++) {
+            int take = Math.min(SLICE, fileLen - seq * SLICE);
+            complete = encoder.add(seq, mem, seq * SLICE, take, seq == total - 1, k);
+        }
+        assertTrue(complete);
+        assertEquals(0, encoder.groupStart());
+        assertEquals(total, encoder.groupCount());
+        ByteBuffer parity = encoder.parity();
+        assertEquals(SLICE, parity.remaining());
+
+        // Receiver lost seq 4: parity ^ seq 0..3 gives it back
+        ByteBuffer rebuilt = ByteBuffer.allocateDirect(SLICE);
+        rebuilt.put(0, parity, 0, parity.remaining());
+        for (int seq = 0; seq < 4; seq++) {
+            ParityEncoder.xorInto(rebuilt, 0, mem, seq * SLICE, SLICE);
+        }
+        for (int i = 0; i < 300; i++) {
+            assertEquals(file[4 * SLICE + i], rebuilt.get(i));
+        }
+        assertEquals(0, rebuilt.get(300)); // Padding stays zero
+    }
+
+    @Test
+    public void testRingReuseAndDroppedGroupLeaveNoStaleBytes() {
+        int groups = 6;
+        int k = 4;
+        byte[] file = new byte[(groups * k + 3) * SLICE];
+        new Random(11).nextBytes(file);
+        ByteBuffer mem = ByteBuffer.wrap(file);
+        ParityEncoder encoder = new ParityEncoder(2, SLICE); // Wraps after 2 groups
+
+        // Half a group that never completes: the next group reuses its buffer
+        assertFalse(encoder.add(0, mem, 0, SLICE, false, k));
+        assertFalse(encoder.add(1, mem, SLICE, SLICE, false, k));
+
+        int first = 3; // Gap: 3 does not continue the group at 0
+        for (int g = 0; g < groups; g++) {
+            int start = first + g * k;
+            boolean lastGroup = g == groups - 1;
+            boolean complete = false;
+            for (int seq = start; seq < start + k; seq++) {
+                // The final group ends short, behind full groups in the same buffers
+                int take = lastGroup && seq == start + k - 1 ? 100 : SLICE;
+                complete = encoder.add(seq, mem, seq * SLICE, take, false, k);
+            }
+            assertTrue(complete);
+            assertEquals(start, encoder.groupStart());
+            ByteBuffer parity = encoder.parity();
+            assertEquals(SLICE, parity.remaining());
+
+            // Rebuild the first member from the parity and the other three
+            ByteBuffer rebuilt = ByteBuffer.allocate(SLICE);
+            rebuilt.put(0, parity, 0, parity.remaining());
+            for (int seq = start + 1; seq < start + k; seq++) {
+                int take = lastGroup && seq == start + k - 1 ? 100 : SLICE;
+                ParityEncoder.xorInto(rebuilt, 0, mem, seq * SLICE, take);
+            }
+            for (int i = 0; i < SLICE; i++) {
+                assertEquals(file[start * SLICE + i], rebuilt.get(i), "group " + g + " byte " + i);
+            }
+        }
+    }
+
+    @Test
+    public void testGroupSizeFollowsLossWithHysteresis() {
+        ParityEncoder encoder = new ParityEncoder(2, SLICE);
+        assertEquals(0, encoder.groupSize(0.0));
+        assertEquals(ParityEncoder.MIN_GROUP, encoder.groupSize(0.2));
+        assertEquals(25, encoder.groupSize(0.01));
+        // Repaired losses hide from NACKs - keep a thin layer of parity
+        assertEquals(ParityEncoder.MAX_GROUP, encoder.groupSize(0.0));
+    }
+
+    @Test
+    public void testGapStartsNewGroupAndHandshakeCarriesFlag() {
+        ByteBuffer mem = ByteBuffer.allocate(8 * SLICE);
+        ParityEncoder encoder = new ParityEncoder(2, SLICE);
+        assertFalse(encoder.add(0, mem, 0, SLICE, false, 4));
+        assertFalse(encoder.add(1, mem, SLICE, SLICE, false, 4));
+        // Resume range jump: 5 does not continue the group at 0
+        assertFalse(encoder.add(5, mem, 5 * SLICE, SLICE, false, 4));
+        assertTrue(encoder.add(6, mem, 6 * SLICE, SLICE, true, 4));
+        assertEquals(5, encoder.groupStart());
+        assertEquals(2, encoder.groupCount());
+
+        HandShake_Packet pkt = new HandShake_Packet();
+        pkt.make_ACK(1, 1 << 20, 724, 1450, ChecksumMode.CRC32C, CompressionMode.NONE, true);
+        ByteBuffer ack = pkt.get_header().duplicate().order(ByteOrder.BIG_ENDIAN);
+        assertEquals(HandShake_Packet.SYN_FEC_SIZE, ack.remaining());
+        assertTrue(HandShake_Packet.get_fec(ack, ack.remaining()));
+        pkt.make_ACK(1, 1 << 20, 724, 1450, ChecksumMode.CRC32C, CompressionMode.NONE, false);
+        ack = pkt.get_header().duplicate();
+        assertFalse(HandShake_Packet.get_fec(ack, ack.remaining()));
+    }
+
+    @Test
+    public void testParityIsAcceptedButNotOfferedByDefault() {
+        String saved = System.clearProperty("saferoom.transfer.fec");
+        try {
+            assertTrue(ParityEncoder.enabled());
+            assertFalse(ParityEncoder.offered()); // Default SYN stays the legacy 21 bytes
+            HandShake_Packet pkt = new HandShake_Packet();
+            pkt.make_SYN(1, 1 << 20, 724, HandShake_Packet.DEFAULT_SLICE, ChecksumMode.CRC32C,
+                CompressionMode.NONE, ParityEncoder.offered());
+            assertEquals(HandShake_Packet.HEADER_SIZE, pkt.get_header().remaining());
+
+            System.setProperty("saferoom.transfer.fec", "on");
+            assertTrue(ParityEncoder.offered());
+            System.setProperty("saferoom.transfer.fec", "off");
+            assertFalse(ParityEncoder.enabled());
+        } finally {
+            if (saved == null) {
+                System.clearProperty("saferoom.transfer.fec");
+            } else {
+                System.setProperty("saferoom.transfer.fec", saved);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.saferoom.file_transfer;
+
+import org.junit.jupiter.api.Test;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for the lock-free receive bitmap used by NackSender
+ */
+public class ReceiveBitmapTest {
+
+    @Test
+    public void testSetIfAbsent_OnlyFirstCallWins() {
+        ReceiveBitmap bitmap = new ReceiveBitmap(100);
+
+        assertTrue(bitmap.setIfAbsent(42));
+        assertFalse(bitmap.setIfAbsent(42));
+        assertTrue(bitmap.get(42));
+        assertEquals(1, bitmap.cardinality());
+
+        assertTrue(bitmap.clear(42));
+        assertFalse(bitmap.clear(42));
+        assertEquals(0, bitmap.cardinality());
+    }
+
+    @Test
+    public void testNextClear_AcrossWordBoundary() {
+        ReceiveBitmap bitmap = new ReceiveBitmap(200);
+        for (int i = 0; i < 130; i++) {
+            bitmap.setIfAbsent(i);
+        }
+
+        assertEquals(130, bitmap.nextClear(0));
+        assertEquals(130, bitmap.nextClear(64));
+        assertEquals(0, bitmap.nextSet(0));
+        assertEquals(200, bitmap.nextSet(130));
+    }
+
+    @Test
+    public void testNextClear_FullBitmapReturnsSize() {
+        ReceiveBitmap bitmap = new ReceiveBitmap(70);
+        for (int i = 0; i < 70; i++) {
+            bitmap.setIfAbsent(i);
+        }
+
+        assertEquals(70, bitmap.nextClear(0));
+    }
+
+    @Test
+    public void testWindow64_UnalignedAndTail() {
+        ReceiveBitmap bitmap = new ReceiveBitmap(100);
+        bitmap.setIfAbsent(10);
+        bitmap.setIfAbsent(70);
+        bitmap.setIfAbsent(99);
+
+        // Window starting at 10 spans two words: bit 0 = seq 10, bit 60 = seq 70
+        long window = bitmap.window64(10);
+        assertEquals((1L << 0) | (1L << 60), window);
+
+        // Window near the end only covers seqs 60..99
+        window = bitmap.window64(60);
+        assertEquals((1L << 10) | (1L << 39), window);
+
+        assertEquals(0L, bitmap.window64(100));
+    }
+
+    @Test
+    public void testSnapshotAndOr_RoundTrip() {
+        ReceiveBitmap source = new ReceiveBitmap(130);
+        source.setIfAbsent(0);
+        source.setIfAbsent(64);
+        source.setIfAbsent(129);
+
+        ReceiveBitmap restored = new ReceiveBitmap(130);
+        restored.or(source.snapshot());
+
+        assertEquals(3, restored.cardinality());
+        assertTrue(restored.get(64));
+        assertTrue(restored.get(129));
+        assertEquals(1, restored.nextClear(0));
+    }
+
+    @Test
+    public void testConcurrentSet_EachBitCountedOnce() throws Exception {
+        final int size = 64 * 1024;
+        final int threads = 4;
+        ReceiveBitmap bitmap = new ReceiveBitmap(size);
+        AtomicInteger wins = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // Every thread tries every bit - duplicates like NACK retransmits
+                for (int i = 0; i < size; i++) {
+                    if (bitmap.setIfAbsent(i)) {
+                        wins.incrementAndGet();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+
+        assertEquals(size, wins.get());
+        assertEquals(size, bitmap.cardinality());
+        assertEquals(size, bitmap.nextClear(0));
+    }
+
+    @Test
+    public void testOutOfRangeIndex() {
+        ReceiveBitmap bitmap = new ReceiveBitmap(10);
+        assertThrows(IndexOutOfBoundsException.class, () -> bitmap.setIfAbsent(10));
+        assertThrows(IndexOutOfBoundsException.class, () -> bitmap.get(-1));
+    }
+}
@@ -0,0 +1,66 @@
+package com.saferoom.file_transfer;
+
+import org.junit.jupiter.api.Test;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for the primitive retransmission queue
+ */
+public class RetransmitQueueTest {
+
+    @Test
+    public void testRepeatsAreSuppressedAndLowestGoesFirst() {
+        RetransmitQueue queue = new RetransmitQueue(1000);
+        assertTrue(queue.offer(700));
+        assertTrue(queue.offer(5));
+        assertFalse(queue.offer(700)); // Next NACK repeats the loss
+        assertTrue(queue.offer(64));
+        assertEquals(1, queue.getSuppressedCount());
+        assertEquals(3, queue.size());
+
+        assertEquals(5, queue.poll());
+        // A lower hole reported while draining jumps the line
+        assertTrue(queue.offer(2));
+        assertEquals(2, queue.poll());
+        assertEquals(64, queue.poll());
+        assertEquals(700, queue.poll());
+        assertEquals(-1, queue.poll());
+        // Sent - a new NACK for it queues it again
+        assertTrue(queue.offer(700));
+        assertFalse(queue.offer(1000));
+    }
+
+    @Test
+    public void testDiscardBelowCumulativeAck() {
+        RetransmitQueue queue = new RetransmitQueue(1000);
+        queue.offer(10);
+        queue.offer(100);
+        queue.offer(500);
+        queue.discardBelow(200);
+        assertEquals(1, queue.size());
+        assertFalse(queue.offer(150)); // Already acknowledged
+        assertEquals(500, queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testTimedPollWakesOnOffer() throws InterruptedException {
+        RetransmitQueue queue = new RetransmitQueue(100);
+        assertEquals(-1, queue.poll(10, TimeUnit.MILLISECONDS));
+
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ignored) {
+                return;
+            }
+            queue.offer(42);
+        });
+        producer.start();
+        long start = System.nanoTime();
+        assertEquals(42, queue.poll(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+        producer.join();
+    }
+}
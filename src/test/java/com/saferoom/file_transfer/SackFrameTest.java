@@ -0,0 +1,111 @@
+package com.saferoom.file_transfer;
+
+import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for the multi-window SACK frame encoding
+ */
+public class SackFrameTest {
+
+    @Test
+    public void testRoundTrip_MaskAndRunBlocks() {
+        SackFrame frame = new SackFrame();
+        frame.begin(777L, 1000);
+        assertTrue(frame.addMask(1064, 0xFFFF_FFFF_FFFF_FFFEL));
+        assertTrue(frame.addRun(5000, 300));
+        frame.finish();
+
+        ByteBuffer wire = frame.buffer().duplicate();
+        int len = wire.remaining();
+        assertEquals(SackFrame.HEADER_SIZE + 2 * SackFrame.BLOCK_SIZE, len);
+        assertTrue(SackFrame.isSack(wire, len));
+
+        assertEquals(777L, SackFrame.fileId(wire));
+        assertEquals(1000, SackFrame.cumAck(wire));
+        assertEquals(2, SackFrame.blockCount(wire));
+
+        assertFalse(SackFrame.isRun(wire, 0));
+        assertEquals(1064, SackFrame.blockBase(wire, 0));
+        assertEquals(0xFFFF_FFFF_FFFF_FFFEL, SackFrame.blockBits(wire, 0));
+
+        assertTrue(SackFrame.isRun(wire, 1));
+        assertEquals(5000, SackFrame.blockBase(wire, 1));
+        assertEquals(300L, SackFrame.blockBits(wire, 1));
+    }
+
+    @Test
+    public void testSizeNeverMatchesLegacyFrames() {
+        SackFrame frame = new SackFrame();
+        frame.begin(1L, 0);
+        frame.addMask(64, 0L);
+        frame.finish();
+
+        int len = frame.buffer().remaining();
+        assertNotEquals(NackFrame.SIZE, len);
+        assertNotEquals(8, len);
+    }
+
+    @Test
+    public void testFullFrameRejectsExtraBlocks() {
+        SackFrame frame = new SackFrame();
+        frame.begin(1L, 0);
+        for (int i = 0; i < SackFrame.MAX_BLOCKS; i++) {
+            assertTrue(frame.addMask(i * 64, 0L));
+        }
+        assertFalse(frame.addRun(1_000_000, 10));
+        frame.finish();
+
+        assertEquals(SackFrame.MAX_SIZE, frame.buffer().remaining());
+    }
+
+    @Test
+    public void testIsSack_RejectsTruncatedAndLegacyFrames() {
+        SackFrame frame = new SackFrame();
+        frame.begin(1L, 0);
+        frame.addMask(64, 0L);
+        frame.addMask(128, 0L);
+        frame.finish();
+
+        ByteBuffer wire = frame.buffer().duplicate();
+        assertFalse(SackFrame.isSack(wire, wire.remaining() - 1));
+
+        NackFrame nack = new NackFrame();
+        nack.fill(1L, 0, 0L);
+        assertFalse(SackFrame.isSack(nack.buffer(), NackFrame.SIZE));
+    }
+
+    @Test
+    public void testListenerReoffersHolesAfterSrttAndCountsThemOnce() throws Exception {
+        RetransmitQueue retx = new RetransmitQueue(10_000);
+        EnhancedNackListener listener = new EnhancedNackListener(null, 9L, 10_000, retx, 0);
+        HybridCongestionController cc = new HybridCongestionController();
+        listener.hybridControl = cc;
+
+        SackFrame frame = new SackFrame();
+        frame.begin(9L, 900);
+        frame.addMask(1000, ~(1L << 3));
+        frame.addRun(5000, 10);
+        frame.finish();
+
+        listener.onSackFrame(frame.buffer().duplicate());
+        assertEquals(11, retx.size());
+        double lossRate = cc.getLossRate();
+        assertTrue(lossRate > 0);
+
+        // The worker re-sends them: the next tick repeats the same holes
+        for (int seq = retx.poll(); seq >= 0; seq = retx.poll()) {
+            listener.recordPacketSendTime(seq);
+        }
+        listener.onSackFrame(frame.buffer().duplicate());
+        assertEquals(0, retx.size());          // Copies still in flight
+        assertEquals(lossRate, cc.getLossRate()); // Nothing newly reported
+
+        // One RTT later they are lost again
+        listener.hybridControl = null;
+        Thread.sleep(EnhancedNackListener.DEFAULT_REOFFER_NS / 1_000_000 + 20);
+        listener.onSackFrame(frame.buffer().duplicate());
+        assertEquals(11, retx.size());
+    }
+}
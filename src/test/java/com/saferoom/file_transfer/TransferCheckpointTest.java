@@ -0,0 +1,89 @@
+package com.saferoom.file_transfer;
+
+import org.junit.jupiter.api.Test;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for the persisted receive bitmap behind resumable transfers
+ */
+public class TransferCheckpointTest {
+
+    private static final int SLICE = 1450;
+
+    @Test
+    public void testSaveFindRoundTrip() throws Exception {
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path source = Files.writeString(dir.resolve("source.bin"), "source");
+        long fileSize = 10L * SLICE + 7;
+        long token = TransferCheckpoint.resumeToken(source, fileSize);
+        assertEquals(token, TransferCheckpoint.resumeToken(source, fileSize));
+        Files.setLastModifiedTime(source, FileTime.fromMillis(Files.getLastModifiedTime(source).toMillis() - 60_000));
+        assertNotEquals(token, TransferCheckpoint.resumeToken(source, fileSize)); // Source changed - start over
+
+        Path output = Files.createFile(dir.resolve("movie.bin"));
+        int totalSeq = ChunkManager.sequenceCount(fileSize, SLICE);
+        ReceiveBitmap received = new ReceiveBitmap(totalSeq);
+        for (int seq : new int[] { 0, 1, 2, 3, 4, 7 }) {
+            received.setIfAbsent(seq);
+        }
+        new TransferCheckpoint(output, token, fileSize, totalSeq, SLICE).save(received.snapshot());
+        assertTrue(Files.isRegularFile(TransferCheckpoint.sidecarFor(output)));
+
+        TransferCheckpoint found = TransferCheckpoint.find(output, token, fileSize, SLICE);
+        assertNotNull(found);
+        assertEquals(totalSeq, found.getTotalSeq());
+        assertEquals(SLICE, found.getSliceSize());
+        ReceiveBitmap loaded = new ReceiveBitmap(totalSeq);
+        assertTrue(found.loadInto(loaded));
+        assertEquals(6, loaded.cardinality());
+        assertTrue(loaded.get(7));
+        assertFalse(loaded.get(5));
+
+        // Output name differs on the next attempt: the scan finds the sidecar anyway
+        TransferCheckpoint renamed = TransferCheckpoint.find(dir.resolve("movie (1).bin"), token, fileSize, SLICE);
+        assertNotNull(renamed);
+        assertEquals(output, renamed.getOutputPath());
+
+        found.delete();
+        assertNull(TransferCheckpoint.find(output, token, fileSize, SLICE));
+    }
+
+    @Test
+    public void testMismatchedTokenSizeOrSliceIsRejected() throws Exception {
+        Path dir = Files.createTempDirectory("checkpoint");
+        Path output = Files.createFile(dir.resolve("movie.bin"));
+        long fileSize = 100L * 8950;
+        int totalSeq = ChunkManager.sequenceCount(fileSize, 8950);
+        new TransferCheckpoint(output, 42L, fileSize, totalSeq, 8950).save(new ReceiveBitmap(totalSeq).snapshot());
+
+        assertNotNull(TransferCheckpoint.find(output, 42L, fileSize, 8950));
+        assertNull(TransferCheckpoint.find(output, 43L, fileSize, 8950));
+        assertNull(TransferCheckpoint.find(output, 42L, fileSize + 1, 8950));
+        // Sender now offers smaller slices than the bitmap was written with
+        assertNull(TransferCheckpoint.find(output, 42L, fileSize, SLICE));
+        assertNull(TransferCheckpoint.find(output, 0L, fileSize, 8950)); // 0 = no resume
+    }
+
+    @Test
+    public void testMissingRangesCoverEveryHole() {
+        ReceiveBitmap bitmap = new ReceiveBitmap(20);
+        for (int seq = 0; seq < 5; seq++) bitmap.setIfAbsent(seq);
+        bitmap.setIfAbsent(7);
+        for (int seq = 10; seq < 15; seq++) bitmap.setIfAbsent(seq);
+
+        int[] out = new int[8];
+        assertEquals(3, TransferCheckpoint.missingRanges(bitmap, out, 4));
+        assertArrayEquals(new int[] { 5, 7, 8, 10, 15, 20 }, Arrays.copyOf(out, 6));
+
+        // Out of room: the last range runs to the end so nothing is left out
+        assertEquals(2, TransferCheckpoint.missingRanges(bitmap, out, 2));
+        assertArrayEquals(new int[] { 5, 7, 8, 20 }, Arrays.copyOf(out, 4));
+
+        for (int seq = 0; seq < 20; seq++) bitmap.setIfAbsent(seq);
+        assertEquals(0, TransferCheckpoint.missingRanges(bitmap, out, 4));
+    }
+}
@@ -0,0 +1,80 @@
+package com.saferoom.file_transfer;
+
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for the per-peer DRR transfer queue
+ */
+public class TransferSchedulerTest {
+
+    private static final InetSocketAddress PEER = new InetSocketAddress("127.0.0.1", 9);
+
+    private static Path file(int size) throws IOException {
+        Path path = Files.createTempFile("sched", ".bin");
+        path.toFile().deleteOnExit();
+        Files.write(path, new byte[size]);
+        return path;
+    }
+
+    @Test
+    public void testSmallAndHeavyFilesOvertakeLargeOnes() throws Exception {
+        System.setProperty("saferoom.transfer.scheduler.quantumBytes", String.valueOf(64 << 10));
+        CountDownLatch gate = new CountDownLatch(1);
+        List<Long> order = new CopyOnWriteArrayList<>();
+        TransferScheduler scheduler = new TransferScheduler("test", PEER, (file, fileId, cc) -> {
+            if (fileId == 0) {
+                gate.await();
+            }
+            order.add(fileId);
+        });
+        try {
+            CompletableFuture<Void> blocker = scheduler.submit(file(1), 0);
+            CompletableFuture<Void> large = scheduler.submit(file(1 << 20), 1);        // 16 rounds
+            CompletableFuture<Void> small = scheduler.submit(file(100 << 10), 2);      // 2 rounds
+            CompletableFuture<Void> heavy = scheduler.submit(file(1 << 20), 3, 8);     // 2 rounds
+            assertEquals(3, scheduler.queued());
+            gate.countDown();
+
+            CompletableFuture.allOf(blocker, large, small, heavy).get(5, TimeUnit.SECONDS);
+            assertEquals(List.of(0L, 2L, 3L, 1L), order);
+        } finally {
+            System.clearProperty("saferoom.transfer.scheduler.quantumBytes");
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void testFailureCompletesOnlyThatFile() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler("test", PEER, (file, fileId, cc) -> {
+            assertNotNull(cc);
+            if (fileId == 1) {
+                throw new IOException("boom");
+            }
+        });
+        try {
+            CompletableFuture<Void> failed = scheduler.submit(file(10), 1);
+            CompletableFuture<Void> ok = scheduler.submit(file(10), 2);
+            ok.get(5, TimeUnit.SECONDS);
+            assertTrue(failed.isCompletedExceptionally());
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void testClosedSchedulerRejects() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler("test", PEER, (file, fileId, cc) -> { });
+        scheduler.close();
+        assertTrue(scheduler.submit(file(10), 1).isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,78 @@
+package com.saferoom.natghost;
+
+import com.saferoom.file_transfer.ChecksumMode;
+import com.saferoom.file_transfer.CompressionMode;
+import com.saferoom.file_transfer.HandShake_Packet;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PacketRouterTest {
+
+    private static final InetSocketAddress PEER = new InetSocketAddress("127.0.0.1", 40000);
+
+    @Test
+    public void testDispatchByTypeByte() throws Exception {
+        List<String> calls = new ArrayList<>();
+        PacketRouter router = new PacketRouter()
+            .on(LLS.SIG_MESSAGE, (ch, pkt, from) -> calls.add("message"))
+            .on(LLS.SIG_RMSG_ACK, (ch, pkt, from) -> calls.add("ack"))
+            .otherwise((ch, pkt, from) -> calls.add("fallback"));
+
+        router.dispatch(LLS.SIG_RMSG_ACK, null, ByteBuffer.allocate(1), PEER);
+        router.dispatch(LLS.SIG_MESSAGE, null, ByteBuffer.allocate(1), PEER);
+        router.dispatch((byte) 0x00, null, ByteBuffer.allocate(1), PEER);
+
+        assertEquals(List.of("ack", "message", "fallback"), calls);
+        assertTrue(router.handles(LLS.SIG_MESSAGE));
+        assertFalse(router.handles(LLS.SIG_DNS_QUERY));
+    }
+
+    @Test
+    public void testHighTypeBytesIndexUnsigned() throws Exception {
+        List<InetSocketAddress> seen = new ArrayList<>();
+        PacketRouter router = new PacketRouter().on((byte) 0xFF, (ch, pkt, from) -> seen.add(from));
+
+        router.dispatch((byte) 0xFF, null, ByteBuffer.allocate(1), PEER);
+        router.dispatch((byte) 0x7F, null, ByteBuffer.allocate(1), PEER); // Default fallback ignores it
+
+        assertEquals(List.of(PEER), seen);
+    }
+
+    @Test
+    public void testPeerRegistryFindsMovedPeerByIp() {
+        PeerRegistry peers = new PeerRegistry(new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+        assertNull(peers.updateAddress("alice", PEER));
+
+        InetSocketAddress moved = new InetSocketAddress("127.0.0.1", 40001);
+        assertEquals("alice", peers.findByIp(moved.getAddress()));
+        assertEquals(PEER, peers.updateAddress("alice", moved));
+        assertEquals(moved, peers.address("alice"));
+    }
+
+    @Test
+    public void testEverySynFormPassesTheHandshakeSizeGate() {
+        HandShake_Packet pkt = new HandShake_Packet();
+        for (ChecksumMode checksum : ChecksumMode.values()) {
+            for (CompressionMode compression : CompressionMode.values()) {
+                for (boolean fec : new boolean[] { false, true }) {
+                    pkt.make_SYN(1, 1 << 20, 724, 8950, checksum, compression, fec);
+                    int len = pkt.get_header().remaining();
+                    assertTrue(HandShake_Packet.is_handshake_size(len), "SYN " + len);
+                    pkt.make_SYN_RESUME(1, 1 << 20, 724, 99L, 8950, checksum, compression, fec);
+                    len = pkt.get_header().remaining();
+                    assertTrue(HandShake_Packet.is_handshake_size(len), "SYN_RESUME " + len);
+                }
+            }
+        }
+        pkt.make_SYN(1, 1 << 20, 724);
+        assertTrue(HandShake_Packet.is_handshake_size(pkt.get_header().remaining()));
+        assertFalse(HandShake_Packet.is_handshake_size(28)); // NackFrame
+    }
+}
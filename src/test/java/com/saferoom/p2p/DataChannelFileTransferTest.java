@@ -0,0 +1,30 @@
+package com.saferoom.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataChannelFileTransferTest {
+
+    private static final Path DOWNLOADS = Paths.get("downloads");
+
+    @Test
+    public void testDirectoryEntryLandsBesideItsBundles() {
+        assertEquals(DOWNLOADS.resolve("photos").resolve("2024").resolve("big.raw"),
+            DataChannelFileTransfer.directoryEntryPath(DOWNLOADS, "photos/2024/big.raw"));
+        // Each segment is sanitized like a plain file name
+        assertEquals(DOWNLOADS.resolve("photos").resolve("a_b.raw"),
+            DataChannelFileTransfer.directoryEntryPath(DOWNLOADS, "photos/a\\b.raw"));
+    }
+
+    @Test
+    public void testDirectoryEntryCannotEscapeDownloads() {
+        assertNull(DataChannelFileTransfer.directoryEntryPath(DOWNLOADS, "photos/../../etc/passwd"));
+        assertNull(DataChannelFileTransfer.directoryEntryPath(DOWNLOADS, "./x"));
+        assertNull(DataChannelFileTransfer.directoryEntryPath(DOWNLOADS, "photos//x"));
+        assertNull(DataChannelFileTransfer.directoryEntryPath(DOWNLOADS, "photos/"));
+    }
+}
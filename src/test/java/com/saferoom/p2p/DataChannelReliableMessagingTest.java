@@ -0,0 +1,287 @@
+package com.saferoom.p2p;
+
+import com.saferoom.natghost.LLS;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataChannelReliableMessagingTest {
+
+    private static final int CHUNK = 1131;
+
+    private final List<Link> links = new ArrayList<>();
+    private final List<DataChannelReliableMessaging> endpoints = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() {
+        endpoints.forEach(DataChannelReliableMessaging::shutdown);
+        links.forEach(link -> link.executor.shutdownNow());
+    }
+
+    @Test
+    public void testSackRoundTripBeyondBitmapWithLoss() throws Exception {
+        Link toBob = link(frame -> false);
+        Link toAlice = link(frame -> false);
+        DataChannelReliableMessaging alice = endpoint("alice", toBob, new AtomicLong(64 << 20));
+        DataChannelReliableMessaging bob = endpoint("bob", toAlice, new AtomicLong(64 << 20));
+        toBob.peer = bob;
+        toAlice.peer = alice;
+        alice.setPeerSackSupported(true);
+        bob.setPeerSackSupported(true);
+
+        // First send of every 7th chunk is lost
+        BitSet seen = new BitSet();
+        toBob.drop = frame -> {
+            if (frame.get(0) != LLS.SIG_RMSG_DATA) return false;
+            int chunkId = frame.getInt(9);
+            synchronized (seen) {
+                boolean first = !seen.get(chunkId);
+                seen.set(chunkId);
+                return first && chunkId % 7 == 3;
+            }
+        };
+
+        byte[] message = random(200 * CHUNK - 500, 1);
+        CompletableFuture<byte[]> delivered = new CompletableFuture<>();
+        bob.setCompletionCallback((sender, id, bytes) -> delivered.complete(bytes));
+
+        assertTrue(alice.sendMessage("bob", message).get(20, TimeUnit.SECONDS));
+        assertArrayEquals(message, delivered.get(1, TimeUnit.SECONDS));
+        assertTrue(toAlice.count(LLS.SIG_RMSG_SACK) > 0);
+    }
+
+    @Test
+    public void testLegacyAckUntilPeerAdvertisesSack() throws Exception {
+        Link toBob = link(frame -> false);
+        Link toAlice = link(frame -> false);
+        DataChannelReliableMessaging alice = endpoint("alice", toBob, new AtomicLong(64 << 20));
+        DataChannelReliableMessaging bob = endpoint("bob", toAlice, new AtomicLong(64 << 20));
+        toBob.peer = bob;
+        toAlice.peer = alice;
+        bob.setPeerSackSupported(true);
+
+        // 64 chunks or fewer: the bitmap covers it, SACK support or not
+        CompletableFuture<byte[]> delivered = new CompletableFuture<>();
+        bob.setCompletionCallback((sender, id, bytes) -> delivered.complete(bytes));
+        byte[] small = random(10 * CHUNK - 1, 2);
+        assertTrue(alice.sendMessage("bob", small).get(5, TimeUnit.SECONDS));
+        assertArrayEquals(small, delivered.get(1, TimeUnit.SECONDS));
+
+        // Peer never advertised SACK: legacy ACKs even past 64 chunks
+        bob.setPeerSackSupported(false);
+        CompletableFuture<byte[]> large = new CompletableFuture<>();
+        bob.setCompletionCallback((sender, id, bytes) -> large.complete(bytes));
+        alice.sendMessage("bob", random(100 * CHUNK, 3));
+        assertEquals(100 * CHUNK, large.get(5, TimeUnit.SECONDS).length);
+
+        assertEquals(0, toAlice.count(LLS.SIG_RMSG_SACK));
+        assertTrue(toAlice.count(LLS.SIG_RMSG_ACK) > 0);
+        for (ByteBuffer ack : toAlice.sent) {
+            assertEquals(17, ack.remaining()); // signal + messageId + 64-bit bitmap
+        }
+    }
+
+    @Test
+    public void testSenderAppliesSackRangesAndLegacyBitmap() throws Exception {
+        Link sink = link(frame -> true);
+        DataChannelReliableMessaging alice = endpoint("alice", sink, new AtomicLong(64 << 20));
+        CompletableFuture<Boolean> sent = alice.sendMessage("bob", random(30 * CHUNK, 4));
+        long messageId = sink.data.get(0).getLong(1);
+
+        BitSet received = new BitSet();
+        received.set(0, 10);
+        received.set(12, 15);
+        received.set(20);
+        ByteBuffer sack = DataChannelReliableMessaging.encodeAck(messageId, received, 30);
+        assertEquals(LLS.SIG_RMSG_SACK, sack.get(0));
+        assertEquals(messageId, sack.getLong(1));
+        assertEquals(10, sack.getInt(9));                 // Cumulative ACK
+        assertEquals(2, sack.getShort(13));               // Ranges above it
+        assertEquals(12, sack.getInt(15));
+        assertEquals(15, sack.getInt(19));
+        assertEquals(20, sack.getInt(23));
+        assertEquals(21, sack.getInt(27));
+        assertEquals(31, sack.remaining());
+
+        alice.handleIncomingFrame(sack);
+        assertFalse(sent.isDone());
+
+        received.set(0, 30);
+        ByteBuffer legacy = DataChannelReliableMessaging.encodeLegacyAck(messageId, received);
+        assertEquals(LLS.SIG_RMSG_ACK, legacy.get(0));
+        assertEquals((1L << 30) - 1, legacy.getLong(9));
+        alice.handleIncomingFrame(legacy);
+        assertTrue(sent.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testChunkEncoderRoundTripsShortLastChunksAcrossMessages() throws Exception {
+        Link toBob = link(frame -> false);
+        Link toAlice = link(frame -> false);
+        DataChannelReliableMessaging alice = endpoint("alice", toBob, new AtomicLong(64 << 20));
+        DataChannelReliableMessaging bob = endpoint("bob", toAlice, new AtomicLong(64 << 20));
+        toBob.peer = bob;
+        toAlice.peer = alice;
+        alice.setPeerSackSupported(true);
+        bob.setPeerSackSupported(true);
+
+        // In flight together, so one encoder buffer carries frames of every message
+        int[] sizes = { 1, CHUNK, CHUNK + 1, 3 * CHUNK - 17, 70 * CHUNK + 5 };
+        Map<Long, byte[]> delivered = new ConcurrentHashMap<>();
+        CountDownLatch allDelivered = new CountDownLatch(sizes.length);
+        bob.setCompletionCallback((sender, id, bytes) -> {
+            delivered.put(id, bytes);
+            allDelivered.countDown();
+        });
+        List<byte[]> messages = new ArrayList<>();
+        List<CompletableFuture<Boolean>> sent = new ArrayList<>();
+        for (int i = 0; i < sizes.length; i++) {
+            messages.add(random(sizes[i], 10 + i));
+            sent.add(alice.sendMessage("bob", messages.get(i)));
+        }
+        for (CompletableFuture<Boolean> future : sent) {
+            assertTrue(future.get(10, TimeUnit.SECONDS));
+        }
+        assertTrue(allDelivered.await(1, TimeUnit.SECONDS));
+
+        Map<Long, byte[]> byId = new ConcurrentHashMap<>();
+        for (byte[] message : messages) {
+            Long id = delivered.entrySet().stream()
+                .filter(e -> e.getValue().length == message.length)
+                .map(Map.Entry::getKey).findFirst().orElseThrow();
+            assertArrayEquals(message, delivered.get(id));
+            byId.put(id, message);
+        }
+
+        // Every DATA frame: header matches its message, payload and CRC match its slice
+        CRC32 crc = new CRC32();
+        for (ByteBuffer frame : toBob.data) {
+            byte[] message = byId.get(frame.getLong(1));
+            int chunkId = frame.getInt(9);
+            int totalChunks = frame.getInt(13);
+            int length = frame.remaining() - 21;
+            assertEquals((message.length + CHUNK - 1) / CHUNK, totalChunks);
+            assertEquals(Math.min(CHUNK, message.length - chunkId * CHUNK), length);
+
+            byte[] payload = new byte[length];
+            frame.get(21, payload);
+            assertArrayEquals(Arrays.copyOfRange(message, chunkId * CHUNK, chunkId * CHUNK + length), payload);
+            crc.reset();
+            crc.update(payload);
+            assertEquals((int) crc.getValue(), frame.getInt(17));
+        }
+    }
+
+    @Test
+    public void testReassemblyBudgetRejectsAndReleases() throws Exception {
+        AtomicLong budget = new AtomicLong(3 * CHUNK);
+        Link toBob = link(frame -> false);
+        Link toAlice = link(frame -> false);
+        DataChannelReliableMessaging alice = endpoint("alice", toBob, new AtomicLong(64 << 20));
+        DataChannelReliableMessaging bob = endpoint("bob", toAlice, budget);
+        toBob.peer = bob;
+        toAlice.peer = alice;
+
+        List<byte[]> delivered = new CopyOnWriteArrayList<>();
+        CompletableFuture<Long> fits = new CompletableFuture<>();
+        bob.setCompletionCallback((sender, id, bytes) -> {
+            delivered.add(bytes);
+            fits.complete(id);
+        });
+
+        // 4 chunks don't fit - dropped unacknowledged, nothing reserved
+        alice.sendMessage("bob", random(4 * CHUNK, 5));
+        byte[] small = random(3 * CHUNK, 6);
+        assertTrue(alice.sendMessage("bob", small).get(5, TimeUnit.SECONDS));
+        long smallId = fits.get(1, TimeUnit.SECONDS);
+
+        assertEquals(1, delivered.size());
+        assertArrayEquals(small, delivered.get(0));
+        for (ByteBuffer ack : toAlice.sent) {
+            assertEquals(smallId, ack.getLong(1)); // The rejected message was never acknowledged
+        }
+        assertEquals(3 * CHUNK, budget.get()); // Completed message returned its buffer
+    }
+
+    private DataChannelReliableMessaging endpoint(String name, Link out, AtomicLong budget) {
+        DataChannelReliableMessaging messaging = new DataChannelReliableMessaging(name, out, budget);
+        endpoints.add(messaging);
+        return messaging;
+    }
+
+    private Link link(Predicate<ByteBuffer> drop) {
+        Link link = new Link(drop);
+        links.add(link);
+        return link;
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * One direction of a DataChannel: frames are copied (as the real channel
+     * does) and delivered on a single thread, optionally dropped
+     */
+    private static final class Link implements DataChannelReliableMessaging.FrameChannel {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final List<ByteBuffer> sent = new CopyOnWriteArrayList<>(); // Everything but DATA
+        final List<ByteBuffer> data = new CopyOnWriteArrayList<>();
+        volatile Predicate<ByteBuffer> drop;
+        volatile DataChannelReliableMessaging peer;
+
+        Link(Predicate<ByteBuffer> drop) {
+            this.drop = drop;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void send(ByteBuffer frame) {
+            ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+            copy.put(frame.duplicate()).flip();
+            if (copy.get(0) != LLS.SIG_RMSG_DATA) {
+                sent.add(copy.asReadOnlyBuffer());
+            } else {
+                data.add(copy.asReadOnlyBuffer());
+            }
+            if (drop.test(copy)) {
+                return;
+            }
+            executor.execute(() -> {
+                DataChannelReliableMessaging target = peer;
+                if (target != null) {
+                    target.handleIncomingFrame(copy.duplicate());
+                }
+            });
+        }
+
+        int count(byte signal) {
+            return (int) sent.stream().filter(frame -> frame.get(0) == signal).count();
+        }
+    }
+}
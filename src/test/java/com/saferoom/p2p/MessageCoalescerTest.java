@@ -0,0 +1,62 @@
+package com.saferoom.p2p;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for chat message batching
+ */
+public class MessageCoalescerTest {
+
+    @Test
+    public void testMessagesWithinBudgetShareOneFrame() throws Exception {
+        List<byte[]> frames = new ArrayList<>();
+        CompletableFuture<Boolean> ack = new CompletableFuture<>();
+        MessageCoalescer coalescer = new MessageCoalescer("test", 50, 16 * 1024, frame -> {
+            synchronized (frames) {
+                frames.add(frame);
+            }
+            return ack;
+        });
+        CompletableFuture<Boolean> first = coalescer.submit("hi");
+        CompletableFuture<Boolean> second = coalescer.submit("typing…");
+        coalescer.flushNow();
+        assertEquals(1, frames.size());
+        assertFalse(first.isDone()); // Not acknowledged yet
+
+        ack.complete(true);
+        assertTrue(first.get(1, TimeUnit.SECONDS));
+        assertTrue(second.get(1, TimeUnit.SECONDS));
+        assertEquals(1, coalescer.getBatchCount());
+
+        List<String> received = new ArrayList<>();
+        assertTrue(MessageCoalescer.isBatch(frames.get(0)));
+        assertEquals(2, MessageCoalescer.unpack(frames.get(0), received::add));
+        assertEquals(List.of("hi", "typing…"), received);
+        assertFalse(MessageCoalescer.isBatch("plain".getBytes()));
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void testFullBatchFlushesWithoutWaiting() {
+        List<byte[]> frames = new ArrayList<>();
+        MessageCoalescer coalescer = new MessageCoalescer("test", 60_000, 64, frame -> {
+            frames.add(frame);
+            return CompletableFuture.completedFuture(true);
+        });
+        coalescer.submit("a".repeat(40));
+        coalescer.submit("b".repeat(40)); // Doesn't fit with the first
+        assertEquals(1, frames.size());
+        coalescer.submit("c".repeat(70)); // Over the limit on its own
+        assertEquals(3, frames.size());
+        assertEquals(3, coalescer.getMessageCount());
+
+        byte[] truncated = java.util.Arrays.copyOf(frames.get(0), 10);
+        assertEquals(-1, MessageCoalescer.unpack(truncated, s -> fail("delivered from malformed batch")));
+        coalescer.shutdown();
+    }
+}
@@ -0,0 +1,54 @@
+package com.saferoom.p2p;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for retransmit deadlines and the RTO estimator
+ */
+public class TimerWheelTest {
+
+    @Test
+    public void testItemsFireOnceTheirDeadlinePasses() {
+        TimerWheel<String> wheel = new TimerWheel<>(8, 10, 1000);
+        wheel.schedule("a", 1025);
+        wheel.schedule("b", 1200); // Beyond one revolution (80ms)
+        wheel.schedule("late", 900); // Already due
+        List<String> fired = new ArrayList<>();
+
+        wheel.advance(1010, fired::add);
+        assertEquals(List.of("late"), fired);
+        wheel.advance(1024, fired::add);
+        assertEquals(1, fired.size()); // Same tick as "a" but not due yet
+        wheel.advance(1030, fired::add);
+        assertEquals(List.of("late", "a"), fired);
+        wheel.advance(1150, fired::add);
+        assertEquals(2, fired.size());
+        assertEquals(1, wheel.size());
+        wheel.advance(5000, fired::add); // Long pause - one revolution covers every slot
+        assertEquals(List.of("late", "a", "b"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testRtoFollowsSamplesAndBacksOff() {
+        RtoEstimator rto = new RtoEstimator(1000, 200, 60_000, 10);
+        assertEquals(1000, rto.rtoMs());
+        rto.onSample(100); // SRTT 100, RTTVAR 50 -> 300
+        assertEquals(100, rto.srttMs());
+        assertEquals(300, rto.rtoMs());
+        for (int i = 0; i < 20; i++) {
+            rto.onSample(20);
+        }
+        assertEquals(200, rto.rtoMs()); // Clamped to the minimum
+
+        rto.backoff(10_000);
+        assertEquals(400, rto.rtoMs());
+        rto.backoff(10_100); // Same expiry window - counted once
+        assertEquals(400, rto.rtoMs());
+        rto.backoff(10_400);
+        assertEquals(800, rto.rtoMs());
+    }
+}
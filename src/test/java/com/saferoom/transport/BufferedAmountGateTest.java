@@ -0,0 +1,62 @@
+package com.saferoom.transport;
+
+import org.junit.jupiter.api.Test;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for the send buffer watermark gate
+ */
+public class BufferedAmountGateTest {
+
+    @Test
+    public void testWriterResumesAtLowWatermark() throws Exception {
+        BufferedAmountGate gate = new BufferedAmountGate(1000, 200);
+        AtomicLong buffered = new AtomicLong(500);
+        assertTrue(gate.await(400, buffered::get, () -> true)); // Fits under high
+        assertEquals(0, gate.stallCount());
+
+        buffered.set(900);
+        AtomicBoolean passed = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            try {
+                passed.set(gate.await(400, buffered::get, () -> true));
+            } catch (InterruptedException ignored) {
+            }
+        });
+        writer.start();
+        Thread.sleep(50);
+        buffered.set(500); // Drained, but not to the low watermark yet
+        gate.onBufferedAmountChange(500);
+        Thread.sleep(50);
+        assertFalse(passed.get());
+
+        buffered.set(150);
+        gate.onBufferedAmountChange(150);
+        writer.join(2000);
+        assertTrue(passed.get());
+        assertEquals(1, gate.stallCount());
+        assertTrue(gate.stallNanos() > 0);
+    }
+
+    @Test
+    public void testCloseReleasesWaiter() throws Exception {
+        BufferedAmountGate gate = new BufferedAmountGate(100, 10);
+        AtomicBoolean open = new AtomicBoolean(true);
+        AtomicBoolean result = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            try {
+                result.set(gate.await(50, () -> 100, open::get));
+            } catch (InterruptedException ignored) {
+            }
+        });
+        writer.start();
+        Thread.sleep(30);
+        open.set(false);
+        gate.wakeAll();
+        writer.join(2000);
+        assertFalse(writer.isAlive());
+        assertFalse(result.get());
+    }
+}
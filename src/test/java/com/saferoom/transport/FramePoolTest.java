@@ -0,0 +1,50 @@
+package com.saferoom.transport;
+
+import org.junit.jupiter.api.Test;
+import java.nio.ByteBuffer;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test suite for pooled receive frames
+ */
+public class FramePoolTest {
+
+    @Test
+    public void testReleasedFrameIsReused() {
+        FramePool pool = new FramePool(4, 64);
+        ByteBuffer src = ByteBuffer.wrap(new byte[]{0x07, 1, 2, 3});
+        PooledFrame frame = pool.copyOf(src);
+        assertEquals(0, src.position()); // Source untouched
+        assertEquals(4, frame.length());
+        assertEquals(0x07, frame.signal());
+        assertEquals(3, frame.buffer().get(3));
+
+        frame.retain();
+        frame.release();
+        assertEquals(0, pool.available()); // Still referenced
+        frame.release();
+        assertEquals(1, pool.available());
+
+        PooledFrame again = pool.copyOf(ByteBuffer.wrap(new byte[]{0x01}));
+        assertTrue(again == frame);
+        assertEquals(1, again.length());
+        assertEquals(0, pool.available());
+    }
+
+    @Test
+    public void testOversizedMessageIsNotPooled() {
+        FramePool pool = new FramePool(4, 16);
+        PooledFrame big = pool.copyOf(ByteBuffer.allocate(100));
+        assertEquals(100, big.length());
+        big.release();
+        assertEquals(0, pool.available());
+
+        boolean threw = false;
+        try {
+            big.release();
+        } catch (IllegalStateException e) {
+            threw = true;
+        }
+        assertTrue(threw);
+    }
+}